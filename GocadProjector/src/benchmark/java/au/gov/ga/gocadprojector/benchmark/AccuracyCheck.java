@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.benchmark;
+
+import java.util.Locale;
+
+import au.gov.ga.gocadprojector.transform.JavaTransformationEngine;
+import au.gov.ga.gocadprojector.transform.TransformationEngine;
+
+/**
+ * Checks the accuracy of the {@link JavaTransformationEngine} against
+ * published reference coordinates, and the consistency of its inverse, zone
+ * to zone and datum transformations. Exits with a non-zero status if any
+ * check fails.
+ * <p/>
+ * The reference coordinates are the GDA94 worked examples from the
+ * Geocentric Datum of Australia Technical Manual (Redfearn's formulae,
+ * stations Flinders Peak and Buninyong, MGA zone 55).
+ */
+public class AccuracyCheck
+{
+	private final static double MILLIMETRE = 0.001;
+	/**
+	 * Approximately 0.1mm of latitude
+	 */
+	private final static double DEGREE_TOLERANCE = 1e-9;
+
+	private int failures = 0;
+
+	public static void main(String[] args)
+	{
+		AccuracyCheck check = new AccuracyCheck();
+		check.run();
+		if (check.failures > 0)
+		{
+			System.out.println(check.failures + " check(s) failed");
+			System.exit(1);
+		}
+		System.out.println("All checks passed");
+	}
+
+	public void run()
+	{
+		//GDA94 Technical Manual worked examples (geographic to grid and back)
+		double[] flindersPeak = new double[] { dms(144, 25, 29.5244), -dms(37, 57, 3.7203), 0 };
+		double[] flindersPeakGrid = new double[] { 273741.2966, 5796489.7768, 0 };
+		double[] buninyong = new double[] { dms(143, 55, 35.3839), -dms(37, 39, 10.1561), 0 };
+		double[] buninyongGrid = new double[] { 228854.0513, 5828259.0383, 0 };
+
+		check("Flinders Peak to MGA55", "EPSG:4283", "EPSG:28355", flindersPeak, flindersPeakGrid, MILLIMETRE);
+		check("Buninyong to MGA55", "EPSG:4283", "EPSG:28355", buninyong, buninyongGrid, MILLIMETRE);
+		check("Flinders Peak from MGA55", "EPSG:28355", "EPSG:4283", flindersPeakGrid, flindersPeak,
+				DEGREE_TOLERANCE);
+		check("Buninyong from MGA55", "EPSG:28355", "EPSG:4283", buninyongGrid, buninyong, DEGREE_TOLERANCE);
+
+		//the same transformations declared with PROJ.4 strings
+		String proj4Geographic = "+proj=longlat +ellps=GRS80 +towgs84=0,0,0,0,0,0,0 +no_defs";
+		String proj4Mga55 = "+proj=utm +zone=55 +south +ellps=GRS80 +towgs84=0,0,0,0,0,0,0 +units=m +no_defs";
+		check("Flinders Peak to PROJ.4 UTM", proj4Geographic, proj4Mga55, flindersPeak, flindersPeakGrid,
+				MILLIMETRE);
+		check("Buninyong to PROJ.4 TM", proj4Geographic,
+				"+proj=tmerc +lat_0=0 +lon_0=147 +k=0.9996 +x_0=500000 +y_0=10000000 +ellps=GRS80 +units=m",
+				buninyong, buninyongGrid, MILLIMETRE);
+
+		//zone to zone must agree with going through geographic coordinates
+		double[] flindersPeakMga54 = transform("EPSG:4283", "EPSG:28354", flindersPeak);
+		check("Flinders Peak MGA55 to MGA54", "EPSG:28355", "EPSG:28354", flindersPeakGrid, flindersPeakMga54,
+				MILLIMETRE);
+		check("Flinders Peak MGA54 to MGA55", "EPSG:28354", "EPSG:28355", flindersPeakMga54, flindersPeakGrid,
+				MILLIMETRE);
+
+		//round trips through the datum transformations
+		double[] flindersPeak2020 = transform("EPSG:4283", "EPSG:7844", flindersPeak);
+		check("Flinders Peak GDA2020 to GDA94", "EPSG:7844", "EPSG:4283", flindersPeak2020, flindersPeak,
+				DEGREE_TOLERANCE);
+		double[] buninyongMga2020 = transform("EPSG:28355", "EPSG:7855", buninyongGrid);
+		check("Buninyong MGA2020 to MGA94", "EPSG:7855", "EPSG:28355", buninyongMga2020, buninyongGrid, MILLIMETRE);
+		double[] flindersPeakWgs84 = transform("EPSG:4326", "EPSG:32755", flindersPeak);
+		check("Flinders Peak WGS84 UTM55S to geographic", "EPSG:32755", "EPSG:4326", flindersPeakWgs84,
+				flindersPeak, DEGREE_TOLERANCE);
+
+		//GDA2020 coordinates are about 1.5 - 1.8m north east of GDA94 in Victoria
+		double[] flindersPeakMga2020 = transform("EPSG:28355", "EPSG:7855", flindersPeakGrid);
+		double east = flindersPeakMga2020[0] - flindersPeakGrid[0];
+		double north = flindersPeakMga2020[1] - flindersPeakGrid[1];
+		double shift = Math.sqrt(east * east + north * north);
+		report("Flinders Peak MGA94 to MGA2020 shift", east > 0 && north > 0 && shift > 1.4 && shift < 1.9,
+				String.format(Locale.ENGLISH, "east %.4f, north %.4f, total %.4f", east, north, shift));
+
+		//affine and Helmert pipeline steps
+		check("Affine pipeline", "EPSG:28355", "+proj=pipeline +step +proj=affine +xoff=100 +yoff=-50 +zoff=2",
+				flindersPeakGrid, new double[] { 273841.2966, 5796439.7768, 2 }, MILLIMETRE);
+		check("Helmert pipeline", "EPSG:4283", "+proj=pipeline +step +proj=cart +ellps=GRS80"
+				+ " +step +proj=helmert +x=0.06155 +y=-0.01087 +z=-0.04019 +rx=-0.0394924 +ry=-0.0327221"
+				+ " +rz=-0.0328979 +s=-0.009994 +convention=coordinate_frame +step +proj=cart +ellps=GRS80 +inv",
+				flindersPeak, flindersPeak2020, DEGREE_TOLERANCE);
+	}
+
+	private void check(String name, String sourceSRS, String targetSRS, double[] input, double[] expected,
+			double tolerance)
+	{
+		double[] actual = transform(sourceSRS, targetSRS, input);
+		double error = 0;
+		for (int i = 0; i < 3; i++)
+		{
+			error = Math.max(error, Math.abs(actual[i] - expected[i]));
+		}
+		report(name, error <= tolerance, String.format(Locale.ENGLISH, "expected %.10f %.10f %.4f, actual %.10f"
+				+ " %.10f %.4f, error %.3g", expected[0], expected[1], expected[2], actual[0], actual[1], actual[2],
+				error));
+	}
+
+	private void report(String name, boolean passed, String details)
+	{
+		if (!passed)
+		{
+			failures++;
+		}
+		System.out.println((passed ? "PASS " : "FAIL ") + name + ": " + details);
+	}
+
+	private static double[] transform(String sourceSRS, String targetSRS, double[] input)
+	{
+		TransformationEngine engine = JavaTransformationEngine.create(sourceSRS, targetSRS);
+		double[] output = new double[3];
+		engine.transform(output, input[0], input[1], input[2]);
+		engine.release();
+		return output;
+	}
+
+	private static double dms(double degrees, double minutes, double seconds)
+	{
+		return degrees + minutes / 60 + seconds / 3600;
+	}
+}
@@ -0,0 +1,274 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+
+import org.apache.commons.io.output.NullOutputStream;
+
+import au.gov.ga.gocadprojector.transform.TransformationEngine;
+import au.gov.ga.gocadprojector.util.ByteLine;
+import au.gov.ga.gocadprojector.util.ByteLineReader;
+import au.gov.ga.gocadprojector.util.LineWriter;
+
+/**
+ * Checks that reading, scanning, parsing, reprojecting and writing a line of
+ * a GOCAD object doesn't allocate, once the JIT compiler has warmed up. Lines
+ * that are passed through unmodified, vertex lines with integer coordinates
+ * and vertex lines with fractional coordinates are each pushed through a
+ * {@link ByteLineReader}, the projector's line handler (unbatched and
+ * batched, through the {@link au.gov.ga.gocadprojector.application.VertexBatch})
+ * and a {@link LineWriter}, and the bytes allocated by the thread are
+ * measured with {@link com.sun.management.ThreadMXBean}. Exits with a
+ * non-zero status if any case allocates more than
+ * {@link #MAX_BYTES_PER_LINE}, or if the JVM can't measure allocation.
+ */
+public class AllocationCheck
+{
+	/**
+	 * Allowed bytes allocated per line. The smallest object is 16 bytes, so
+	 * a single allocation per line (or even per batch of vertices) exceeds
+	 * this; it only absorbs the constant cost of the measurement itself.
+	 */
+	private final static double MAX_BYTES_PER_LINE = 0.01;
+	private final static int WARMUP_LINES = 2000000;
+	private final static int MEASURED_LINES = 2000000;
+	private final static int DISTINCT_LINES = 10000;
+
+	private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	private final BenchmarkProjector projector = new BenchmarkProjector();
+	private final GocadGenerator generator = new GocadGenerator();
+	private final LineWriter writer = new LineWriter(new NullOutputStream());
+	private int failures = 0;
+
+	public static void main(String[] args) throws Exception
+	{
+		AllocationCheck check = new AllocationCheck();
+		check.run();
+		if (check.failures > 0)
+		{
+			System.out.println(check.failures + " check(s) failed");
+			System.exit(1);
+		}
+		System.out.println("All checks passed");
+	}
+
+	public void run() throws IOException
+	{
+		if (!(threads instanceof com.sun.management.ThreadMXBean)
+				|| !((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported())
+		{
+			fail("this JVM can't measure the bytes allocated by a thread");
+			return;
+		}
+		((com.sun.management.ThreadMXBean) threads).setThreadAllocatedMemoryEnabled(true);
+
+		byte[] unmodified = createLines(new LineFactory()
+		{
+			@Override
+			public String line(int index)
+			{
+				switch (index % 4)
+				{
+				case 0:
+					return "TRGL " + index + " " + (index + 1) + " " + (index + 2);
+				case 1:
+					return "SEG " + index + " " + (index + 1);
+				case 2:
+					return "ATOM " + index + " " + (index - 1);
+				default:
+					return "PROPERTY_CLASS_HEADER Z {";
+				}
+			}
+		});
+		byte[] integer = createLines(new LineFactory()
+		{
+			@Override
+			public String line(int index)
+			{
+				return "VRTX " + index + " " + (300000 + index) + " " + (6000000 + index * 7) + " "
+						+ (index % 2000 - 1000);
+			}
+		});
+		byte[] fractional = createLines(new LineFactory()
+		{
+			@Override
+			public String line(int index)
+			{
+				return generator.vertexLine(index);
+			}
+		});
+
+		check("unmodified", unmodified);
+		check("integer", integer);
+		check("fractional", fractional);
+	}
+
+	private void check(String name, byte[] lines) throws IOException
+	{
+		TransformationEngine transformation = new OffsetTransformation();
+		ByteLineReader reader = new ByteLineReader(new RepeatingInputStream(lines));
+		for (boolean batched : new boolean[] { false, true })
+		{
+			String description = name + (batched ? " (batched)" : "");
+			project(reader, WARMUP_LINES, batched, transformation);
+			flush(batched, transformation);
+
+			long before = allocatedBytes();
+			project(reader, MEASURED_LINES, batched, transformation);
+			long allocated = allocatedBytes() - before;
+			flush(batched, transformation);
+
+			double perLine = allocated / (double) MEASURED_LINES;
+			System.out.println(String.format(Locale.ROOT, "%-22s %12d bytes, %.4f bytes/line", description,
+					allocated, perLine));
+			if (perLine > MAX_BYTES_PER_LINE)
+			{
+				fail(description + " lines allocate " + perLine + " bytes each");
+			}
+		}
+	}
+
+	private void project(ByteLineReader reader, int count, boolean batched, TransformationEngine transformation)
+			throws IOException
+	{
+		for (int i = 1; i <= count; i++)
+		{
+			ByteLine line = reader.readLine();
+			if (batched)
+			{
+				projector.batchedSimpleLine(line, i, writer, transformation);
+			}
+			else
+			{
+				projector.simpleLine(line, i, writer, transformation);
+			}
+		}
+	}
+
+	/**
+	 * Write any partially filled batch, outside of the measurements.
+	 */
+	private void flush(boolean batched, TransformationEngine transformation) throws IOException
+	{
+		if (batched)
+		{
+			projector.flushBatch(writer, transformation);
+		}
+		writer.flush();
+	}
+
+	private byte[] createLines(LineFactory factory)
+	{
+		StringBuilder sb = new StringBuilder();
+		for (int i = 1; i <= DISTINCT_LINES; i++)
+		{
+			sb.append(factory.line(i)).append("\r\n");
+		}
+		return sb.toString().getBytes(ByteLine.LATIN_1);
+	}
+
+	private long allocatedBytes()
+	{
+		return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private void fail(String message)
+	{
+		failures++;
+		System.out.println("FAIL " + message);
+	}
+
+	private interface LineFactory
+	{
+		String line(int index);
+	}
+
+	/**
+	 * Stream that repeats the same bytes forever, without allocating.
+	 */
+	private static class RepeatingInputStream extends InputStream
+	{
+		private final byte[] data;
+		private int position = 0;
+
+		public RepeatingInputStream(byte[] data)
+		{
+			this.data = data;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			int b = data[position] & 0xff;
+			position = (position + 1) % data.length;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			int count = Math.min(len, data.length - position);
+			System.arraycopy(data, position, b, off, count);
+			position = (position + count) % data.length;
+			return count;
+		}
+	}
+
+	/**
+	 * Transformation that translates by whole metres, so that integer
+	 * coordinates stay integers and are written by the integer path of the
+	 * {@link LineWriter}.
+	 */
+	private static class OffsetTransformation implements TransformationEngine
+	{
+		@Override
+		public void transform(double[] out, double x, double y, double z)
+		{
+			out[0] = x + 200000.0;
+			out[1] = y - 1000000.0;
+			out[2] = z;
+		}
+
+		@Override
+		public void transform(double[][] points)
+		{
+			for (double[] point : points)
+			{
+				transform(point, point[0], point[1], point[2]);
+			}
+		}
+
+		@Override
+		public void transform(double[] coordinates, int count)
+		{
+			for (int i = 0, end = count * 3; i < end; i += 3)
+			{
+				coordinates[i] += 200000.0;
+				coordinates[i + 1] -= 1000000.0;
+			}
+		}
+
+		@Override
+		public void release()
+		{
+		}
+	}
+}
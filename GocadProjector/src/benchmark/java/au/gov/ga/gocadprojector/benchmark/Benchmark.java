@@ -0,0 +1,528 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.benchmark;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullOutputStream;
+
+import au.gov.ga.gocadprojector.application.Parameters;
+import au.gov.ga.gocadprojector.transform.TransformationEngine;
+import au.gov.ga.gocadprojector.transform.TransformationEngines;
+import au.gov.ga.gocadprojector.util.GDALUtil;
+import au.gov.ga.gocadprojector.util.LineWriter;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.ParameterException;
+
+/**
+ * Benchmarks for the hot paths of the projector: line handling, number
+ * formatting, end-to-end reprojection of generated objects, and the SGrid
+ * side files. Reports the time per iteration, the throughput in units
+ * (vertices, lines or points) and megabytes of input per second, and the
+ * number of bytes allocated per unit on the benchmark thread.
+ * <p/>
+ * By default a {@link StubTransformation} is used in place of a real
+ * transformation engine, so that parsing and I/O can be measured in
+ * isolation.
+ */
+public class Benchmark
+{
+	private final BenchmarkParameters parameters;
+	private final BenchmarkProjector projector;
+	private final GocadGenerator generator = new GocadGenerator();
+	private final File directory;
+	private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	private final List<String> results = new ArrayList<String>();
+	private double[] formatValues;
+
+	public static void main(String[] args) throws Exception
+	{
+		BenchmarkParameters parameters = new BenchmarkParameters();
+		JCommander jCommander = new JCommander(parameters);
+		jCommander.setProgramName("benchmark");
+		try
+		{
+			jCommander.parse(args);
+		}
+		catch (ParameterException e)
+		{
+			System.err.println(e.getLocalizedMessage());
+			jCommander.usage();
+			System.exit(1);
+		}
+		if (parameters.showUsage)
+		{
+			jCommander.usage();
+			return;
+		}
+		if (TransformationEngines.GDAL.equalsIgnoreCase(parameters.engine)
+				|| TransformationEngines.AUTO.equalsIgnoreCase(parameters.engine))
+		{
+			GDALUtil.init();
+		}
+		new Benchmark(parameters).run();
+	}
+
+	public Benchmark(BenchmarkParameters parameters) throws IOException
+	{
+		this.parameters = parameters;
+		this.projector = new BenchmarkProjector();
+		if (parameters.directory != null)
+		{
+			directory = new File(parameters.directory);
+		}
+		else
+		{
+			directory = File.createTempFile("gocadprojector-benchmark", "");
+			directory.delete();
+		}
+		directory.mkdirs();
+	}
+
+	public void run() throws Exception
+	{
+		try
+		{
+			System.out.println(String.format(Locale.ENGLISH, "%-16s %10s %14s %14s %10s %14s", "benchmark",
+					"ms/iter", "units/s", "unit", "MB/s", "alloc B/unit"));
+			for (Case c : createCases())
+			{
+				if (isSelected(c.name))
+				{
+					measure(c);
+				}
+			}
+			if (parameters.csvFile != null)
+			{
+				writeCsv(new File(parameters.csvFile));
+			}
+		}
+		finally
+		{
+			if (parameters.directory == null)
+			{
+				FileUtils.deleteQuietly(directory);
+			}
+		}
+	}
+
+	private List<Case> createCases()
+	{
+		final TransformationEngine transformation =
+				projector.createEngine(parameters.engine, parameters.sourceSRS, parameters.targetSRS);
+		final LineWriter nullWriter = new LineWriter(new NullOutputStream());
+		List<Case> cases = new ArrayList<Case>();
+
+		cases.add(new Case("line.simple", "vertices")
+		{
+			private String[] lines;
+
+			@Override
+			void setUp()
+			{
+				lines = new String[parameters.lines];
+				for (int i = 0; i < lines.length; i++)
+				{
+					lines[i] = generator.vertexLine(i + 1);
+					bytes += lines[i].length() + 2;
+				}
+				units = lines.length;
+			}
+
+			@Override
+			void run() throws Exception
+			{
+				for (int i = 0; i < lines.length; i++)
+				{
+					projector.simpleLine(lines[i], i + 1, nullWriter, transformation);
+				}
+			}
+		});
+
+		cases.add(new Case("line.voxet", "lines")
+		{
+			private String[] lines;
+
+			@Override
+			void setUp()
+			{
+				lines = new String[parameters.lines / 4 * 4];
+				for (int i = 0; i < lines.length; i += 4)
+				{
+					System.arraycopy(generator.voxetAxisLines(), 0, lines, i, 4);
+				}
+				for (String line : lines)
+				{
+					bytes += line.length() + 2;
+				}
+				units = lines.length;
+			}
+
+			@Override
+			void run() throws Exception
+			{
+				for (int i = 0; i < lines.length; i++)
+				{
+					projector.voxetLine(lines[i], i + 1, nullWriter, transformation);
+				}
+			}
+		});
+
+		cases.add(new Case("format.double", "values")
+		{
+			private double[] values;
+
+			@Override
+			void setUp()
+			{
+				values = getFormatValues(transformation);
+				bytes = formattedLength(values);
+				units = values.length;
+			}
+
+			@Override
+			void run() throws Exception
+			{
+				for (double value : values)
+				{
+					nullWriter.write(value);
+				}
+				nullWriter.newLine();
+			}
+		});
+
+		//the same values formatted by the String based formatting that DoubleFormatter replaced
+		cases.add(new Case("format.reference", "values")
+		{
+			private double[] values;
+
+			@Override
+			void setUp()
+			{
+				values = getFormatValues(transformation);
+				bytes = formattedLength(values);
+				units = values.length;
+			}
+
+			@Override
+			void run() throws Exception
+			{
+				for (double value : values)
+				{
+					String s = ReferenceFormatter.removeTrailingZero(value);
+					nullWriter.write(s, 0, s.length());
+				}
+				nullWriter.newLine();
+			}
+		});
+
+		cases.add(new ProjectCase("project.tsurf", "ts")
+		{
+			@Override
+			void generate(File file) throws IOException
+			{
+				generator.writeTSurf(file, parameters.vertices);
+			}
+		});
+		cases.add(new ProjectCase("project.pline", "pl")
+		{
+			@Override
+			void generate(File file) throws IOException
+			{
+				generator.writePLine(file, parameters.vertices);
+			}
+		});
+		cases.add(new ProjectCase("project.group", "gp")
+		{
+			@Override
+			void generate(File file) throws IOException
+			{
+				generator.writeGroup(file, parameters.vertices);
+			}
+		});
+
+		final File sgrid = new File(directory, "sgrid.sg");
+		final File asciiFile = new File(directory, "sgrid__ascii@@");
+		final File pointsFile = new File(directory, "sgrid__points@@");
+		final File output = new File(directory, "output");
+
+		cases.add(new Case("sgrid.ascii", "points")
+		{
+			@Override
+			void setUp() throws IOException
+			{
+				generateSGrid(sgrid);
+				units = parameters.points;
+				bytes = asciiFile.length();
+			}
+
+			@Override
+			void run() throws Exception
+			{
+				output.delete();
+				projector.asciiDataFile(asciiFile, output, transformation);
+			}
+		});
+
+		cases.add(new Case("sgrid.points", "points")
+		{
+			@Override
+			void setUp() throws IOException
+			{
+				generateSGrid(sgrid);
+				units = parameters.points;
+				bytes = pointsFile.length();
+			}
+
+			@Override
+			void run() throws Exception
+			{
+				output.delete();
+				projector.pointsFile(pointsFile, 0, output, transformation);
+			}
+		});
+
+		cases.add(new Case("project.sgrid", "points")
+		{
+			private final File outputDirectory = new File(directory, "sgrid-output");
+
+			@Override
+			void setUp() throws IOException
+			{
+				generateSGrid(sgrid);
+				units = parameters.points * 2L;
+				bytes = sgrid.length() + asciiFile.length() + pointsFile.length();
+			}
+
+			@Override
+			void run() throws Exception
+			{
+				FileUtils.deleteDirectory(outputDirectory);
+				Parameters p = createParameters(sgrid, new File(outputDirectory, sgrid.getName()));
+				p.workers = parameters.workers;
+				projector.project(p);
+			}
+		});
+
+		return cases;
+	}
+
+	private void generateSGrid(File sgrid) throws IOException
+	{
+		if (!sgrid.exists())
+		{
+			generator.writeSGrid(sgrid, parameters.points);
+		}
+	}
+
+	private Parameters createParameters(File input, File output)
+	{
+		Parameters p = new Parameters();
+		p.inputFile = input.getAbsolutePath();
+		p.outputFile = output.getAbsolutePath();
+		p.engine = parameters.engine;
+		p.sourceSRS = parameters.sourceSRS;
+		p.targetSRS = parameters.targetSRS;
+		p.overwrite = true;
+		return p;
+	}
+
+	private boolean isSelected(String name)
+	{
+		if (parameters.benchmarks == null)
+		{
+			return true;
+		}
+		for (String selected : parameters.benchmarks.split(","))
+		{
+			selected = selected.trim();
+			if (selected.length() > 0 && name.startsWith(selected))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void measure(Case c) throws Exception
+	{
+		c.setUp();
+		for (int i = 0; i < parameters.warmup; i++)
+		{
+			c.run();
+		}
+
+		long[] times = new long[parameters.iterations];
+		long allocated = 0;
+		for (int i = 0; i < times.length; i++)
+		{
+			long allocatedBefore = allocatedBytes();
+			long start = System.nanoTime();
+			c.run();
+			times[i] = System.nanoTime() - start;
+			allocated += allocatedBytes() - allocatedBefore;
+		}
+		Arrays.sort(times);
+
+		double medianSeconds = times[times.length / 2] / 1e9;
+		double unitsPerSecond = c.units / medianSeconds;
+		double megabytesPerSecond = c.bytes / medianSeconds / (1024 * 1024);
+		double allocatedPerUnit = allocatedBytes() < 0 ? Double.NaN : allocated / (double) times.length / c.units;
+
+		System.out.println(String.format(Locale.ENGLISH, "%-16s %10.2f %14.0f %14s %10.1f %14.1f", c.name,
+				medianSeconds * 1000, unitsPerSecond, c.unit, megabytesPerSecond, allocatedPerUnit));
+		results.add(String.format(Locale.ENGLISH, "%s,%s,%s,%d,%.3f,%.0f,%s,%.2f,%.2f", parameters.label, c.name,
+				parameters.engine, times.length, medianSeconds * 1000, unitsPerSecond, c.unit,
+				megabytesPerSecond, allocatedPerUnit));
+	}
+
+	/**
+	 * @return Reprojected coordinates of generated vertices, shared by the
+	 *         formatting benchmarks so that they format the same values
+	 */
+	private double[] getFormatValues(TransformationEngine transformation)
+	{
+		if (formatValues != null)
+		{
+			return formatValues;
+		}
+		double[] values = new double[parameters.lines];
+		double[] point = new double[3];
+		for (int i = 0; i < values.length; i += 3)
+		{
+			String[] split = generator.vertexLine(i).split(" ");
+			transformation.transform(point, Double.parseDouble(split[2]), Double.parseDouble(split[3]),
+					Double.parseDouble(split[4]));
+			for (int j = 0; j < 3 && i + j < values.length; j++)
+			{
+				values[i + j] = point[j];
+			}
+		}
+		formatValues = values;
+		return values;
+	}
+
+	private static long formattedLength(double[] values)
+	{
+		long length = 0;
+		for (double value : values)
+		{
+			length += Double.toString(value).length();
+		}
+		return length;
+	}
+
+	/**
+	 * @return Number of bytes allocated by the current thread, or -1 if the
+	 *         JVM doesn't support measuring it
+	 */
+	private long allocatedBytes()
+	{
+		if (threads instanceof com.sun.management.ThreadMXBean)
+		{
+			return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread()
+					.getId());
+		}
+		return -1;
+	}
+
+	private void writeCsv(File file) throws IOException
+	{
+		boolean exists = file.exists();
+		PrintWriter writer = new PrintWriter(new FileWriter(file, true));
+		try
+		{
+			if (!exists)
+			{
+				writer.println("label,benchmark,transformation,iterations,ms/iter,units/s,unit,MB/s,alloc B/unit");
+			}
+			for (String result : results)
+			{
+				writer.println(result);
+			}
+		}
+		finally
+		{
+			writer.close();
+		}
+	}
+
+	/**
+	 * A single benchmark. Each call to {@link #run()} is one iteration, which
+	 * processes {@link #units} units from {@link #bytes} bytes of input.
+	 */
+	private abstract static class Case
+	{
+		final String name;
+		final String unit;
+		long units;
+		long bytes;
+
+		Case(String name, String unit)
+		{
+			this.name = name;
+			this.unit = unit;
+		}
+
+		abstract void setUp() throws Exception;
+
+		abstract void run() throws Exception;
+	}
+
+	/**
+	 * A benchmark of {@link BenchmarkProjector#project(Parameters)} for a
+	 * generated object.
+	 */
+	private abstract class ProjectCase extends Case
+	{
+		private final File input;
+		private final File output;
+
+		ProjectCase(String name, String extension)
+		{
+			super(name, "vertices");
+			this.input = new File(directory, name + "." + extension);
+			this.output = new File(directory, name + "_projected." + extension);
+		}
+
+		abstract void generate(File file) throws IOException;
+
+		@Override
+		void setUp() throws Exception
+		{
+			generate(input);
+			units = parameters.vertices;
+			bytes = input.length();
+		}
+
+		@Override
+		void run() throws Exception
+		{
+			projector.project(createParameters(input, output));
+		}
+	}
+}
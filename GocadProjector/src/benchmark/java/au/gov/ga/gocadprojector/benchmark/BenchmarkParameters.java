@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.benchmark;
+
+import com.beust.jcommander.Parameter;
+
+/**
+ * Contains the parameters for running the benchmarks.
+ */
+public class BenchmarkParameters
+{
+	@Parameter(names = { "-benchmarks" }, description = "Comma separated list of benchmark names (or name prefixes, eg. 'line.' or 'sgrid.') to run. By default every benchmark is run.", required = false)
+	public String benchmarks = null;
+
+	@Parameter(names = { "-lines" }, description = "The number of lines processed by each iteration of the line level benchmarks.", required = false)
+	public int lines = 100000;
+
+	@Parameter(names = { "-vertices" }, description = "The number of vertices in the generated TSurf, PLine and Group objects.", required = false)
+	public int vertices = 500000;
+
+	@Parameter(names = { "-points" }, description = "The number of points in the generated SGrid's ASCII_DATA_FILE and POINTS_FILE.", required = false)
+	public int points = 1000000;
+
+	@Parameter(names = { "-warmup" }, description = "The number of unmeasured iterations run before each benchmark is measured.", required = false)
+	public int warmup = 5;
+
+	@Parameter(names = { "-iterations" }, description = "The number of measured iterations of each benchmark.", required = false)
+	public int iterations = 10;
+
+	@Parameter(names = { "-w", "-workers" }, description = "The number of worker threads passed to the projector for the end-to-end SGrid benchmark.", required = false)
+	public int workers = 1;
+
+	@Parameter(names = { "-e", "-engine" }, description = "The transformation engine to reproject with between the -s_srs and -t_srs spatial reference sets: 'stub' (a cheap analytic transformation, to measure parsing and I/O in isolation), 'gdal' (requires the GDAL native libraries), 'java' or 'auto'.", required = false)
+	public String engine = BenchmarkProjector.STUB;
+
+	@Parameter(names = { "-s", "-s_srs" }, description = "The source spatial reference set used by the engine.", required = false)
+	public String sourceSRS = "EPSG:28355";
+
+	@Parameter(names = { "-t", "-t_srs" }, description = "The target spatial reference set used by the engine.", required = false)
+	public String targetSRS = "EPSG:4283";
+
+	@Parameter(names = { "-dir" }, description = "The directory to generate the benchmark objects in. By default a temporary directory is used, and deleted afterwards.", required = false)
+	public String directory = null;
+
+	@Parameter(names = { "-csv" }, description = "A CSV file to append the results to, for comparing the results of different releases.", required = false)
+	public String csvFile = null;
+
+	@Parameter(names = { "-label" }, description = "A label identifying this run in the CSV file (eg. the release being measured).", required = false)
+	public String label = "";
+
+	@Parameter(names = { "-h", "-help" }, description = "Print these command line usage instructions")
+	public boolean showUsage = false;
+}
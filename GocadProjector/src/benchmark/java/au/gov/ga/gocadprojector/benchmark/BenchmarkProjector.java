@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+
+import au.gov.ga.gocadprojector.application.Parameters;
+import au.gov.ga.gocadprojector.application.ProjectionContext;
+import au.gov.ga.gocadprojector.application.ProjectionStatistics;
+import au.gov.ga.gocadprojector.application.Projector;
+import au.gov.ga.gocadprojector.application.TransformationCache;
+import au.gov.ga.gocadprojector.transform.TransformationEngine;
+import au.gov.ga.gocadprojector.util.LineWriter;
+
+/**
+ * {@link Projector} that exposes the per-line and per-file methods of a
+ * {@link ProjectionContext} to the benchmarks, and adds the {@link #STUB}
+ * engine, a {@link StubTransformation}.
+ */
+public class BenchmarkProjector extends Projector
+{
+	/**
+	 * Name of the engine that uses a {@link StubTransformation}.
+	 */
+	public final static String STUB = "stub";
+
+	private final Context context;
+
+	public BenchmarkProjector()
+	{
+		//don't share the default cache, so that each benchmark measures its own setup
+		super(new TransformationCache(TransformationCache.DEFAULT_MAX_SIZE));
+		context = new Context(this);
+	}
+
+	@Override
+	public TransformationEngine createEngine(String engine, String sourceSRS, String targetSRS)
+	{
+		if (STUB.equalsIgnoreCase(engine))
+		{
+			return new StubTransformation();
+		}
+		return super.createEngine(engine, sourceSRS, targetSRS);
+	}
+
+	public void simpleLine(CharSequence line, int lineNumber, LineWriter writer,
+			TransformationEngine transformation) throws IOException
+	{
+		context.simpleLine(line, lineNumber, writer, transformation);
+	}
+
+	public void batchedSimpleLine(CharSequence line, int lineNumber, LineWriter writer,
+			TransformationEngine transformation) throws IOException
+	{
+		context.batchedSimpleLine(line, lineNumber, writer, transformation);
+	}
+
+	public void flushBatch(LineWriter writer, TransformationEngine transformation) throws IOException
+	{
+		context.flush(writer, transformation);
+	}
+
+	public void voxetLine(String line, int lineNumber, LineWriter writer, TransformationEngine transformation)
+			throws IOException
+	{
+		context.voxetLine(line, lineNumber, writer, transformation);
+	}
+
+	public void asciiDataFile(File inputFile, File outputFile, TransformationEngine transformation)
+			throws IOException
+	{
+		context.asciiDataFile(inputFile, outputFile, transformation);
+	}
+
+	public void pointsFile(File inputFile, int inputOffset, File outputFile, TransformationEngine transformation)
+			throws IOException
+	{
+		context.pointsFile(inputFile, inputOffset, outputFile, transformation);
+	}
+
+	/**
+	 * Context of the per-line and per-file benchmarks, which use the default
+	 * parameters.
+	 */
+	private static class Context extends ProjectionContext
+	{
+		public Context(Projector projector)
+		{
+			super(projector, new Parameters(), new ProjectionStatistics(), null, STREAM);
+		}
+
+		public void simpleLine(CharSequence line, int lineNumber, LineWriter writer,
+				TransformationEngine transformation) throws IOException
+		{
+			handleSimpleLine(line, lineNumber, writer, transformation);
+		}
+
+		public void batchedSimpleLine(CharSequence line, int lineNumber, LineWriter writer,
+				TransformationEngine transformation) throws IOException
+		{
+			batchSimpleLine(line, lineNumber, writer, transformation);
+		}
+
+		public void flush(LineWriter writer, TransformationEngine transformation) throws IOException
+		{
+			flushBatch(writer, transformation);
+		}
+
+		public void voxetLine(String line, int lineNumber, LineWriter writer, TransformationEngine transformation)
+				throws IOException
+		{
+			handleVoxetOrGSurfLine(line, lineNumber, writer, transformation, false);
+		}
+
+		public void asciiDataFile(File inputFile, File outputFile, TransformationEngine transformation)
+				throws IOException
+		{
+			handleAsciiDataFile(inputFile, outputFile, transformation);
+		}
+
+		public void pointsFile(File inputFile, int inputOffset, File outputFile,
+				TransformationEngine transformation)
+				throws IOException
+		{
+			handlePointsFile(inputFile, inputOffset, outputFile, transformation);
+		}
+	}
+}
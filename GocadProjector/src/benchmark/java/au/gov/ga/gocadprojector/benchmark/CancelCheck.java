@@ -0,0 +1,200 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.commons.io.FileUtils;
+
+import au.gov.ga.gocadprojector.application.Parameters;
+import au.gov.ga.gocadprojector.application.ProjectionStatistics;
+import au.gov.ga.gocadprojector.application.Projector;
+import au.gov.ga.gocadprojector.gui.Job;
+import au.gov.ga.gocadprojector.transform.TransformationEngines;
+
+/**
+ * Checks that a GUI {@link Job} that is cancelled part way through can be
+ * started again. Jobs are run the way the main window runs them (without
+ * overwriting existing outputs), interrupted while writing their output (a
+ * TSurf) or while writing a side file (an SGrid), and cleaned up with
+ * {@link Job#deleteOutputFiles()}; no files may be left behind, and running
+ * the job again must complete with the same output as an uninterrupted run.
+ * Exits with a non-zero status if any check fails.
+ */
+public class CancelCheck
+{
+	private final static int VERTICES = 1000000;
+	private final static int POINTS = 1000000;
+	private final static long TIMEOUT_MILLIS = 60000;
+
+	private final Projector projector = new Projector();
+	private final GocadGenerator generator = new GocadGenerator();
+	private final File directory;
+	private int failures = 0;
+
+	public static void main(String[] args) throws Exception
+	{
+		CancelCheck check = new CancelCheck();
+		try
+		{
+			check.run();
+		}
+		finally
+		{
+			FileUtils.deleteQuietly(check.directory);
+		}
+		if (check.failures > 0)
+		{
+			System.out.println(check.failures + " check(s) failed");
+			System.exit(1);
+		}
+		System.out.println("All checks passed");
+	}
+
+	public CancelCheck() throws IOException
+	{
+		directory = File.createTempFile("gocadprojector-cancel", "");
+		directory.delete();
+		directory.mkdirs();
+	}
+
+	public void run() throws Exception
+	{
+		File inputs = new File(directory, "input");
+		inputs.mkdirs();
+		File tsurf = new File(inputs, "surface.ts");
+		File sgrid = new File(inputs, "grid.sg");
+		generator.writeTSurf(tsurf, VERTICES);
+		generator.writeSGrid(sgrid, POINTS);
+
+		check(tsurf, false);
+		check(sgrid, true);
+	}
+
+	/**
+	 * Cancel a job reprojecting the given input, then start it again.
+	 * 
+	 * @param inSideFile
+	 *            Cancel the job while it is writing its second side file,
+	 *            rather than while writing its output
+	 */
+	private void check(File input, boolean inSideFile) throws Exception
+	{
+		String description = input.getName();
+		File expected = new File(directory, "expected_" + description);
+		File actual = new File(directory, "actual_" + description);
+		projector.project(createParameters(input, expected));
+
+		final Job job = new Job(createParameters(input, actual));
+		final ProjectionStatistics statistics = new ProjectionStatistics();
+		job.statistics = statistics;
+		final Exception[] thrown = new Exception[1];
+		Thread thread = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					projector.project(job.parameters, statistics);
+				}
+				catch (Exception e)
+				{
+					thrown[0] = e;
+				}
+			}
+		});
+		thread.start();
+
+		long timeout = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while (thread.isAlive() && (inSideFile ? statistics.getSideFiles() < 2 : statistics.getBytesWritten() == 0)
+				&& System.currentTimeMillis() < timeout)
+		{
+			Thread.sleep(1);
+		}
+		thread.interrupt();
+		thread.join();
+		if (thrown[0] == null)
+		{
+			fail(description + " finished before it was cancelled");
+			return;
+		}
+
+		job.deleteOutputFiles();
+		String[] leftovers = actual.list();
+		if (leftovers.length > 0)
+		{
+			fail(description + " left " + Arrays.asList(leftovers) + " behind after being cancelled");
+		}
+
+		job.statistics = new ProjectionStatistics();
+		try
+		{
+			projector.project(job.parameters, job.statistics);
+		}
+		catch (Exception e)
+		{
+			fail(description + " failed when started again after being cancelled: " + e);
+			return;
+		}
+		compare(description, expected, actual);
+		System.out.println("Cancelled and restarted " + description + " (" + thrown[0].getMessage() + ")");
+	}
+
+	/**
+	 * Create the parameters of a job as the main window does, which doesn't
+	 * overwrite existing outputs.
+	 */
+	private Parameters createParameters(File input, File outputDirectory)
+	{
+		Parameters p = new Parameters();
+		p.inputFile = input.getAbsolutePath();
+		p.outputFile = new File(outputDirectory, input.getName()).getAbsolutePath();
+		p.engine = TransformationEngines.JAVA;
+		p.sourceSRS = "EPSG:28355";
+		p.targetSRS = "EPSG:28354";
+		return p;
+	}
+
+	private void compare(String description, File expected, File actual) throws IOException
+	{
+		String[] names = expected.list();
+		String[] actualNames = actual.list();
+		Arrays.sort(names);
+		Arrays.sort(actualNames);
+		if (!Arrays.equals(names, actualNames))
+		{
+			fail(description + ": " + Arrays.asList(actualNames) + " written, " + Arrays.asList(names)
+					+ " expected");
+			return;
+		}
+		for (String name : names)
+		{
+			if (!FileUtils.contentEquals(new File(expected, name), new File(actual, name)))
+			{
+				fail(description + ": " + name + " differs from the uninterrupted reprojection");
+			}
+		}
+	}
+
+	private void fail(String message)
+	{
+		failures++;
+		System.out.println("FAIL " + message);
+	}
+}
@@ -0,0 +1,245 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.FileUtils;
+
+import au.gov.ga.gocadprojector.application.Parameters;
+import au.gov.ga.gocadprojector.application.Projector;
+import au.gov.ga.gocadprojector.transform.TransformationEngines;
+
+/**
+ * Checks that a single {@link Projector} can be used by many threads at once.
+ * Generated TSurf, PLine, Group and SGrid objects are reprojected one at a
+ * time, and then many times concurrently by the same projector, with and
+ * without worker threads; every output (including the SGrid side files) must
+ * be identical to the output of the serial reprojection. An SGrid with a
+ * non-ASCII name is included (when the platform can encode its file name),
+ * and every side file referenced by an SGrid output must exist. Exits with a
+ * non-zero status if any check fails.
+ */
+public class ConcurrencyCheck
+{
+	private final static int THREADS = 8;
+	private final static int ROUNDS = 4;
+	private final static int VERTICES = 20000;
+	private final static int POINTS = 20000;
+	private final static String NON_ASCII_NAME = "gr\u00efd_d\u00e4t\u00e4";
+	private final static Pattern SIDE_FILE_REGEX = Pattern.compile("(?i)(?:ASCII_DATA_FILE|POINTS_FILE)\\s+(.*)");
+
+	private final Projector projector = new Projector();
+	private final GocadGenerator generator = new GocadGenerator();
+	private final File directory;
+	private int failures = 0;
+
+	public static void main(String[] args) throws Exception
+	{
+		ConcurrencyCheck check = new ConcurrencyCheck();
+		try
+		{
+			check.run();
+		}
+		finally
+		{
+			FileUtils.deleteQuietly(check.directory);
+		}
+		if (check.failures > 0)
+		{
+			System.out.println(check.failures + " check(s) failed");
+			System.exit(1);
+		}
+		System.out.println("All checks passed");
+	}
+
+	public ConcurrencyCheck() throws IOException
+	{
+		directory = File.createTempFile("gocadprojector-concurrency", "");
+		directory.delete();
+		directory.mkdirs();
+	}
+
+	public void run() throws Exception
+	{
+		File inputs = new File(directory, "input");
+		inputs.mkdirs();
+		File tsurf = new File(inputs, "surface.ts");
+		File pline = new File(inputs, "line.pl");
+		File group = new File(inputs, "group.gp");
+		File sgrid = new File(inputs, "grid.sg");
+		generator.writeTSurf(tsurf, VERTICES);
+		generator.writePLine(pline, VERTICES);
+		generator.writeGroup(group, VERTICES);
+		generator.writeSGrid(sgrid, POINTS);
+		List<File> inputFiles = new ArrayList<File>();
+		inputFiles.add(tsurf);
+		inputFiles.add(pline);
+		inputFiles.add(group);
+		inputFiles.add(sgrid);
+		String fileEncoding = System.getProperty("sun.jnu.encoding");
+		if (fileEncoding == null || Charset.forName(fileEncoding).newEncoder().canEncode(NON_ASCII_NAME))
+		{
+			File nonAscii = new File(inputs, NON_ASCII_NAME + ".sg");
+			generator.writeSGrid(nonAscii, POINTS);
+			inputFiles.add(nonAscii);
+		}
+		else
+		{
+			System.out.println("Skipping the non-ASCII SGrid, as file names are encoded in " + fileEncoding);
+		}
+
+		List<Parameters> jobs = new ArrayList<Parameters>();
+		for (File input : inputFiles)
+		{
+			jobs.add(createParameters(input, 1, false));
+			jobs.add(createParameters(input, 2, false));
+		}
+		jobs.add(createParameters(group, 2, true));
+
+		List<File> expected = new ArrayList<File>();
+		for (int i = 0; i < jobs.size(); i++)
+		{
+			File output = new File(directory, "serial" + File.separator + i);
+			project(jobs.get(i), output);
+			expected.add(output);
+			checkSideFiles(new File(output, new File(jobs.get(i).inputFile).getName()));
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try
+		{
+			List<Future<File>> results = new ArrayList<Future<File>>();
+			for (int round = 0; round < ROUNDS; round++)
+			{
+				for (int i = 0; i < jobs.size(); i++)
+				{
+					final Parameters job = jobs.get(i);
+					final File output = new File(directory, "concurrent" + File.separator + round + "_" + i);
+					results.add(executor.submit(new Callable<File>()
+					{
+						@Override
+						public File call() throws Exception
+						{
+							project(job, output);
+							return output;
+						}
+					}));
+				}
+			}
+			for (int i = 0; i < results.size(); i++)
+			{
+				Parameters job = jobs.get(i % jobs.size());
+				String description = new File(job.inputFile).getName() + " (workers " + job.workers
+						+ (job.parallelMembers ? ", parallel members" : "") + ")";
+				File output;
+				try
+				{
+					output = results.get(i).get();
+				}
+				catch (ExecutionException e)
+				{
+					fail(description + " failed: " + e.getCause());
+					continue;
+				}
+				compare(description, expected.get(i % jobs.size()), output);
+			}
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+		System.out.println(String.format("Compared %d concurrent reprojections on %d threads", jobs.size()
+				* ROUNDS, THREADS));
+	}
+
+	private Parameters createParameters(File input, int workers, boolean parallelMembers)
+	{
+		Parameters p = new Parameters();
+		p.inputFile = input.getAbsolutePath();
+		p.engine = TransformationEngines.JAVA;
+		p.sourceSRS = "EPSG:28355";
+		p.targetSRS = "EPSG:28354";
+		p.workers = workers;
+		p.parallelMembers = parallelMembers;
+		p.overwrite = true;
+		return p;
+	}
+
+	/**
+	 * Reproject a job into its own output directory, so that the side files
+	 * of concurrent reprojections don't collide.
+	 */
+	private void project(Parameters job, File outputDirectory) throws Exception
+	{
+		Parameters p = createParameters(new File(job.inputFile), job.workers, job.parallelMembers);
+		p.outputFile = new File(outputDirectory, new File(job.inputFile).getName()).getAbsolutePath();
+		projector.project(p);
+	}
+
+	/**
+	 * Check that every side file referenced by a reprojected SGrid exists.
+	 */
+	private void checkSideFiles(File output) throws IOException
+	{
+		if (!output.getName().endsWith(".sg"))
+		{
+			return;
+		}
+		for (String line : FileUtils.readLines(output, "UTF-8"))
+		{
+			Matcher matcher = SIDE_FILE_REGEX.matcher(line);
+			if (matcher.matches() && !new File(output.getParentFile(), matcher.group(1).trim()).isFile())
+			{
+				fail(output.getName() + " references a side file that doesn't exist: " + matcher.group(1).trim());
+			}
+		}
+	}
+
+	private void compare(String description, File expected, File actual) throws IOException
+	{
+		String[] names = expected.list();
+		if (names.length != actual.list().length)
+		{
+			fail(description + ": " + actual.list().length + " files written, " + names.length + " expected");
+			return;
+		}
+		for (String name : names)
+		{
+			if (!FileUtils.contentEquals(new File(expected, name), new File(actual, name)))
+			{
+				fail(description + ": " + name + " differs from the serial reprojection");
+			}
+		}
+	}
+
+	private void fail(String message)
+	{
+		failures++;
+		System.out.println("FAIL " + message);
+	}
+}
@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.benchmark;
+
+import java.util.Random;
+
+import au.gov.ga.gocadprojector.util.DoubleFormatter;
+
+/**
+ * Checks that {@link DoubleFormatter#format(double, char[], int)} writes
+ * exactly the same characters as {@link ReferenceFormatter}. Most values are
+ * drawn from the range 10<sup>-3</sup> to 10<sup>7</sup> handled by the
+ * formatter's shortest digit path: uniformly and log-uniformly distributed
+ * values, short decimals, values either side of powers of two and of the
+ * range boundaries, and near-integers. Random bit patterns (including
+ * subnormals, infinities and NaN) exercise the fallback. Values are
+ * generated from a fixed seed. Exits with a non-zero status if any check
+ * fails.
+ * <p/>
+ * Usage: <code>FormatterEquivalenceCheck [values] [seed]</code>
+ */
+public class FormatterEquivalenceCheck
+{
+	private final static int DEFAULT_VALUES = 5000000;
+	private final static long DEFAULT_SEED = 20130101L;
+	private final static double MIN_SHORTEST = 1e-3;
+	private final static double MAX_SHORTEST = 1e7;
+	/**
+	 * Maximum number of failures printed; the rest are only counted
+	 */
+	private final static int MAX_PRINTED_FAILURES = 50;
+
+	private final char[] buffer = new char[DoubleFormatter.MAX_LENGTH];
+	private final Random random;
+	private final int valueCount;
+	private int failures = 0;
+	private long checked = 0;
+	private long shortest = 0;
+
+	public static void main(String[] args)
+	{
+		int values = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_VALUES;
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : DEFAULT_SEED;
+		FormatterEquivalenceCheck check = new FormatterEquivalenceCheck(values, seed);
+		check.run();
+		if (check.failures > 0)
+		{
+			System.out.println(check.failures + " check(s) failed");
+			System.exit(1);
+		}
+		System.out.println("All checks passed");
+	}
+
+	public FormatterEquivalenceCheck(int valueCount, long seed)
+	{
+		this.valueCount = valueCount;
+		this.random = new Random(seed);
+	}
+
+	public void run()
+	{
+		//the boundaries of the shortest digit path, and their neighbours
+		for (double boundary : new double[] { MIN_SHORTEST, MAX_SHORTEST, 0.1, 1, 10, 1e6 })
+		{
+			checkNeighbours(boundary);
+			checkNeighbours(-boundary);
+		}
+		//powers of two, where the gap to the next lower value halves
+		for (int exponent = -10; exponent <= 24; exponent++)
+		{
+			checkNeighbours(Math.scalb(1.0, exponent));
+		}
+		for (double special : new double[] { 0.0, -0.0, Double.MIN_VALUE, Double.MAX_VALUE, Double.NaN,
+				Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Long.MAX_VALUE, Long.MIN_VALUE, 9.5e-4,
+				0.3, 2.0 / 3, 9999999.999999998 })
+		{
+			check(special);
+		}
+
+		for (int i = 0; i < valueCount; i++)
+		{
+			check(nextValue());
+		}
+		System.out.println(String.format("Compared %d values, %d of which were in the shortest digit range",
+				checked, shortest));
+	}
+
+	private double nextValue()
+	{
+		double sign = random.nextBoolean() ? 1 : -1;
+		switch (random.nextInt(8))
+		{
+		case 0:
+			//any double
+			return Double.longBitsToDouble(random.nextLong());
+		case 1:
+			//log-uniform over the shortest digit range
+			return sign * MIN_SHORTEST * Math.pow(MAX_SHORTEST / MIN_SHORTEST, random.nextDouble());
+		case 2:
+			//short decimals, such as parsed coordinates
+			long mantissa = random.nextInt(1000000000);
+			return sign * mantissa / Math.pow(10, random.nextInt(12));
+		case 3:
+			//near-integers
+			return sign * (random.nextInt(10000000) + (random.nextInt(2001) - 1000) * 1e-9);
+		case 4:
+			//neighbouring values of a short decimal
+			double decimal = random.nextInt(100000000) / 100.0;
+			return Double.longBitsToDouble(Double.doubleToRawLongBits(decimal) + random.nextInt(5) - 2);
+		default:
+			//uniform over typical projected coordinates
+			return sign * random.nextDouble() * MAX_SHORTEST;
+		}
+	}
+
+	/**
+	 * Check the value and the nearest doubles either side of it.
+	 */
+	private void checkNeighbours(double value)
+	{
+		long bits = Double.doubleToRawLongBits(value);
+		for (int i = -2; i <= 2; i++)
+		{
+			check(Double.longBitsToDouble(bits + i));
+		}
+	}
+
+	private void check(double value)
+	{
+		checked++;
+		double abs = Math.abs(value);
+		if (abs >= MIN_SHORTEST && abs < MAX_SHORTEST)
+		{
+			shortest++;
+		}
+		String expected = ReferenceFormatter.removeTrailingZero(value);
+		String actual = new String(buffer, 0, DoubleFormatter.format(value, buffer, 0));
+		if (!expected.equals(actual))
+		{
+			fail(Long.toHexString(Double.doubleToRawLongBits(value)) + " formatted as '" + actual + "' instead of '"
+					+ expected + "'");
+		}
+	}
+
+	private void fail(String message)
+	{
+		failures++;
+		if (failures <= MAX_PRINTED_FAILURES)
+		{
+			System.out.println("FAIL " + message);
+		}
+	}
+}
@@ -0,0 +1,214 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.OutputStreamWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Random;
+
+/**
+ * Generates synthetic GOCAD objects for the benchmarks. Coordinates resemble
+ * projected (UTM) coordinates with millimetre precision. A fixed seed is used
+ * so that the same objects are generated for every run.
+ */
+public class GocadGenerator
+{
+	private final Random random = new Random(1234);
+
+	/**
+	 * @return A vertex, property vertex or well reference line
+	 */
+	public String vertexLine(int index)
+	{
+		int type = random.nextInt(10);
+		if (type == 0)
+		{
+			return "PVRTX " + index + " " + x() + " " + y() + " " + z() + " " + random.nextInt(100) + " "
+					+ random.nextFloat();
+		}
+		return "VRTX " + index + " " + x() + " " + y() + " " + z();
+	}
+
+	/**
+	 * @return Lines of a Voxet header defining its axes
+	 */
+	public String[] voxetAxisLines()
+	{
+		return new String[] { "AXIS_O " + x() + " " + y() + " " + z(), "AXIS_U 10000 0 0", "AXIS_V 0 10000 0",
+				"AXIS_W 0 0 -2000" };
+	}
+
+	public void writeTSurf(File file, int vertices) throws IOException
+	{
+		Writer writer = new BufferedWriter(new FileWriter(file));
+		try
+		{
+			writeTSurf(writer, "surface", vertices);
+		}
+		finally
+		{
+			writer.close();
+		}
+	}
+
+	public void writePLine(File file, int vertices) throws IOException
+	{
+		Writer writer = new BufferedWriter(new FileWriter(file));
+		try
+		{
+			writePLine(writer, "line", vertices);
+		}
+		finally
+		{
+			writer.close();
+		}
+	}
+
+	/**
+	 * Write a group containing a TSurf, PLine and Voxet. The vertices are
+	 * split between the TSurf and PLine.
+	 */
+	public void writeGroup(File file, int vertices) throws IOException
+	{
+		Writer writer = new BufferedWriter(new FileWriter(file));
+		try
+		{
+			writer.write("GOCAD HeteroGroup 1\r\nHEADER {\r\nname:group\r\n}\r\nBEGIN_MEMBERS\r\n");
+			writeTSurf(writer, "surface", vertices * 3 / 4);
+			writePLine(writer, "line", vertices - vertices * 3 / 4);
+			writer.write("GOCAD Voxet 1\r\nHEADER {\r\nname:voxet\r\n}\r\n");
+			for (String line : voxetAxisLines())
+			{
+				writer.write(line + "\r\n");
+			}
+			writer.write("AXIS_MIN 0 0 0\r\nAXIS_MAX 1 1 1\r\nAXIS_N 100 100 20\r\nEND\r\n");
+			writer.write("END_MEMBERS\r\nEND\r\n");
+		}
+		finally
+		{
+			writer.close();
+		}
+	}
+
+	/**
+	 * Write an SGrid with both an ASCII_DATA_FILE and a POINTS_FILE, each
+	 * containing the given number of points. The side files are named after
+	 * the SGrid file with the __ascii@@ and __points@@ suffixes, and the SGrid
+	 * is written in UTF-8 so that its file and side file names may contain
+	 * non-ASCII characters.
+	 */
+	public void writeSGrid(File file, int points) throws IOException
+	{
+		String name = file.getName();
+		int indexOfDot = name.lastIndexOf('.');
+		String base = indexOfDot >= 0 ? name.substring(0, indexOfDot) : name;
+		File asciiFile = new File(file.getParentFile(), base + "__ascii@@");
+		File pointsFile = new File(file.getParentFile(), base + "__points@@");
+
+		Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+		try
+		{
+			writer.write("GOCAD SGrid 1\r\nHEADER {\r\nname:" + base + "\r\n}\r\n");
+			writer.write("AXIS_N " + points + " 1 1\r\n");
+			writer.write("POINTS_OFFSET 0\r\nPOINTS_FILE " + pointsFile.getName() + "\r\n");
+			writer.write("ASCII_DATA_FILE " + asciiFile.getName() + "\r\n");
+			writer.write("END\r\n");
+		}
+		finally
+		{
+			writer.close();
+		}
+
+		writer = new BufferedWriter(new FileWriter(asciiFile));
+		try
+		{
+			writer.write("*\n* X Y Z I J K PROPERTY\n*\n");
+			for (int i = 0; i < points; i++)
+			{
+				writer.write("   " + x() + "   " + y() + "   " + z() + "   " + i + " 0 0 " + random.nextFloat() + "\n");
+			}
+		}
+		finally
+		{
+			writer.close();
+		}
+
+		DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(pointsFile)));
+		try
+		{
+			for (int i = 0; i < points; i++)
+			{
+				os.writeFloat((float) random.nextDouble() * 500000f + 300000f);
+				os.writeFloat((float) random.nextDouble() * 1000000f + 6000000f);
+				os.writeFloat((float) random.nextDouble() * -5000f);
+			}
+		}
+		finally
+		{
+			os.close();
+		}
+	}
+
+	private void writeTSurf(Writer writer, String name, int vertices) throws IOException
+	{
+		writer.write("GOCAD TSurf 1\r\nHEADER {\r\nname:" + name + "\r\n}\r\nTFACE\r\n");
+		for (int i = 1; i <= vertices; i++)
+		{
+			writer.write(vertexLine(i) + "\r\n");
+			if (i > 2)
+			{
+				writer.write("TRGL " + (i - 2) + " " + (i - 1) + " " + i + "\r\n");
+			}
+		}
+		writer.write("END\r\n");
+	}
+
+	private void writePLine(Writer writer, String name, int vertices) throws IOException
+	{
+		writer.write("GOCAD PLine 1\r\nHEADER {\r\nname:" + name + "\r\n}\r\nILINE\r\n");
+		for (int i = 1; i <= vertices; i++)
+		{
+			writer.write(vertexLine(i) + "\r\n");
+			if (i > 1)
+			{
+				writer.write("SEG " + (i - 1) + " " + i + "\r\n");
+			}
+		}
+		writer.write("END\r\n");
+	}
+
+	private String x()
+	{
+		return String.valueOf((300000000 + random.nextInt(500000000)) / 1000.0);
+	}
+
+	private String y()
+	{
+		return String.valueOf((6000000000L + random.nextInt(1000000000)) / 1000.0);
+	}
+
+	private String z()
+	{
+		return String.valueOf(-random.nextInt(5000000) / 1000.0);
+	}
+}
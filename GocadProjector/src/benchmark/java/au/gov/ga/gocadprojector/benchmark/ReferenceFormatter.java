@@ -0,0 +1,36 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.benchmark;
+
+import au.gov.ga.gocadprojector.util.DoubleFormatter;
+
+/**
+ * Reference copy of the String based formatting used by the projector before
+ * the {@link DoubleFormatter}, which must produce exactly the same
+ * characters. Used by the {@link FormatterEquivalenceCheck} and as the
+ * baseline of the formatting benchmarks.
+ */
+public class ReferenceFormatter
+{
+	private ReferenceFormatter()
+	{
+	}
+
+	public static String removeTrailingZero(double d)
+	{
+		return (long) d == d ? "" + (long) d : "" + d;
+	}
+}
@@ -0,0 +1,393 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.benchmark;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import au.gov.ga.gocadprojector.util.CoordinateScanner;
+
+/**
+ * Checks that the {@link CoordinateScanner} accepts and rejects exactly the
+ * same lines as the regular expressions it replaced, finds the same
+ * coordinate spans and axis types, and parses bit-identical values (or throws
+ * a {@link NumberFormatException} in the same cases) as
+ * {@link Double#parseDouble(String)}. Lines are generated from a fixed seed,
+ * both structurally (keywords, whitespace and numbers with random mutations)
+ * and as random strings over the characters the expressions care about.
+ * Exits with a non-zero status if any check fails.
+ * <p/>
+ * Usage: <code>ScannerConformanceCheck [lines] [seed]</code>
+ */
+public class ScannerConformanceCheck
+{
+	//the original expressions used by the Projector, kept here as the oracle
+	private final static Pattern VERTEX_REGEX = Pattern
+			.compile("(?i)P?VRTX\\s+\\d+\\s+([\\d.\\-e]+)\\s+([\\d.\\-e]+)\\s+([\\d.\\-e]+).*");
+	private final static Pattern WREF_REGEX = Pattern
+			.compile("(?i)WREF\\s+([\\d.\\-e]+)\\s+([\\d.\\-e]+)\\s+([\\d.\\-e]+).*");
+	private final static Pattern AXIS_REGEX = Pattern
+			.compile("(?i)(?:AXIS_(\\w+)|(O)RIGIN)\\s+([\\d.\\-e]+)\\s+([\\d.\\-e]+)\\s+([\\d.\\-e]+).*");
+	private final static Pattern DATA_FILE_LINE_REGEX = Pattern
+			.compile("\\s*([\\d.\\-e]+)\\s+([\\d.\\-e]+)\\s+([\\d.\\-e]+).*");
+
+	private final static int DEFAULT_LINES = 1000000;
+	private final static long DEFAULT_SEED = 20130101L;
+	/**
+	 * Maximum number of failures printed; the rest are only counted
+	 */
+	private final static int MAX_PRINTED_FAILURES = 50;
+
+	private final static String[] KEYWORDS = new String[] { "VRTX", "PVRTX", "vrtx", "PVrtx", "VRTXX", "PVRT",
+			"WREF", "wref", "WREF_", "AXIS_O", "AXIS_U", "AXIS_V", "AXIS_W", "axis_w", "AXIS_MIN", "AXIS_max",
+			"AXIS_N", "AXIS_", "AXIS_UV", "AXIS_1", "AXIS__", "ORIGIN", "origin", "ORIGINS", "ORIG", "" };
+	private final static String[] WHITESPACE = new String[] { " ", "  ", "\t", " \t ", "\u000B", "\f", "\r",
+			"\n", "\u00a0", "" };
+	private final static String[] TAILS = new String[] { "", " ", " 1", " foo bar", "\t# comment", "abc", "\r",
+			"\n", " \u0085", "\u2028", "\u2029 x", " \u00e9" };
+	private final static String NUMBER_CHARACTERS = "0123456789.-eE+";
+	private final static String LINE_CHARACTERS = "0123456789.-eE+ \t\u000B\f\r\nPVRTXWEFAISOGNMvrtxwefaisognm_\u0085";
+
+	private final CoordinateScanner scanner = new CoordinateScanner();
+	private final Random random;
+	private final int lineCount;
+	private int failures = 0;
+	private long accepted = 0;
+
+	public static void main(String[] args)
+	{
+		int lines = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_LINES;
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : DEFAULT_SEED;
+		ScannerConformanceCheck check = new ScannerConformanceCheck(lines, seed);
+		check.run();
+		if (check.failures > 0)
+		{
+			System.out.println(check.failures + " check(s) failed");
+			System.exit(1);
+		}
+		System.out.println("All checks passed");
+	}
+
+	public ScannerConformanceCheck(int lineCount, long seed)
+	{
+		this.lineCount = lineCount;
+		this.random = new Random(seed);
+	}
+
+	public void run()
+	{
+		//lines that must be accepted, as a sanity check of the oracle itself
+		checkAccepted(VERTEX_REGEX, "VRTX 1 331234.5 6201234.25 -1200");
+		checkAccepted(VERTEX_REGEX, "PVRTX 12 1e3 -2.5E-2 0. 7 8");
+		checkAccepted(WREF_REGEX, "WREF 331234 6201234 -12.5");
+		checkAccepted(AXIS_REGEX, "AXIS_MIN 0 0 0");
+		checkAccepted(AXIS_REGEX, "ORIGIN 500000 6000000 -1000");
+		checkAccepted(DATA_FILE_LINE_REGEX, "  331234.5 6201234.25 -1200 1 2 3");
+
+		for (int i = 0; i < lineCount; i++)
+		{
+			String line = i % 2 == 0 ? structuredLine() : randomLine();
+			check(line);
+		}
+		System.out.println(String.format("Compared %d lines, %d of which matched at least one expression", lineCount,
+				accepted));
+	}
+
+	private void checkAccepted(Pattern pattern, String line)
+	{
+		if (!pattern.matcher(line).matches())
+		{
+			fail("oracle " + pattern.pattern() + " rejects " + quote(line));
+		}
+		check(line);
+	}
+
+	private void check(String line)
+	{
+		boolean any = false;
+
+		Matcher matcher = VERTEX_REGEX.matcher(line);
+		boolean matches = matcher.matches();
+		any |= matches;
+		if (compareAcceptance("vertex", line, matches, scanner.scanVertex(line)) && matches)
+		{
+			compareCoordinates("vertex", line, matcher, 1);
+		}
+
+		matcher = WREF_REGEX.matcher(line);
+		matches = matcher.matches();
+		any |= matches;
+		if (compareAcceptance("well reference", line, matches, scanner.scanWellReference(line)) && matches)
+		{
+			compareCoordinates("well reference", line, matcher, 1);
+		}
+
+		matcher = AXIS_REGEX.matcher(line);
+		matches = matcher.matches();
+		any |= matches;
+		int type = scanner.scanAxis(line);
+		if (compareAcceptance("axis", line, matches, type >= 0) && matches)
+		{
+			String typeName = matcher.group(1) != null ? matcher.group(1) : matcher.group(2);
+			int expectedType = axisType(typeName);
+			if (type != expectedType)
+			{
+				fail("axis type " + type + " instead of " + expectedType + " for " + quote(line));
+			}
+			compareCoordinates("axis", line, matcher, 3);
+		}
+
+		matcher = DATA_FILE_LINE_REGEX.matcher(line);
+		matches = matcher.matches();
+		any |= matches;
+		if (compareAcceptance("data file", line, matches, scanner.scanDataFileLine(line)) && matches)
+		{
+			compareCoordinates("data file", line, matcher, 1);
+		}
+
+		if (any)
+		{
+			accepted++;
+		}
+	}
+
+	/**
+	 * @return True if the scanner and the expression agree
+	 */
+	private boolean compareAcceptance(String kind, String line, boolean expected, boolean actual)
+	{
+		if (expected != actual)
+		{
+			fail(kind + " scanner " + (actual ? "accepts" : "rejects") + " " + quote(line));
+			return false;
+		}
+		return true;
+	}
+
+	private void compareCoordinates(String kind, String line, Matcher matcher, int firstGroup)
+	{
+		for (int i = 0; i < 3; i++)
+		{
+			int group = firstGroup + i;
+			if (scanner.getStart(i) != matcher.start(group) || scanner.getEnd(i) != matcher.end(group))
+			{
+				fail(kind + " coordinate " + i + " spans " + scanner.getStart(i) + "-" + scanner.getEnd(i)
+						+ " instead of " + matcher.start(group) + "-" + matcher.end(group) + " in " + quote(line));
+				continue;
+			}
+			compareParse(kind, line, matcher.group(group), i);
+		}
+	}
+
+	private void compareParse(String kind, String line, String number, int coordinate)
+	{
+		String expected;
+		try
+		{
+			expected = bits(Double.parseDouble(number));
+		}
+		catch (NumberFormatException e)
+		{
+			expected = "NumberFormatException";
+		}
+		String actual;
+		try
+		{
+			actual = bits(scanner.parseCoordinate(line, coordinate));
+		}
+		catch (NumberFormatException e)
+		{
+			actual = "NumberFormatException";
+		}
+		if (!expected.equals(actual))
+		{
+			fail(kind + " coordinate " + quote(number) + " parsed as " + actual + " instead of " + expected);
+		}
+	}
+
+	private static int axisType(String type)
+	{
+		if ("O".equalsIgnoreCase(type))
+		{
+			return CoordinateScanner.AXIS_O;
+		}
+		if ("U".equalsIgnoreCase(type))
+		{
+			return CoordinateScanner.AXIS_U;
+		}
+		if ("V".equalsIgnoreCase(type))
+		{
+			return CoordinateScanner.AXIS_V;
+		}
+		if ("W".equalsIgnoreCase(type))
+		{
+			return CoordinateScanner.AXIS_W;
+		}
+		if ("MIN".equalsIgnoreCase(type))
+		{
+			return CoordinateScanner.AXIS_MIN;
+		}
+		if ("MAX".equalsIgnoreCase(type))
+		{
+			return CoordinateScanner.AXIS_MAX;
+		}
+		return CoordinateScanner.AXIS_OTHER;
+	}
+
+	/**
+	 * Generate a line that looks like a GOCAD line (keyword, optional vertex
+	 * index, three numbers and a tail), with random mutations.
+	 */
+	private String structuredLine()
+	{
+		StringBuilder sb = new StringBuilder();
+		if (random.nextInt(4) == 0)
+		{
+			sb.append(pick(WHITESPACE));
+		}
+		String keyword = pick(KEYWORDS);
+		sb.append(keyword);
+		if (keyword.length() > 0)
+		{
+			sb.append(separator());
+		}
+		if (keyword.toUpperCase().contains("VRTX") || random.nextInt(8) == 0)
+		{
+			sb.append(random.nextInt(8) == 0 ? randomNumber() : Integer.toString(random.nextInt(100000)));
+			sb.append(separator());
+		}
+		for (int i = 0; i < 3; i++)
+		{
+			if (i > 0)
+			{
+				sb.append(separator());
+			}
+			sb.append(number());
+		}
+		sb.append(pick(TAILS));
+		if (random.nextInt(10) == 0)
+		{
+			//mutate a single character
+			int index = random.nextInt(sb.length() + 1);
+			char c = LINE_CHARACTERS.charAt(random.nextInt(LINE_CHARACTERS.length()));
+			if (index < sb.length() && random.nextBoolean())
+			{
+				sb.setCharAt(index, c);
+			}
+			else
+			{
+				sb.insert(index, c);
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Generate a short random line over the characters used by the
+	 * expressions.
+	 */
+	private String randomLine()
+	{
+		int length = random.nextInt(40);
+		StringBuilder sb = new StringBuilder(length);
+		for (int i = 0; i < length; i++)
+		{
+			sb.append(LINE_CHARACTERS.charAt(random.nextInt(LINE_CHARACTERS.length())));
+		}
+		return sb.toString();
+	}
+
+	private String number()
+	{
+		switch (random.nextInt(8))
+		{
+		case 0:
+			return randomNumber();
+		case 1:
+			//exponent notation, sometimes beyond the fast path
+			return (random.nextBoolean() ? "-" : "") + random.nextInt(100000) + (random.nextBoolean() ? "e" : "E")
+					+ (random.nextBoolean() ? "-" : "") + random.nextInt(400);
+		case 2:
+			//long mantissas, around and beyond 2^53
+			return Long.toString(random.nextLong() >>> random.nextInt(20)) + "." + random.nextInt(1000);
+		case 3:
+			return Double.toString(Double.longBitsToDouble(random.nextLong()));
+		case 4:
+			return Integer.toString(random.nextInt(10000000) - 5000000);
+		default:
+			//typical projected coordinates
+			return String.format(Locale.ROOT, "%." + random.nextInt(10) + "f", (random.nextDouble() - 0.2) * 1e7);
+		}
+	}
+
+	private String randomNumber()
+	{
+		int length = 1 + random.nextInt(12);
+		StringBuilder sb = new StringBuilder(length);
+		for (int i = 0; i < length; i++)
+		{
+			sb.append(NUMBER_CHARACTERS.charAt(random.nextInt(NUMBER_CHARACTERS.length())));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return Usually a single space, sometimes other (or no) whitespace
+	 */
+	private String separator()
+	{
+		return random.nextInt(4) == 0 ? pick(WHITESPACE) : " ";
+	}
+
+	private String pick(String[] values)
+	{
+		return values[random.nextInt(values.length)];
+	}
+
+	private static String bits(double d)
+	{
+		return Long.toHexString(Double.doubleToRawLongBits(d)) + " (" + d + ")";
+	}
+
+	private static String quote(String line)
+	{
+		StringBuilder sb = new StringBuilder("'");
+		for (int i = 0; i < line.length(); i++)
+		{
+			char c = line.charAt(i);
+			if (c < ' ' || c > '~')
+			{
+				sb.append(String.format("\\u%04x", (int) c));
+			}
+			else
+			{
+				sb.append(c);
+			}
+		}
+		return sb.append("'").toString();
+	}
+
+	private void fail(String message)
+	{
+		failures++;
+		if (failures <= MAX_PRINTED_FAILURES)
+		{
+			System.out.println("FAIL " + message);
+		}
+	}
+}
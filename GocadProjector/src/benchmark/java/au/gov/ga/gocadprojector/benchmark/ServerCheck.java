@@ -0,0 +1,332 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import au.gov.ga.gocadprojector.application.Parameters;
+import au.gov.ga.gocadprojector.application.Projector;
+import au.gov.ga.gocadprojector.application.Server;
+import au.gov.ga.gocadprojector.transform.TransformationEngines;
+
+/**
+ * Checks the resident {@link Server} as a local client would use it. A server
+ * with one thread and a queue of one request is started on a free port, and
+ * is sent requests for its health and queue, a GOCAD object to reproject in
+ * the request body (with and without gzip compression), more requests than
+ * fit in its queue, and requests that look like they were sent by a web page.
+ * Reprojected objects must be identical to the object reprojected between
+ * files. Exits with a non-zero status if any check fails.
+ */
+public class ServerCheck
+{
+	private final static int VERTICES = 20000;
+	private final static String QUERY = "s_srs=EPSG:28355&t_srs=EPSG:28354&engine=java";
+	private final static long TIMEOUT_MILLIS = 60000;
+
+	private final GocadGenerator generator = new GocadGenerator();
+	private final File directory;
+	private Server server;
+	private String address;
+	private int failures = 0;
+
+	public static void main(String[] args) throws Exception
+	{
+		ServerCheck check = new ServerCheck();
+		try
+		{
+			check.run();
+		}
+		finally
+		{
+			check.stop();
+		}
+		if (check.failures > 0)
+		{
+			System.out.println(check.failures + " check(s) failed");
+			System.exit(1);
+		}
+		System.out.println("All checks passed");
+	}
+
+	public ServerCheck() throws IOException
+	{
+		directory = File.createTempFile("gocadprojector-server", "");
+		directory.delete();
+		directory.mkdirs();
+	}
+
+	public void run() throws Exception
+	{
+		File input = new File(directory, "surface.ts");
+		generator.writeTSurf(input, VERTICES);
+		Parameters parameters = new Parameters();
+		parameters.inputFile = input.getPath();
+		parameters.outputFile = new File(directory, "expected.ts").getPath();
+		parameters.engine = TransformationEngines.JAVA;
+		parameters.sourceSRS = "EPSG:28355";
+		parameters.targetSRS = "EPSG:28354";
+		new Projector().project(parameters);
+		byte[] body = FileUtils.readFileToByteArray(input);
+		byte[] expected = FileUtils.readFileToByteArray(new File(parameters.outputFile));
+
+		server = new Server(0, 1, 1, false);
+		server.start();
+		address = "http://localhost:" + server.getPort();
+
+		checkHealth();
+		checkStreamed(body, expected, false);
+		checkStreamed(body, expected, true);
+		checkQueueFull(body, expected);
+		checkForbidden(input);
+	}
+
+	private void stop()
+	{
+		if (server != null)
+		{
+			server.stop();
+		}
+		FileUtils.deleteQuietly(directory);
+	}
+
+	private void checkHealth() throws IOException
+	{
+		HttpURLConnection connection = open(Server.HEALTH_PATH);
+		String health = readString(connection);
+		if (connection.getResponseCode() != 200 || !health.contains("\"status\":\"ok\""))
+		{
+			fail("GET /health responded " + connection.getResponseCode() + ": " + health);
+		}
+		connection = open(Server.QUEUE_PATH);
+		String queue = readString(connection);
+		if (connection.getResponseCode() != 200 || !queue.contains("\"threads\":1")
+				|| !queue.contains("\"capacity\":1"))
+		{
+			fail("GET /queue responded " + connection.getResponseCode() + ": " + queue);
+		}
+		System.out.println("Checked /health and /queue");
+	}
+
+	/**
+	 * Reproject an object in the request body, and compare the response body
+	 * with the object reprojected between files.
+	 */
+	private void checkStreamed(byte[] body, byte[] expected, boolean gzip) throws IOException
+	{
+		String description = "Streamed reprojection" + (gzip ? " (gzip)" : "");
+		HttpURLConnection connection = openPost(Server.PROJECT_PATH + "?" + QUERY);
+		if (gzip)
+		{
+			connection.setRequestProperty("Accept-Encoding", "gzip");
+		}
+		OutputStream os = connection.getOutputStream();
+		os.write(body);
+		os.close();
+		checkResponse(description, connection, expected, gzip);
+	}
+
+	/**
+	 * Hold the running and queued places with requests whose bodies are only
+	 * half sent, and check that a further request is rejected straight away;
+	 * the held requests must then complete normally.
+	 */
+	private void checkQueueFull(byte[] body, byte[] expected) throws Exception
+	{
+		int half = body.length / 2;
+		HttpURLConnection[] held = new HttpURLConnection[2];
+		OutputStream[] streams = new OutputStream[held.length];
+		for (int i = 0; i < held.length; i++)
+		{
+			held[i] = openPost(Server.PROJECT_PATH + "?" + QUERY);
+			held[i].setChunkedStreamingMode(4096);
+			streams[i] = held[i].getOutputStream();
+			streams[i].write(body, 0, half);
+			streams[i].flush();
+		}
+		long timeout = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while (!readString(open(Server.QUEUE_PATH)).contains("\"running\":1,\"queued\":1"))
+		{
+			if (System.currentTimeMillis() > timeout)
+			{
+				fail("The held requests weren't running and queued");
+				return;
+			}
+			Thread.sleep(10);
+		}
+
+		long start = System.currentTimeMillis();
+		HttpURLConnection rejected = openPost(Server.PROJECT_PATH + "?" + QUERY);
+		OutputStream os = rejected.getOutputStream();
+		os.write(body, 0, half);
+		os.close();
+		String error = readString(rejected);
+		if (rejected.getResponseCode() != 503 || rejected.getHeaderField("Retry-After") == null)
+		{
+			fail("A request that doesn't fit in the queue responded " + rejected.getResponseCode() + ": " + error);
+		}
+		long rejectMillis = System.currentTimeMillis() - start;
+
+		for (int i = 0; i < held.length; i++)
+		{
+			streams[i].write(body, half, body.length - half);
+			streams[i].close();
+			checkResponse("Held request " + (i + 1), held[i], expected, false);
+		}
+		String queue = readString(open(Server.QUEUE_PATH));
+		if (!queue.contains("\"rejected\":1"))
+		{
+			fail("The rejected request wasn't counted: " + queue);
+		}
+		System.out.println("Rejected a request that didn't fit in the queue in " + rejectMillis + "ms");
+	}
+
+	/**
+	 * Requests with an Origin header or another Host, as sent by web pages,
+	 * must be rejected without reprojecting anything.
+	 */
+	private void checkForbidden(File input) throws IOException
+	{
+		File output = new File(directory, "forbidden.ts");
+		String path =
+				Server.PROJECT_PATH + "?" + QUERY + "&input=" + URLEncoder.encode(input.getPath(), "UTF-8") + "&output="
+						+ URLEncoder.encode(output.getPath(), "UTF-8");
+		String status = request("POST", path, "localhost:" + server.getPort(), "Origin: http://example.com\r\n");
+		if (status == null || !status.contains(" 403 ") || output.exists())
+		{
+			fail("A request with an Origin header responded " + status);
+		}
+		status = request("POST", path, "example.com:" + server.getPort(), "");
+		if (status == null || !status.contains(" 403 ") || output.exists())
+		{
+			fail("A request for another Host responded " + status);
+		}
+		status = request("GET", Server.HEALTH_PATH, "127.0.0.1:" + server.getPort(), "");
+		if (status == null || !status.contains(" 200 "))
+		{
+			fail("A request for Host 127.0.0.1 responded " + status);
+		}
+		System.out.println("Rejected requests from web pages");
+	}
+
+	/**
+	 * Send a request without a body over a plain socket, because
+	 * HttpURLConnection doesn't allow the Host and Origin headers to be set.
+	 * 
+	 * @return The status line of the response
+	 */
+	private String request(String method, String path, String host, String headers) throws IOException
+	{
+		Socket socket = new Socket("localhost", server.getPort());
+		try
+		{
+			OutputStream os = socket.getOutputStream();
+			os.write((method + " " + path + " HTTP/1.1\r\nHost: " + host + "\r\n" + headers
+					+ "Content-Length: 0\r\nConnection: close\r\n\r\n").getBytes("US-ASCII"));
+			os.flush();
+			return new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII")).readLine();
+		}
+		finally
+		{
+			socket.close();
+		}
+	}
+
+	private void checkResponse(String description, HttpURLConnection connection, byte[] expected, boolean gzip)
+			throws IOException
+	{
+		int status = connection.getResponseCode();
+		if (status != 200)
+		{
+			fail(description + " responded " + status + ": " + readString(connection));
+			return;
+		}
+		if (gzip != "gzip".equals(connection.getHeaderField("Content-Encoding")))
+		{
+			fail(description + " responded with Content-Encoding " + connection.getHeaderField("Content-Encoding"));
+			return;
+		}
+		InputStream is = connection.getInputStream();
+		try
+		{
+			byte[] actual = IOUtils.toByteArray(gzip ? new GZIPInputStream(is) : is);
+			if (!Arrays.equals(expected, actual))
+			{
+				fail(description + " differs from the reprojection between files");
+			}
+		}
+		finally
+		{
+			is.close();
+		}
+		System.out.println(description + " matches the reprojection between files");
+	}
+
+	private HttpURLConnection open(String path) throws IOException
+	{
+		HttpURLConnection connection = (HttpURLConnection) new URL(address + path).openConnection();
+		connection.setReadTimeout((int) TIMEOUT_MILLIS);
+		return connection;
+	}
+
+	private HttpURLConnection openPost(String path) throws IOException
+	{
+		HttpURLConnection connection = open(path);
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		return connection;
+	}
+
+	/**
+	 * @return The response body of a request, or its error body
+	 */
+	private static String readString(HttpURLConnection connection) throws IOException
+	{
+		InputStream is = connection.getResponseCode() < 400 ? connection.getInputStream() : connection.getErrorStream();
+		if (is == null)
+		{
+			return "";
+		}
+		try
+		{
+			return IOUtils.toString(is, "UTF-8");
+		}
+		finally
+		{
+			is.close();
+		}
+	}
+
+	private void fail(String message)
+	{
+		failures++;
+		System.out.println("FAIL " + message);
+	}
+}
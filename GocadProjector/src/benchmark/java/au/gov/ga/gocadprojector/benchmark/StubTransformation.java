@@ -0,0 +1,58 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.benchmark;
+
+import au.gov.ga.gocadprojector.transform.TransformationEngine;
+
+/**
+ * {@link TransformationEngine} that applies a cheap analytic transformation.
+ * Used to measure the parsing and I/O cost of the projector in isolation
+ * from the real transformation engines.
+ */
+public class StubTransformation implements TransformationEngine
+{
+	@Override
+	public void transform(double[] out, double x, double y, double z)
+	{
+		out[0] = x * 0.9996 + 500000.0;
+		out[1] = y * 0.9996 + 10000000.0;
+		out[2] = z;
+	}
+
+	@Override
+	public void transform(double[][] points)
+	{
+		for (double[] point : points)
+		{
+			transform(point, point[0], point[1], point[2]);
+		}
+	}
+
+	@Override
+	public void transform(double[] coordinates, int count)
+	{
+		for (int i = 0, end = count * 3; i < end; i += 3)
+		{
+			coordinates[i] = coordinates[i] * 0.9996 + 500000.0;
+			coordinates[i + 1] = coordinates[i + 1] * 0.9996 + 10000000.0;
+		}
+	}
+
+	@Override
+	public void release()
+	{
+	}
+}
@@ -0,0 +1,371 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.application;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import au.gov.ga.gocadprojector.util.DirectoryScanner;
+
+/**
+ * Reprojects a list of GOCAD objects on a pool of worker threads, and
+ * summarises the results. Used by the console to process a directory,
+ * wildcard or manifest of objects in a single process.
+ */
+public class Batch
+{
+	private final static Logger logger = LoggerFactory.getLogger(Batch.class);
+
+	/**
+	 * Statistics format that logs a human readable summary of each object
+	 */
+	public final static String TEXT_STATISTICS = "text";
+	/**
+	 * Statistics format that prints a JSON document to standard output
+	 */
+	public final static String JSON_STATISTICS = "json";
+
+	private final List<Parameters> jobs;
+	private final int threads;
+	private final List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+	private final ProjectionStatistics[] statistics;
+	private final AtomicInteger unchanged = new AtomicInteger();
+	private String statisticsFormat = null;
+	private boolean incremental = false;
+
+	/**
+	 * @param jobs
+	 *            Parameters for each object to reproject
+	 * @param threads
+	 *            Number of objects to reproject at the same time
+	 */
+	public Batch(List<Parameters> jobs, int threads)
+	{
+		this.jobs = jobs;
+		this.threads = Math.max(1, Math.min(threads, jobs.size()));
+		this.statistics = new ProjectionStatistics[jobs.size()];
+	}
+
+	/**
+	 * Set the format used to report the statistics of each reprojected
+	 * object.
+	 * 
+	 * @param statisticsFormat
+	 *            {@link #TEXT_STATISTICS}, {@link #JSON_STATISTICS}, or null
+	 *            to not report statistics
+	 */
+	public void setStatisticsFormat(String statisticsFormat)
+	{
+		if (statisticsFormat != null && !TEXT_STATISTICS.equalsIgnoreCase(statisticsFormat)
+				&& !JSON_STATISTICS.equalsIgnoreCase(statisticsFormat))
+		{
+			throw new IllegalArgumentException("Unknown statistics format '" + statisticsFormat + "', expected '"
+					+ TEXT_STATISTICS + "' or '" + JSON_STATISTICS + "'");
+		}
+		this.statisticsFormat = statisticsFormat;
+	}
+
+	/**
+	 * Enable incremental reprojection: each output is given an
+	 * {@link OutputManifest}, and objects whose manifest is unchanged since
+	 * the last run are skipped. Outputs with an outdated manifest are
+	 * overwritten.
+	 */
+	public void setIncremental(boolean incremental)
+	{
+		this.incremental = incremental;
+	}
+
+	/**
+	 * Create the list of jobs described by the command line parameters. The
+	 * input can be a single file, a directory, a filename containing
+	 * wildcards, or be replaced by a manifest file.
+	 * 
+	 * @param parameters
+	 *            Parameters shared by every job; the input and outputs are
+	 *            replaced for each job
+	 * @param batchParameters
+	 *            Parameters describing how to find the objects
+	 * @return List of job parameters
+	 */
+	public static List<Parameters> createJobs(Parameters parameters, BatchParameters batchParameters)
+			throws IOException
+	{
+		List<Parameters> jobs = new ArrayList<Parameters>();
+		if (batchParameters.manifest != null)
+		{
+			if (!parameters.extraTargetSRS.isEmpty())
+			{
+				throw new IOException("Additional targets can't be reprojected from a manifest");
+			}
+			readManifest(new File(batchParameters.manifest), parameters, jobs);
+			return jobs;
+		}
+
+		File input = new File(parameters.inputFile);
+		File directory;
+		String filter;
+		if (isWildcard(input.getName()))
+		{
+			directory = input.getParentFile() != null ? input.getParentFile() : new File(".");
+			filter = input.getName();
+		}
+		else if (input.isDirectory())
+		{
+			directory = input;
+			filter = batchParameters.filter;
+		}
+		else
+		{
+			jobs.add(parameters.copy());
+			return jobs;
+		}
+
+		if (!directory.isDirectory())
+		{
+			throw new IOException("Could not find input directory: " + directory);
+		}
+		File outputDirectory = new File(parameters.outputFile);
+		for (File file : DirectoryScanner.scan(directory, filter, batchParameters.recursive))
+		{
+			Parameters job = parameters.copy();
+			job.inputFile = file.getPath();
+			job.outputFile =
+					DirectoryScanner.getOutputFile(directory, file, outputDirectory, batchParameters.suffix)
+							.getPath();
+			//additional outputs are directories, mirroring the input directory like the output
+			job.extraOutputFiles.clear();
+			for (String extraOutputDirectory : parameters.extraOutputFiles)
+			{
+				job.extraOutputFiles.add(DirectoryScanner.getOutputFile(directory, file,
+						new File(extraOutputDirectory), batchParameters.suffix).getPath());
+			}
+			jobs.add(job);
+		}
+		return jobs;
+	}
+
+	private static boolean isWildcard(String filename)
+	{
+		return filename.indexOf('*') >= 0 || filename.indexOf('?') >= 0;
+	}
+
+	private static void readManifest(File manifest, Parameters parameters, List<Parameters> jobs)
+			throws IOException
+	{
+		File base = manifest.getAbsoluteFile().getParentFile();
+		BufferedReader reader = new BufferedReader(new FileReader(manifest));
+		try
+		{
+			int lineNumber = 1;
+			String line;
+			while ((line = reader.readLine()) != null)
+			{
+				String trimmed = line.trim();
+				if (trimmed.length() > 0 && !trimmed.startsWith("#"))
+				{
+					String[] split = line.split("\t");
+					if (split.length != 2 || split[0].trim().length() == 0 || split[1].trim().length() == 0)
+					{
+						throw new IOException("Line " + lineNumber + " of manifest " + manifest
+								+ ": expected input and output filenames separated by a tab, '" + line + "' actual");
+					}
+					Parameters job = parameters.copy();
+					job.inputFile = resolve(base, split[0].trim()).getPath();
+					job.outputFile = resolve(base, split[1].trim()).getPath();
+					jobs.add(job);
+				}
+				lineNumber++;
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+
+	private static File resolve(File base, String filename)
+	{
+		File file = new File(filename);
+		return file.isAbsolute() ? file : new File(base, filename);
+	}
+
+	/**
+	 * Create the projector shared by the worker threads.
+	 */
+	protected Projector createProjector()
+	{
+		return new Projector();
+	}
+
+	/**
+	 * Reproject every job, and log a summary of the results.
+	 * 
+	 * @return Number of jobs that failed
+	 */
+	public int run() throws InterruptedException
+	{
+		long start = System.currentTimeMillis();
+		ProjectionStatistics total = new ProjectionStatistics();
+		total.start();
+		final Projector projector = createProjector();
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try
+		{
+			for (int i = 0; i < jobs.size(); i++)
+			{
+				final Parameters job = jobs.get(i);
+				final int index = i;
+				executor.execute(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						try
+						{
+							Parameters parameters = job;
+							OutputManifest manifest = null;
+							if (incremental)
+							{
+								//hashing runs on the worker threads, so unchanged objects are checked in parallel
+								File output = new File(job.outputFile);
+								manifest = OutputManifest.create(job);
+								OutputManifest previous = OutputManifest.read(output);
+								if (manifest.isUpToDate(previous, output))
+								{
+									logger.info("Skipping unchanged " + job.inputFile);
+									unchanged.incrementAndGet();
+									return;
+								}
+								if (previous != null)
+								{
+									//the output was written by a previous run, so it can be replaced
+									previous.delete(output);
+									parameters = job.copy();
+									parameters.overwrite = true;
+								}
+								else if (output.exists() && !job.overwrite)
+								{
+									throw new IOException("Output file already exists: " + output);
+								}
+								OutputManifest.writePending(output);
+							}
+							logger.info("Reprojecting " + job.inputFile + " to " + job.outputFile);
+							ProjectionStatistics jobStatistics = new ProjectionStatistics();
+							projector.project(parameters, jobStatistics);
+							if (manifest != null)
+							{
+								manifest.write(parameters);
+							}
+							statistics[index] = jobStatistics;
+							if (TEXT_STATISTICS.equalsIgnoreCase(statisticsFormat))
+							{
+								logger.info("Reprojected " + job.inputFile + ": " + jobStatistics);
+							}
+						}
+						catch (Exception e)
+						{
+							logger.error("Error reprojecting " + job.inputFile, e);
+							failures.add(job.inputFile + ": " + e.getLocalizedMessage());
+						}
+					}
+				});
+			}
+			executor.shutdown();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+		for (ProjectionStatistics jobStatistics : statistics)
+		{
+			if (jobStatistics != null)
+			{
+				total.add(jobStatistics);
+			}
+		}
+		total.finish();
+
+		long seconds = (System.currentTimeMillis() - start) / 1000;
+		int failed = failures.size();
+		int skipped = unchanged.get();
+		logger.info("Reprojected " + (jobs.size() - failed - skipped) + " of " + jobs.size() + " objects in "
+				+ seconds + "s using " + threads + " thread(s)" + (skipped > 0 ? ", " + skipped + " unchanged" : "")
+				+ (failed > 0 ? ", " + failed + " failed:" : ""));
+		synchronized (failures)
+		{
+			for (String failure : failures)
+			{
+				logger.error("  " + failure);
+			}
+		}
+		if (TEXT_STATISTICS.equalsIgnoreCase(statisticsFormat))
+		{
+			logger.info("Total: " + total);
+		}
+		else if (JSON_STATISTICS.equalsIgnoreCase(statisticsFormat))
+		{
+			System.out.println(toJson(total));
+		}
+		return failed;
+	}
+
+	/**
+	 * @return JSON document containing the statistics of each reprojected
+	 *         object, the failures, and the total
+	 */
+	private String toJson(ProjectionStatistics total)
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"objects\":").append(jobs.size());
+		sb.append(",\"threads\":").append(threads);
+		sb.append(",\"unchanged\":").append(unchanged.get());
+		sb.append(",\"files\":[");
+		boolean first = true;
+		for (ProjectionStatistics jobStatistics : statistics)
+		{
+			if (jobStatistics != null)
+			{
+				sb.append(first ? "" : ",").append(jobStatistics.toJson());
+				first = false;
+			}
+		}
+		sb.append("],\"failed\":[");
+		synchronized (failures)
+		{
+			for (int i = 0; i < failures.size(); i++)
+			{
+				sb.append(i > 0 ? "," : "").append(ProjectionStatistics.quote(failures.get(i)));
+			}
+		}
+		sb.append("],\"total\":").append(total.toJson()).append('}');
+		return sb.toString();
+	}
+}
@@ -0,0 +1,48 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.application;
+
+import au.gov.ga.gocadprojector.util.DirectoryScanner;
+
+import com.beust.jcommander.Parameter;
+
+/**
+ * Contains the console parameters used for reprojecting many GOCAD objects
+ * in a single process.
+ */
+public class BatchParameters
+{
+	@Parameter(names = { "-m", "-manifest" }, description = "A text file listing the GOCAD objects to reproject, one per line, as the input and output filenames separated by a tab. Relative filenames are resolved against the manifest's directory, and lines starting with # are ignored. Replaces the -input and -output options.", required = false)
+	public String manifest = null;
+
+	@Parameter(names = { "-r", "-recursive" }, description = "When the input is a directory or contains wildcards, also reproject the matching objects in its subdirectories. The directory structure is recreated in the output directory. Each directory is searched once, so symbolic links back to a directory already searched are skipped.", required = false)
+	public boolean recursive = false;
+
+	@Parameter(names = { "-filter" }, description = "Comma or semicolon separated wildcards matching the GOCAD objects to reproject when the input is a directory.", required = false)
+	public String filter = DirectoryScanner.DEFAULT_FILTER;
+
+	@Parameter(names = { "-suffix" }, description = "Suffix added to the output filenames when the input is a directory or contains wildcards.", required = false)
+	public String suffix = DirectoryScanner.DEFAULT_SUFFIX;
+
+	@Parameter(names = { "-threads" }, description = "The number of GOCAD objects to reproject at the same time.", required = false)
+	public int threads = Runtime.getRuntime().availableProcessors();
+
+	@Parameter(names = { "-stats" }, description = "Print statistics for each reprojected object (lines, vertices, bytes, SGrid side files, and time spent parsing, transforming and writing): 'text' logs a summary of each object, 'json' prints a JSON document to standard output once every object has been reprojected.", required = false)
+	public String statistics = null;
+
+	@Parameter(names = { "-incremental" }, description = "Only reproject the objects that have changed since the last incremental run. A manifest (the output filename with .manifest appended) is written next to each output, recording the SHA-256 hash of the input and its data files, the spatial references, and the options used; objects whose manifest is unchanged are skipped, and outdated outputs are overwritten.", required = false)
+	public boolean incremental = false;
+}
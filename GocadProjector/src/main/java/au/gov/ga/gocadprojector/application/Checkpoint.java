@@ -0,0 +1,410 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.application;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * The state of a checkpointed reprojection (see {@link Parameters#checkpoint}
+ * ), from which an interrupted reprojection can be resumed. The output is
+ * written to a partial file (the output filename with
+ * {@link #PARTIAL_EXTENSION} appended), and the checkpoint is stored next to
+ * it (with {@link #EXTENSION} appended), recording:
+ * <ul>
+ * <li>a fingerprint of the reprojection: the {@link Projector#VERSION}, the
+ * spatial references and options that affect the output, and the path, size
+ * and modification time of the input</li>
+ * <li>the byte offsets of the input and partial output at the start of a
+ * line, and the state of the {@link Projector} at that line: the line number,
+ * the type of object being read, the Voxet/GSurf axis origin and the SGrid
+ * name and points offset</li>
+ * <li>the SGrid side file being reprojected at that line, if any, and the
+ * byte offsets of its input and output</li>
+ * <li>the path, size and modification time of every SGrid (or resampled
+ * Voxet/GSurf) side file read so far, as the fingerprint only covers the
+ * input object itself</li>
+ * <li>every side file written next to the output so far, and how many of them
+ * are referenced by the output before the checkpoint; the others are deleted
+ * when resuming, so that they are written again with the same names</li>
+ * </ul>
+ */
+public class Checkpoint
+{
+	public final static String EXTENSION = ".checkpoint";
+	public final static String PARTIAL_EXTENSION = ".partial";
+
+	private final static String HEADER = "GOCAD Projector checkpoint";
+
+	public final String fingerprint;
+	public long inputOffset = 0;
+	public boolean skipLineFeed = false;
+	public long outputOffset = 0;
+	public int lineNumber = 1;
+	public String mode;
+	public double[] axisOriginal;
+	public double[] axisProjected;
+	public String name;
+	public int pointsOffset = 0;
+	public String sideFile;
+	public long sideInputOffset = 0;
+	public boolean sideSkipLineFeed = false;
+	public long sideOutputOffset = 0;
+	public int committedFiles = 0;
+	public final List<String> files = new ArrayList<String>();
+	/**
+	 * Side file inputs read so far, mapped to their size and modification
+	 * time (see {@link #addSideInput(File)})
+	 */
+	public final Map<String, String> sideInputs = new LinkedHashMap<String, String>();
+
+	/**
+	 * Create a checkpoint at the start of a reprojection.
+	 * 
+	 * @param fingerprint
+	 *            Fingerprint of the reprojection, from
+	 *            {@link #createFingerprint(Parameters)}
+	 * @param mode
+	 *            Type of object at the start of the input
+	 */
+	public Checkpoint(String fingerprint, String mode)
+	{
+		this.fingerprint = fingerprint;
+		this.mode = mode;
+	}
+
+	/**
+	 * Create the fingerprint of a reprojection. A checkpoint can only be
+	 * resumed by a reprojection with the same fingerprint.
+	 */
+	public static String createFingerprint(Parameters job)
+	{
+		File input = new File(job.inputFile).getAbsoluteFile();
+		return "version=" + Projector.VERSION + " s_srs=" + job.sourceSRS + " t_srs=" + job.targetSRS + " engine="
+				+ job.engine + " precision=" + job.precision + " little_endian=" + job.littleEndian + " resample="
+				+ job.resample + " input=" + input.getPath() + " " + describeInput(input);
+	}
+
+	/**
+	 * Record the size and modification time of a side file input as it is
+	 * opened. The reprojection is not resumed if any recorded side file has
+	 * changed since, as the output before the checkpoint was reprojected from
+	 * its old contents.
+	 */
+	public void addSideInput(File input)
+	{
+		sideInputs.put(input.getAbsolutePath(), describeInput(input));
+	}
+
+	/**
+	 * @return The checkpoint file of the given output
+	 */
+	public static File getFile(File output)
+	{
+		return new File(output.getPath() + EXTENSION);
+	}
+
+	/**
+	 * @return The partial file the given output is written to while it is
+	 *         checkpointed
+	 */
+	public static File getPartialFile(File output)
+	{
+		return new File(output.getPath() + PARTIAL_EXTENSION);
+	}
+
+	/**
+	 * Read the checkpoint of an output.
+	 * 
+	 * @param output
+	 *            Reprojected output file
+	 * @return The output's checkpoint, or null if it doesn't have a (valid)
+	 *         one
+	 */
+	public static Checkpoint read(File output) throws IOException
+	{
+		Properties properties = new Properties();
+		InputStream is;
+		try
+		{
+			is = new FileInputStream(getFile(output));
+		}
+		catch (FileNotFoundException e)
+		{
+			return null;
+		}
+		try
+		{
+			properties.load(is);
+		}
+		finally
+		{
+			is.close();
+		}
+		if (!HEADER.equals(properties.getProperty("header")) || properties.getProperty("fingerprint") == null)
+		{
+			return null;
+		}
+
+		try
+		{
+			Checkpoint checkpoint = new Checkpoint(properties.getProperty("fingerprint"), properties.getProperty("mode"));
+			checkpoint.inputOffset = Long.parseLong(properties.getProperty("input_offset"));
+			checkpoint.skipLineFeed = Boolean.parseBoolean(properties.getProperty("skip_line_feed"));
+			checkpoint.outputOffset = Long.parseLong(properties.getProperty("output_offset"));
+			checkpoint.lineNumber = Integer.parseInt(properties.getProperty("line"));
+			checkpoint.axisOriginal = parsePoint(properties.getProperty("axis_o"));
+			checkpoint.axisProjected = parsePoint(properties.getProperty("axis_o_projected"));
+			checkpoint.name = properties.getProperty("name");
+			checkpoint.pointsOffset = Integer.parseInt(properties.getProperty("points_offset"));
+			checkpoint.sideFile = properties.getProperty("side_file");
+			if (checkpoint.sideFile != null)
+			{
+				checkpoint.sideInputOffset = Long.parseLong(properties.getProperty("side_input_offset"));
+				checkpoint.sideSkipLineFeed = Boolean.parseBoolean(properties.getProperty("side_skip_line_feed"));
+				checkpoint.sideOutputOffset = Long.parseLong(properties.getProperty("side_output_offset"));
+			}
+			checkpoint.committedFiles = Integer.parseInt(properties.getProperty("committed_files"));
+			for (int i = 0; properties.getProperty("file." + i) != null; i++)
+			{
+				checkpoint.files.add(properties.getProperty("file." + i));
+			}
+			for (int i = 0; properties.getProperty("side_input." + i) != null; i++)
+			{
+				String state = properties.getProperty("side_input." + i + ".state");
+				if (state == null)
+				{
+					return null;
+				}
+				checkpoint.sideInputs.put(properties.getProperty("side_input." + i), state);
+			}
+			return checkpoint;
+		}
+		catch (RuntimeException e)
+		{
+			//missing or malformed values
+			return null;
+		}
+	}
+
+	/**
+	 * Check if a reprojection can be resumed from this checkpoint.
+	 * 
+	 * @param fingerprint
+	 *            Fingerprint of the reprojection
+	 * @param output
+	 *            Reprojected output file
+	 * @return The reason the reprojection can't be resumed, or null if it can
+	 */
+	public String getResumeProblem(String fingerprint, File output)
+	{
+		if (!this.fingerprint.equals(fingerprint))
+		{
+			return "the input or options have changed";
+		}
+		if (getPartialFile(output).length() < outputOffset)
+		{
+			return "the partial output is shorter than the checkpoint";
+		}
+		if (sideFile != null && getSideFile(output, sideFile).length() < sideOutputOffset)
+		{
+			return "the side file " + sideFile + " is shorter than the checkpoint";
+		}
+		for (Map.Entry<String, String> entry : sideInputs.entrySet())
+		{
+			if (!describeInput(new File(entry.getKey())).equals(entry.getValue()))
+			{
+				return "the side file input " + entry.getKey() + " has changed";
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Write this checkpoint for an output. It is written to a temporary file
+	 * first, so an interrupted write never leaves a partial checkpoint behind.
+	 * 
+	 * @param output
+	 *            Reprojected output file
+	 */
+	public void write(File output) throws IOException
+	{
+		Properties properties = new Properties();
+		properties.setProperty("header", HEADER);
+		properties.setProperty("fingerprint", fingerprint);
+		properties.setProperty("input_offset", String.valueOf(inputOffset));
+		properties.setProperty("skip_line_feed", String.valueOf(skipLineFeed));
+		properties.setProperty("output_offset", String.valueOf(outputOffset));
+		properties.setProperty("line", String.valueOf(lineNumber));
+		properties.setProperty("mode", mode);
+		setProperty(properties, "axis_o", formatPoint(axisOriginal));
+		setProperty(properties, "axis_o_projected", formatPoint(axisProjected));
+		setProperty(properties, "name", name);
+		properties.setProperty("points_offset", String.valueOf(pointsOffset));
+		if (sideFile != null)
+		{
+			properties.setProperty("side_file", sideFile);
+			properties.setProperty("side_input_offset", String.valueOf(sideInputOffset));
+			properties.setProperty("side_skip_line_feed", String.valueOf(sideSkipLineFeed));
+			properties.setProperty("side_output_offset", String.valueOf(sideOutputOffset));
+		}
+		properties.setProperty("committed_files", String.valueOf(committedFiles));
+		for (int i = 0; i < files.size(); i++)
+		{
+			properties.setProperty("file." + i, files.get(i));
+		}
+		int index = 0;
+		for (Map.Entry<String, String> entry : sideInputs.entrySet())
+		{
+			properties.setProperty("side_input." + index, entry.getKey());
+			properties.setProperty("side_input." + index + ".state", entry.getValue());
+			index++;
+		}
+
+		File file = getFile(output);
+		File temp = new File(file.getPath() + ".tmp");
+		FileOutputStream os = new FileOutputStream(temp);
+		try
+		{
+			properties.store(os, null);
+			os.getFD().sync();
+		}
+		finally
+		{
+			os.close();
+		}
+		if ((file.exists() && !file.delete()) || !temp.renameTo(file))
+		{
+			temp.delete();
+			throw new IOException("Could not write checkpoint: " + file);
+		}
+	}
+
+	/**
+	 * Delete the side files created after this checkpoint, so that resuming
+	 * writes them again with the same names. The side file being reprojected
+	 * at the checkpoint (if any) is kept, as it is continued.
+	 * 
+	 * @param output
+	 *            Reprojected output file
+	 */
+	public void deleteUncommittedFiles(File output)
+	{
+		while (files.size() > committedFiles)
+		{
+			getSideFile(output, files.remove(files.size() - 1)).delete();
+		}
+	}
+
+	/**
+	 * Delete this checkpoint, the partial output and every side file written
+	 * since the reprojection started, when it can't be resumed.
+	 * 
+	 * @param output
+	 *            Reprojected output file
+	 */
+	public void discard(File output) throws IOException
+	{
+		for (String file : files)
+		{
+			getSideFile(output, file).delete();
+		}
+		getPartialFile(output).delete();
+		File file = getFile(output);
+		if (file.exists() && !file.delete())
+		{
+			throw new IOException("Could not delete checkpoint: " + file);
+		}
+	}
+
+	/**
+	 * Open an output file for writing from the given offset, discarding any
+	 * bytes after it.
+	 */
+	public static FileOutputStream openOutput(File file, long offset) throws IOException
+	{
+		if (offset == 0)
+		{
+			return new FileOutputStream(file);
+		}
+		RandomAccessFile truncate = new RandomAccessFile(file, "rw");
+		try
+		{
+			truncate.setLength(offset);
+		}
+		finally
+		{
+			truncate.close();
+		}
+		return new FileOutputStream(file, true);
+	}
+
+	/**
+	 * Open an input file for reading from the given offset.
+	 */
+	public static FileInputStream openInput(File file, long offset) throws IOException
+	{
+		FileInputStream is = new FileInputStream(file);
+		if (offset > 0)
+		{
+			is.getChannel().position(offset);
+		}
+		return is;
+	}
+
+	private static String describeInput(File input)
+	{
+		return "length=" + input.length() + " modified=" + input.lastModified();
+	}
+
+	private static File getSideFile(File output, String name)
+	{
+		return new File(output.getAbsoluteFile().getParentFile(), name);
+	}
+
+	private static void setProperty(Properties properties, String key, String value)
+	{
+		if (value != null)
+		{
+			properties.setProperty(key, value);
+		}
+	}
+
+	private static String formatPoint(double[] point)
+	{
+		return point == null ? null : point[0] + " " + point[1] + " " + point[2];
+	}
+
+	private static double[] parsePoint(String value)
+	{
+		if (value == null)
+		{
+			return null;
+		}
+		String[] split = value.split(" ");
+		return new double[] { Double.parseDouble(split[0]), Double.parseDouble(split[1]), Double.parseDouble(split[2]) };
+	}
+}
@@ -15,10 +15,22 @@
  ******************************************************************************/
 package au.gov.ga.gocadprojector.application;
 
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import au.gov.ga.gocadprojector.transform.TransformationEngines;
+import au.gov.ga.gocadprojector.util.Compression;
 import au.gov.ga.gocadprojector.util.GDALUtil;
+import au.gov.ga.gocadprojector.util.ParallelGzipOutputStream;
 
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.ParameterException;
@@ -34,34 +46,183 @@ public class Console
 
 	public static void main(String[] args)
 	{
-		GDALUtil.init();
-
-		Parameters parameters = handleCommandLineArguments(args);
-		if (parameters == null)
+		Parameters parameters = new Parameters();
+		BatchParameters batchParameters = new BatchParameters();
+		if (!handleCommandLineArguments(args, parameters, batchParameters))
 		{
 			return;
 		}
-		Projector projector = new Projector();
+
+		//the java engine doesn't require the GDAL native libraries
+		if (!TransformationEngines.JAVA.equalsIgnoreCase(parameters.engine))
+		{
+			try
+			{
+				GDALUtil.init();
+			}
+			catch (LinkageError e)
+			{
+				if (!TransformationEngines.AUTO.equalsIgnoreCase(parameters.engine))
+				{
+					throw e;
+				}
+				logger.warn("Could not load the GDAL native libraries, only the java engine is available: " + e);
+			}
+		}
+
+		int failed;
 		try
 		{
-			projector.project(parameters);
+			if (Projector.STREAM.equals(parameters.inputFile) || Projector.STREAM.equals(parameters.outputFile))
+			{
+				projectStream(parameters, batchParameters.statistics);
+				return;
+			}
+			List<Parameters> jobs = Batch.createJobs(parameters, batchParameters);
+			if (jobs.isEmpty())
+			{
+				logger.warn("No GOCAD objects found to reproject");
+				return;
+			}
+			Batch batch = new Batch(jobs, batchParameters.threads);
+			batch.setStatisticsFormat(batchParameters.statistics);
+			batch.setIncremental(batchParameters.incremental);
+			failed = batch.run();
 		}
 		catch (Exception e)
 		{
 			logger.error("Error", e);
+			failed = 1;
+		}
+		if (failed > 0)
+		{
+			System.exit(1);
 		}
 	}
 
-	private static Parameters handleCommandLineArguments(String[] args)
+	/**
+	 * Reproject a GOCAD object read from standard input and/or written to
+	 * standard output (given as -), so that GOCAD text can be piped through
+	 * the projector. Side files are read relative to the input file's
+	 * directory and written to the output file's directory, or the current
+	 * directory for standard input and output.
+	 */
+	private static void projectStream(Parameters parameters, String statisticsFormat) throws Exception
+	{
+		boolean standardInput = Projector.STREAM.equals(parameters.inputFile);
+		boolean standardOutput = Projector.STREAM.equals(parameters.outputFile);
+		File currentDirectory = new File("").getAbsoluteFile();
+		File input = standardInput ? null : new File(parameters.inputFile).getAbsoluteFile();
+		File output = standardOutput ? null : new File(parameters.outputFile).getAbsoluteFile();
+		if (output != null && output.exists() && !parameters.overwrite)
+		{
+			throw new IOException("Output file already exists: " + output);
+		}
+		SideFileResolver resolver =
+				new DirectorySideFileResolver(standardInput ? currentDirectory : input.getParentFile(),
+						standardOutput ? currentDirectory : output.getParentFile());
+
+		InputStream is = standardInput ? System.in : new FileInputStream(input);
+		try
+		{
+			OutputStream os;
+			if (standardOutput)
+			{
+				os = new FileOutputStream(FileDescriptor.out);
+			}
+			else
+			{
+				output.getParentFile().mkdirs();
+				boolean compressed = Compression.isCompressedName(output);
+				os = new FileOutputStream(output);
+				if (compressed)
+				{
+					os = new ParallelGzipOutputStream(os, parameters.compressionThreads);
+				}
+			}
+			try
+			{
+				ProjectionStatistics statistics = new ProjectionStatistics();
+				new Projector().project(parameters, is, os, resolver, statistics);
+				if (Batch.TEXT_STATISTICS.equalsIgnoreCase(statisticsFormat))
+				{
+					logger.info("Reprojected " + parameters.inputFile + ": " + statistics);
+				}
+				else if (Batch.JSON_STATISTICS.equalsIgnoreCase(statisticsFormat))
+				{
+					System.out.println(statistics.toJson());
+				}
+			}
+			finally
+			{
+				//standard output is flushed, but left open
+				if (!standardOutput)
+				{
+					os.close();
+				}
+			}
+		}
+		finally
+		{
+			if (!standardInput)
+			{
+				is.close();
+			}
+		}
+	}
+
+	private static boolean handleCommandLineArguments(String[] args, Parameters parameters,
+			BatchParameters batchParameters)
 	{
-		Parameters parameters = new Parameters();
 		JCommander jCommander = null;
 		try
 		{
 			jCommander = new JCommander();
 			jCommander.setProgramName("gocadprojector");
 			jCommander.addObject(parameters);
+			jCommander.addObject(batchParameters);
 			jCommander.parse(args);
+			if (!parameters.showUsage && batchParameters.manifest == null
+					&& (parameters.inputFile == null || parameters.outputFile == null))
+			{
+				throw new ParameterException(
+						"The following options are required: -i, -o (or -m in place of both)");
+			}
+			if (batchParameters.statistics != null
+					&& !Batch.TEXT_STATISTICS.equalsIgnoreCase(batchParameters.statistics)
+					&& !Batch.JSON_STATISTICS.equalsIgnoreCase(batchParameters.statistics))
+			{
+				throw new ParameterException("-stats must be '" + Batch.TEXT_STATISTICS + "' or '"
+						+ Batch.JSON_STATISTICS + "'");
+			}
+			if (Projector.STREAM.equals(parameters.outputFile)
+					&& Batch.JSON_STATISTICS.equalsIgnoreCase(batchParameters.statistics))
+			{
+				throw new ParameterException("-stats " + Batch.JSON_STATISTICS
+						+ " can't be used when writing to standard output (-o " + Projector.STREAM + ")");
+			}
+			try
+			{
+				VoxetResampler.checkResample(parameters.resample);
+			}
+			catch (IllegalArgumentException e)
+			{
+				throw new ParameterException("-resample: " + e.getLocalizedMessage());
+			}
+			if (parameters.extraOutputFiles.size() != parameters.extraTargetSRS.size())
+			{
+				throw new ParameterException("-extra_o must be given once for each -extra_t");
+			}
+			boolean streaming =
+					Projector.STREAM.equals(parameters.inputFile) || Projector.STREAM.equals(parameters.outputFile);
+			if (!parameters.extraTargetSRS.isEmpty()
+					&& (parameters.checkpoint > 0 || parameters.parallelMembers
+							|| VoxetResampler.isResampling(parameters.resample) || batchParameters.manifest != null
+							|| batchParameters.incremental || streaming))
+			{
+				throw new ParameterException("-extra_t can't be combined with -checkpoint, -parallel_members, "
+						+ "-resample, -m, -incremental or standard input and output");
+			}
 		}
 		catch (ParameterException e)
 		{
@@ -70,15 +231,19 @@ public class Console
 				logger.error(e.getLocalizedMessage());
 			}
 			jCommander.usage();
-			return null;
+			if (!parameters.showUsage)
+			{
+				System.exit(1);
+			}
+			return false;
 		}
 		if (parameters.showUsage)
 		{
 			StringBuilder builder = new StringBuilder();
 			jCommander.usage(builder);
 			logger.info(builder.toString());
-			return null;
+			return false;
 		}
-		return parameters;
+		return true;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.application;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+
+import au.gov.ga.gocadprojector.transform.TransformationEngine;
+import au.gov.ga.gocadprojector.util.ByteLine;
+import au.gov.ga.gocadprojector.util.CoordinateScanner;
+import au.gov.ga.gocadprojector.util.LineWriter;
+
+/**
+ * A block of complete lines from an SGrid ASCII_DATA_FILE, which can be
+ * reprojected independently of the rest of the file. Chunks are reusable;
+ * they are filled by a single reader thread, reprojected on a worker thread,
+ * and then written back by the reader thread in their original order.
+ */
+public class DataFileChunk extends LineBlock implements Callable<DataFileChunk>
+{
+	private final BlockingQueue<TransformationEngine> transformations;
+	private final CoordinateScanner scanner = new CoordinateScanner();
+	private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+	private final ByteLine line = new ByteLine();
+	private final LineWriter writer = new LineWriter(output);
+	private double[] coordinates = new double[0];
+
+	/**
+	 * @param size
+	 *            Initial size of the chunk in bytes
+	 * @param transformations
+	 *            Pool of transformations; a transformation is taken from the
+	 *            pool while this chunk is reprojected
+	 * @param precision
+	 *            Number of decimal places to write, or -1 for the shortest
+	 *            round trip representation
+	 */
+	public DataFileChunk(int size, BlockingQueue<TransformationEngine> transformations, int precision)
+	{
+		super(size);
+		this.transformations = transformations;
+		this.writer.setPrecision(precision);
+	}
+
+	@Override
+	public DataFileChunk call() throws Exception
+	{
+		output.reset();
+
+		//first pass: parse the coordinates of every data line
+		int count = 0;
+		for (int start = 0; start < length;)
+		{
+			int end = lineEnd(start);
+			setLine(line, start, end);
+			if (scanner.scanDataFileLine(line))
+			{
+				int index = count * 3;
+				if (index == coordinates.length)
+				{
+					double[] grown = new double[Math.max(48, index * 2)];
+					System.arraycopy(coordinates, 0, grown, 0, index);
+					coordinates = grown;
+				}
+				coordinates[index] = scanner.parseCoordinate(line, 0);
+				coordinates[index + 1] = scanner.parseCoordinate(line, 1);
+				coordinates[index + 2] = scanner.parseCoordinate(line, 2);
+				count++;
+			}
+			start = nextLineStart(end);
+		}
+
+		if (count > 0)
+		{
+			TransformationEngine transformation = transformations.take();
+			try
+			{
+				transformation.transform(coordinates, count);
+			}
+			finally
+			{
+				transformations.put(transformation);
+			}
+		}
+
+		//second pass: write the lines with the reprojected coordinates
+		int index = 0;
+		for (int start = 0; start < length;)
+		{
+			int end = lineEnd(start);
+			setLine(line, start, end);
+			if (scanner.scanDataFileLine(line))
+			{
+				writer.writeLine(line, scanner.getStarts(), scanner.getEnds(), coordinates[index],
+						coordinates[index + 1], coordinates[index + 2]);
+				index += 3;
+			}
+			else
+			{
+				writer.writeLine(line);
+			}
+			start = nextLineStart(end);
+		}
+		writer.flush();
+		return this;
+	}
+
+	/**
+	 * Write the reprojected lines of this chunk to the given writer.
+	 */
+	public void writeTo(OutputStream stream) throws IOException
+	{
+		output.writeTo(stream);
+	}
+}
@@ -0,0 +1,73 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.application;
+
+import java.io.File;
+
+/**
+ * {@link SideFileResolver} that reads side files relative to an input
+ * directory, and writes the reprojected side files to an output directory.
+ */
+public class DirectorySideFileResolver implements SideFileResolver
+{
+	private final File inputDirectory;
+	private final File outputDirectory;
+
+	/**
+	 * @param inputDirectory
+	 *            Directory side files are read relative to
+	 * @param outputDirectory
+	 *            Directory reprojected side files are written to
+	 */
+	public DirectorySideFileResolver(File inputDirectory, File outputDirectory)
+	{
+		this.inputDirectory = inputDirectory.getAbsoluteFile();
+		this.outputDirectory = outputDirectory.getAbsoluteFile();
+	}
+
+	/**
+	 * Create a resolver for a GOCAD object reprojected between files, which
+	 * reads side files from the input's directory and writes them to the
+	 * output's directory.
+	 */
+	public static DirectorySideFileResolver forFiles(File input, File output)
+	{
+		return new DirectorySideFileResolver(input.getAbsoluteFile().getParentFile(), output.getAbsoluteFile()
+				.getParentFile());
+	}
+
+	/**
+	 * Create a resolver that reads and writes side files in the current
+	 * directory.
+	 */
+	public static DirectorySideFileResolver forCurrentDirectory()
+	{
+		File directory = new File("").getAbsoluteFile();
+		return new DirectorySideFileResolver(directory, directory);
+	}
+
+	@Override
+	public File getInputFile(String name)
+	{
+		return new File(inputDirectory, name);
+	}
+
+	@Override
+	public File getOutputDirectory()
+	{
+		return outputDirectory;
+	}
+}
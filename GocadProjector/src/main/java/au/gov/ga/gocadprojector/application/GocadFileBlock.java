@@ -0,0 +1,254 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.application;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import au.gov.ga.gocadprojector.transform.TransformationEngine;
+import au.gov.ga.gocadprojector.util.ByteLine;
+import au.gov.ga.gocadprojector.util.CoordinateScanner;
+import au.gov.ga.gocadprojector.util.LineWriter;
+
+/**
+ * A block of complete lines from a GOCAD object file, used when reprojecting
+ * a single file in a pipeline.
+ * <p/>
+ * The reader thread fills the block and runs the object type state machine
+ * over its lines. Lines within simple objects (vertices, triangles etc) are
+ * left to be reprojected on a worker thread; every other line is handled by
+ * the reader thread, which writes its output to the block as a
+ * <i>sequential</i> line. The worker then writes all lines in their original
+ * order, and the block is written to the output file by the writer thread.
+ */
+public class GocadFileBlock extends LineBlock implements Callable<GocadFileBlock>
+{
+	private final static Logger logger = LoggerFactory.getLogger(GocadFileBlock.class);
+
+	private final static int SIMPLE_LINE = -1;
+	private final static int UNPARSABLE_LINE = -2;
+
+	private final BlockingQueue<TransformationEngine> transformations;
+	private final CoordinateScanner scanner = new CoordinateScanner();
+	private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+	private final LineWriter writer = new LineWriter(output);
+	private final ByteArrayOutputStream sequentialOutput = new ByteArrayOutputStream();
+	private final LineWriter sequentialWriter = new LineWriter(sequentialOutput);
+	private final ByteLine view = new ByteLine();
+	private final ByteLine line = new ByteLine();
+	private final ByteLine sequential = new ByteLine();
+	private int[] lineStarts = new int[0];
+	private int[] lineEnds = new int[0];
+	private int[] sequentialEnds = new int[0];
+	private int lineCount = 0;
+	private int sequentialCount = 0;
+	private int firstLineNumber = 1;
+	private double[] coordinates = new double[0];
+
+	/**
+	 * @param size
+	 *            Initial size of the block in bytes
+	 * @param transformations
+	 *            Pool of transformations; a transformation is taken from the
+	 *            pool while this block is reprojected
+	 * @param precision
+	 *            Number of decimal places to write, or -1 for the shortest
+	 *            round trip representation
+	 */
+	public GocadFileBlock(int size, BlockingQueue<TransformationEngine> transformations, int precision)
+	{
+		super(size);
+		this.transformations = transformations;
+		this.writer.setPrecision(precision);
+		this.sequentialWriter.setPrecision(precision);
+	}
+
+	/**
+	 * Split the block into lines after it has been filled. Every line is
+	 * initially marked as a simple line, to be reprojected by the worker.
+	 * 
+	 * @param firstLineNumber
+	 *            Line number of the first line in the block, for error
+	 *            messages
+	 * @return Number of lines in the block
+	 */
+	public int splitLines(int firstLineNumber)
+	{
+		this.firstLineNumber = firstLineNumber;
+		sequentialOutput.reset();
+		sequentialCount = 0;
+		lineCount = 0;
+		for (int start = 0; start < length;)
+		{
+			int end = lineEnd(start);
+			if (lineCount == lineStarts.length)
+			{
+				int capacity = Math.max(256, lineCount * 2);
+				lineStarts = grow(lineStarts, capacity);
+				lineEnds = grow(lineEnds, capacity);
+				sequentialEnds = grow(sequentialEnds, capacity);
+			}
+			lineStarts[lineCount] = start;
+			lineEnds[lineCount] = end;
+			sequentialEnds[lineCount] = SIMPLE_LINE;
+			lineCount++;
+			start = nextLineStart(end);
+		}
+		return lineCount;
+	}
+
+	/**
+	 * @return The given line, as a view that is reused between calls
+	 */
+	public CharSequence getLineSequence(int index)
+	{
+		setLine(view, lineStarts[index], lineEnds[index]);
+		return view;
+	}
+
+	/**
+	 * @return Writer that the output of the next sequential line should be
+	 *         written to, before calling {@link #endSequentialLine(int)}
+	 */
+	public LineWriter getSequentialWriter()
+	{
+		return sequentialWriter;
+	}
+
+	/**
+	 * Mark the given line as sequential; its output is everything written to
+	 * the sequential writer since the previous sequential line.
+	 */
+	public void endSequentialLine(int index) throws IOException
+	{
+		sequentialWriter.flush();
+		sequentialEnds[index] = sequentialOutput.size();
+		sequentialCount++;
+	}
+
+	@Override
+	public GocadFileBlock call() throws Exception
+	{
+		output.reset();
+
+		//first pass: parse the coordinates of the simple vertex lines
+		int count = 0;
+		for (int i = 0; i < lineCount; i++)
+		{
+			if (sequentialEnds[i] != SIMPLE_LINE)
+			{
+				continue;
+			}
+			setLine(line, lineStarts[i], lineEnds[i]);
+			if (scanVertex(line))
+			{
+				try
+				{
+					double x = scanner.parseCoordinate(line, 0);
+					double y = scanner.parseCoordinate(line, 1);
+					double z = scanner.parseCoordinate(line, 2);
+					int index = count * 3;
+					if (index == coordinates.length)
+					{
+						double[] grown = new double[Math.max(48, index * 2)];
+						System.arraycopy(coordinates, 0, grown, 0, index);
+						coordinates = grown;
+					}
+					coordinates[index] = x;
+					coordinates[index + 1] = y;
+					coordinates[index + 2] = z;
+					count++;
+				}
+				catch (NumberFormatException e)
+				{
+					logger.error("Error parsing line " + (firstLineNumber + i) + ": ", e);
+					sequentialEnds[i] = UNPARSABLE_LINE;
+				}
+			}
+		}
+
+		if (count > 0)
+		{
+			TransformationEngine transformation = transformations.take();
+			try
+			{
+				transformation.transform(coordinates, count);
+			}
+			finally
+			{
+				transformations.put(transformation);
+			}
+		}
+
+		//second pass: write the lines in order
+		if (sequentialCount > 0)
+		{
+			byte[] bytes = sequentialOutput.toByteArray();
+			sequential.set(bytes, 0, bytes.length);
+		}
+		int sequentialStart = 0;
+		int index = 0;
+		for (int i = 0; i < lineCount; i++)
+		{
+			int sequentialEnd = sequentialEnds[i];
+			if (sequentialEnd >= 0)
+			{
+				writer.write(sequential, sequentialStart, sequentialEnd);
+				sequentialStart = sequentialEnd;
+				continue;
+			}
+			setLine(line, lineStarts[i], lineEnds[i]);
+			if (sequentialEnd == SIMPLE_LINE && scanVertex(line))
+			{
+				writer.writeLine(line, scanner.getStarts(), scanner.getEnds(), coordinates[index],
+						coordinates[index + 1], coordinates[index + 2]);
+				index += 3;
+			}
+			else
+			{
+				writer.writeLine(line);
+			}
+		}
+		writer.flush();
+		return this;
+	}
+
+	/**
+	 * Write the reprojected lines of this block to the given writer.
+	 */
+	public void writeTo(OutputStream stream) throws IOException
+	{
+		output.writeTo(stream);
+	}
+
+	private boolean scanVertex(CharSequence line)
+	{
+		return scanner.scanVertex(line) || scanner.scanWellReference(line);
+	}
+
+	private static int[] grow(int[] array, int capacity)
+	{
+		int[] grown = new int[capacity];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+}
@@ -0,0 +1,260 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.application;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import au.gov.ga.gocadprojector.application.Projector.Mode;
+import au.gov.ga.gocadprojector.util.ByteLine;
+import au.gov.ga.gocadprojector.util.ByteLineReader;
+
+/**
+ * The member objects of a GOCAD file (eg. the surfaces bundled in a Group),
+ * found by a quick scan of the object boundaries, so that the members can be
+ * reprojected concurrently by separate {@link Projector}s and their outputs
+ * concatenated in their original order.
+ * <p/>
+ * Each member starts at the GOCAD header line of an object, and extends to
+ * the header of the next object (so the lines after its END, such as a
+ * Group's member list, belong to it); any lines before the first object form
+ * a member of their own. No state is carried between objects by the serial
+ * reprojection, so the concatenated output is identical.
+ * <p/>
+ * Side files (SGrid ASCII_DATA_FILEs and POINTS_FILEs, and resampled Voxet
+ * and GSurf PROP_FILEs) are given the first unused name, which depends on the
+ * names given before it. To give the same names as the serial reprojection,
+ * a member only allocates side file names once every earlier member has
+ * finished allocating them (see {@link #allocateSideFileName}); members whose
+ * objects never have side files are finished from the start.
+ */
+public class GroupMembers
+{
+	private final static int BUFFER_SIZE = 256 * 1024;
+
+	/**
+	 * A range of lines of the GOCAD file containing one object.
+	 */
+	public static class Member
+	{
+		/**
+		 * Byte offset of the member's first line
+		 */
+		public final long offset;
+		/**
+		 * Number of bytes in the member
+		 */
+		public final long length;
+		/**
+		 * True if the line before the member ended with a carriage return, so
+		 * a line feed at the member's offset belongs to that line
+		 */
+		public final boolean skipLineFeed;
+		/**
+		 * Line number of the member's first line
+		 */
+		public final int lineNumber;
+
+		private boolean finished;
+
+		private Member(long offset, long length, boolean skipLineFeed, int lineNumber, boolean finished)
+		{
+			this.offset = offset;
+			this.length = length;
+			this.skipLineFeed = skipLineFeed;
+			this.lineNumber = lineNumber;
+			this.finished = finished;
+		}
+	}
+
+	private final List<Member> members = new ArrayList<Member>();
+	private final Set<File> allocated = new HashSet<File>();
+	private int lineCount;
+	private int next = 0;
+
+	private GroupMembers()
+	{
+	}
+
+	/**
+	 * Find the member objects of a GOCAD file.
+	 * 
+	 * @param input
+	 *            GOCAD file to scan
+	 * @param resampling
+	 *            True if Voxets and GSurfs are being resampled, and so have
+	 *            side files
+	 * @return The members of the file
+	 */
+	public static GroupMembers scan(File input, boolean resampling) throws IOException
+	{
+		GroupMembers result = new GroupMembers();
+		ByteLineReader reader = new ByteLineReader(new FileInputStream(input), BUFFER_SIZE);
+		try
+		{
+			Mode mode = Mode.UNKNOWN;
+			long start = 0;
+			boolean startSkipLineFeed = false;
+			int startLine = 1;
+			boolean hasSideFiles = false;
+			int lineNumber = 1;
+			while (true)
+			{
+				long position = reader.getPosition();
+				boolean skipLineFeed = reader.isSkippingLineFeed();
+				ByteLine line = reader.readLine();
+				if (line == null)
+				{
+					break;
+				}
+				if (mode == Mode.UNKNOWN)
+				{
+					Mode type = Projector.getObjectMode(line);
+					if (type != null && type != Mode.UNKNOWN)
+					{
+						if (position > start)
+						{
+							result.add(start, position, startSkipLineFeed, startLine, hasSideFiles);
+						}
+						start = position;
+						startSkipLineFeed = skipLineFeed;
+						startLine = lineNumber;
+						hasSideFiles = type == Mode.SGRID || (resampling && (type == Mode.VOXET || type == Mode.GSURF));
+					}
+					if (type != null)
+					{
+						mode = type;
+					}
+				}
+				else if (Projector.isEndLine(line))
+				{
+					mode = Mode.UNKNOWN;
+				}
+				lineNumber++;
+			}
+			long end = input.length();
+			if (end > start || result.members.isEmpty())
+			{
+				result.add(start, end, startSkipLineFeed, startLine, hasSideFiles);
+			}
+			result.lineCount = lineNumber - 1;
+			result.skipFinished();
+		}
+		finally
+		{
+			reader.close();
+		}
+		return result;
+	}
+
+	private void add(long start, long end, boolean skipLineFeed, int lineNumber, boolean hasSideFiles)
+	{
+		members.add(new Member(start, end - start, skipLineFeed, lineNumber, !hasSideFiles));
+	}
+
+	/**
+	 * @return Number of members
+	 */
+	public int size()
+	{
+		return members.size();
+	}
+
+	/**
+	 * @return The member at the given index
+	 */
+	public Member get(int index)
+	{
+		return members.get(index);
+	}
+
+	/**
+	 * @return Number of lines in the GOCAD file
+	 */
+	public int getLineCount()
+	{
+		return lineCount;
+	}
+
+	/**
+	 * Choose an unused name for a side file of a member, waiting until every
+	 * earlier member has finished allocating side file names. Names given to
+	 * earlier members are treated as used, even if their files haven't been
+	 * written yet. The name is reserved by creating the (empty) file, so that
+	 * other reprojections writing to the same directory can't choose it.
+	 * 
+	 * @param index
+	 *            Index of the member
+	 * @return Name of the side file in the parent directory
+	 */
+	public synchronized String allocateSideFileName(int index, File parent, String prefix, String suffix)
+			throws IOException
+	{
+		while (next < index)
+		{
+			try
+			{
+				wait();
+			}
+			catch (InterruptedException e)
+			{
+				throw new InterruptedIOException("Interrupted while waiting to name a side file");
+			}
+		}
+		String name = prefix + suffix;
+		for (int i = 2; !reserve(parent, name); i++)
+		{
+			name = prefix + "_" + i + suffix;
+		}
+		allocated.add(new File(parent, name));
+		return name;
+	}
+
+	private boolean reserve(File parent, String name) throws IOException
+	{
+		File file = new File(parent, name);
+		return !allocated.contains(file) && file.createNewFile();
+	}
+
+	/**
+	 * Record that a member won't allocate any more side file names (it has
+	 * been reprojected, or has failed), allowing later members to allocate
+	 * them.
+	 * 
+	 * @param index
+	 *            Index of the member
+	 */
+	public synchronized void finished(int index)
+	{
+		members.get(index).finished = true;
+		skipFinished();
+		notifyAll();
+	}
+
+	private synchronized void skipFinished()
+	{
+		while (next < members.size() && members.get(next).finished)
+		{
+			next++;
+		}
+	}
+}
@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.application;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import au.gov.ga.gocadprojector.util.ByteLine;
+
+/**
+ * Reusable buffer holding a block of complete lines of bytes read from a
+ * file, which are viewed as {@link ByteLine}s. Blocks
+ * are filled in sequence by a single reader thread; the characters following
+ * the last complete line are carried over to the start of the next block.
+ * Lines are split in the same way as {@link java.io.BufferedReader#readLine()}.
+ */
+public abstract class LineBlock
+{
+	protected byte[] input;
+	protected int length = 0;
+	private int carriedLength = 0;
+
+	/**
+	 * @param size
+	 *            Initial size of the block in bytes
+	 */
+	protected LineBlock(int size)
+	{
+		this.input = new byte[size];
+	}
+
+	/**
+	 * Fill this block from the input stream. The block ends at the last line
+	 * terminator read; any bytes following it are carried over to the
+	 * start of the next block.
+	 * 
+	 * @param stream
+	 *            Stream to read from
+	 * @param previous
+	 *            The previously filled block, whose carried over bytes
+	 *            begin this block; null for the first block. May be this
+	 *            block, if it has already been recycled.
+	 * @return False if the end of the stream was reached and this block is
+	 *         empty
+	 */
+	public boolean fill(InputStream stream, LineBlock previous) throws IOException
+	{
+		int carried = 0;
+		if (previous != null)
+		{
+			carried = previous.carriedLength;
+			int carriedStart = previous.length;
+			ensureCapacity(carried);
+			System.arraycopy(previous.input, carriedStart, input, 0, carried);
+		}
+		length = carried;
+		carriedLength = 0;
+
+		while (true)
+		{
+			if (length == input.length)
+			{
+				int end = lastLineEnd();
+				if (end > 0)
+				{
+					carriedLength = length - end;
+					length = end;
+					return true;
+				}
+				//a single line longer than the block; grow to fit it
+				ensureCapacity(input.length * 2);
+			}
+			int read = stream.read(input, length, input.length - length);
+			if (read < 0)
+			{
+				return length > 0;
+			}
+			length += read;
+		}
+	}
+
+	protected void setLine(ByteLine line, int start, int end)
+	{
+		line.set(input, start, end);
+	}
+
+	/**
+	 * @return Index of the line terminator of the line starting at the given
+	 *         index, or the block length if the line is unterminated
+	 */
+	protected int lineEnd(int start)
+	{
+		for (int i = start; i < length; i++)
+		{
+			byte b = input[i];
+			if (b == '\n' || b == '\r')
+			{
+				return i;
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * @return Index of the start of the line following the terminator at the
+	 *         given index (which treats \r\n as a single terminator, like
+	 *         {@link java.io.BufferedReader#readLine()})
+	 */
+	protected int nextLineStart(int end)
+	{
+		if (end < length && input[end] == '\r' && end + 1 < length && input[end + 1] == '\n')
+		{
+			return end + 2;
+		}
+		return end + 1;
+	}
+
+	/**
+	 * @return Index after the last complete line terminator in the block, or
+	 *         0 if there is none. A trailing \r is not considered complete, as
+	 *         it may be followed by a \n.
+	 */
+	private int lastLineEnd()
+	{
+		for (int i = length - 1; i >= 0; i--)
+		{
+			byte b = input[i];
+			if (b == '\n' || (b == '\r' && i < length - 1))
+			{
+				return i + 1;
+			}
+		}
+		return 0;
+	}
+
+	private void ensureCapacity(int capacity)
+	{
+		if (capacity > input.length)
+		{
+			byte[] grown = new byte[capacity];
+			System.arraycopy(input, 0, grown, 0, length);
+			input = grown;
+		}
+	}
+}
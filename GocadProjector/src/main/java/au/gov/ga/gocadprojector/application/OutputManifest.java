@@ -0,0 +1,400 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.application;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import au.gov.ga.gocadprojector.util.ByteLine;
+import au.gov.ga.gocadprojector.util.ByteLineReader;
+import au.gov.ga.gocadprojector.util.Compression;
+
+/**
+ * Records what a reprojected output was created from, so that incremental
+ * batch runs can skip objects that haven't changed since they were last
+ * reprojected. The manifest is a text file stored next to the output (with
+ * the {@link #EXTENSION} appended to its name), containing:
+ * <ul>
+ * <li>a fingerprint of the reprojection: the {@link Projector#VERSION}, the
+ * source and target spatial references, the options that affect the output,
+ * and the SHA-256 hash of the input and of each data file it references (SGrid
+ * ASCII_DATA_FILEs and POINTS_FILEs, and Voxet and GSurf PROP_FILEs and
+ * FLAGS_FILEs)</li>
+ * <li>the data files written next to the output, which are deleted before
+ * the object is reprojected again so that their names can be reused</li>
+ * </ul>
+ */
+public class OutputManifest
+{
+	public final static String EXTENSION = ".manifest";
+
+	private final static String HEADER = "# GOCAD Projector manifest";
+	private final static String OUTPUT_KEY = "output";
+	private final static String PENDING = "pending";
+	private final static Pattern DATA_FILE_REGEX = Pattern
+			.compile("(?i)\\s*(?:ASCII_DATA_FILE|POINTS_FILE|FLAGS_FILE|PROP_FILE\\s+\\d+)\\s+(.*)");
+	private final static int BUFFER_SIZE = 64 * 1024;
+	private final static char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final List<String> fingerprint;
+	private final List<String> outputs;
+
+	private OutputManifest(List<String> fingerprint, List<String> outputs)
+	{
+		this.fingerprint = fingerprint;
+		this.outputs = outputs;
+	}
+
+	/**
+	 * Create the manifest describing the reprojection of a job, by hashing
+	 * its input and the data files referenced by the input.
+	 * 
+	 * @param job
+	 *            Parameters of the object to reproject
+	 * @return Manifest of the job, without any outputs
+	 */
+	public static OutputManifest create(Parameters job) throws IOException
+	{
+		List<String> fingerprint = new ArrayList<String>();
+		fingerprint.add(entry("version", Projector.VERSION));
+		fingerprint.add(entry("s_srs", job.sourceSRS));
+		fingerprint.add(entry("t_srs", job.targetSRS));
+		fingerprint.add(entry("options", "engine=" + job.engine + " precision=" + job.precision + " little_endian="
+				+ job.littleEndian + " resample=" + job.resample));
+
+		File input = new File(job.inputFile).getAbsoluteFile();
+		Set<String> dataFiles = new LinkedHashSet<String>();
+		MessageDigest digest = createDigest();
+		InputStream is = new DigestInputStream(new FileInputStream(input), digest);
+		try
+		{
+			findDataFiles(Compression.decompress(is, input.getName()), dataFiles);
+			//hash any bytes after the end of compressed data
+			byte[] buffer = new byte[BUFFER_SIZE];
+			while (is.read(buffer) >= 0)
+			{
+				//read to the end of the file
+			}
+		}
+		finally
+		{
+			is.close();
+		}
+		fingerprint.add(entry("input", toHex(digest.digest())));
+
+		for (String dataFile : dataFiles)
+		{
+			File file = new File(input.getParentFile(), dataFile);
+			fingerprint.add(entry("data", dataFile + "\t" + (file.isFile() ? hash(file) : "missing")));
+		}
+		return new OutputManifest(fingerprint, new ArrayList<String>());
+	}
+
+	/**
+	 * Read the manifest of an output.
+	 * 
+	 * @param output
+	 *            Reprojected output file
+	 * @return The output's manifest, or null if it doesn't have a (valid) one
+	 */
+	public static OutputManifest read(File output) throws IOException
+	{
+		List<String> fingerprint = new ArrayList<String>();
+		List<String> outputs = new ArrayList<String>();
+		BufferedReader reader;
+		try
+		{
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(getFile(output)), "UTF-8"));
+		}
+		catch (FileNotFoundException e)
+		{
+			return null;
+		}
+		try
+		{
+			String line = reader.readLine();
+			if (!HEADER.equals(line))
+			{
+				return null;
+			}
+			while ((line = reader.readLine()) != null)
+			{
+				if (line.startsWith(OUTPUT_KEY + "\t"))
+				{
+					outputs.add(line.substring(OUTPUT_KEY.length() + 1));
+				}
+				else if (line.length() > 0)
+				{
+					fingerprint.add(line);
+				}
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+		return new OutputManifest(fingerprint, outputs);
+	}
+
+	/**
+	 * @return The manifest file of the given output
+	 */
+	public static File getFile(File output)
+	{
+		return new File(output.getPath() + EXTENSION);
+	}
+
+	/**
+	 * Check if an output is up to date: its previous manifest has the same
+	 * fingerprint as this one, and every file written by the previous
+	 * reprojection still exists.
+	 * 
+	 * @param previous
+	 *            Manifest read from the output, or null
+	 * @param output
+	 *            Reprojected output file
+	 * @return True if the output doesn't need to be reprojected
+	 */
+	public boolean isUpToDate(OutputManifest previous, File output)
+	{
+		if (previous == null || !fingerprint.equals(previous.fingerprint) || !output.isFile())
+		{
+			return false;
+		}
+		for (String dataFile : previous.outputs)
+		{
+			if (!new File(output.getAbsoluteFile().getParentFile(), dataFile).isFile())
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Delete the manifest of an output, and the data files written next to
+	 * the output by the reprojection it describes.
+	 * 
+	 * @param output
+	 *            Reprojected output file
+	 */
+	public void delete(File output) throws IOException
+	{
+		File file = getFile(output);
+		if (file.exists() && !file.delete())
+		{
+			throw new IOException("Could not delete manifest: " + file);
+		}
+		for (String dataFile : outputs)
+		{
+			new File(output.getAbsoluteFile().getParentFile(), dataFile).delete();
+		}
+	}
+
+	/**
+	 * Write this manifest for a reprojected output. The data files referenced
+	 * by the output are recorded, except those that are also referenced by
+	 * the input (ie. weren't written by the reprojection). The manifest is
+	 * written to a temporary file first, so an interrupted write never leaves
+	 * a partial manifest behind.
+	 * 
+	 * @param job
+	 *            Parameters of the reprojected object
+	 */
+	public void write(Parameters job) throws IOException
+	{
+		File input = new File(job.inputFile).getAbsoluteFile();
+		File output = new File(job.outputFile).getAbsoluteFile();
+		Set<String> inputFiles = new LinkedHashSet<String>();
+		inputFiles.add(input.getCanonicalPath());
+		for (String dataFile : readDataFiles(input))
+		{
+			inputFiles.add(new File(input.getParentFile(), dataFile).getCanonicalPath());
+		}
+		outputs.clear();
+		for (String dataFile : readDataFiles(output))
+		{
+			File file = new File(output.getParentFile(), dataFile);
+			if (file.isFile() && !inputFiles.contains(file.getCanonicalPath()))
+			{
+				outputs.add(dataFile);
+			}
+		}
+
+		List<String> lines = new ArrayList<String>(fingerprint);
+		for (String dataFile : outputs)
+		{
+			lines.add(entry(OUTPUT_KEY, dataFile));
+		}
+		writeLines(getFile(output), lines);
+	}
+
+	/**
+	 * Write a manifest that never matches, marking an output that is about to
+	 * be written by an incremental run. If the reprojection fails, the next
+	 * run knows it can replace the partially written output.
+	 * 
+	 * @param output
+	 *            Output file about to be reprojected
+	 */
+	public static void writePending(File output) throws IOException
+	{
+		writeLines(getFile(output), Collections.singletonList(PENDING));
+	}
+
+	private static void writeLines(File file, List<String> lines) throws IOException
+	{
+		file.getAbsoluteFile().getParentFile().mkdirs();
+		File temp = new File(file.getPath() + ".tmp");
+		Writer writer = new OutputStreamWriter(new FileOutputStream(temp), "UTF-8");
+		try
+		{
+			writer.write(HEADER + "\n");
+			for (String line : lines)
+			{
+				writer.write(line + "\n");
+			}
+		}
+		finally
+		{
+			writer.close();
+		}
+		if ((file.exists() && !file.delete()) || !temp.renameTo(file))
+		{
+			temp.delete();
+			throw new IOException("Could not write manifest: " + file);
+		}
+	}
+
+	private static Set<String> readDataFiles(File file) throws IOException
+	{
+		Set<String> dataFiles = new LinkedHashSet<String>();
+		InputStream is = Compression.decompress(new FileInputStream(file), file.getName());
+		try
+		{
+			findDataFiles(is, dataFiles);
+		}
+		finally
+		{
+			is.close();
+		}
+		return dataFiles;
+	}
+
+	/**
+	 * Read a GOCAD object to the end, collecting the names of the data files
+	 * it references.
+	 */
+	private static void findDataFiles(InputStream is, Set<String> dataFiles) throws IOException
+	{
+		ByteLineReader reader = new ByteLineReader(is, BUFFER_SIZE);
+		ByteLine line;
+		while ((line = reader.readLine()) != null)
+		{
+			//cheap check before matching the regex, as most lines are vertices
+			if (containsFileKeyword(line))
+			{
+				Matcher matcher = DATA_FILE_REGEX.matcher(line);
+				if (matcher.matches())
+				{
+					dataFiles.add(ByteLine.decodeName(matcher.group(1).trim()));
+				}
+			}
+		}
+	}
+
+	private static boolean containsFileKeyword(CharSequence line)
+	{
+		for (int i = 0; i + 5 <= line.length(); i++)
+		{
+			if (line.charAt(i) == '_' && (line.charAt(i + 1) == 'F' || line.charAt(i + 1) == 'f')
+					&& (line.charAt(i + 2) == 'I' || line.charAt(i + 2) == 'i')
+					&& (line.charAt(i + 3) == 'L' || line.charAt(i + 3) == 'l')
+					&& (line.charAt(i + 4) == 'E' || line.charAt(i + 4) == 'e'))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String hash(File file) throws IOException
+	{
+		MessageDigest digest = createDigest();
+		byte[] buffer = new byte[BUFFER_SIZE];
+		InputStream is = new FileInputStream(file);
+		try
+		{
+			int read;
+			while ((read = is.read(buffer)) >= 0)
+			{
+				digest.update(buffer, 0, read);
+			}
+		}
+		finally
+		{
+			is.close();
+		}
+		return toHex(digest.digest());
+	}
+
+	private static MessageDigest createDigest()
+	{
+		try
+		{
+			return MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			//every Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String toHex(byte[] bytes)
+	{
+		char[] chars = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++)
+		{
+			chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+			chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+		}
+		return new String(chars);
+	}
+
+	private static String entry(String key, String value)
+	{
+		return key + "\t" + String.valueOf(value).replace('\r', ' ').replace('\n', ' ');
+	}
+}
@@ -15,6 +15,11 @@
  ******************************************************************************/
 package au.gov.ga.gocadprojector.application;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import au.gov.ga.gocadprojector.transform.TransformationEngines;
+
 import com.beust.jcommander.Parameter;
 
 /**
@@ -22,12 +27,12 @@ import com.beust.jcommander.Parameter;
  * 
  * @author Michael de Hoog (michael.dehoog@ga.gov.au)
  */
-public class Parameters
+public class Parameters implements Cloneable
 {
-	@Parameter(names = { "-i", "-input" }, description = "The input GOCAD object to reproject.", required = true)
+	@Parameter(names = { "-i", "-input" }, description = "The input GOCAD object to reproject, or - to read it from standard input. Can also be a directory, or a filename containing * and ? wildcards, to reproject many objects at once (see -recursive and -filter).", required = false)
 	public String inputFile = null;
 
-	@Parameter(names = { "-o", "-output" }, description = "The output repojected GOCAD object.", required = true)
+	@Parameter(names = { "-o", "-output" }, description = "The output repojected GOCAD object, or - to write it to standard output, or the output directory if the input is a directory or contains wildcards.", required = false)
 	public String outputFile = null;
 
 	@Parameter(names = { "-s", "-s_srs" }, description = "The source spatial reference set. The coordinate systems that can be passed are anything supported by the OGRSpatialReference.SetFromUserInput() call, which includes EPSG PCS and GCSes (ie. EPSG:4326), PROJ.4 declarations (as above), or the name of a .prf file containing well known text.", required = true)
@@ -36,9 +41,60 @@ public class Parameters
 	@Parameter(names = { "-t", "-t_srs" }, description = "The target spatial reference set. The coordinate systems that can be passed are anything supported by the OGRSpatialReference.SetFromUserInput() call, which includes EPSG PCS and GCSes (ie. EPSG:4326), PROJ.4 declarations (as above), or the name of a .prf file containing well known text.", required = true)
 	public String targetSRS = null;
 
+	@Parameter(names = { "-extra_t", "-extra_t_srs" }, description = "An additional target spatial reference set, written to the matching -extra_o output. Can be given more than once: the input is read and parsed once, and each line is reprojected into -t and every -extra_t and written to all outputs in the same pass, including the side files of SGrids. Additional targets are reprojected on a single thread, and can't be combined with -checkpoint, -parallel_members, -resample or standard input and output.", required = false)
+	public List<String> extraTargetSRS = new ArrayList<String>();
+
+	@Parameter(names = { "-extra_o", "-extra_output" }, description = "The output of the matching -extra_t, or its output directory if the input is a directory or contains wildcards. Must be given once for each -extra_t.", required = false)
+	public List<String> extraOutputFiles = new ArrayList<String>();
+
 	@Parameter(names = { "-f", "-overwrite" }, description = "Force overwriting the output file if it already exists.", required = false)
 	public boolean overwrite = false;
 
+	@Parameter(names = { "-b", "-batch" }, description = "The number of vertices to reproject in each bulk transformation call. A value of 1 reprojects each vertex individually.", required = false)
+	public int batchSize = 1000;
+
+	@Parameter(names = { "-p", "-precision" }, description = "The number of decimal places to round reprojected coordinates to (eg. 3 for millimetres in a projected SRS). By default the shortest representation that exactly reproduces each coordinate is written.", required = false)
+	public int precision = -1;
+
+	@Parameter(names = { "-le", "-little_endian" }, description = "Read and write the floats in SGrid POINTS_FILEs (and the values in resampled Voxet and GSurf PROP_FILEs) in little-endian byte order. By default the big-endian order written by GOCAD is used.", required = false)
+	public boolean littleEndian = false;
+
+	@Parameter(names = { "-w", "-workers" }, description = "The number of worker threads used to reproject a single large file. When greater than one, the GOCAD object (and any SGrid ASCII_DATA_FILE) is read, reprojected and written in a pipeline of blocks, using a constant amount of memory.", required = false)
+	public int workers = 1;
+
+	@Parameter(names = { "-parallel_members" }, description = "With more than one worker, reproject the member objects of a GOCAD file (eg. the surfaces bundled in a Group) concurrently, each with its own state, rather than in a pipeline of blocks. The members are written in their original order, so the output is identical; each member waiting to be written is held in memory, or in a temporary file once large.", required = false)
+	public boolean parallelMembers = false;
+
+	@Parameter(names = { "-e", "-engine" }, description = "The transformation engine to use: 'gdal' (any spatial reference supported by GDAL, but requires the GDAL native libraries), 'java' (pure Java; supports MGA/UTM and geographic GDA94, GDA2020 and WGS84 spatial references, and PROJ pipelines of affine, helmert, cart, utm and tmerc steps), or 'auto' (java when it supports the spatial references, otherwise gdal).", required = false)
+	public String engine = TransformationEngines.GDAL;
+
+	@Parameter(names = { "-resample" }, description = "Resample the binary PROP_FILEs (and FLAGS_FILE) of Voxets and GSurfs onto a grid that is axis aligned in the target spatial reference: 'none' (only reproject the grid axes), 'nearest' (nearest source node) or 'trilinear' (interpolate between the surrounding source nodes). Resampling uses -workers threads, and requires the transformation from the target to the source spatial reference.", required = false)
+	public String resample = VoxetResampler.NONE;
+
+	@Parameter(names = { "-checkpoint" }, description = "Record a checkpoint each time the given number of megabytes has been read, so that an interrupted reprojection can be resumed. The output is written to a temporary file (the output filename with .partial appended) that is renamed once complete, and the checkpoint is recorded next to it (with .checkpoint appended); running the reprojection again with the same options continues from the last checkpoint. While checkpointing, the GOCAD object and any SGrid ASCII_DATA_FILE are reprojected on a single thread. By default no checkpoints are recorded.", required = false)
+	public int checkpoint = 0;
+
+	@Parameter(names = { "-compression_threads" }, description = "The number of threads used to compress each gzip compressed output. Outputs (and SGrid side files whose input is compressed) are gzip compressed when their filename ends with .gz; compressed inputs are detected automatically.", required = false)
+	public int compressionThreads = Runtime.getRuntime().availableProcessors();
+
 	@Parameter(names = { "-h", "-help" }, description = "Print these command line usage instructions")
 	public boolean showUsage = false;
+
+	/**
+	 * @return A copy of these parameters
+	 */
+	public Parameters copy()
+	{
+		try
+		{
+			Parameters copy = (Parameters) clone();
+			copy.extraTargetSRS = new ArrayList<String>(extraTargetSRS);
+			copy.extraOutputFiles = new ArrayList<String>(extraOutputFiles);
+			return copy;
+		}
+		catch (CloneNotSupportedException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
 }
@@ -0,0 +1,2216 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.application;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.DeferredFileOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import au.gov.ga.gocadprojector.application.Projector.Mode;
+import au.gov.ga.gocadprojector.application.VoxetHeader.GridFile;
+import au.gov.ga.gocadprojector.transform.TransformationEngine;
+import au.gov.ga.gocadprojector.util.ByteLine;
+import au.gov.ga.gocadprojector.util.ByteLineReader;
+import au.gov.ga.gocadprojector.util.Compression;
+import au.gov.ga.gocadprojector.util.CoordinateScanner;
+import au.gov.ga.gocadprojector.util.LineWriter;
+import au.gov.ga.gocadprojector.util.ParallelGzipOutputStream;
+
+/**
+ * The state of a single reprojection by a {@link Projector}: the options it
+ * was given, the statistics and checkpoint it updates, and the context of the
+ * GOCAD object currently being parsed. A context is only used by the thread
+ * that reprojects its object, so a projector can run any number of
+ * reprojections at the same time, each with its own context; the members of
+ * a GOCAD file reprojected in parallel also each have their own context.
+ * <p/>
+ * Subclasses can expose the per-line and per-file methods (eg. to
+ * benchmarks).
+ */
+public class ProjectionContext
+{
+	private final static Logger logger = LoggerFactory.getLogger(ProjectionContext.class);
+
+	private final static Pattern NAME_REGEX = Pattern.compile("(?i)name:(.*)");
+	private final static Pattern ASCII_DATA_FILE_REGEX = Pattern.compile("(?i)ASCII_DATA_FILE\\s+(.*)");
+	private final static Pattern POINTS_FILE_REGEX = Pattern.compile("(?i)POINTS_FILE\\s+(.*)");
+	private final static Pattern POINTS_OFFSET_REGEX = Pattern.compile("(?i)POINTS_OFFSET\\s+(\\d+).*");
+
+	private final static int DATA_FILE_CHUNK_SIZE = 256 * 1024;
+	private final static int POINT_SIZE = 12;
+	private final static int POINTS_BLOCK_SIZE = 64 * 1024;
+	private final static int POINTS_MAP_SIZE = POINTS_BLOCK_SIZE * 256;
+	private final static long BYTES_PER_MEGABYTE = 1024 * 1024;
+	private final static int MEMBER_MEMORY_SIZE = 8 * 1024 * 1024;
+
+	private final Projector projector;
+	private final Parameters parameters;
+	private final ProjectionStatistics statistics;
+	private final SideFileResolver resolver;
+	private final String outputName;
+	private final int precision;
+	private final ByteOrder pointsByteOrder;
+	private final int workers;
+	private final int compressionThreads;
+	private final String engine;
+	private final String sourceSRS;
+	private final String targetSRS;
+	private final String resample;
+	private final int batchSize;
+	private final long checkpointInterval;
+	private final TransformationCache cache;
+	private final TransformationCache.Factory factory;
+
+	private final double[] transformed = new double[3];
+	private final CoordinateScanner scanner = new CoordinateScanner();
+	private final VertexBatch batch;
+	private ObjectContext object = new ObjectContext();
+	private Checkpoint checkpoint;
+	private File checkpointTarget;
+	private FileOutputStream checkpointStream;
+	private LineWriter checkpointWriter;
+	private long lineOffset;
+	private boolean lineSkipLineFeed;
+	private int currentLineNumber;
+	private boolean checkpointDue;
+	private String resumeSideFile;
+	private GroupMembers members;
+	private int memberIndex;
+	private List<SideFile> deferredSideFiles;
+	/**
+	 * Side files created by {@link #createSideFileName} to reserve their
+	 * names, which are written over when they are reprojected
+	 */
+	private final Set<File> reservedSideFiles = new HashSet<File>();
+	private double[][] batchOriginals;
+
+	/**
+	 * Create the context of a reprojection.
+	 * 
+	 * @param projector
+	 *            Projector performing the reprojection, which provides the
+	 *            transformations
+	 * @param parameters
+	 *            Options of the reprojection
+	 * @param statistics
+	 *            Statistics to collect counters and timings in
+	 * @param resolver
+	 *            Locates the side files referenced by the object
+	 * @param outputName
+	 *            Name used for the side files of objects without a name
+	 */
+	protected ProjectionContext(Projector projector, Parameters parameters, ProjectionStatistics statistics,
+			SideFileResolver resolver, String outputName)
+	{
+		this.projector = projector;
+		this.parameters = parameters;
+		this.statistics = statistics;
+		this.resolver = resolver;
+		this.outputName = outputName;
+		batchSize = parameters.batchSize;
+		batch = batchSize > 1 ? new VertexBatch(batchSize) : null;
+		precision = parameters.precision;
+		pointsByteOrder = parameters.littleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+		workers = parameters.workers;
+		engine = parameters.engine;
+		sourceSRS = parameters.sourceSRS;
+		targetSRS = parameters.targetSRS;
+		resample = parameters.resample;
+		VoxetResampler.checkResample(resample);
+		checkpointInterval = Math.max(0, parameters.checkpoint) * BYTES_PER_MEGABYTE;
+		compressionThreads = parameters.compressionThreads;
+		cache = projector.getTransformationCache();
+		factory = projector.getEngineFactory();
+	}
+
+	/**
+	 * Reproject a GOCAD object file, checkpointing it or reprojecting its
+	 * members in parallel if the parameters ask for it.
+	 */
+	void projectFile(File input, File output) throws IOException
+	{
+		statistics.start(input, output);
+		TransformationEngine transformation = cache.acquire(engine, sourceSRS, targetSRS, factory);
+		try
+		{
+			TransformationEngine metered = statistics.meterTransformations(transformation);
+			if (!parameters.extraTargetSRS.isEmpty())
+			{
+				projectToTargets(input, output, metered);
+			}
+			else if (checkpointInterval > 0)
+			{
+				if (Compression.isCompressed(input) || Compression.isCompressedName(output))
+				{
+					throw new IOException("Compressed GOCAD objects can't be checkpointed: " + input);
+				}
+				projectWithCheckpoints(input, output, metered);
+			}
+			else if (workers > 1 && parameters.parallelMembers && !Compression.isCompressed(input))
+			{
+				projectMembers(input, output);
+			}
+			else
+			{
+				InputStream is = openInput(input);
+				OutputStream os;
+				try
+				{
+					os = openOutput(output);
+				}
+				catch (IOException e)
+				{
+					is.close();
+					throw e;
+				}
+				if (workers > 1)
+				{
+					projectInPipeline(is, os, metered);
+				}
+				else
+				{
+					projectSequentially(is, os, metered);
+				}
+			}
+		}
+		finally
+		{
+			cache.release(engine, sourceSRS, targetSRS, transformation);
+			statistics.finish();
+			logger.debug("Transformation cache: " + cache);
+			logger.debug("Reprojected " + input + ": " + statistics);
+		}
+	}
+
+	/**
+	 * Reproject a GOCAD object read from a stream, writing it to another
+	 * stream. The streams are not closed.
+	 */
+	void projectStream(InputStream input, OutputStream output) throws IOException
+	{
+		statistics.start(Projector.STREAM, Projector.STREAM);
+		TransformationEngine transformation = cache.acquire(engine, sourceSRS, targetSRS, factory);
+		try
+		{
+			TransformationEngine metered = statistics.meterTransformations(transformation);
+			InputStream is =
+					Compression.decompress(statistics.meterInput(new CloseShieldInputStream(input)), Projector.STREAM);
+			OutputStream os = statistics.meterOutput(new CloseShieldOutputStream(output));
+			if (workers > 1)
+			{
+				projectInPipeline(is, os, metered);
+			}
+			else
+			{
+				projectSequentially(is, os, metered);
+			}
+			output.flush();
+		}
+		finally
+		{
+			cache.release(engine, sourceSRS, targetSRS, transformation);
+			statistics.finish();
+			logger.debug("Transformation cache: " + cache);
+			logger.debug("Reprojected stream: " + statistics);
+		}
+	}
+
+	/**
+	 * Reproject a GOCAD object line by line on the calling thread. The
+	 * streams are closed once the object has been reprojected.
+	 */
+	protected void projectSequentially(InputStream input, OutputStream output, TransformationEngine transformation)
+			throws IOException
+	{
+		ByteLineReader reader = new ByteLineReader(input);
+		LineWriter writer = new LineWriter(output);
+		writer.setPrecision(precision);
+		try
+		{
+			Mode mode = Mode.UNKNOWN;
+			int lineNumber = 1;
+			ByteLine line = reader.readLine();
+			while (line != null)
+			{
+				Projector.checkInterrupted();
+				mode = handleLine(line, lineNumber, mode, writer, transformation);
+				line = reader.readLine();
+				lineNumber++;
+			}
+			flushBatch(writer, transformation);
+			statistics.setLines(lineNumber - 1);
+		}
+		finally
+		{
+			reader.close();
+			writer.close();
+		}
+	}
+
+	/**
+	 * Reproject a GOCAD object file into the target spatial reference set and
+	 * each additional target (see {@link Parameters#extraTargetSRS}) in a
+	 * single pass on the calling thread. Each line of the object, and each
+	 * line or block of points of its SGrid side files, is read and parsed
+	 * once, and then reprojected into every target and written to that
+	 * target's output; so the cost of reading and parsing the input doesn't
+	 * grow with the number of targets.
+	 */
+	protected void projectToTargets(File input, File output, TransformationEngine transformation)
+			throws IOException
+	{
+		if (checkpointInterval > 0 || parameters.parallelMembers || VoxetResampler.isResampling(resample))
+		{
+			throw new IOException("Additional targets can't be checkpointed, reprojected in parallel members "
+					+ "or resampled: " + input);
+		}
+		if (parameters.extraOutputFiles.size() != parameters.extraTargetSRS.size())
+		{
+			throw new IOException("Each additional target needs an output: " + parameters.extraTargetSRS.size()
+					+ " targets, " + parameters.extraOutputFiles.size() + " outputs");
+		}
+
+		List<Target> targets = new ArrayList<Target>();
+		List<TransformationEngine> acquired = new ArrayList<TransformationEngine>();
+		ByteLineReader reader = new ByteLineReader(openInput(input));
+		try
+		{
+			targets.add(new Target(transformation, openOutput(output), output, precision));
+			for (int i = 0; i < parameters.extraTargetSRS.size(); i++)
+			{
+				TransformationEngine extra =
+						cache.acquire(engine, sourceSRS, parameters.extraTargetSRS.get(i), factory);
+				acquired.add(extra);
+				File extraOutput = new File(parameters.extraOutputFiles.get(i)).getAbsoluteFile();
+				targets.add(new Target(statistics.meterTransformations(extra), openOutput(extraOutput), extraOutput,
+						precision));
+			}
+
+			Mode mode = Mode.UNKNOWN;
+			int lineNumber = 1;
+			ByteLine line = reader.readLine();
+			while (line != null)
+			{
+				Projector.checkInterrupted();
+				mode = handleTargetsLine(line, lineNumber, mode, targets);
+				line = reader.readLine();
+				lineNumber++;
+			}
+			flushTargetsBatch(targets);
+			statistics.setLines(lineNumber - 1);
+		}
+		finally
+		{
+			reader.close();
+			for (Target target : targets)
+			{
+				target.writer.close();
+			}
+			for (int i = 0; i < acquired.size(); i++)
+			{
+				cache.release(engine, sourceSRS, parameters.extraTargetSRS.get(i), acquired.get(i));
+			}
+		}
+	}
+
+	/**
+	 * Equivalent of
+	 * {@link #handleLine(CharSequence, int, Mode, LineWriter, TransformationEngine)}
+	 * for several targets.
+	 */
+	private Mode handleTargetsLine(CharSequence line, int lineNumber, Mode mode, List<Target> targets)
+			throws IOException
+	{
+		if (mode == Mode.UNKNOWN)
+		{
+			Mode type = Projector.getObjectMode(line);
+			if (type != null)
+			{
+				//each object starts with a new context
+				object = new ObjectContext();
+				for (Target target : targets)
+				{
+					target.axisProjected = null;
+				}
+				mode = type;
+			}
+			writeTargetsLine(line, targets);
+		}
+		else if (Projector.isEndLine(line))
+		{
+			flushTargetsBatch(targets);
+			mode = Mode.UNKNOWN;
+			writeTargetsLine(line, targets);
+		}
+		else
+		{
+			switch (mode)
+			{
+			case SIMPLE:
+				handleTargetsSimpleLine(line, lineNumber, targets);
+				break;
+			case VOXET:
+				handleTargetsAxisLine(line, lineNumber, targets, false);
+				break;
+			case GSURF:
+				handleTargetsAxisLine(line, lineNumber, targets, true);
+				break;
+			case SGRID:
+				handleTargetsSGridLine(line, targets);
+				break;
+			default:
+				writeTargetsLine(line, targets);
+				break;
+			}
+		}
+		return mode;
+	}
+
+	private static void writeTargetsLine(CharSequence line, List<Target> targets) throws IOException
+	{
+		for (Target target : targets)
+		{
+			target.writer.writeLine(line);
+		}
+	}
+
+	/**
+	 * Parse a line of a simple object once, and write it to each target with
+	 * its vertex reprojected; vertices are batched if batching is enabled.
+	 */
+	private void handleTargetsSimpleLine(CharSequence line, int lineNumber, List<Target> targets)
+			throws IOException
+	{
+		boolean vertex = false;
+		if (scanner.scanVertex(line) || scanner.scanWellReference(line))
+		{
+			try
+			{
+				double x = scanner.parseCoordinate(line, 0);
+				double y = scanner.parseCoordinate(line, 1);
+				double z = scanner.parseCoordinate(line, 2);
+				vertex = true;
+				if (batch != null)
+				{
+					batch.addVertex(line, x, y, z, scanner.getStarts(), scanner.getEnds());
+				}
+				else
+				{
+					for (Target target : targets)
+					{
+						target.transformation.transform(transformed, x, y, z);
+						target.writer.writeLine(line, scanner.getStarts(), scanner.getEnds(), transformed[0],
+								transformed[1], transformed[2]);
+					}
+				}
+			}
+			catch (NumberFormatException e)
+			{
+				logger.error("Error parsing line " + lineNumber + ": ", e);
+			}
+		}
+
+		if (!vertex)
+		{
+			if (batch != null)
+			{
+				batch.addLine(line);
+			}
+			else
+			{
+				writeTargetsLine(line, targets);
+			}
+		}
+		if (batch != null && batch.isFull())
+		{
+			flushTargetsBatch(targets);
+		}
+	}
+
+	/**
+	 * Reproject the vertices in the current batch into each target, and write
+	 * the buffered lines to each target's output.
+	 */
+	private void flushTargetsBatch(List<Target> targets) throws IOException
+	{
+		if (batch == null || batch.isEmpty())
+		{
+			return;
+		}
+
+		int vertexCount = batch.getVertexCount();
+		double[][] points = batch.getPoints();
+		if (batchOriginals == null)
+		{
+			batchOriginals = new double[batchSize][3];
+		}
+		for (int i = 0; i < vertexCount; i++)
+		{
+			System.arraycopy(points[i], 0, batchOriginals[i], 0, 3);
+		}
+		for (int t = 0; t < targets.size(); t++)
+		{
+			if (t > 0)
+			{
+				//the previous target reprojected the points in place
+				for (int i = 0; i < vertexCount; i++)
+				{
+					System.arraycopy(batchOriginals[i], 0, points[i], 0, 3);
+				}
+			}
+			if (vertexCount > 0)
+			{
+				targets.get(t).transformation.transform(points);
+			}
+			writeBatch(targets.get(t).writer, points);
+		}
+		batch.clear();
+	}
+
+	/**
+	 * Equivalent of
+	 * {@link #handleVoxetOrGSurfLine(CharSequence, int, LineWriter, TransformationEngine, boolean)}
+	 * for several targets, each with its own reprojected AXIS_O.
+	 */
+	private void handleTargetsAxisLine(CharSequence line, int lineNumber, List<Target> targets, boolean ignoreW)
+			throws IOException
+	{
+		int type = scanner.scanAxis(line);
+		if (type >= 0)
+		{
+			try
+			{
+				double[] axis =
+						new double[] { scanner.parseCoordinate(line, 0), scanner.parseCoordinate(line, 1),
+								scanner.parseCoordinate(line, 2) };
+				boolean vector =
+						type == CoordinateScanner.AXIS_U || type == CoordinateScanner.AXIS_V
+								|| (type == CoordinateScanner.AXIS_W && !ignoreW);
+				if (type == CoordinateScanner.AXIS_O)
+				{
+					object.axisOriginal = axis;
+				}
+				else if (!vector)
+				{
+					checkAxisRange(type, axis, line, lineNumber);
+				}
+
+				for (Target target : targets)
+				{
+					double[] output = axis;
+					if (type == CoordinateScanner.AXIS_O)
+					{
+						target.axisProjected = new double[3];
+						target.transformation.transform(target.axisProjected, axis[0], axis[1], axis[2]);
+						output = target.axisProjected;
+					}
+					else if (vector)
+					{
+						double[] origin = object.axisOriginal;
+						target.transformation.transform(transformed, origin[0] + axis[0], origin[1] + axis[1],
+								origin[2] + axis[2]);
+						transformed[0] -= target.axisProjected[0];
+						transformed[1] -= target.axisProjected[1];
+						transformed[2] -= target.axisProjected[2];
+						output = transformed;
+					}
+					target.writer.writeLine(line, scanner.getStarts(), scanner.getEnds(), output[0], output[1],
+							output[2]);
+				}
+				return;
+			}
+			catch (NumberFormatException e)
+			{
+				logger.error("Error parsing line " + lineNumber + ": ", e);
+			}
+		}
+
+		writeTargetsLine(line, targets);
+	}
+
+	/**
+	 * Equivalent of
+	 * {@link #handleSGridLine(CharSequence, int, LineWriter, TransformationEngine)}
+	 * for several targets. Each side file is read once, and written
+	 * reprojected into each target next to the target's output.
+	 */
+	private void handleTargetsSGridLine(CharSequence line, List<Target> targets) throws IOException
+	{
+		Matcher matcher = NAME_REGEX.matcher(line);
+		if (matcher.matches())
+		{
+			object.name = ByteLine.decodeName(matcher.group(1));
+		}
+
+		matcher = POINTS_OFFSET_REGEX.matcher(line);
+		if (matcher.matches())
+		{
+			object.pointsOffset = Integer.parseInt(matcher.group(1));
+		}
+
+		boolean points = false;
+		matcher = ASCII_DATA_FILE_REGEX.matcher(line);
+		if (!matcher.matches())
+		{
+			matcher = POINTS_FILE_REGEX.matcher(line);
+			points = matcher.matches();
+			if (!points)
+			{
+				writeTargetsLine(line, targets);
+				return;
+			}
+		}
+
+		File input = resolver.getInputFile(ByteLine.decodeName(matcher.group(1).trim()));
+		String suffix = getSideFileSuffix(points ? "__points@@" : "__ascii@@", input);
+		List<File> outputs = new ArrayList<File>();
+		for (Target target : targets)
+		{
+			String prefix = object.name;
+			if (prefix == null)
+			{
+				prefix = target.outputName.replace(" ", "_");
+			}
+			String name = reserveSideFileName(target.outputDirectory, prefix, suffix);
+			File output = new File(target.outputDirectory, name);
+			statistics.addOutputFile(output);
+			outputs.add(output);
+			target.writer.writeLine(line.subSequence(0, matcher.start(1)) + ByteLine.encodeName(name)
+					+ line.subSequence(matcher.end(1), line.length()));
+		}
+
+		statistics.addSideFile(input);
+		List<TransformationEngine> transformations = new ArrayList<TransformationEngine>();
+		for (Target target : targets)
+		{
+			transformations.add(target.transformation);
+		}
+		if (points)
+		{
+			logger.info("Reprojecting SGrid POINTS_FILE: " + input);
+			streamPointsFile(input, object.pointsOffset, outputs, transformations);
+		}
+		else
+		{
+			logger.info("Reprojecting SGrid ASCII_DATA_FILE: " + input);
+			handleTargetsAsciiDataFile(input, outputs, transformations);
+		}
+	}
+
+	/**
+	 * Reproject an SGrid ASCII_DATA_FILE into several targets, parsing each
+	 * line once.
+	 */
+	private void handleTargetsAsciiDataFile(File inputFile, List<File> outputFiles,
+			List<TransformationEngine> transformations) throws IOException
+	{
+		ByteLineReader reader = new ByteLineReader(openSideFileInput(inputFile));
+		List<LineWriter> writers = new ArrayList<LineWriter>();
+		try
+		{
+			for (File outputFile : outputFiles)
+			{
+				LineWriter writer = new LineWriter(openSideFileOutput(outputFile));
+				writer.setPrecision(precision);
+				writers.add(writer);
+			}
+
+			ByteLine line = reader.readLine();
+			while (line != null)
+			{
+				Projector.checkInterrupted();
+				if (scanner.scanDataFileLine(line))
+				{
+					double x = scanner.parseCoordinate(line, 0);
+					double y = scanner.parseCoordinate(line, 1);
+					double z = scanner.parseCoordinate(line, 2);
+					for (int t = 0; t < writers.size(); t++)
+					{
+						transformations.get(t).transform(transformed, x, y, z);
+						writers.get(t).writeLine(line, scanner.getStarts(), scanner.getEnds(), transformed[0],
+								transformed[1], transformed[2]);
+					}
+				}
+				else
+				{
+					for (LineWriter writer : writers)
+					{
+						writer.writeLine(line);
+					}
+				}
+				line = reader.readLine();
+			}
+		}
+		finally
+		{
+			reader.close();
+			for (LineWriter writer : writers)
+			{
+				writer.close();
+			}
+		}
+	}
+
+	/**
+	 * Reproject a GOCAD object file line by line on the calling thread,
+	 * recording a {@link Checkpoint} each time the checkpoint interval of
+	 * input has been read, and resuming from the output's checkpoint if it
+	 * has a valid one. The output is written to a partial file, which is
+	 * renamed to the output once it is complete.
+	 * <p/>
+	 * Checkpoints are recorded at the start of a line, and within SGrid side
+	 * files; they are not recorded while a Voxet or GSurf is buffered for
+	 * resampling.
+	 */
+	protected void projectWithCheckpoints(File input, File output, TransformationEngine transformation)
+			throws IOException
+	{
+		String fingerprint = Checkpoint.createFingerprint(parameters);
+		Checkpoint previous = Checkpoint.read(output);
+		if (previous != null)
+		{
+			String problem = previous.getResumeProblem(fingerprint, output);
+			if (problem != null)
+			{
+				logger.warn("Could not resume reprojecting " + input + " from its checkpoint, " + problem
+						+ "; starting again");
+				previous.discard(output);
+				previous = null;
+			}
+		}
+
+		Mode mode = Mode.UNKNOWN;
+		if (previous == null)
+		{
+			checkpoint = new Checkpoint(fingerprint, mode.name());
+		}
+		else
+		{
+			checkpoint = previous;
+			checkpoint.deleteUncommittedFiles(output);
+			mode = Mode.valueOf(checkpoint.mode);
+			object.axisOriginal = checkpoint.axisOriginal;
+			object.axisProjected = checkpoint.axisProjected;
+			object.name = checkpoint.name;
+			object.pointsOffset = checkpoint.pointsOffset;
+			resumeSideFile = checkpoint.sideFile;
+			statistics.skipBytes(checkpoint.inputOffset);
+			logger.info("Resuming reprojection of " + input + " from its checkpoint at line " + checkpoint.lineNumber);
+		}
+		checkpointTarget = output;
+		checkpointDue = false;
+
+		File partial = Checkpoint.getPartialFile(output);
+		long inputStart = checkpoint.inputOffset;
+		ByteLineReader reader =
+				new ByteLineReader(statistics.meterInput(Checkpoint.openInput(input, inputStart)));
+		if (checkpoint.skipLineFeed)
+		{
+			reader.skipLineFeed();
+		}
+		checkpointStream = Checkpoint.openOutput(partial, checkpoint.outputOffset);
+		LineWriter writer = new LineWriter(statistics.meterOutput(checkpointStream));
+		writer.setPrecision(precision);
+		checkpointWriter = writer;
+		try
+		{
+			int lineNumber = checkpoint.lineNumber;
+			while (true)
+			{
+				Projector.checkInterrupted();
+				lineOffset = inputStart + reader.getPosition();
+				lineSkipLineFeed = reader.isSkippingLineFeed();
+				currentLineNumber = lineNumber;
+				if (object.gridLines == null && (checkpointDue || lineOffset - checkpoint.inputOffset >= checkpointInterval))
+				{
+					flushBatch(writer, transformation);
+					recordCheckpoint(mode, null, 0, false, 0);
+				}
+				ByteLine line = reader.readLine();
+				if (line == null)
+				{
+					break;
+				}
+				mode = handleLine(line, lineNumber, mode, writer, transformation);
+				lineNumber++;
+			}
+			flushBatch(writer, transformation);
+			statistics.setLines(lineNumber - 1);
+		}
+		finally
+		{
+			reader.close();
+			writer.close();
+			checkpoint = null;
+			checkpointStream = null;
+			checkpointWriter = null;
+			resumeSideFile = null;
+		}
+
+		if (output.exists() && !output.delete())
+		{
+			throw new IOException("Could not replace output file: " + output);
+		}
+		if (!partial.renameTo(output))
+		{
+			throw new IOException("Could not rename partial output " + partial + " to " + output);
+		}
+		Checkpoint.getFile(output).delete();
+	}
+
+	/**
+	 * Record a checkpoint at the start of the current line, after writing the
+	 * lines before it to disk.
+	 * 
+	 * @param mode
+	 *            Type of the object containing the current line
+	 * @param sideFile
+	 *            Name of the SGrid side file being reprojected for the current
+	 *            line, or null
+	 * @param sideInputOffset
+	 *            Offset of the side file's input to continue reading from
+	 * @param sideSkipLineFeed
+	 *            True if a line feed at the side file input's offset must be
+	 *            skipped
+	 * @param sideOutputOffset
+	 *            Length of the side file's output written to disk
+	 */
+	private void recordCheckpoint(Mode mode, String sideFile, long sideInputOffset, boolean sideSkipLineFeed,
+			long sideOutputOffset) throws IOException
+	{
+		checkpoint.inputOffset = lineOffset;
+		checkpoint.skipLineFeed = lineSkipLineFeed;
+		checkpoint.outputOffset = sync(checkpointWriter, checkpointStream);
+		checkpoint.lineNumber = currentLineNumber;
+		checkpoint.mode = mode.name();
+		checkpoint.axisOriginal = object.axisOriginal;
+		checkpoint.axisProjected = object.axisProjected;
+		checkpoint.name = object.name;
+		checkpoint.pointsOffset = object.pointsOffset;
+		checkpoint.sideFile = sideFile;
+		checkpoint.sideInputOffset = sideInputOffset;
+		checkpoint.sideSkipLineFeed = sideSkipLineFeed;
+		checkpoint.sideOutputOffset = sideOutputOffset;
+		checkpoint.committedFiles = checkpoint.files.size();
+		checkpoint.write(checkpointTarget);
+		checkpointDue = false;
+	}
+
+	/**
+	 * Flush a writer and force its file to disk.
+	 * 
+	 * @return Length of the file
+	 */
+	private static long sync(LineWriter writer, FileOutputStream stream) throws IOException
+	{
+		writer.flush();
+		stream.getChannel().force(false);
+		return stream.getChannel().position();
+	}
+
+	/**
+	 * Reproject a GOCAD object file in a pipeline of three stages, connected
+	 * by bounded queues of reusable {@link GocadFileBlock}s:
+	 * <ol>
+	 * <li>the calling thread reads blocks of lines, and tracks the object
+	 * type of each line; all lines except those within simple objects are
+	 * handled immediately, so that stateful objects (Voxets, GSurfs and
+	 * SGrids) are handled in order</li>
+	 * <li>worker threads parse, reproject and format the simple object lines
+	 * in each block</li>
+	 * <li>a writer thread writes the blocks to the output file in their
+	 * original order</li>
+	 * </ol>
+	 * The number of blocks is fixed, so memory use doesn't depend on the size
+	 * of the file. The streams are closed once the object has been
+	 * reprojected.
+	 */
+	protected void projectInPipeline(InputStream reader, OutputStream output, TransformationEngine transformation)
+			throws IOException
+	{
+		int maxBlocks = workers * 2 + 2;
+		BlockingQueue<TransformationEngine> transformations = new ArrayBlockingQueue<TransformationEngine>(workers);
+		final BlockingQueue<GocadFileBlock> free = new ArrayBlockingQueue<GocadFileBlock>(maxBlocks);
+		final BlockingQueue<Future<GocadFileBlock>> pending =
+				new ArrayBlockingQueue<Future<GocadFileBlock>>(maxBlocks + 1);
+		ExecutorService executor = Executors.newFixedThreadPool(workers);
+		ExecutorService writerExecutor = Executors.newSingleThreadExecutor();
+		List<TransformationEngine> acquired = new ArrayList<TransformationEngine>();
+		final OutputStream writer = new BufferedOutputStream(output);
+
+		try
+		{
+			acquireWorkerTransformations(acquired, transformations);
+			for (int i = 0; i < maxBlocks; i++)
+			{
+				free.add(new GocadFileBlock(DATA_FILE_CHUNK_SIZE, transformations, precision));
+			}
+
+			Future<Void> writing = writerExecutor.submit(new Callable<Void>()
+			{
+				@Override
+				public Void call() throws Exception
+				{
+					while (true)
+					{
+						GocadFileBlock block = getResult(pending.take(), "GOCAD object");
+						if (block == null)
+						{
+							return null;
+						}
+						block.writeTo(writer);
+						free.put(block);
+					}
+				}
+			});
+
+			Mode mode = Mode.UNKNOWN;
+			int lineNumber = 1;
+			GocadFileBlock previous = null;
+			while (true)
+			{
+				Projector.checkInterrupted();
+				GocadFileBlock block = free.poll(100, TimeUnit.MILLISECONDS);
+				if (block == null)
+				{
+					if (writing.isDone())
+					{
+						//the writer only stops early if it failed
+						getResult(writing, "GOCAD object");
+					}
+					continue;
+				}
+				if (!block.fill(reader, previous))
+				{
+					break;
+				}
+
+				int lineCount = block.splitLines(lineNumber);
+				for (int i = 0; i < lineCount; i++)
+				{
+					if (mode != Mode.SIMPLE || Projector.isEndLine(block.getLineSequence(i)))
+					{
+						mode =
+								handleLine(block.getLineSequence(i), lineNumber + i, mode, block.getSequentialWriter(),
+										transformation);
+						block.endSequentialLine(i);
+					}
+				}
+				lineNumber += lineCount;
+
+				pending.put(executor.submit(block));
+				previous = block;
+			}
+			statistics.setLines(lineNumber - 1);
+
+			FutureTask<GocadFileBlock> end = new FutureTask<GocadFileBlock>(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+				}
+			}, null);
+			end.run();
+			pending.put(end);
+			getResult(writing, "GOCAD object");
+		}
+		catch (InterruptedException e)
+		{
+			throw new InterruptedIOException("Interrupted while reprojecting GOCAD object");
+		}
+		finally
+		{
+			executor.shutdownNow();
+			writerExecutor.shutdownNow();
+			reader.close();
+			writer.close();
+			releaseWorkerTransformations(acquired);
+		}
+	}
+
+	/**
+	 * Reproject the member objects of a GOCAD file (eg. the surfaces of a
+	 * Group) concurrently on the worker threads, each in a separate context
+	 * with its own state. The members are found by a quick scan of the object
+	 * boundaries (see {@link GroupMembers}). The output of each member is held
+	 * in memory, or in a temporary file once it is large, until it is written
+	 * to the output in the original order; the number of members being
+	 * reprojected or waiting to be written is bounded.
+	 */
+	protected void projectMembers(File input, File output) throws IOException
+	{
+		GroupMembers members = GroupMembers.scan(input, VoxetResampler.isResampling(resample));
+		logger.debug("Reprojecting " + members.size() + " members of " + input + " in parallel");
+		BlockingQueue<TransformationEngine> transformations = new ArrayBlockingQueue<TransformationEngine>(workers);
+		List<TransformationEngine> acquired = new ArrayList<TransformationEngine>();
+		ExecutorService executor = Executors.newFixedThreadPool(workers);
+		Queue<Future<DeferredFileOutputStream>> pending = new LinkedList<Future<DeferredFileOutputStream>>();
+		OutputStream writer = new BufferedOutputStream(openOutput(output));
+
+		try
+		{
+			acquireWorkerTransformations(acquired, transformations);
+			int maxMembers = workers * 2;
+			for (int i = 0; i < members.size(); i++)
+			{
+				Projector.checkInterrupted();
+				if (pending.size() >= maxMembers)
+				{
+					writeMember(pending.remove(), writer);
+				}
+				pending.add(executor.submit(createMemberTask(members, i, input, transformations)));
+			}
+			while (!pending.isEmpty())
+			{
+				writeMember(pending.remove(), writer);
+			}
+			statistics.setLines(members.getLineCount());
+		}
+		finally
+		{
+			executor.shutdownNow();
+			writer.close();
+			releaseWorkerTransformations(acquired);
+		}
+	}
+
+	/**
+	 * Create the task that reprojects a member of a GOCAD file in a new
+	 * context, using a transformation from the given pool.
+	 */
+	private Callable<DeferredFileOutputStream> createMemberTask(final GroupMembers members, final int index,
+			final File input, final BlockingQueue<TransformationEngine> transformations)
+	{
+		final ProjectionContext context =
+				new ProjectionContext(projector, parameters, statistics, resolver, outputName);
+		context.members = members;
+		context.memberIndex = index;
+
+		return new Callable<DeferredFileOutputStream>()
+		{
+			@Override
+			public DeferredFileOutputStream call() throws Exception
+			{
+				DeferredFileOutputStream spool =
+						new DeferredFileOutputStream(MEMBER_MEMORY_SIZE, "gocadprojector", ".member", null);
+				TransformationEngine transformation = transformations.take();
+				try
+				{
+					context.projectMember(members.get(index), input, transformation, spool);
+					return spool;
+				}
+				catch (Exception e)
+				{
+					spool.close();
+					deleteMember(spool);
+					throw e;
+				}
+				finally
+				{
+					transformations.put(transformation);
+					members.finished(index);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Reproject the lines of a member of a GOCAD file, followed by the SGrid
+	 * side files they reference.
+	 */
+	private void projectMember(GroupMembers.Member member, File input, TransformationEngine transformation,
+			OutputStream spool) throws IOException
+	{
+		ByteLineReader reader =
+				new ByteLineReader(statistics.meterInput(new BoundedInputStream(Checkpoint.openInput(input,
+						member.offset), member.length)));
+		if (member.skipLineFeed)
+		{
+			reader.skipLineFeed();
+		}
+		LineWriter writer = new LineWriter(spool);
+		writer.setPrecision(precision);
+		List<SideFile> sideFiles = new ArrayList<SideFile>();
+		deferredSideFiles = sideFiles;
+		try
+		{
+			Mode mode = Mode.UNKNOWN;
+			int lineNumber = member.lineNumber;
+			ByteLine line = reader.readLine();
+			while (line != null)
+			{
+				Projector.checkInterrupted();
+				mode = handleLine(line, lineNumber, mode, writer, transformation);
+				line = reader.readLine();
+				lineNumber++;
+			}
+			flushBatch(writer, transformation);
+		}
+		finally
+		{
+			deferredSideFiles = null;
+			reader.close();
+			writer.close();
+		}
+
+		members.finished(memberIndex);
+		for (SideFile sideFile : sideFiles)
+		{
+			handleSideFile(sideFile, transformation);
+		}
+	}
+
+	private static void writeMember(Future<DeferredFileOutputStream> future, OutputStream writer) throws IOException
+	{
+		DeferredFileOutputStream member = getResult(future, "GOCAD object member");
+		try
+		{
+			member.writeTo(writer);
+		}
+		finally
+		{
+			deleteMember(member);
+		}
+	}
+
+	private static void deleteMember(DeferredFileOutputStream member)
+	{
+		if (!member.isInMemory())
+		{
+			member.getFile().delete();
+		}
+	}
+
+	/**
+	 * Acquire a transformation for each worker thread, and add them to the
+	 * given queue metered by the current statistics.
+	 * 
+	 * @param acquired
+	 *            List to add the acquired transformations to, for release by
+	 *            {@link #releaseWorkerTransformations(List)}
+	 */
+	private void acquireWorkerTransformations(List<TransformationEngine> acquired,
+			BlockingQueue<TransformationEngine> transformations)
+	{
+		for (int i = 0; i < workers; i++)
+		{
+			TransformationEngine transformation = cache.acquire(engine, sourceSRS, targetSRS, factory);
+			acquired.add(transformation);
+			transformations.add(statistics.meterTransformations(transformation));
+		}
+	}
+
+	private void releaseWorkerTransformations(List<TransformationEngine> acquired)
+	{
+		for (TransformationEngine transformation : acquired)
+		{
+			cache.release(engine, sourceSRS, targetSRS, transformation);
+		}
+	}
+
+	/**
+	 * Handle a single line of a GOCAD object file.
+	 * 
+	 * @param mode
+	 *            Type of the object containing the line
+	 * @return Type of the object containing the next line
+	 */
+	private Mode handleLine(CharSequence line, int lineNumber, Mode mode, LineWriter writer,
+			TransformationEngine transformation) throws IOException
+	{
+		if (mode == Mode.UNKNOWN)
+		{
+			Mode type = Projector.getObjectMode(line);
+			if (type != null)
+			{
+				//each object starts with a new context
+				object = new ObjectContext();
+
+				mode = type;
+				if (mode == Mode.VOXET || mode == Mode.GSURF)
+				{
+					startGrid(lineNumber);
+				}
+			}
+			writer.writeLine(line);
+		}
+		else
+		{
+			if (Projector.isEndLine(line))
+			{
+				flushBatch(writer, transformation);
+				if (object.gridLines != null)
+				{
+					resampleGrid(writer, transformation, mode == Mode.GSURF);
+				}
+				mode = Mode.UNKNOWN;
+				writer.writeLine(line);
+			}
+			else if (object.gridLines != null)
+			{
+				//buffer the Voxet or GSurf until its END, once its grid is known
+				object.gridLines.add(line.toString());
+			}
+			else
+			{
+				switch (mode)
+				{
+				case SIMPLE:
+					if (batch != null)
+					{
+						batchSimpleLine(line, lineNumber, writer, transformation);
+					}
+					else
+					{
+						handleSimpleLine(line, lineNumber, writer, transformation);
+					}
+					break;
+				case VOXET:
+					handleVoxetLine(line, lineNumber, writer, transformation);
+					break;
+				case GSURF:
+					handleGSurfLine(line, lineNumber, writer, transformation);
+					break;
+				case SGRID:
+					handleSGridLine(line, lineNumber, writer, transformation);
+					break;
+				default:
+					writer.writeLine(line);
+					break;
+				}
+			}
+		}
+		return mode;
+	}
+
+	protected void handleSimpleLine(CharSequence line, int lineNumber, LineWriter writer, TransformationEngine transformation)
+			throws IOException
+	{
+		if (scanner.scanVertex(line) || scanner.scanWellReference(line))
+		{
+			try
+			{
+				double x = scanner.parseCoordinate(line, 0);
+				double y = scanner.parseCoordinate(line, 1);
+				double z = scanner.parseCoordinate(line, 2);
+				transformation.transform(transformed, x, y, z);
+				writer.writeLine(line, scanner.getStarts(), scanner.getEnds(), transformed[0], transformed[1],
+						transformed[2]);
+				return;
+			}
+			catch (NumberFormatException e)
+			{
+				logger.error("Error parsing line " + lineNumber + ": ", e);
+			}
+		}
+
+		writer.writeLine(line);
+	}
+
+	/**
+	 * Batched equivalent of
+	 * {@link #handleSimpleLine(CharSequence, int, LineWriter, TransformationEngine)}.
+	 * Lines are buffered until the batch is full, and then all buffered
+	 * vertices are reprojected with a single bulk transformation call.
+	 */
+	protected void batchSimpleLine(CharSequence line, int lineNumber, LineWriter writer, TransformationEngine transformation)
+			throws IOException
+	{
+		boolean added = false;
+		if (scanner.scanVertex(line) || scanner.scanWellReference(line))
+		{
+			try
+			{
+				double x = scanner.parseCoordinate(line, 0);
+				double y = scanner.parseCoordinate(line, 1);
+				double z = scanner.parseCoordinate(line, 2);
+				batch.addVertex(line, x, y, z, scanner.getStarts(), scanner.getEnds());
+				added = true;
+			}
+			catch (NumberFormatException e)
+			{
+				logger.error("Error parsing line " + lineNumber + ": ", e);
+			}
+		}
+		if (!added)
+		{
+			batch.addLine(line);
+		}
+
+		if (batch.isFull())
+		{
+			flushBatch(writer, transformation);
+		}
+	}
+
+	/**
+	 * Reproject all vertices in the current batch, and write the buffered
+	 * lines in their original order.
+	 */
+	protected void flushBatch(LineWriter writer, TransformationEngine transformation) throws IOException
+	{
+		if (batch == null || batch.isEmpty())
+		{
+			return;
+		}
+
+		int vertexCount = batch.getVertexCount();
+		double[][] points = batch.getPoints();
+		if (vertexCount > 0)
+		{
+			transformation.transform(points);
+		}
+		writeBatch(writer, points);
+		batch.clear();
+	}
+
+	/**
+	 * Write the lines buffered in the current batch, with the given
+	 * reprojected vertices.
+	 */
+	private void writeBatch(LineWriter writer, double[][] points) throws IOException
+	{
+		int vertexCount = batch.getVertexCount();
+		int vertex = 0;
+		for (int i = 0; i < batch.getLineCount(); i++)
+		{
+			CharSequence line = batch.getLine(i);
+			if (vertex < vertexCount && batch.getVertexLineIndex(vertex) == i)
+			{
+				double[] point = points[vertex];
+				writer.writeLine(line, batch.getStarts(vertex), batch.getEnds(vertex), point[0], point[1], point[2]);
+				vertex++;
+			}
+			else
+			{
+				writer.writeLine(line);
+			}
+		}
+	}
+
+	protected void handleVoxetLine(CharSequence line, int lineNumber, LineWriter writer, TransformationEngine transformation)
+			throws IOException
+	{
+		handleVoxetOrGSurfLine(line, lineNumber, writer, transformation, false);
+	}
+
+	protected void handleGSurfLine(CharSequence line, int lineNumber, LineWriter writer, TransformationEngine transformation)
+			throws IOException
+	{
+		handleVoxetOrGSurfLine(line, lineNumber, writer, transformation, true);
+	}
+
+	protected void handleVoxetOrGSurfLine(CharSequence line, int lineNumber, LineWriter writer,
+			TransformationEngine transformation, boolean ignoreW) throws IOException
+	{
+		int type = scanner.scanAxis(line);
+		if (type >= 0)
+		{
+			try
+			{
+				double[] axis =
+						new double[] { scanner.parseCoordinate(line, 0), scanner.parseCoordinate(line, 1),
+								scanner.parseCoordinate(line, 2) };
+				double[] output = axis;
+
+				if (type == CoordinateScanner.AXIS_O)
+				{
+					object.axisOriginal = axis;
+					object.axisProjected = new double[3];
+					transformation.transform(object.axisProjected, axis[0], axis[1], axis[2]);
+					output = object.axisProjected;
+				}
+				else if (type == CoordinateScanner.AXIS_U || type == CoordinateScanner.AXIS_V
+						|| (type == CoordinateScanner.AXIS_W && !ignoreW))
+				{
+					transformation.transform(transformed, object.axisOriginal[0] + axis[0], object.axisOriginal[1] + axis[1],
+							object.axisOriginal[2] + axis[2]);
+					transformed[0] -= object.axisProjected[0];
+					transformed[1] -= object.axisProjected[1];
+					transformed[2] -= object.axisProjected[2];
+					output = transformed;
+				}
+				else
+				{
+					checkAxisRange(type, axis, line, lineNumber);
+				}
+
+				writer.writeLine(line, scanner.getStarts(), scanner.getEnds(), output[0], output[1], output[2]);
+				return;
+			}
+			catch (NumberFormatException e)
+			{
+				logger.error("Error parsing line " + lineNumber + ": ", e);
+			}
+		}
+
+		writer.writeLine(line);
+	}
+
+	/**
+	 * Log an error if an AXIS_MIN or AXIS_MAX line doesn't describe the unit
+	 * cube, which is the only range supported.
+	 */
+	private static void checkAxisRange(int type, double[] axis, CharSequence line, int lineNumber)
+	{
+		if (type == CoordinateScanner.AXIS_MIN)
+		{
+			if (axis[0] != 0 || axis[1] != 0 || axis[2] != 0)
+			{
+				logger.error("Line " + lineNumber + ": 'AXIS_MIN 0 0 0' expected, '" + line + "' actual");
+			}
+		}
+		else if (type == CoordinateScanner.AXIS_MAX)
+		{
+			if (axis[0] != 1 || axis[1] != 1 || axis[2] != 1)
+			{
+				logger.error("Line " + lineNumber + ": 'AXIS_MAX 1 1 1' expected, '" + line + "' actual");
+			}
+		}
+	}
+
+	/**
+	 * Start buffering the lines of a Voxet or GSurf, if its property files are
+	 * to be resampled.
+	 */
+	private void startGrid(int lineNumber)
+	{
+		if (VoxetResampler.isResampling(resample))
+		{
+			object.gridLines = new ArrayList<String>();
+			object.gridLineNumber = lineNumber + 1;
+		}
+	}
+
+	/**
+	 * Resample the property files of the buffered Voxet or GSurf onto a grid
+	 * that is axis aligned in the target spatial reference (see
+	 * {@link VoxetResampler}), and write its lines with the new axes and
+	 * property filenames. If the grid can't be resampled, only its axes are
+	 * reprojected.
+	 */
+	protected void resampleGrid(LineWriter writer, TransformationEngine transformation, boolean gsurf)
+			throws IOException
+	{
+		List<String> lines = object.gridLines;
+		object.gridLines = null;
+
+		VoxetHeader header = new VoxetHeader(lines, gsurf);
+		String reason = header.getUnsupportedReason();
+		if (reason != null)
+		{
+			logger.warn("Line " + object.gridLineNumber + ": could not resample " + (gsurf ? "GSurf" : "Voxet") + ", "
+					+ reason + "; only reprojecting its axes");
+			for (int i = 0; i < lines.size(); i++)
+			{
+				handleVoxetOrGSurfLine(lines.get(i), object.gridLineNumber + i, writer, transformation, gsurf);
+			}
+			return;
+		}
+
+		VoxetGrid source = header.getGrid();
+		VoxetGrid target = VoxetResampler.computeTarget(source, transformation);
+		List<GridFile> files = header.getFiles();
+		List<File> inputs = new ArrayList<File>();
+		List<OutputStream> outputs = new ArrayList<OutputStream>();
+		Map<GridFile, String> fileNames = new HashMap<GridFile, String>();
+		List<TransformationEngine> acquired = new ArrayList<TransformationEngine>();
+		int threads = Math.max(1, workers);
+		BlockingQueue<TransformationEngine> inverseTransformations =
+				new ArrayBlockingQueue<TransformationEngine>(threads);
+		String prefix = header.getName();
+		if (prefix == null)
+		{
+			prefix = outputName;
+		}
+		prefix = prefix.replace(" ", "_");
+
+		try
+		{
+			for (GridFile file : files)
+			{
+				File input = resolver.getInputFile(file.fileName);
+				String suffix =
+						file.isFlags() ? "__flags@@" : "_"
+								+ (file.propertyName != null ? file.propertyName.replaceAll("[^\\w.\\-]", "_")
+										: "property" + file.id) + "@@";
+				String name = createSideFileName(resolver.getOutputDirectory(), prefix, suffix);
+				logger.info("Resampling " + (gsurf ? "GSurf " : "Voxet ") + (file.isFlags() ? "FLAGS_FILE" : "PROP_FILE")
+						+ ": " + input);
+				statistics.addSideFile(input);
+				if (checkpoint != null)
+				{
+					checkpoint.addSideInput(input);
+				}
+				inputs.add(input);
+				File output = new File(resolver.getOutputDirectory(), name);
+				reservedSideFiles.remove(output);
+				outputs.add(new BufferedOutputStream(statistics.meterSideFileOutput(new FileOutputStream(output))));
+				fileNames.put(file, name);
+			}
+			if (members != null)
+			{
+				//this member won't name any more side files
+				members.finished(memberIndex);
+			}
+
+			//target nodes are mapped back to the source grid
+			for (int i = 0; i < threads; i++)
+			{
+				TransformationEngine inverse = cache.acquire(engine, targetSRS, sourceSRS, factory);
+				acquired.add(inverse);
+				inverseTransformations.add(statistics.meterTransformations(inverse));
+			}
+			new VoxetResampler(source, target, resample, inverseTransformations, threads, pointsByteOrder).resample(
+					files, inputs, outputs);
+			for (File input : inputs)
+			{
+				statistics.addSideFileBytesRead(input.length());
+			}
+		}
+		finally
+		{
+			for (OutputStream output : outputs)
+			{
+				output.close();
+			}
+			for (TransformationEngine inverse : acquired)
+			{
+				cache.release(engine, targetSRS, sourceSRS, inverse);
+			}
+		}
+
+		header.write(writer, target, fileNames);
+	}
+
+	protected void handleSGridLine(CharSequence line, int lineNumber, LineWriter writer, TransformationEngine transformation)
+			throws IOException
+	{
+		Matcher matcher = NAME_REGEX.matcher(line);
+		if (matcher.matches())
+		{
+			object.name = ByteLine.decodeName(matcher.group(1));
+		}
+
+		matcher = ASCII_DATA_FILE_REGEX.matcher(line);
+		if (matcher.matches())
+		{
+			String asciiDataFileOriginal = ByteLine.decodeName(matcher.group(1).trim());
+			String prefix = object.name;
+			if (prefix == null)
+			{
+				prefix = outputName.replace(" ", "_");
+			}
+			File input = resolver.getInputFile(asciiDataFileOriginal);
+			String asciiDataFileProjected =
+					createSideFileName(resolver.getOutputDirectory(), prefix, getSideFileSuffix("__ascii@@", input));
+			line =
+					line.subSequence(0, matcher.start(1)) + ByteLine.encodeName(asciiDataFileProjected)
+							+ line.subSequence(matcher.end(1), line.length());
+
+			File output = new File(resolver.getOutputDirectory(), asciiDataFileProjected);
+			handleSideFile(new SideFile(input, output, false, 0), transformation);
+		}
+
+		matcher = POINTS_OFFSET_REGEX.matcher(line);
+		if (matcher.matches())
+		{
+			object.pointsOffset = Integer.parseInt(matcher.group(1));
+		}
+
+		matcher = POINTS_FILE_REGEX.matcher(line);
+		if (matcher.matches())
+		{
+			String pointsFileOriginal = ByteLine.decodeName(matcher.group(1).trim());
+			String prefix = object.name;
+			if (prefix == null)
+			{
+				prefix = outputName.replace(" ", "_");
+			}
+			File input = resolver.getInputFile(pointsFileOriginal);
+			String pointsFileProjected =
+					createSideFileName(resolver.getOutputDirectory(), prefix, getSideFileSuffix("__points@@", input));
+			line =
+					line.subSequence(0, matcher.start(1)) + ByteLine.encodeName(pointsFileProjected)
+							+ line.subSequence(matcher.end(1), line.length());
+
+			File output = new File(resolver.getOutputDirectory(), pointsFileProjected);
+			handleSideFile(new SideFile(input, output, true, object.pointsOffset), transformation);
+		}
+
+		writer.writeLine(line);
+	}
+
+	/**
+	 * @return The suffix of the reprojected side file of the given input;
+	 *         side files are written gzip compressed if their input is
+	 *         compressed
+	 */
+	private static String getSideFileSuffix(String suffix, File input) throws IOException
+	{
+		return Compression.isCompressed(input) ? suffix + Compression.GZIP_EXTENSION : suffix;
+	}
+
+	/**
+	 * Reproject an SGrid side file, or if reprojecting a member of a file in
+	 * parallel, defer it until the member's lines have been reprojected (so
+	 * that later members can name their side files).
+	 */
+	private void handleSideFile(SideFile sideFile, TransformationEngine transformation) throws IOException
+	{
+		if (deferredSideFiles != null)
+		{
+			deferredSideFiles.add(sideFile);
+		}
+		else if (sideFile.points)
+		{
+			handlePointsFile(sideFile.input, sideFile.pointsOffset, sideFile.output, transformation);
+		}
+		else
+		{
+			handleAsciiDataFile(sideFile.input, sideFile.output, transformation);
+		}
+	}
+
+	/**
+	 * Choose an unused name for a side file written next to the output, and
+	 * reserve it by creating the (empty) file. When checkpointing, the name is
+	 * recorded in the checkpoint so that the file can be deleted if the
+	 * reprojection is resumed from an earlier checkpoint; when resuming within
+	 * a side file, its name is reused.
+	 */
+	protected String createSideFileName(File parent, String prefix, String suffix) throws IOException
+	{
+		String name;
+		if (resumeSideFile != null)
+		{
+			name = resumeSideFile;
+			resumeSideFile = null;
+		}
+		else if (members != null)
+		{
+			name = members.allocateSideFileName(memberIndex, parent, prefix, suffix);
+			reservedSideFiles.add(new File(parent, name));
+		}
+		else
+		{
+			name = reserveSideFileName(parent, prefix, suffix);
+			reservedSideFiles.add(new File(parent, name));
+			if (checkpoint != null)
+			{
+				checkpoint.files.add(name);
+				checkpoint.write(checkpointTarget);
+			}
+		}
+		statistics.addOutputFile(new File(parent, name));
+		return name;
+	}
+
+	/**
+	 * Choose the first unused name for a side file, and reserve it by creating
+	 * the (empty) file. Creating the file is atomic, so reprojections running
+	 * at the same time in the same directory never choose the same name.
+	 */
+	protected String reserveSideFileName(File parent, String prefix, String suffix) throws IOException
+	{
+		if (new File(parent, prefix + suffix).createNewFile())
+		{
+			return prefix + suffix;
+		}
+		int i = 2;
+		while (true)
+		{
+			String f = prefix + "_" + (i++) + suffix;
+			if (new File(parent, f).createNewFile())
+			{
+				return f;
+			}
+		}
+	}
+
+	protected void handleAsciiDataFile(File inputFile, File outputFile, TransformationEngine transformation)
+			throws IOException
+	{
+		logger.info("Reprojecting SGrid ASCII_DATA_FILE: " + inputFile);
+
+		boolean resuming = isResuming(outputFile);
+		if (!reservedSideFiles.remove(outputFile) && outputFile.exists() && !resuming)
+		{
+			throw new IOException("Could not reproject SGrid ASCII_DATA_FILE, output file already exists: "
+					+ outputFile);
+		}
+
+		statistics.addSideFile(inputFile);
+		if (checkpoint != null)
+		{
+			checkpoint.addSideInput(inputFile);
+		}
+		if (workers > 1 && checkpoint == null)
+		{
+			handleAsciiDataFileInParallel(inputFile, outputFile);
+			return;
+		}
+
+		//compressed side files can't be resumed part way through, so they are reprojected whole
+		boolean checkpointing =
+				checkpoint != null && !Compression.isCompressed(inputFile) && !Compression.isCompressedName(outputFile);
+		long inputStart = resuming ? checkpoint.sideInputOffset : 0;
+		ByteLineReader reader;
+		FileOutputStream stream = null;
+		LineWriter writer;
+		if (checkpointing)
+		{
+			statistics.skipBytes(inputStart);
+			reader = new ByteLineReader(statistics.meterSideFileInput(Checkpoint.openInput(inputFile, inputStart)));
+			if (resuming && checkpoint.sideSkipLineFeed)
+			{
+				reader.skipLineFeed();
+			}
+			stream = Checkpoint.openOutput(outputFile, resuming ? checkpoint.sideOutputOffset : 0);
+			writer = new LineWriter(statistics.meterSideFileOutput(stream));
+		}
+		else
+		{
+			reader = new ByteLineReader(openSideFileInput(inputFile));
+			writer = new LineWriter(openSideFileOutput(outputFile));
+		}
+		writer.setPrecision(precision);
+
+		try
+		{
+			long lastCheckpoint = inputStart;
+			ByteLine line = reader.readLine();
+			while (line != null)
+			{
+				Projector.checkInterrupted();
+				if (scanner.scanDataFileLine(line))
+				{
+					double x = scanner.parseCoordinate(line, 0);
+					double y = scanner.parseCoordinate(line, 1);
+					double z = scanner.parseCoordinate(line, 2);
+					transformation.transform(transformed, x, y, z);
+					writer.writeLine(line, scanner.getStarts(), scanner.getEnds(), transformed[0], transformed[1],
+							transformed[2]);
+				}
+				else
+				{
+					writer.writeLine(line);
+				}
+
+				long position = inputStart + reader.getPosition();
+				if (checkpointing && position - lastCheckpoint >= checkpointInterval)
+				{
+					recordCheckpoint(Mode.SGRID, outputFile.getName(), position, reader.isSkippingLineFeed(),
+							sync(writer, stream));
+					lastCheckpoint = position;
+				}
+				line = reader.readLine();
+			}
+		}
+		finally
+		{
+			reader.close();
+			writer.close();
+		}
+		checkpointDue = true;
+	}
+
+	/**
+	 * @return True if the reprojection is being resumed from a checkpoint
+	 *         within the given side file
+	 */
+	private boolean isResuming(File sideFile)
+	{
+		return checkpoint != null && sideFile.getName().equals(checkpoint.sideFile);
+	}
+
+	/**
+	 * Reproject an SGrid ASCII_DATA_FILE using multiple worker threads. The
+	 * file is read in chunks of complete lines, each chunk is reprojected by
+	 * a worker using its own transformation, and the chunks are written in
+	 * their original order. The number of chunks in memory is bounded.
+	 */
+	protected void handleAsciiDataFileInParallel(File inputFile, File outputFile) throws IOException
+	{
+		BlockingQueue<TransformationEngine> transformations = new ArrayBlockingQueue<TransformationEngine>(workers);
+		List<TransformationEngine> acquired = new ArrayList<TransformationEngine>();
+		ExecutorService executor = Executors.newFixedThreadPool(workers);
+		InputStream reader = openSideFileInput(inputFile);
+		OutputStream writer = new BufferedOutputStream(openSideFileOutput(outputFile));
+
+		try
+		{
+			acquireWorkerTransformations(acquired, transformations);
+
+			int maxChunks = workers * 2;
+			Queue<Future<DataFileChunk>> pending = new LinkedList<Future<DataFileChunk>>();
+			Queue<DataFileChunk> free = new LinkedList<DataFileChunk>();
+			DataFileChunk previous = null;
+			while (true)
+			{
+				Projector.checkInterrupted();
+				if (pending.size() >= maxChunks)
+				{
+					DataFileChunk written = writeChunk(pending.remove(), writer);
+					free.add(written);
+				}
+
+				DataFileChunk chunk = free.poll();
+				if (chunk == null)
+				{
+					chunk = new DataFileChunk(DATA_FILE_CHUNK_SIZE, transformations, precision);
+				}
+				if (!chunk.fill(reader, previous))
+				{
+					break;
+				}
+				pending.add(executor.submit(chunk));
+				previous = chunk;
+			}
+			while (!pending.isEmpty())
+			{
+				writeChunk(pending.remove(), writer);
+			}
+		}
+		finally
+		{
+			executor.shutdownNow();
+			reader.close();
+			writer.close();
+			releaseWorkerTransformations(acquired);
+		}
+	}
+
+	private DataFileChunk writeChunk(Future<DataFileChunk> future, OutputStream writer) throws IOException
+	{
+		DataFileChunk chunk = getResult(future, "SGrid ASCII_DATA_FILE");
+		chunk.writeTo(writer);
+		return chunk;
+	}
+
+	/**
+	 * Wait for the result of a pipeline stage, rethrowing any exception it
+	 * threw.
+	 * 
+	 * @param description
+	 *            Description of the file being reprojected, for error messages
+	 */
+	private static <T> T getResult(Future<T> future, String description) throws IOException
+	{
+		try
+		{
+			return future.get();
+		}
+		catch (InterruptedException e)
+		{
+			throw new InterruptedIOException("Interrupted while reprojecting " + description);
+		}
+		catch (ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+			{
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException)
+			{
+				throw (RuntimeException) cause;
+			}
+			throw new IOException("Error reprojecting " + description, cause);
+		}
+	}
+
+	protected void handlePointsFile(File inputFile, int inputOffset, File outputFile,
+			TransformationEngine transformation) throws IOException
+	{
+		logger.info("Reprojecting SGrid POINTS_FILE: " + inputFile);
+
+		boolean resuming = isResuming(outputFile);
+		if (!reservedSideFiles.remove(outputFile) && outputFile.exists() && !resuming)
+		{
+			throw new IOException("Could not reproject SGrid POINTS_FILE, output file already exists: " + outputFile);
+		}
+		statistics.addSideFile(inputFile);
+		if (checkpoint != null)
+		{
+			checkpoint.addSideInput(inputFile);
+		}
+		if (Compression.isCompressed(inputFile) || Compression.isCompressedName(outputFile))
+		{
+			handleCompressedPointsFile(inputFile, inputOffset, outputFile, transformation);
+			checkpointDue = true;
+			return;
+		}
+
+		RandomAccessFile input = new RandomAccessFile(inputFile, "r");
+		FileOutputStream output = Checkpoint.openOutput(outputFile, resuming ? checkpoint.sideOutputOffset : 0);
+
+		try
+		{
+			FileChannel inputChannel = input.getChannel();
+			FileChannel outputChannel = output.getChannel();
+			long length = inputChannel.size();
+			long position = inputOffset;
+			long writeStart;
+
+			if (resuming)
+			{
+				//the header and the points before the checkpoint have already been written
+				position = checkpoint.sideInputOffset;
+				statistics.skipBytes(position);
+			}
+			else
+			{
+				//copy the header in bulk; a header that extends past the end of the
+				//file is padded with 0xff bytes, as was written by earlier versions
+				long headerLength = Math.min(inputOffset, length);
+				long copied = 0;
+				writeStart = System.nanoTime();
+				while (copied < headerLength)
+				{
+					copied += inputChannel.transferTo(copied, headerLength - copied, outputChannel);
+				}
+				if (inputOffset > length)
+				{
+					ByteBuffer padding = ByteBuffer.allocate((int) (inputOffset - length));
+					while (padding.hasRemaining())
+					{
+						padding.put((byte) 0xff);
+					}
+					padding.flip();
+					writeFully(outputChannel, padding);
+				}
+				statistics.addSideFileBytesRead(headerLength);
+				statistics.addSideFileBytesWritten(inputOffset, System.nanoTime() - writeStart);
+			}
+
+			//any trailing bytes that don't form a complete point are ignored
+			long pointCount = length > position ? (length - position) / POINT_SIZE : 0;
+			double[] coordinates = new double[POINTS_BLOCK_SIZE * 3];
+			ByteBuffer outputBuffer = ByteBuffer.allocateDirect(POINTS_BLOCK_SIZE * POINT_SIZE).order(pointsByteOrder);
+			FloatBuffer outputFloats = outputBuffer.asFloatBuffer();
+
+			long lastCheckpoint = position;
+			while (pointCount > 0)
+			{
+				int windowPoints = (int) Math.min(pointCount, POINTS_MAP_SIZE);
+				MappedByteBuffer mapped = inputChannel.map(MapMode.READ_ONLY, position, (long) windowPoints * POINT_SIZE);
+				FloatBuffer inputFloats = mapped.order(pointsByteOrder).asFloatBuffer();
+
+				for (int start = 0; start < windowPoints; start += POINTS_BLOCK_SIZE)
+				{
+					Projector.checkInterrupted();
+					int count = Math.min(windowPoints - start, POINTS_BLOCK_SIZE);
+					for (int i = 0; i < count * 3; i++)
+					{
+						coordinates[i] = inputFloats.get();
+					}
+					transformation.transform(coordinates, count);
+
+					outputFloats.clear();
+					for (int i = 0; i < count * 3; i++)
+					{
+						outputFloats.put((float) coordinates[i]);
+					}
+					outputBuffer.clear();
+					outputBuffer.limit(count * POINT_SIZE);
+					statistics.addSideFileBytesRead(count * POINT_SIZE);
+					writeStart = System.nanoTime();
+					writeFully(outputChannel, outputBuffer);
+					statistics.addSideFileBytesWritten(count * POINT_SIZE, System.nanoTime() - writeStart);
+
+					long read = position + (long) (start + count) * POINT_SIZE;
+					if (checkpoint != null && read - lastCheckpoint >= checkpointInterval)
+					{
+						outputChannel.force(false);
+						recordCheckpoint(Mode.SGRID, outputFile.getName(), read, false, outputChannel.position());
+						lastCheckpoint = read;
+					}
+				}
+
+				position += (long) windowPoints * POINT_SIZE;
+				pointCount -= windowPoints;
+			}
+		}
+		finally
+		{
+			input.close();
+			output.close();
+		}
+		checkpointDue = true;
+	}
+
+	/**
+	 * Reproject a compressed SGrid POINTS_FILE (or one written compressed),
+	 * which can't be memory mapped, by streaming it through a buffer of
+	 * points. Compressed points files are reprojected whole, without
+	 * checkpoints within them.
+	 */
+	protected void handleCompressedPointsFile(File inputFile, int inputOffset, File outputFile,
+			TransformationEngine transformation) throws IOException
+	{
+		streamPointsFile(inputFile, inputOffset, Collections.singletonList(outputFile),
+				Collections.singletonList(transformation));
+	}
+
+	/**
+	 * Stream the points of an SGrid POINTS_FILE through a buffer, reading
+	 * each block of points once and writing it to each output reprojected by
+	 * the matching transformation.
+	 */
+	private void streamPointsFile(File inputFile, int inputOffset, List<File> outputFiles,
+			List<TransformationEngine> transformations) throws IOException
+	{
+		InputStream input = openSideFileInput(inputFile);
+		List<OutputStream> outputs = new ArrayList<OutputStream>();
+
+		try
+		{
+			for (File outputFile : outputFiles)
+			{
+				outputs.add(new BufferedOutputStream(openSideFileOutput(outputFile)));
+			}
+			byte[] bytes = new byte[POINTS_BLOCK_SIZE * POINT_SIZE];
+
+			//copy the header; a header that extends past the end of the file is
+			//padded with 0xff bytes, as for uncompressed points files
+			int header = 0;
+			while (header < inputOffset)
+			{
+				int count = readFully(input, bytes, Math.min(inputOffset - header, bytes.length));
+				if (count == 0)
+				{
+					break;
+				}
+				for (OutputStream output : outputs)
+				{
+					output.write(bytes, 0, count);
+				}
+				header += count;
+			}
+			for (; header < inputOffset; header++)
+			{
+				for (OutputStream output : outputs)
+				{
+					output.write(0xff);
+				}
+			}
+
+			//any trailing bytes that don't form a complete point are ignored
+			double[] original = new double[POINTS_BLOCK_SIZE * 3];
+			double[] coordinates = new double[POINTS_BLOCK_SIZE * 3];
+			byte[] projected = new byte[bytes.length];
+			FloatBuffer inputFloats = ByteBuffer.wrap(bytes).order(pointsByteOrder).asFloatBuffer();
+			FloatBuffer outputFloats = ByteBuffer.wrap(projected).order(pointsByteOrder).asFloatBuffer();
+			while (true)
+			{
+				Projector.checkInterrupted();
+				int count = readFully(input, bytes, bytes.length) / POINT_SIZE;
+				if (count == 0)
+				{
+					break;
+				}
+				inputFloats.clear();
+				for (int i = 0; i < count * 3; i++)
+				{
+					original[i] = inputFloats.get();
+				}
+				for (int t = 0; t < outputs.size(); t++)
+				{
+					System.arraycopy(original, 0, coordinates, 0, count * 3);
+					transformations.get(t).transform(coordinates, count);
+					outputFloats.clear();
+					for (int i = 0; i < count * 3; i++)
+					{
+						outputFloats.put((float) coordinates[i]);
+					}
+					outputs.get(t).write(projected, 0, count * POINT_SIZE);
+				}
+			}
+		}
+		finally
+		{
+			input.close();
+			for (OutputStream output : outputs)
+			{
+				output.close();
+			}
+		}
+	}
+
+	/**
+	 * Read from a stream until the given number of bytes have been read or
+	 * the end of the stream is reached.
+	 * 
+	 * @return Number of bytes read
+	 */
+	private static int readFully(InputStream is, byte[] buffer, int length) throws IOException
+	{
+		int total = 0;
+		while (total < length)
+		{
+			int read = is.read(buffer, total, length - total);
+			if (read < 0)
+			{
+				break;
+			}
+			total += read;
+		}
+		return total;
+	}
+
+	/**
+	 * Open a GOCAD object for reading, decompressing it if it is compressed.
+	 */
+	private InputStream openInput(File file) throws IOException
+	{
+		return Compression.decompress(statistics.meterInput(new FileInputStream(file)), file.getName());
+	}
+
+	/**
+	 * Open a GOCAD object for writing, compressing it if its name ends with
+	 * {@link Compression#GZIP_EXTENSION}.
+	 */
+	private OutputStream openOutput(File file) throws IOException
+	{
+		boolean compressed = Compression.isCompressedName(file);
+		OutputStream os = statistics.meterOutput(new FileOutputStream(file));
+		statistics.addOutputFile(file);
+		return compressed ? new ParallelGzipOutputStream(os, compressionThreads) : os;
+	}
+
+	/**
+	 * Open an SGrid side file for reading, decompressing it if it is
+	 * compressed.
+	 */
+	private InputStream openSideFileInput(File file) throws IOException
+	{
+		return Compression.decompress(statistics.meterSideFileInput(new FileInputStream(file)), file.getName());
+	}
+
+	/**
+	 * Open an SGrid side file for writing, compressing it if its name ends
+	 * with {@link Compression#GZIP_EXTENSION}.
+	 */
+	private OutputStream openSideFileOutput(File file) throws IOException
+	{
+		boolean compressed = Compression.isCompressedName(file);
+		OutputStream os = statistics.meterSideFileOutput(new FileOutputStream(file));
+		return compressed ? new ParallelGzipOutputStream(os, compressionThreads) : os;
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException
+	{
+		while (buffer.hasRemaining())
+		{
+			channel.write(buffer);
+		}
+	}
+
+	/**
+	 * An SGrid side file to reproject.
+	 */
+	private static class SideFile
+	{
+		public final File input;
+		public final File output;
+		public final boolean points;
+		public final int pointsOffset;
+
+		public SideFile(File input, File output, boolean points, int pointsOffset)
+		{
+			this.input = input;
+			this.output = output;
+			this.points = points;
+			this.pointsOffset = pointsOffset;
+		}
+	}
+
+	/**
+	 * One of the targets of a single pass reprojection into several target
+	 * spatial reference sets.
+	 */
+	private static class Target
+	{
+		public final TransformationEngine transformation;
+		public final LineWriter writer;
+		public final File outputDirectory;
+		public final String outputName;
+		public double[] axisProjected;
+
+		public Target(TransformationEngine transformation, OutputStream output, File outputFile, int precision)
+		{
+			this.transformation = transformation;
+			this.writer = new LineWriter(output);
+			this.writer.setPrecision(precision);
+			this.outputDirectory = outputFile.getAbsoluteFile().getParentFile();
+			this.outputName = outputFile.getName();
+		}
+	}
+
+	/**
+	 * The state of the GOCAD object being parsed; each object's header line
+	 * starts a new context.
+	 */
+	private static class ObjectContext
+	{
+		public double[] axisOriginal;
+		public double[] axisProjected;
+		public String name;
+		public int pointsOffset = 0;
+		public List<String> gridLines = null;
+		public int gridLineNumber;
+	}
+}
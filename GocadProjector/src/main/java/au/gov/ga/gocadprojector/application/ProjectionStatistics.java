@@ -0,0 +1,622 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.application;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import au.gov.ga.gocadprojector.transform.TransformationEngine;
+
+/**
+ * Counters collected while a {@link Projector} reprojects a single GOCAD
+ * object: lines, vertices transformed, bytes read and written (including
+ * SGrid side files), and the wall time split into parse, transform and write
+ * stages.
+ * <p/>
+ * The counters are updated by the reprojecting threads, and can be read from
+ * any other thread while the reprojection is running (eg. to show progress).
+ * Rather than timing every line, the input and output streams and the
+ * transformation engine are wrapped to count bytes, vertices and time:
+ * <ul>
+ * <li>transform time is spent in the transformation engine; with more than
+ * one worker it is summed over the worker threads</li>
+ * <li>write time is spent writing to the output files</li>
+ * <li>parse time is the remaining wall time, spent reading, scanning and
+ * formatting lines</li>
+ * </ul>
+ */
+public class ProjectionStatistics
+{
+	private final static double NANOS_PER_SECOND = 1e9;
+
+	private final AtomicLong lines = new AtomicLong();
+	private final AtomicLong vertices = new AtomicLong();
+	private final List<MeteredTransformationEngine> engines = new CopyOnWriteArrayList<MeteredTransformationEngine>();
+	private final AtomicLong bytesRead = new AtomicLong();
+	private final AtomicLong bytesWritten = new AtomicLong();
+	private final AtomicLong sideFiles = new AtomicLong();
+	private final AtomicLong sideFileBytesRead = new AtomicLong();
+	private final AtomicLong sideFileBytesWritten = new AtomicLong();
+	private final AtomicLong expectedBytes = new AtomicLong();
+	private final AtomicLong transformNanos = new AtomicLong();
+	private final AtomicLong writeNanos = new AtomicLong();
+	private final List<File> outputFiles = new CopyOnWriteArrayList<File>();
+	private volatile String inputFile;
+	private volatile String outputFile;
+	private volatile long startNanos = 0;
+	private volatile long endNanos = 0;
+	private double progress = 0;
+
+	/**
+	 * Start timing the reprojection of the given file.
+	 */
+	public void start(File input, File output)
+	{
+		inputFile = input.getPath();
+		outputFile = output.getPath();
+		expectedBytes.addAndGet(input.length());
+		start();
+	}
+
+	/**
+	 * Start timing the reprojection of a stream, whose size isn't known in
+	 * advance (so the progress only counts its side files).
+	 * 
+	 * @param input
+	 *            Name of the input stream
+	 * @param output
+	 *            Name of the output stream
+	 */
+	public void start(String input, String output)
+	{
+		inputFile = input;
+		outputFile = output;
+		start();
+	}
+
+	/**
+	 * Start timing, without an input file (eg. for a total of many
+	 * reprojections).
+	 */
+	public void start()
+	{
+		startNanos = System.nanoTime();
+	}
+
+	/**
+	 * Stop timing the reprojection. The metered transformation engines must
+	 * no longer be in use.
+	 */
+	public void finish()
+	{
+		if (startNanos != 0 && endNanos == 0)
+		{
+			endNanos = System.nanoTime();
+		}
+		//fold the engine counters into the totals, so the engines aren't retained
+		for (MeteredTransformationEngine engine : engines)
+		{
+			vertices.addAndGet(engine.vertices);
+			transformNanos.addAndGet(engine.nanos);
+		}
+		engines.clear();
+	}
+
+	/**
+	 * @return True once the reprojection has finished (successfully or not)
+	 */
+	public boolean isFinished()
+	{
+		return endNanos != 0;
+	}
+
+	/**
+	 * Record the number of lines in the GOCAD object file.
+	 */
+	public void setLines(long lines)
+	{
+		this.lines.set(lines);
+	}
+
+	/**
+	 * Record that an SGrid side file (ASCII_DATA_FILE or POINTS_FILE) is about
+	 * to be reprojected, so that its size is included in the progress.
+	 */
+	public void addSideFile(File input)
+	{
+		sideFiles.incrementAndGet();
+		expectedBytes.addAndGet(input.length());
+	}
+
+	/**
+	 * Record a file created by the reprojection (an output file or the output
+	 * of a side file), so that it can be deleted if the reprojection is
+	 * cancelled.
+	 */
+	public void addOutputFile(File output)
+	{
+		outputFiles.add(output);
+	}
+
+	/**
+	 * Exclude bytes from the progress that don't need to be read, because the
+	 * reprojection was resumed from a {@link Checkpoint}.
+	 */
+	public void skipBytes(long bytes)
+	{
+		expectedBytes.addAndGet(-bytes);
+	}
+
+	/**
+	 * Count bytes read from a side file that isn't read through a stream.
+	 */
+	public void addSideFileBytesRead(long bytes)
+	{
+		sideFileBytesRead.addAndGet(bytes);
+	}
+
+	/**
+	 * Count bytes written to a side file that isn't written through a stream.
+	 */
+	public void addSideFileBytesWritten(long bytes, long nanos)
+	{
+		sideFileBytesWritten.addAndGet(bytes);
+		writeNanos.addAndGet(nanos);
+	}
+
+	/**
+	 * @return Stream that counts the bytes read from the GOCAD object file
+	 */
+	public InputStream meterInput(InputStream input)
+	{
+		return new MeteredInputStream(input, bytesRead);
+	}
+
+	/**
+	 * @return Stream that counts the bytes and time written to the GOCAD
+	 *         object file
+	 */
+	public OutputStream meterOutput(OutputStream output)
+	{
+		return new MeteredOutputStream(output, bytesWritten, writeNanos);
+	}
+
+	/**
+	 * @return Stream that counts the bytes read from an SGrid side file
+	 */
+	public InputStream meterSideFileInput(InputStream input)
+	{
+		return new MeteredInputStream(input, sideFileBytesRead);
+	}
+
+	/**
+	 * @return Stream that counts the bytes and time written to an SGrid side
+	 *         file
+	 */
+	public OutputStream meterSideFileOutput(OutputStream output)
+	{
+		return new MeteredOutputStream(output, sideFileBytesWritten, writeNanos);
+	}
+
+	/**
+	 * @return Engine that counts the vertices and time transformed by the
+	 *         given engine. The returned engine must not be released; release
+	 *         the given engine instead.
+	 */
+	public TransformationEngine meterTransformations(TransformationEngine engine)
+	{
+		MeteredTransformationEngine metered = new MeteredTransformationEngine(engine);
+		engines.add(metered);
+		return metered;
+	}
+
+	public String getInputFile()
+	{
+		return inputFile;
+	}
+
+	public String getOutputFile()
+	{
+		return outputFile;
+	}
+
+	public long getLines()
+	{
+		return lines.get();
+	}
+
+	/**
+	 * @return Number of points passed to the transformation engine, including
+	 *         Voxet and GSurf axes and SGrid points
+	 */
+	public long getVertices()
+	{
+		long count = vertices.get();
+		for (MeteredTransformationEngine engine : engines)
+		{
+			count += engine.vertices;
+		}
+		return count;
+	}
+
+	public long getBytesRead()
+	{
+		return bytesRead.get();
+	}
+
+	public long getBytesWritten()
+	{
+		return bytesWritten.get();
+	}
+
+	public long getSideFiles()
+	{
+		return sideFiles.get();
+	}
+
+	public long getSideFileBytesRead()
+	{
+		return sideFileBytesRead.get();
+	}
+
+	public long getSideFileBytesWritten()
+	{
+		return sideFileBytesWritten.get();
+	}
+
+	/**
+	 * @return Files created by the reprojection so far, see
+	 *         {@link #addOutputFile(File)}
+	 */
+	public List<File> getOutputFiles()
+	{
+		return Collections.unmodifiableList(outputFiles);
+	}
+
+	/**
+	 * @return Wall time since the reprojection started, or its total wall
+	 *         time once finished
+	 */
+	public long getWallNanos()
+	{
+		long start = startNanos;
+		if (start == 0)
+		{
+			return 0;
+		}
+		long end = endNanos;
+		return (end != 0 ? end : System.nanoTime()) - start;
+	}
+
+	public long getTransformNanos()
+	{
+		long nanos = transformNanos.get();
+		for (MeteredTransformationEngine engine : engines)
+		{
+			nanos += engine.nanos;
+		}
+		return nanos;
+	}
+
+	public long getWriteNanos()
+	{
+		return writeNanos.get();
+	}
+
+	/**
+	 * @return Wall time not spent transforming or writing
+	 */
+	public long getParseNanos()
+	{
+		return Math.max(0, getWallNanos() - getTransformNanos() - getWriteNanos());
+	}
+
+	/**
+	 * @return Fraction (between 0 and 1) of the input bytes read so far. The
+	 *         total includes the SGrid side files found so far, so the
+	 *         progress is held while a newly found side file catches up.
+	 */
+	public synchronized double getProgress()
+	{
+		long expected = expectedBytes.get();
+		if (expected > 0)
+		{
+			double current = (double) (bytesRead.get() + sideFileBytesRead.get()) / expected;
+			progress = Math.max(progress, Math.min(1, current));
+		}
+		return progress;
+	}
+
+	/**
+	 * @return Bytes read (including side files) per second of wall time
+	 */
+	public double getThroughput()
+	{
+		long nanos = getWallNanos();
+		return nanos > 0 ? (bytesRead.get() + sideFileBytesRead.get()) * NANOS_PER_SECOND / nanos : 0;
+	}
+
+	/**
+	 * @return Human readable summary of the statistics
+	 */
+	@Override
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append(getLines()).append(" lines, ");
+		sb.append(getVertices()).append(" vertices, ");
+		sb.append(formatBytes(getBytesRead())).append(" read, ");
+		sb.append(formatBytes(getBytesWritten())).append(" written");
+		if (getSideFiles() > 0)
+		{
+			sb.append(", ").append(getSideFiles()).append(" side file(s) ");
+			sb.append(formatBytes(getSideFileBytesRead())).append(" read, ");
+			sb.append(formatBytes(getSideFileBytesWritten())).append(" written");
+		}
+		sb.append("; ").append(formatSeconds(getWallNanos())).append(" (parse ");
+		sb.append(formatSeconds(getParseNanos())).append(", transform ");
+		sb.append(formatSeconds(getTransformNanos())).append(", write ");
+		sb.append(formatSeconds(getWriteNanos())).append("), ");
+		sb.append(formatBytes((long) getThroughput())).append("/s");
+		return sb.toString();
+	}
+
+	/**
+	 * @return The statistics as a JSON object; times are in milliseconds
+	 */
+	public String toJson()
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append('{');
+		sb.append("\"input\":").append(quote(getInputFile())).append(',');
+		sb.append("\"output\":").append(quote(getOutputFile())).append(',');
+		sb.append("\"lines\":").append(getLines()).append(',');
+		sb.append("\"vertices\":").append(getVertices()).append(',');
+		sb.append("\"bytesRead\":").append(getBytesRead()).append(',');
+		sb.append("\"bytesWritten\":").append(getBytesWritten()).append(',');
+		sb.append("\"sideFiles\":").append(getSideFiles()).append(',');
+		sb.append("\"sideFileBytesRead\":").append(getSideFileBytesRead()).append(',');
+		sb.append("\"sideFileBytesWritten\":").append(getSideFileBytesWritten()).append(',');
+		sb.append("\"wallMs\":").append(toMillis(getWallNanos())).append(',');
+		sb.append("\"parseMs\":").append(toMillis(getParseNanos())).append(',');
+		sb.append("\"transformMs\":").append(toMillis(getTransformNanos())).append(',');
+		sb.append("\"writeMs\":").append(toMillis(getWriteNanos())).append(',');
+		sb.append("\"bytesPerSecond\":").append((long) getThroughput());
+		sb.append('}');
+		return sb.toString();
+	}
+
+	/**
+	 * Add the counters of the given statistics to these statistics, to
+	 * summarise many reprojections. Times are summed; the wall time of the
+	 * total is set by {@link #start()} and {@link #finish()}.
+	 */
+	public void add(ProjectionStatistics other)
+	{
+		lines.addAndGet(other.getLines());
+		vertices.addAndGet(other.getVertices());
+		bytesRead.addAndGet(other.getBytesRead());
+		bytesWritten.addAndGet(other.getBytesWritten());
+		sideFiles.addAndGet(other.getSideFiles());
+		sideFileBytesRead.addAndGet(other.getSideFileBytesRead());
+		sideFileBytesWritten.addAndGet(other.getSideFileBytesWritten());
+		transformNanos.addAndGet(other.getTransformNanos());
+		writeNanos.addAndGet(other.getWriteNanos());
+	}
+
+	/**
+	 * @return The given byte count formatted with a binary unit (eg. 1.5 MB)
+	 */
+	public static String formatBytes(long bytes)
+	{
+		if (bytes < 1024)
+		{
+			return bytes + " B";
+		}
+		String[] units = { "KB", "MB", "GB", "TB" };
+		double value = bytes;
+		int unit = -1;
+		while (value >= 1024 && unit < units.length - 1)
+		{
+			value /= 1024;
+			unit++;
+		}
+		return String.format(Locale.US, "%.1f %s", value, units[unit]);
+	}
+
+	private static String formatSeconds(long nanos)
+	{
+		return String.format(Locale.US, "%.2fs", nanos / NANOS_PER_SECOND);
+	}
+
+	private static long toMillis(long nanos)
+	{
+		return nanos / 1000000L;
+	}
+
+	/**
+	 * @return The given string as a quoted JSON string, or null
+	 */
+	static String quote(String s)
+	{
+		if (s == null)
+		{
+			return "null";
+		}
+		StringBuilder sb = new StringBuilder(s.length() + 2);
+		sb.append('"');
+		for (int i = 0; i < s.length(); i++)
+		{
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\')
+			{
+				sb.append('\\').append(c);
+			}
+			else if (c < ' ')
+			{
+				sb.append(String.format("\\u%04x", (int) c));
+			}
+			else
+			{
+				sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+
+	private static class MeteredInputStream extends FilterInputStream
+	{
+		private final AtomicLong bytes;
+
+		public MeteredInputStream(InputStream in, AtomicLong bytes)
+		{
+			super(in);
+			this.bytes = bytes;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			int b = super.read();
+			if (b >= 0)
+			{
+				bytes.incrementAndGet();
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			int read = super.read(b, off, len);
+			if (read > 0)
+			{
+				bytes.addAndGet(read);
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException
+		{
+			long skipped = super.skip(n);
+			bytes.addAndGet(skipped);
+			return skipped;
+		}
+	}
+
+	private static class MeteredOutputStream extends FilterOutputStream
+	{
+		private final AtomicLong bytes;
+		private final AtomicLong nanos;
+
+		public MeteredOutputStream(OutputStream out, AtomicLong bytes, AtomicLong nanos)
+		{
+			super(out);
+			this.bytes = bytes;
+			this.nanos = nanos;
+		}
+
+		@Override
+		public void write(int b) throws IOException
+		{
+			long start = System.nanoTime();
+			out.write(b);
+			nanos.addAndGet(System.nanoTime() - start);
+			bytes.incrementAndGet();
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException
+		{
+			//FilterOutputStream writes arrays a byte at a time
+			long start = System.nanoTime();
+			out.write(b, off, len);
+			nanos.addAndGet(System.nanoTime() - start);
+			bytes.addAndGet(len);
+		}
+
+		@Override
+		public void flush() throws IOException
+		{
+			long start = System.nanoTime();
+			out.flush();
+			nanos.addAndGet(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Engines are confined to one thread at a time, so the counters are only
+	 * written by that thread; they are volatile so that other threads can
+	 * read them, which is cheaper than an atomic update for every vertex.
+	 */
+	private static class MeteredTransformationEngine implements TransformationEngine
+	{
+		private final TransformationEngine engine;
+		private volatile long vertices = 0;
+		private volatile long nanos = 0;
+
+		public MeteredTransformationEngine(TransformationEngine engine)
+		{
+			this.engine = engine;
+		}
+
+		@Override
+		public void transform(double[] out, double x, double y, double z)
+		{
+			long start = System.nanoTime();
+			engine.transform(out, x, y, z);
+			nanos += System.nanoTime() - start;
+			vertices++;
+		}
+
+		@Override
+		public void transform(double[][] points)
+		{
+			long start = System.nanoTime();
+			engine.transform(points);
+			nanos += System.nanoTime() - start;
+			vertices += points.length;
+		}
+
+		@Override
+		public void transform(double[] coordinates, int count)
+		{
+			long start = System.nanoTime();
+			engine.transform(coordinates, count);
+			nanos += System.nanoTime() - start;
+			vertices += count;
+		}
+
+		/**
+		 * Does nothing: the wrapped engine is owned by whoever acquired it
+		 * (usually the {@link TransformationCache}), which releases it.
+		 */
+		@Override
+		public void release()
+		{
+		}
+	}
+}
@@ -15,60 +15,63 @@
  ******************************************************************************/
 package au.gov.ga.gocadprojector.application;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.io.Writer;
 import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import org.gdal.ogr.ogrConstants;
-import org.gdal.osr.CoordinateTransformation;
-import org.gdal.osr.SpatialReference;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import au.gov.ga.gocadprojector.transform.TransformationEngine;
+import au.gov.ga.gocadprojector.transform.TransformationEngines;
 
 /**
  * Class that performs the actual reprojection.
+ * <p/>
+ * A projector only holds its configuration (the cache of transformations it
+ * uses), so a single instance can be used by any number of threads at once.
+ * Each reprojection keeps its state in its own {@link ProjectionContext}.
  * 
  * @author Michael de Hoog (michael.dehoog@ga.gov.au)
  */
 public class Projector
 {
-	private final static Logger logger = LoggerFactory.getLogger(Projector.class);
-	private final static String NEW_LINE = "\r\n";
+	/**
+	 * Version of the reprojected output. Recorded in the manifests of
+	 * incremental batch runs, so that changing it reprojects every object;
+	 * increment it whenever a change alters the output for the same input.
+	 */
+	public final static String VERSION = "1.2";
+
+	/**
+	 * Name of a GOCAD object read from or written to a stream (eg. standard
+	 * input or output) rather than a file.
+	 */
+	public final static String STREAM = "-";
+
+	/**
+	 * Prefix of the side files of unnamed objects written to a stream; the
+	 * output filename is used when writing to a file.
+	 */
+	private final static String STREAM_SIDE_FILE_PREFIX = "projected";
 
 	private final static Pattern GOCAD_TYPE_REGEX = Pattern.compile("(?i)GOCAD\\s+(\\w+).*");
-	private final static Pattern VERTEX_REGEX = Pattern
-			.compile("(?i)P?VRTX\\s+\\d+\\s+([\\d.\\-e]+)\\s+([\\d.\\-e]+)\\s+([\\d.\\-e]+).*");
-	private final static Pattern WREF_REGEX = Pattern
-			.compile("(?i)WREF\\s+([\\d.\\-e]+)\\s+([\\d.\\-e]+)\\s+([\\d.\\-e]+).*");
-	private final static Pattern AXIS_REGEX = Pattern
-			.compile("(?i)(?:AXIS_(\\w+)|(O)RIGIN)\\s+([\\d.\\-e]+)\\s+([\\d.\\-e]+)\\s+([\\d.\\-e]+).*");
-	private final static Pattern NAME_REGEX = Pattern.compile("(?i)name:(.*)");
-	private final static Pattern ASCII_DATA_FILE_REGEX = Pattern.compile("(?i)ASCII_DATA_FILE\\s+(.*)");
-	private final static Pattern DATA_FILE_LINE_REGEX = Pattern
-			.compile("\\s*([\\d.\\-e]+)\\s+([\\d.\\-e]+)\\s+([\\d.\\-e]+).*");
-	private final static Pattern POINTS_FILE_REGEX = Pattern.compile("(?i)POINTS_FILE\\s+(.*)");
-	private final static Pattern POINTS_OFFSET_REGEX = Pattern.compile("(?i)POINTS_OFFSET\\s+(\\d+).*");
 
-	private final double[] transformed = new double[3];
-	private double[] axisOoriginal;
-	private double[] axisOprojected;
-	private String name;
-	private int pointsOffset = 0;
+	private final TransformationCache cache;
+	private final TransformationCache.Factory factory = new TransformationCache.Factory()
+	{
+		@Override
+		public TransformationEngine createEngine(String engine, String sourceSRS, String targetSRS)
+		{
+			return Projector.this.createEngine(engine, sourceSRS, targetSRS);
+		}
+	};
 
-	private enum Mode
+	enum Mode
 	{
 		UNKNOWN,
 		SIMPLE,
@@ -77,7 +80,33 @@ public class Projector
 		SGRID
 	}
 
+	/**
+	 * Create a projector that uses the default {@link TransformationCache}.
+	 */
+	public Projector()
+	{
+		this(TransformationCache.getDefault());
+	}
+
+	/**
+	 * Create a projector that reuses transformations from the given cache.
+	 */
+	public Projector(TransformationCache cache)
+	{
+		this.cache = cache;
+	}
+
 	public void project(Parameters parameters) throws Exception
+	{
+		project(parameters, new ProjectionStatistics());
+	}
+
+	/**
+	 * Reproject the GOCAD object described by the given parameters,
+	 * collecting counters and timings in the given statistics. The statistics
+	 * can be read from another thread while the reprojection is running.
+	 */
+	public void project(Parameters parameters, ProjectionStatistics statistics) throws Exception
 	{
 		/*
 		 * 1. VRTX and PVRTX are easy, simply load the x,y,z coordinates, and reproject
@@ -102,386 +131,169 @@ public class Projector
 			throw new IOException("Output file already exists: " + output);
 		}
 
-		if (!output.getParentFile().exists())
-		{
-			output.getParentFile().mkdirs();
-		}
-
-		SpatialReference sSRS = new SpatialReference();
-		int ret = sSRS.SetFromUserInput(parameters.sourceSRS);
-		if (ret != ogrConstants.OGRERR_NONE)
+		//a bare filename has no parent
+		File outputDirectory = output.getAbsoluteFile().getParentFile();
+		if (!outputDirectory.exists())
 		{
-			throw new IllegalArgumentException("Unknown spatial reference: " + parameters.sourceSRS);
+			outputDirectory.mkdirs();
 		}
 
-		SpatialReference tSRS = new SpatialReference();
-		ret = tSRS.SetFromUserInput(parameters.targetSRS);
-		if (ret != ogrConstants.OGRERR_NONE)
+		List<File> outputs = new ArrayList<File>();
+		outputs.add(output.getAbsoluteFile());
+		for (String extraOutputFile : parameters.extraOutputFiles)
 		{
-			throw new IllegalArgumentException("Unknown spatial reference: " + parameters.targetSRS);
-		}
-
-		CoordinateTransformation transformation = new CoordinateTransformation(sSRS, tSRS);
-		Mode mode = Mode.UNKNOWN;
-
-		BufferedReader reader = new BufferedReader(new FileReader(input));
-		BufferedWriter writer = new BufferedWriter(new FileWriter(output));
-		try
-		{
-			int lineNumber = 1;
-			String line = reader.readLine();
-			while (line != null)
+			File extraOutput = new File(extraOutputFile).getAbsoluteFile();
+			if (outputs.contains(extraOutput))
 			{
-				if (mode == Mode.UNKNOWN)
-				{
-					Matcher matcher = GOCAD_TYPE_REGEX.matcher(line);
-					if (matcher.matches())
-					{
-						//clear axis values
-						axisOoriginal = axisOprojected = null;
-						name = null;
-						pointsOffset = 0;
-
-						String type = matcher.group(1);
-						if (type == null || type.toLowerCase().contains("group"))
-						{
-							//ignore
-						}
-						else if ("voxet".equalsIgnoreCase(type))
-						{
-							mode = Mode.VOXET;
-						}
-						else if ("gsurf".equalsIgnoreCase(type))
-						{
-							mode = Mode.GSURF;
-						}
-						else if ("sgrid".equalsIgnoreCase(type))
-						{
-							mode = Mode.SGRID;
-						}
-						else
-						{
-							mode = Mode.SIMPLE;
-						}
-					}
-					writer.write(line + NEW_LINE);
-				}
-				else
-				{
-					if (line.trim().equalsIgnoreCase("END"))
-					{
-						mode = Mode.UNKNOWN;
-						writer.write(line + NEW_LINE);
-					}
-					else
-					{
-						switch (mode)
-						{
-						case SIMPLE:
-							handleSimpleLine(line, lineNumber, writer, transformation);
-							break;
-						case VOXET:
-							handleVoxetLine(line, lineNumber, writer, transformation);
-							break;
-						case GSURF:
-							handleGSurfLine(line, lineNumber, writer, transformation);
-							break;
-						case SGRID:
-							handleSGridLine(line, lineNumber, writer, transformation, input, output);
-							break;
-						default:
-							writer.write(line + NEW_LINE);
-							break;
-						}
-					}
-				}
-
-				line = reader.readLine();
-				lineNumber++;
+				throw new IOException("Each target must be written to a different output file: " + extraOutput);
 			}
+			if (extraOutput.exists() && !parameters.overwrite)
+			{
+				throw new IOException("Output file already exists: " + extraOutput);
+			}
+			extraOutput.getParentFile().mkdirs();
+			outputs.add(extraOutput);
 		}
-		finally
-		{
-			reader.close();
-			writer.close();
-		}
+
+		new ProjectionContext(this, parameters, statistics, DirectorySideFileResolver.forFiles(input, output),
+				output.getName()).projectFile(input, output);
 	}
 
-	protected void handleSimpleLine(String line, int lineNumber, Writer writer, CoordinateTransformation transformation)
-			throws IOException
+	/**
+	 * Reproject a GOCAD object read from a stream, writing the reprojected
+	 * object to another stream, so that the projector can be used in a
+	 * pipeline without temporary files. The input is decompressed if it is
+	 * gzip compressed. The streams are not closed.
+	 * <p/>
+	 * The input and output files of the parameters are ignored, and side files
+	 * are read and written through the given resolver instead. Checkpoints
+	 * can't be recorded, the members of the object aren't reprojected in
+	 * parallel, as both require reading the input file again, and additional
+	 * targets can't be written.
+	 * 
+	 * @param input
+	 *            Stream to read the GOCAD object from
+	 * @param output
+	 *            Stream to write the reprojected GOCAD object to
+	 * @param resolver
+	 *            Locates the side files referenced by the object
+	 */
+	public void project(Parameters parameters, InputStream input, OutputStream output, SideFileResolver resolver,
+			ProjectionStatistics statistics) throws Exception
 	{
-		Matcher vertexMatcher = VERTEX_REGEX.matcher(line);
-		Matcher wrefMatcher = WREF_REGEX.matcher(line);
-		Matcher matcher = vertexMatcher.matches() ? vertexMatcher : wrefMatcher.matches() ? wrefMatcher : null;
-		if (matcher != null)
+		if (parameters.checkpoint > 0)
 		{
-			try
-			{
-				double x = Double.parseDouble(matcher.group(1));
-				double y = Double.parseDouble(matcher.group(2));
-				double z = Double.parseDouble(matcher.group(3));
-				transformation.TransformPoint(transformed, x, y, z);
-				x = transformed[0];
-				y = transformed[1];
-				z = transformed[2];
-				line =
-						line.substring(0, matcher.start(1)) + removeTrailingZero(x)
-								+ line.substring(matcher.end(1), matcher.start(2)) + removeTrailingZero(y)
-								+ line.substring(matcher.end(2), matcher.start(3)) + removeTrailingZero(z)
-								+ line.substring(matcher.end(3), line.length());
-			}
-			catch (NumberFormatException e)
-			{
-				logger.error("Error parsing line " + lineNumber + ": ", e);
-			}
+			throw new IOException("Checkpoints can only be recorded when reprojecting files");
+		}
+		if (!parameters.extraTargetSRS.isEmpty())
+		{
+			throw new IOException("Additional targets can only be written when reprojecting files");
 		}
 
-		writer.write(line + NEW_LINE);
+		new ProjectionContext(this, parameters, statistics, resolver, STREAM_SIDE_FILE_PREFIX).projectStream(input,
+				output);
 	}
 
-	protected void handleVoxetLine(String line, int lineNumber, Writer writer, CoordinateTransformation transformation)
-			throws IOException
+	/**
+	 * @return The cache the transformations of this projector's reprojections
+	 *         are acquired from
+	 */
+	TransformationCache getTransformationCache()
 	{
-		handleVoxetOrGSurfLine(line, lineNumber, writer, transformation, false);
+		return cache;
 	}
 
-	protected void handleGSurfLine(String line, int lineNumber, Writer writer, CoordinateTransformation transformation)
-			throws IOException
+	/**
+	 * @return Factory that creates the transformations of this projector's
+	 *         reprojections, with {@link #createEngine(String, String, String)}
+	 */
+	TransformationCache.Factory getEngineFactory()
 	{
-		handleVoxetOrGSurfLine(line, lineNumber, writer, transformation, true);
+		return factory;
 	}
 
-	protected void handleVoxetOrGSurfLine(String line, int lineNumber, Writer writer,
-			CoordinateTransformation transformation, boolean ignoreW) throws IOException
+	/**
+	 * Parse the header line of a GOCAD object.
+	 * 
+	 * @return Type of the object, {@link Mode#UNKNOWN} for a Group (whose
+	 *         members have their own headers), or null if the line isn't a
+	 *         header
+	 */
+	static Mode getObjectMode(CharSequence line)
 	{
-		Matcher matcher = AXIS_REGEX.matcher(line);
-		if (matcher.matches())
+		Matcher matcher = GOCAD_TYPE_REGEX.matcher(line);
+		if (!matcher.matches())
 		{
-			try
-			{
-				String type = matcher.group(1);
-				if (type == null)
-				{
-					type = matcher.group(2);
-				}
-				double[] axis =
-						new double[] { Double.parseDouble(matcher.group(3)), Double.parseDouble(matcher.group(4)),
-								Double.parseDouble(matcher.group(5)) };
-				double[] output = axis;
-
-				if ("O".equalsIgnoreCase(type))
-				{
-					axisOoriginal = axis;
-					axisOprojected = new double[3];
-					transformation.TransformPoint(axisOprojected, axis[0], axis[1], axis[2]);
-					output = axisOprojected;
-				}
-				else if ("U".equalsIgnoreCase(type) || "V".equalsIgnoreCase(type)
-						|| ("W".equalsIgnoreCase(type) && !ignoreW))
-				{
-					transformation.TransformPoint(transformed, axisOoriginal[0] + axis[0], axisOoriginal[1] + axis[1],
-							axisOoriginal[2] + axis[2]);
-					transformed[0] -= axisOprojected[0];
-					transformed[1] -= axisOprojected[1];
-					transformed[2] -= axisOprojected[2];
-					output = transformed;
-				}
-				else if ("MIN".equalsIgnoreCase(type))
-				{
-					if (axis[0] != 0 || axis[1] != 0 || axis[2] != 0)
-					{
-						logger.error("Line " + lineNumber + ": 'AXIS_MIN 0 0 0' expected, '" + line + "' actual");
-					}
-				}
-				else if ("MAX".equalsIgnoreCase(type))
-				{
-					if (axis[0] != 1 || axis[1] != 1 || axis[2] != 1)
-					{
-						logger.error("Line " + lineNumber + ": 'AXIS_MAX 1 1 1' expected, '" + line + "' actual");
-					}
-				}
-
-				line =
-						line.substring(0, matcher.start(3)) + removeTrailingZero(output[0])
-								+ line.substring(matcher.end(3), matcher.start(4)) + removeTrailingZero(output[1])
-								+ line.substring(matcher.end(4), matcher.start(5)) + removeTrailingZero(output[2])
-								+ line.substring(matcher.end(5), line.length());
-			}
-			catch (NumberFormatException e)
-			{
-				logger.error("Error parsing line " + lineNumber + ": ", e);
-			}
+			return null;
 		}
-
-		writer.write(line + NEW_LINE);
-	}
-
-	protected String removeTrailingZero(double d)
-	{
-		return (long) d == d ? "" + (long) d : "" + d;
-	}
-
-	protected void handleSGridLine(String line, int lineNumber, Writer writer, CoordinateTransformation transformation,
-			File inputFile, File outputFile) throws IOException
-	{
-		Matcher matcher = NAME_REGEX.matcher(line);
-		if (matcher.matches())
+		String type = matcher.group(1);
+		if (type == null || type.toLowerCase().contains("group"))
 		{
-			name = matcher.group(1);
+			return Mode.UNKNOWN;
 		}
-
-		matcher = ASCII_DATA_FILE_REGEX.matcher(line);
-		if (matcher.matches())
+		if ("voxet".equalsIgnoreCase(type))
 		{
-			String asciiDataFileOriginal = matcher.group(1).trim();
-			String prefix = name;
-			if (prefix == null)
-			{
-				prefix = outputFile.getName().replace(" ", "_");
-			}
-			String asciiDataFileProjected = renameUntilFileNotExists(outputFile.getParentFile(), prefix, "__ascii@@");
-			line =
-					line.substring(0, matcher.start(1)) + asciiDataFileProjected
-							+ line.substring(matcher.end(1), line.length());
-
-			File input = new File(inputFile.getParentFile(), asciiDataFileOriginal);
-			File output = new File(outputFile.getParentFile(), asciiDataFileProjected);
-			handleAsciiDataFile(input, output, transformation);
+			return Mode.VOXET;
 		}
-
-		matcher = POINTS_OFFSET_REGEX.matcher(line);
-		if (matcher.matches())
+		if ("gsurf".equalsIgnoreCase(type))
 		{
-			pointsOffset = Integer.parseInt(matcher.group(1));
+			return Mode.GSURF;
 		}
-
-		matcher = POINTS_FILE_REGEX.matcher(line);
-		if (matcher.matches())
+		if ("sgrid".equalsIgnoreCase(type))
 		{
-			String pointsFileOriginal = matcher.group(1).trim();
-			String prefix = name;
-			if (prefix == null)
-			{
-				prefix = outputFile.getName().replace(" ", "_");
-			}
-			String pointsFileProjected = renameUntilFileNotExists(outputFile.getParentFile(), prefix, "__points@@");
-			line =
-					line.substring(0, matcher.start(1)) + pointsFileProjected
-							+ line.substring(matcher.end(1), line.length());
-
-			File input = new File(inputFile.getParentFile(), pointsFileOriginal);
-			File output = new File(outputFile.getParentFile(), pointsFileProjected);
-			handlePointsFile(input, pointsOffset, output, transformation);
+			return Mode.SGRID;
 		}
-
-		writer.write(line + NEW_LINE);
+		return Mode.SIMPLE;
 	}
 
-	protected String renameUntilFileNotExists(File parent, String prefix, String suffix)
+	/**
+	 * Create a transformation engine between the given spatial reference sets.
+	 * Called by the {@link TransformationCache} when it holds no idle engine
+	 * for the spatial reference sets.
+	 * 
+	 * @param engine
+	 *            Name of the engine to create (see {@link TransformationEngines})
+	 * @param sourceSRS
+	 *            Source SRS, in any form supported by the engine
+	 * @param targetSRS
+	 *            Target SRS, in any form supported by the engine
+	 * @return Transformation from the source SRS to the target SRS
+	 */
+	protected TransformationEngine createEngine(String engine, String sourceSRS, String targetSRS)
 	{
-		if (!(new File(parent, prefix + suffix).exists()))
-		{
-			return prefix + suffix;
-		}
-		int i = 2;
-		while (true)
-		{
-			String f = prefix + "_" + (i++) + suffix;
-			if (!(new File(parent, f).exists()))
-			{
-				return f;
-			}
-		}
+		return TransformationEngines.create(engine, sourceSRS, targetSRS);
 	}
 
-	protected void handleAsciiDataFile(File inputFile, File outputFile, CoordinateTransformation transformation)
-			throws IOException
+	/**
+	 * @return True if the line only contains the END keyword (ignoring case
+	 *         and surrounding whitespace)
+	 */
+	protected static boolean isEndLine(CharSequence line)
 	{
-		logger.info("Reprojecting SGrid ASCII_DATA_FILE: " + inputFile);
-
-		if (outputFile.exists())
-		{
-			throw new IOException("Could not reproject SGrid ASCII_DATA_FILE, output file already exists: "
-					+ outputFile);
-		}
-
-		BufferedReader reader = new BufferedReader(new FileReader(inputFile));
-		BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile));
-
-		try
+		int start = 0;
+		int end = line.length();
+		while (start < end && line.charAt(start) <= ' ')
 		{
-			String line = reader.readLine();
-			while (line != null)
-			{
-				Matcher matcher = DATA_FILE_LINE_REGEX.matcher(line);
-				if (matcher.matches())
-				{
-					double x = Double.parseDouble(matcher.group(1));
-					double y = Double.parseDouble(matcher.group(2));
-					double z = Double.parseDouble(matcher.group(3));
-					transformation.TransformPoint(transformed, x, y, z);
-					x = transformed[0];
-					y = transformed[1];
-					z = transformed[2];
-					line =
-							line.substring(0, matcher.start(1)) + removeTrailingZero(x)
-									+ line.substring(matcher.end(1), matcher.start(2)) + removeTrailingZero(y)
-									+ line.substring(matcher.end(2), matcher.start(3)) + removeTrailingZero(z)
-									+ line.substring(matcher.end(3), line.length());
-				}
-				writer.write(line + NEW_LINE);
-				line = reader.readLine();
-			}
+			start++;
 		}
-		finally
+		while (end > start && line.charAt(end - 1) <= ' ')
 		{
-			reader.close();
-			writer.close();
+			end--;
 		}
+		return end - start == 3 && (line.charAt(start) == 'E' || line.charAt(start) == 'e')
+				&& (line.charAt(start + 1) == 'N' || line.charAt(start + 1) == 'n')
+				&& (line.charAt(start + 2) == 'D' || line.charAt(start + 2) == 'd');
 	}
 
-	protected void handlePointsFile(File inputFile, int inputOffset, File outputFile,
-			CoordinateTransformation transformation) throws IOException
+	/**
+	 * Throw an {@link InterruptedIOException} if the current thread has been
+	 * interrupted, so that a cancelled reprojection stops promptly.
+	 */
+	protected static void checkInterrupted() throws InterruptedIOException
 	{
-		logger.info("Reprojecting SGrid POINTS_FILE: " + inputFile);
-
-		if (outputFile.exists())
-		{
-			throw new IOException("Could not reproject SGrid POINTS_FILE, output file already exists: " + outputFile);
-		}
-
-		InputStream is = new BufferedInputStream(new FileInputStream(inputFile));
-		OutputStream os = new BufferedOutputStream(new FileOutputStream(outputFile));
-
-		try
-		{
-			for (int i = 0; i < inputOffset; i++)
-			{
-				os.write(is.read());
-			}
-
-			while (true)
-			{
-				Float x = readNextFloat(is, ByteOrder.LITTLE_ENDIAN);
-				Float y = readNextFloat(is, ByteOrder.LITTLE_ENDIAN);
-				Float z = readNextFloat(is, ByteOrder.LITTLE_ENDIAN);
-				if (z == null)
-				{
-					break;
-				}
-				transformation.TransformPoint(transformed, x, y, z);
-				x = (float) transformed[0];
-				y = (float) transformed[1];
-				z = (float) transformed[2];
-				writeFloat(x, os, ByteOrder.LITTLE_ENDIAN);
-				writeFloat(y, os, ByteOrder.LITTLE_ENDIAN);
-				writeFloat(z, os, ByteOrder.LITTLE_ENDIAN);
-			}
-		}
-		finally
+		if (Thread.currentThread().isInterrupted())
 		{
-			is.close();
-			os.close();
+			throw new InterruptedIOException("Reprojection interrupted");
 		}
 	}
 
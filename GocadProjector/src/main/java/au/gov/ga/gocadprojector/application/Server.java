@@ -0,0 +1,723 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.application;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import au.gov.ga.gocadprojector.util.GDALUtil;
+import au.gov.ga.gocadprojector.util.ParallelGzipOutputStream;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.ParameterException;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Main class for the resident reprojection server. The server keeps the GDAL
+ * native libraries loaded and the transformations of recent requests cached
+ * (see {@link TransformationCache}), so that integrations reprojecting many
+ * objects don't pay the JVM and GDAL startup cost for each one.
+ * <p/>
+ * Requests are made over HTTP, and only accepted from localhost. Requests sent
+ * by web pages are rejected with 403 Forbidden, as a page open in a local
+ * browser could otherwise make the server overwrite any file the user can
+ * write (see {@link #getForbiddenReason(Headers)}).
+ * <ul>
+ * <li><code>GET /health</code>: the status and version of the server, whether
+ * GDAL is available, and the uptime</li>
+ * <li><code>GET /queue</code>: the number of requests being reprojected and
+ * waiting, the capacity of the queue, and the number of requests completed,
+ * failed and rejected</li>
+ * <li><code>POST /project</code>: reproject a GOCAD object. The query string
+ * contains the console options, without their leading dash (eg.
+ * <code>s_srs=EPSG:28355&t_srs=EPSG:28354&engine=java</code>); flags are
+ * given without a value, or as true. With the <code>input</code> and
+ * <code>output</code> options the files are reprojected on the server's file
+ * system, and the response is the statistics of the reprojection as JSON;
+ * without them the request body is the GOCAD object and the response body is
+ * the reprojected object (gzip compressed if the client accepts it), which
+ * is streamed as the request body is read.</li>
+ * </ul>
+ * Reprojections run on a fixed pool of threads with a bounded queue. A
+ * request reserves its place before its body is read, and requests that
+ * don't fit in the queue are rejected immediately with 503 Service
+ * Unavailable.
+ */
+public class Server
+{
+	private final static Logger logger = LoggerFactory.getLogger(Server.class);
+
+	public final static int DEFAULT_PORT = 8765;
+	public final static int DEFAULT_QUEUE_SIZE = 64;
+
+	public final static String HEALTH_PATH = "/health";
+	public final static String QUEUE_PATH = "/queue";
+	public final static String PROJECT_PATH = "/project";
+
+	/**
+	 * Side file resolver for objects reprojected from the request body, which
+	 * have no directory to read side files from.
+	 */
+	private final static SideFileResolver NO_SIDE_FILES = new SideFileResolver()
+	{
+		@Override
+		public File getInputFile(String name)
+		{
+			throw new IllegalArgumentException("Side files can't be read when reprojecting the request body, "
+					+ "reproject the object from a file instead: " + name);
+		}
+
+		@Override
+		public File getOutputDirectory()
+		{
+			throw new IllegalStateException("Side files can't be written when reprojecting the request body");
+		}
+	};
+
+	private final int threads;
+	private final int queueSize;
+	private final boolean gdal;
+	private final long startTime = System.currentTimeMillis();
+	private final ThreadPoolExecutor executor;
+	/**
+	 * Places for the reprojections running and waiting in the queue
+	 */
+	private final Semaphore capacity;
+	private final ExecutorService requestExecutor;
+	private final HttpServer http;
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final Projector projector = new Projector();
+
+	/**
+	 * Create a server listening on the loopback interface. Call
+	 * {@link #start()} to start accepting requests.
+	 * 
+	 * @param port
+	 *            Port to listen on, or 0 to choose a free port
+	 * @param threads
+	 *            Number of GOCAD objects to reproject at the same time
+	 * @param queueSize
+	 *            Maximum number of requests waiting for a thread
+	 * @param gdal
+	 *            Whether the GDAL native libraries were loaded
+	 */
+	public Server(int port, int threads, int queueSize, boolean gdal) throws IOException
+	{
+		this.threads = Math.max(1, threads);
+		this.queueSize = Math.max(1, queueSize);
+		this.gdal = gdal;
+		executor =
+				new ThreadPoolExecutor(this.threads, this.threads, 0, TimeUnit.MILLISECONDS,
+						new ArrayBlockingQueue<Runnable>(this.queueSize), createThreadFactory("Reprojection worker"));
+		capacity = new Semaphore(this.threads + this.queueSize);
+		requestExecutor = Executors.newCachedThreadPool(createThreadFactory("Request handler"));
+		http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		http.setExecutor(requestExecutor);
+		http.createContext("/", new HttpHandler()
+		{
+			@Override
+			public void handle(HttpExchange exchange) throws IOException
+			{
+				Server.this.handle(exchange);
+			}
+		});
+	}
+
+	public static void main(String[] args)
+	{
+		ServerParameters parameters = new ServerParameters();
+		if (!handleCommandLineArguments(args, parameters))
+		{
+			return;
+		}
+
+		boolean gdal = true;
+		try
+		{
+			GDALUtil.init();
+		}
+		catch (LinkageError e)
+		{
+			gdal = false;
+			logger.warn("Could not load the GDAL native libraries, only the java engine is available: " + e);
+		}
+
+		try
+		{
+			final Server server = new Server(parameters.port, parameters.threads, parameters.queue, gdal);
+			Runtime.getRuntime().addShutdownHook(new Thread()
+			{
+				@Override
+				public void run()
+				{
+					server.stop();
+				}
+			});
+			server.start();
+			logger.info("Listening on http://localhost:" + server.getPort() + "/ with " + server.threads
+					+ " thread(s)");
+		}
+		catch (IOException e)
+		{
+			logger.error("Could not start the server", e);
+			System.exit(1);
+		}
+	}
+
+	private static boolean handleCommandLineArguments(String[] args, ServerParameters parameters)
+	{
+		JCommander jCommander = null;
+		try
+		{
+			jCommander = new JCommander();
+			jCommander.setProgramName("server");
+			jCommander.addObject(parameters);
+			jCommander.parse(args);
+		}
+		catch (ParameterException e)
+		{
+			logger.error(e.getLocalizedMessage());
+			jCommander.usage();
+			System.exit(1);
+			return false;
+		}
+		if (parameters.showUsage)
+		{
+			StringBuilder builder = new StringBuilder();
+			jCommander.usage(builder);
+			logger.info(builder.toString());
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Start accepting requests.
+	 */
+	public void start()
+	{
+		http.start();
+	}
+
+	/**
+	 * Stop accepting requests, and interrupt the reprojections in progress.
+	 */
+	public void stop()
+	{
+		http.stop(0);
+		executor.shutdownNow();
+		requestExecutor.shutdownNow();
+	}
+
+	/**
+	 * @return The port the server is listening on
+	 */
+	public int getPort()
+	{
+		return http.getAddress().getPort();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException
+	{
+		boolean close = true;
+		try
+		{
+			String path = exchange.getRequestURI().getPath();
+			String forbidden = getForbiddenReason(exchange.getRequestHeaders());
+			if (forbidden != null)
+			{
+				logger.warn("Rejected request " + exchange.getRequestURI() + ": " + forbidden);
+				sendError(exchange, 403, forbidden);
+			}
+			else if (HEALTH_PATH.equals(path))
+			{
+				if (checkMethod(exchange, "GET"))
+				{
+					sendJson(exchange, 200, getHealthJson());
+				}
+			}
+			else if (QUEUE_PATH.equals(path))
+			{
+				if (checkMethod(exchange, "GET"))
+				{
+					sendJson(exchange, 200, getQueueJson());
+				}
+			}
+			else if (PROJECT_PATH.equals(path))
+			{
+				if (checkMethod(exchange, "POST"))
+				{
+					handleProject(exchange);
+				}
+			}
+			else
+			{
+				sendError(exchange, 404, "Unknown path: " + path);
+			}
+		}
+		catch (AbortedResponseException e)
+		{
+			//closing the exchange would complete the response; instead the http
+			//server drops the connection, so the client sees it is incomplete
+			close = false;
+			throw e;
+		}
+		catch (IOException e)
+		{
+			//the client has most likely disconnected
+			logger.debug("Error handling request " + exchange.getRequestURI() + ": " + e);
+		}
+		finally
+		{
+			if (close)
+			{
+				exchange.close();
+			}
+		}
+	}
+
+	private void handleProject(HttpExchange exchange) throws IOException
+	{
+		Parameters parameters;
+		try
+		{
+			parameters = parseParameters(parseQuery(exchange.getRequestURI().getRawQuery()));
+		}
+		catch (ParameterException e)
+		{
+			sendError(exchange, 400, e.getLocalizedMessage());
+			return;
+		}
+		if ((parameters.inputFile == null) != (parameters.outputFile == null))
+		{
+			sendError(exchange, 400, "Give both input and output to reproject files, or neither to reproject the "
+					+ "request body");
+			return;
+		}
+
+		//reserve a place in the queue before reading the request body
+		if (!capacity.tryAcquire())
+		{
+			rejected.incrementAndGet();
+			exchange.getResponseHeaders().set("Retry-After", "1");
+			sendError(exchange, 503, "The reprojection queue is full");
+			return;
+		}
+		try
+		{
+			if (parameters.inputFile != null)
+			{
+				ProjectionStatistics statistics = new ProjectionStatistics();
+				if (project(exchange, parameters, statistics, null))
+				{
+					sendJson(exchange, 200, statistics.toJson());
+				}
+			}
+			else
+			{
+				projectBody(exchange, parameters);
+			}
+		}
+		finally
+		{
+			capacity.release();
+		}
+	}
+
+	/**
+	 * Reproject the GOCAD object in the request body, and send the reprojected
+	 * object as the response body. The object is streamed: the response starts
+	 * once the first reprojected bytes are written, while the rest of the
+	 * request body is still being read. Objects read from the request body
+	 * have no directory of their own, so objects with side files can only be
+	 * reprojected from files.
+	 */
+	private void projectBody(HttpExchange exchange, Parameters parameters) throws IOException
+	{
+		String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+		boolean gzip = acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip");
+		parameters.inputFile = "request body";
+		parameters.outputFile = "response body";
+		ResponseStream response = new ResponseStream(exchange, gzip, parameters.compressionThreads);
+		if (project(exchange, parameters, new ProjectionStatistics(), response))
+		{
+			response.close();
+		}
+	}
+
+	/**
+	 * Queue a reprojection and wait for it to complete. If the reprojection
+	 * fails, the error is sent as the response, or the response is aborted if
+	 * it has already started.
+	 * 
+	 * @param response
+	 *            Stream to write the object reprojected from the request body
+	 *            to, or null to reproject the input and output files of the
+	 *            parameters
+	 * @return True if the reprojection succeeded
+	 */
+	private boolean project(final HttpExchange exchange, final Parameters parameters,
+			final ProjectionStatistics statistics, final ResponseStream response) throws IOException
+	{
+		Future<Void> future;
+		try
+		{
+			future = executor.submit(new Callable<Void>()
+			{
+				@Override
+				public Void call() throws Exception
+				{
+					boolean success = false;
+					try
+					{
+						logger.info("Reprojecting " + parameters.inputFile + " to " + parameters.outputFile);
+						if (response == null)
+						{
+							projector.project(parameters, statistics);
+						}
+						else
+						{
+							projector.project(parameters, exchange.getRequestBody(), response, NO_SIDE_FILES,
+									statistics);
+						}
+						success = true;
+						return null;
+					}
+					finally
+					{
+						(success ? completed : failed).incrementAndGet();
+					}
+				}
+			});
+		}
+		catch (RejectedExecutionException e)
+		{
+			//only once the server is stopping, as the capacity is reserved first
+			sendError(exchange, 503, "The server is stopping");
+			return false;
+		}
+
+		try
+		{
+			future.get();
+			return true;
+		}
+		catch (InterruptedException e)
+		{
+			future.cancel(true);
+			sendFailure(exchange, response, "Interrupted while reprojecting " + parameters.inputFile);
+			return false;
+		}
+		catch (ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			logger.error("Error reprojecting " + parameters.inputFile, cause);
+			sendFailure(exchange, response, "Error reprojecting " + parameters.inputFile + ": "
+					+ cause.getLocalizedMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Send a failed reprojection as a 500 error response, or abort the
+	 * response if the reprojected object has already started.
+	 */
+	private void sendFailure(HttpExchange exchange, ResponseStream response, String message) throws IOException
+	{
+		if (response != null && response.isStarted())
+		{
+			throw new AbortedResponseException(message);
+		}
+		sendError(exchange, 500, message);
+	}
+
+	/**
+	 * Parse the query string of a request, decoding its names and values.
+	 */
+	static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException
+	{
+		Map<String, String> values = new LinkedHashMap<String, String>();
+		if (query == null)
+		{
+			return values;
+		}
+		for (String pair : query.split("&"))
+		{
+			if (pair.length() == 0)
+			{
+				continue;
+			}
+			int equals = pair.indexOf('=');
+			String name = equals < 0 ? pair : pair.substring(0, equals);
+			String value = equals < 0 ? "" : pair.substring(equals + 1);
+			values.put(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+		}
+		return values;
+	}
+
+	/**
+	 * Create the parameters of a reprojection from the options in a request's
+	 * query string, which are parsed as console options. Options without a
+	 * value or with the value true are passed as flags, and options with the
+	 * value false are omitted.
+	 */
+	static Parameters parseParameters(Map<String, String> query)
+	{
+		List<String> args = new ArrayList<String>();
+		for (Entry<String, String> entry : query.entrySet())
+		{
+			String value = entry.getValue();
+			if ("false".equalsIgnoreCase(value))
+			{
+				continue;
+			}
+			args.add("-" + entry.getKey());
+			if (value.length() > 0 && !"true".equalsIgnoreCase(value))
+			{
+				args.add(value);
+			}
+		}
+
+		Parameters parameters = new Parameters();
+		JCommander jCommander = new JCommander(parameters);
+		jCommander.parse(args.toArray(new String[args.size()]));
+		try
+		{
+			VoxetResampler.checkResample(parameters.resample);
+		}
+		catch (IllegalArgumentException e)
+		{
+			throw new ParameterException("resample: " + e.getLocalizedMessage());
+		}
+		return parameters;
+	}
+
+	private String getHealthJson()
+	{
+		return "{\"status\":\"ok\",\"version\":" + ProjectionStatistics.quote(Projector.VERSION) + ",\"gdal\":" + gdal
+				+ ",\"uptimeMs\":" + (System.currentTimeMillis() - startTime) + "}";
+	}
+
+	private String getQueueJson()
+	{
+		return "{\"threads\":" + threads + ",\"running\":" + executor.getActiveCount() + ",\"queued\":"
+				+ executor.getQueue().size() + ",\"capacity\":" + queueSize + ",\"completed\":" + completed.get()
+				+ ",\"failed\":" + failed.get() + ",\"rejected\":" + rejected.get() + "}";
+	}
+
+	/**
+	 * Check that a request wasn't sent by a web page. Browsers send an Origin
+	 * header with cross-site requests (including form posts), so any request
+	 * with one is rejected. A request whose Host isn't a loopback name is
+	 * rejected too, as DNS rebinding can give a web site's own name the
+	 * loopback address.
+	 * 
+	 * @return The reason the request is rejected, or null if it is accepted
+	 */
+	static String getForbiddenReason(Headers headers)
+	{
+		if (headers.getFirst("Origin") != null)
+		{
+			return "Requests from web pages are not accepted";
+		}
+		String host = headers.getFirst("Host");
+		if (host != null)
+		{
+			//remove the port, which follows the closing bracket of an IPv6 address
+			host = host.trim().toLowerCase();
+			int colon = host.lastIndexOf(':');
+			if (colon >= 0 && colon > host.lastIndexOf(']'))
+			{
+				host = host.substring(0, colon);
+			}
+			if (!"localhost".equals(host) && !"127.0.0.1".equals(host) && !"[::1]".equals(host))
+			{
+				return "Requests are only accepted for localhost, not " + headers.getFirst("Host");
+			}
+		}
+		return null;
+	}
+
+	private static boolean checkMethod(HttpExchange exchange, String method) throws IOException
+	{
+		if (method.equalsIgnoreCase(exchange.getRequestMethod()))
+		{
+			return true;
+		}
+		exchange.getResponseHeaders().set("Allow", method);
+		sendError(exchange, 405, "Use " + method + " for " + exchange.getRequestURI().getPath());
+		return false;
+	}
+
+	private static void sendError(HttpExchange exchange, int status, String message) throws IOException
+	{
+		sendJson(exchange, status, "{\"error\":" + ProjectionStatistics.quote(message) + "}");
+	}
+
+	private static void sendJson(HttpExchange exchange, int status, String json) throws IOException
+	{
+		byte[] bytes = json.getBytes("UTF-8");
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream os = exchange.getResponseBody();
+		try
+		{
+			os.write(bytes);
+		}
+		finally
+		{
+			os.close();
+		}
+	}
+
+	private static ThreadFactory createThreadFactory(final String name)
+	{
+		return new ThreadFactory()
+		{
+			private int count = 0;
+
+			@Override
+			public synchronized Thread newThread(Runnable r)
+			{
+				Thread thread = new Thread(r, name + " " + (++count));
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	/**
+	 * Response body that sends the response headers when the first bytes are
+	 * written (or when it is closed), so that a reprojection that fails before
+	 * writing anything can still respond with an error.
+	 */
+	private static class ResponseStream extends OutputStream
+	{
+		private final HttpExchange exchange;
+		private final boolean gzip;
+		private final int compressionThreads;
+		private OutputStream body;
+
+		public ResponseStream(HttpExchange exchange, boolean gzip, int compressionThreads)
+		{
+			this.exchange = exchange;
+			this.gzip = gzip;
+			this.compressionThreads = compressionThreads;
+		}
+
+		/**
+		 * @return True if the response headers have been sent
+		 */
+		public boolean isStarted()
+		{
+			return body != null;
+		}
+
+		private OutputStream start() throws IOException
+		{
+			if (body == null)
+			{
+				exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+				if (gzip)
+				{
+					exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+				}
+				//the length isn't known, so the response is chunked
+				exchange.sendResponseHeaders(200, 0);
+				body = exchange.getResponseBody();
+				if (gzip)
+				{
+					body = new ParallelGzipOutputStream(body, compressionThreads);
+				}
+			}
+			return body;
+		}
+
+		@Override
+		public void write(int b) throws IOException
+		{
+			start().write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException
+		{
+			if (len > 0)
+			{
+				start().write(b, off, len);
+			}
+		}
+
+		@Override
+		public void flush() throws IOException
+		{
+			if (body != null)
+			{
+				body.flush();
+			}
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			start().close();
+		}
+	}
+
+	/**
+	 * Thrown when a reprojection fails after its response has started, so
+	 * that the connection is dropped rather than the response completed.
+	 */
+	private static class AbortedResponseException extends IOException
+	{
+		private final static long serialVersionUID = 1L;
+
+		public AbortedResponseException(String message)
+		{
+			super(message);
+		}
+	}
+}
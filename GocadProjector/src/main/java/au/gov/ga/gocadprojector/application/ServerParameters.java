@@ -0,0 +1,36 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.application;
+
+import com.beust.jcommander.Parameter;
+
+/**
+ * Contains the command line parameters of the reprojection {@link Server}.
+ */
+public class ServerParameters
+{
+	@Parameter(names = { "-port" }, description = "The port to listen on. The server only accepts connections from localhost. Port 0 chooses a free port, which is logged on startup.", required = false)
+	public int port = Server.DEFAULT_PORT;
+
+	@Parameter(names = { "-threads" }, description = "The number of GOCAD objects to reproject at the same time.", required = false)
+	public int threads = Runtime.getRuntime().availableProcessors();
+
+	@Parameter(names = { "-queue" }, description = "The maximum number of requests waiting for a thread. Further requests are rejected with 503 Service Unavailable until the queue has room.", required = false)
+	public int queue = Server.DEFAULT_QUEUE_SIZE;
+
+	@Parameter(names = { "-h", "-help" }, description = "Print these command line usage instructions")
+	public boolean showUsage = false;
+}
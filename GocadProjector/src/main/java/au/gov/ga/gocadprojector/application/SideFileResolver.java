@@ -0,0 +1,42 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.application;
+
+import java.io.File;
+
+/**
+ * Locates the side files referenced by a GOCAD object being reprojected
+ * (SGrid ASCII_DATA_FILEs and POINTS_FILEs, and the PROP_FILEs and FLAGS_FILE
+ * of resampled Voxets and GSurfs), and chooses where their reprojected copies
+ * are written. This allows objects read from streams, which have no
+ * directory of their own, to reference side files.
+ */
+public interface SideFileResolver
+{
+	/**
+	 * @param name
+	 *            Side file name, as written in the GOCAD object
+	 * @return The side file to read
+	 */
+	File getInputFile(String name);
+
+	/**
+	 * @return The directory the reprojected side files are written to; each
+	 *         is given an unused name in this directory, which is written to
+	 *         the reprojected GOCAD object
+	 */
+	File getOutputDirectory();
+}
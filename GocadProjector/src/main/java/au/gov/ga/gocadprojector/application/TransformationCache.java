@@ -0,0 +1,253 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.application;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map.Entry;
+
+import au.gov.ga.gocadprojector.transform.TransformationEngine;
+
+/**
+ * Bounded cache of {@link TransformationEngine}s, keyed on the engine name
+ * and the source and target spatial reference strings. Creating a
+ * transformation parses the
+ * spatial references and selects a coordinate operation, which can take much
+ * longer than reprojecting a small file.
+ * <p/>
+ * Engines are not thread safe, so each instance is confined to
+ * one thread at a time: it is removed from the cache when acquired, and only
+ * returned to it when released. When the cache
+ * holds more than its maximum number of idle transformations, the least
+ * recently used are evicted and released.
+ */
+public class TransformationCache
+{
+	public final static int DEFAULT_MAX_SIZE = 16;
+
+	private final static TransformationCache DEFAULT_CACHE = new TransformationCache(DEFAULT_MAX_SIZE);
+
+	/**
+	 * Creates transformations for the cache when there is no idle
+	 * transformation for the requested spatial references.
+	 */
+	public interface Factory
+	{
+		TransformationEngine createEngine(String engine, String sourceSRS, String targetSRS);
+	}
+
+	private final int maxSize;
+	private final LinkedHashMap<Key, LinkedList<TransformationEngine>> idle =
+			new LinkedHashMap<Key, LinkedList<TransformationEngine>>(16, 0.75f, true);
+	private int size = 0;
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	/**
+	 * @param maxSize
+	 *            Maximum number of idle transformations held by the cache
+	 */
+	public TransformationCache(int maxSize)
+	{
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * @return The cache shared by all {@link Projector}s that aren't given
+	 *         their own
+	 */
+	public static TransformationCache getDefault()
+	{
+		return DEFAULT_CACHE;
+	}
+
+	/**
+	 * Take a transformation between the given spatial references from the
+	 * cache, creating one with the factory if there is none idle. The
+	 * transformation belongs to the caller until it is released.
+	 * 
+	 * @param engine
+	 *            Name of the transformation engine
+	 */
+	public TransformationEngine acquire(String engine, String sourceSRS, String targetSRS, Factory factory)
+	{
+		Key key = new Key(engine, sourceSRS, targetSRS);
+		synchronized (this)
+		{
+			LinkedList<TransformationEngine> transformations = idle.get(key);
+			if (transformations != null)
+			{
+				TransformationEngine transformation = transformations.removeFirst();
+				if (transformations.isEmpty())
+				{
+					idle.remove(key);
+				}
+				size--;
+				hits++;
+				return transformation;
+			}
+			misses++;
+		}
+		//create outside the lock, as creation is slow
+		return factory.createEngine(engine, sourceSRS, targetSRS);
+	}
+
+	/**
+	 * Return a transformation previously acquired for the given spatial
+	 * references to the cache. The caller must not use it afterwards.
+	 */
+	public void release(String engine, String sourceSRS, String targetSRS, TransformationEngine transformation)
+	{
+		if (transformation == null)
+		{
+			return;
+		}
+		Key key = new Key(engine, sourceSRS, targetSRS);
+		LinkedList<TransformationEngine> evicted = new LinkedList<TransformationEngine>();
+		synchronized (this)
+		{
+			LinkedList<TransformationEngine> transformations = idle.get(key);
+			if (transformations == null)
+			{
+				transformations = new LinkedList<TransformationEngine>();
+				idle.put(key, transformations);
+			}
+			transformations.addFirst(transformation);
+			size++;
+
+			Iterator<Entry<Key, LinkedList<TransformationEngine>>> iterator = idle.entrySet().iterator();
+			while (size > maxSize && iterator.hasNext())
+			{
+				LinkedList<TransformationEngine> eldest = iterator.next().getValue();
+				while (size > maxSize && !eldest.isEmpty())
+				{
+					evicted.add(eldest.removeLast());
+					size--;
+					evictions++;
+				}
+				if (eldest.isEmpty())
+				{
+					iterator.remove();
+				}
+			}
+		}
+		release(evicted);
+	}
+
+	/**
+	 * Release all idle transformations held by the cache.
+	 */
+	public void clear()
+	{
+		LinkedList<TransformationEngine> evicted = new LinkedList<TransformationEngine>();
+		synchronized (this)
+		{
+			for (LinkedList<TransformationEngine> transformations : idle.values())
+			{
+				evicted.addAll(transformations);
+			}
+			idle.clear();
+			size = 0;
+		}
+		release(evicted);
+	}
+
+	/**
+	 * @return Number of idle transformations currently held
+	 */
+	public synchronized int size()
+	{
+		return size;
+	}
+
+	/**
+	 * @return Number of acquisitions satisfied by an idle transformation
+	 */
+	public synchronized long getHits()
+	{
+		return hits;
+	}
+
+	/**
+	 * @return Number of acquisitions that required a new transformation
+	 */
+	public synchronized long getMisses()
+	{
+		return misses;
+	}
+
+	/**
+	 * @return Number of transformations released to keep the cache bounded
+	 */
+	public synchronized long getEvictions()
+	{
+		return evictions;
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		return "hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + ", idle=" + size;
+	}
+
+	private static void release(Iterable<TransformationEngine> transformations)
+	{
+		for (TransformationEngine transformation : transformations)
+		{
+			transformation.release();
+		}
+	}
+
+	private static class Key
+	{
+		private final String engine;
+		private final String sourceSRS;
+		private final String targetSRS;
+
+		public Key(String engine, String sourceSRS, String targetSRS)
+		{
+			this.engine = engine;
+			this.sourceSRS = sourceSRS;
+			this.targetSRS = targetSRS;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			int hash = engine == null ? 0 : engine.hashCode();
+			hash = 31 * hash + (sourceSRS == null ? 0 : sourceSRS.hashCode());
+			return 31 * hash + (targetSRS == null ? 0 : targetSRS.hashCode());
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (!(obj instanceof Key))
+			{
+				return false;
+			}
+			Key other = (Key) obj;
+			return equals(engine, other.engine) && equals(sourceSRS, other.sourceSRS) && equals(targetSRS, other.targetSRS);
+		}
+
+		private static boolean equals(String a, String b)
+		{
+			return a == null ? b == null : a.equals(b);
+		}
+	}
+}
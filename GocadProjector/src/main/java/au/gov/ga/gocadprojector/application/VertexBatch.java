@@ -0,0 +1,202 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.application;
+
+import au.gov.ga.gocadprojector.util.ByteLine;
+
+/**
+ * Buffer of lines waiting to be written, along with the coordinates parsed
+ * from the vertex lines among them. Allows a block of vertices to be
+ * transformed with a single bulk transformation call, while the lines are
+ * still written in their original order.
+ * <p/>
+ * Lines are copied into a reusable byte buffer as ISO-8859-1 (Latin-1), so
+ * that buffering a line doesn't allocate any objects.
+ */
+public class VertexBatch
+{
+	private final static double[][] NO_POINTS = new double[0][];
+
+	private final int capacity;
+	private final int lineCapacity;
+	private final int[] lineEnds;
+	private final ByteLine line = new ByteLine();
+	private byte[] data = new byte[64 * 1024];
+	private int lineCount = 0;
+	private final int[] vertexLineIndices;
+	private final int[][] starts;
+	private final int[][] ends;
+	private final double[][] points;
+	private int vertexCount = 0;
+
+	/**
+	 * @param capacity
+	 *            Maximum number of vertices held before the batch is full
+	 */
+	public VertexBatch(int capacity)
+	{
+		this.capacity = capacity;
+		this.lineCapacity = capacity * 4;
+		this.lineEnds = new int[lineCapacity];
+		this.vertexLineIndices = new int[capacity];
+		this.starts = new int[capacity][3];
+		this.ends = new int[capacity][3];
+		this.points = new double[capacity][3];
+	}
+
+	/**
+	 * Add a line that contains no coordinates.
+	 */
+	public void addLine(CharSequence line)
+	{
+		int start = lineCount > 0 ? lineEnds[lineCount - 1] : 0;
+		int length = line.length();
+		ensureCapacity(start + length);
+		if (line instanceof ByteLine)
+		{
+			ByteLine bytes = (ByteLine) line;
+			System.arraycopy(bytes.getBytes(), bytes.getOffset(), data, start, length);
+		}
+		else
+		{
+			for (int i = 0; i < length; i++)
+			{
+				char c = line.charAt(i);
+				data[start + i] = (byte) (c <= 0xff ? c : '?');
+			}
+		}
+		lineEnds[lineCount++] = start + length;
+	}
+
+	/**
+	 * Add a line containing a vertex.
+	 * 
+	 * @param line
+	 *            Line to add
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @param starts
+	 *            Start indices of the x, y and z coordinates within the line
+	 * @param ends
+	 *            End indices of the x, y and z coordinates within the line
+	 */
+	public void addVertex(CharSequence line, double x, double y, double z, int[] starts, int[] ends)
+	{
+		int index = vertexCount++;
+		vertexLineIndices[index] = lineCount;
+		addLine(line);
+		System.arraycopy(starts, 0, this.starts[index], 0, 3);
+		System.arraycopy(ends, 0, this.ends[index], 0, 3);
+		points[index][0] = x;
+		points[index][1] = y;
+		points[index][2] = z;
+	}
+
+	/**
+	 * @return Should this batch be flushed before adding any more lines?
+	 */
+	public boolean isFull()
+	{
+		return vertexCount >= capacity || lineCount >= lineCapacity;
+	}
+
+	public boolean isEmpty()
+	{
+		return lineCount == 0;
+	}
+
+	public int getLineCount()
+	{
+		return lineCount;
+	}
+
+	/**
+	 * @return The given line, as a view that is reused between calls
+	 */
+	public CharSequence getLine(int index)
+	{
+		line.set(data, index > 0 ? lineEnds[index - 1] : 0, lineEnds[index]);
+		return line;
+	}
+
+	public int getVertexCount()
+	{
+		return vertexCount;
+	}
+
+	/**
+	 * @return Index of the line containing the given vertex
+	 */
+	public int getVertexLineIndex(int vertex)
+	{
+		return vertexLineIndices[vertex];
+	}
+
+	/**
+	 * @return Start indices of the x, y and z coordinates within the line
+	 *         containing the given vertex
+	 */
+	public int[] getStarts(int vertex)
+	{
+		return starts[vertex];
+	}
+
+	/**
+	 * @return End indices of the x, y and z coordinates within the line
+	 *         containing the given vertex
+	 */
+	public int[] getEnds(int vertex)
+	{
+		return ends[vertex];
+	}
+
+	/**
+	 * @return Array of vertex coordinates, of length equal to the vertex
+	 *         count, suitable for passing to a bulk transformation call
+	 */
+	public double[][] getPoints()
+	{
+		if (vertexCount == points.length)
+		{
+			return points;
+		}
+		if (vertexCount == 0)
+		{
+			//batches of lines without vertices are common (eg. TRGL lines)
+			return NO_POINTS;
+		}
+		double[][] partial = new double[vertexCount][];
+		System.arraycopy(points, 0, partial, 0, vertexCount);
+		return partial;
+	}
+
+	public void clear()
+	{
+		lineCount = 0;
+		vertexCount = 0;
+	}
+
+	private void ensureCapacity(int capacity)
+	{
+		if (capacity > data.length)
+		{
+			byte[] grown = new byte[Math.max(capacity, data.length * 2)];
+			System.arraycopy(data, 0, grown, 0, lineCount > 0 ? lineEnds[lineCount - 1] : 0);
+			data = grown;
+		}
+	}
+}
@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.application;
+
+/**
+ * Geometry of the regular grid of a Voxet or GSurf. The position of node (i,
+ * j, k) is <code>O + U*u(i) + V*v(j) + W*w(k)</code>, where <code>u(i)</code>
+ * steps evenly from AXIS_MIN to AXIS_MAX of the U axis over AXIS_N nodes (and
+ * likewise for V and W).
+ * <p/>
+ * Grids with a single node along W (including every GSurf) are two
+ * dimensional; their nodes are located in the U/V plane, and the W axis is
+ * ignored when locating a point in the grid.
+ */
+public class VoxetGrid
+{
+	public final double[] origin;
+	public final double[][] axes;
+	public final double[] min;
+	public final double[] max;
+	public final int[] n;
+	private final double[][] inverse;
+
+	/**
+	 * @param origin
+	 *            AXIS_O
+	 * @param axes
+	 *            AXIS_U, AXIS_V and AXIS_W
+	 * @param min
+	 *            AXIS_MIN
+	 * @param max
+	 *            AXIS_MAX
+	 * @param n
+	 *            AXIS_N
+	 */
+	public VoxetGrid(double[] origin, double[][] axes, double[] min, double[] max, int[] n)
+	{
+		this.origin = origin;
+		this.axes = axes;
+		this.min = min;
+		this.max = max;
+		this.n = n;
+
+		//a two dimensional grid is located using the normal of the U/V plane
+		double[] w = isTwoDimensional() ? cross(axes[0], axes[1]) : axes[2];
+		this.inverse = invert(new double[][] { axes[0], axes[1], w });
+	}
+
+	/**
+	 * @return True if the grid has a single node along the W axis
+	 */
+	public boolean isTwoDimensional()
+	{
+		return n[2] <= 1;
+	}
+
+	/**
+	 * @return Number of nodes in the grid
+	 */
+	public long getNodeCount()
+	{
+		return (long) n[0] * n[1] * n[2];
+	}
+
+	/**
+	 * Calculate the position of a node.
+	 * 
+	 * @param out
+	 *            Array to store the x, y and z of the node in, starting at the
+	 *            given offset
+	 */
+	public void getPosition(int i, int j, int k, double[] out, int offset)
+	{
+		double u = fraction(0, i);
+		double v = fraction(1, j);
+		double w = fraction(2, k);
+		for (int c = 0; c < 3; c++)
+		{
+			out[offset + c] = origin[c] + axes[0][c] * u + axes[1][c] * v + axes[2][c] * w;
+		}
+	}
+
+	/**
+	 * Calculate the (fractional) node indices of a point. Integer values are
+	 * located exactly on a node. The W index of a two dimensional grid is
+	 * always 0.
+	 * 
+	 * @param out
+	 *            Array to store the i, j and k indices in, starting at the
+	 *            given offset
+	 */
+	public void getIndices(double x, double y, double z, double[] out, int offset)
+	{
+		double dx = x - origin[0];
+		double dy = y - origin[1];
+		double dz = z - origin[2];
+		for (int a = 0; a < 3; a++)
+		{
+			//axis fraction from the inverse of the axis matrix
+			double f = inverse[0][a] * dx + inverse[1][a] * dy + inverse[2][a] * dz;
+			double range = max[a] - min[a];
+			out[offset + a] = n[a] > 1 && range != 0 ? (f - min[a]) / range * (n[a] - 1) : 0;
+		}
+		if (isTwoDimensional())
+		{
+			out[offset + 2] = 0;
+		}
+	}
+
+	private double fraction(int axis, int index)
+	{
+		if (n[axis] <= 1)
+		{
+			return min[axis];
+		}
+		return min[axis] + (max[axis] - min[axis]) * index / (n[axis] - 1);
+	}
+
+	private static double[] cross(double[] a, double[] b)
+	{
+		return new double[] { a[1] * b[2] - a[2] * b[1], a[2] * b[0] - a[0] * b[2], a[0] * b[1] - a[1] * b[0] };
+	}
+
+	/**
+	 * Invert the matrix whose rows are the given axes, such that a point's
+	 * axis fractions are <code>f[a] = sum(p[c] * inverse[c][a])</code>.
+	 */
+	private static double[][] invert(double[][] m)
+	{
+		double[] c0 = cross(m[1], m[2]);
+		double[] c1 = cross(m[2], m[0]);
+		double[] c2 = cross(m[0], m[1]);
+		double determinant = m[0][0] * c0[0] + m[0][1] * c0[1] + m[0][2] * c0[2];
+		if (determinant == 0 || Double.isNaN(determinant))
+		{
+			throw new IllegalArgumentException("Grid axes are degenerate");
+		}
+		double[][] inverse = new double[3][3];
+		for (int c = 0; c < 3; c++)
+		{
+			inverse[c][0] = c0[c] / determinant;
+			inverse[c][1] = c1[c] / determinant;
+			inverse[c][2] = c2[c] / determinant;
+		}
+		return inverse;
+	}
+}
@@ -0,0 +1,403 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.application;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import au.gov.ga.gocadprojector.util.CoordinateScanner;
+import au.gov.ga.gocadprojector.util.ByteLine;
+import au.gov.ga.gocadprojector.util.LineWriter;
+
+/**
+ * The lines of a Voxet or GSurf object, parsed into its {@link VoxetGrid}
+ * and the binary files attached to the grid (PROP_FILEs and the FLAGS_FILE).
+ * The lines can be written back with a different grid and file names.
+ */
+public class VoxetHeader
+{
+	private final static Pattern NAME_REGEX = Pattern.compile("(?i)name:(.*)");
+	private final static Pattern AXIS_N_REGEX = Pattern.compile("(?i)\\s*AXIS_N\\s+(\\d+)\\s+(\\d+)(?:\\s+(\\d+))?.*");
+	private final static Pattern PROPERTY_REGEX = Pattern.compile("(?i)\\s*PROPERTY\\s+(\\d+)\\s+\"?([^\"]*)\"?\\s*");
+	private final static Pattern PROP_FILE_REGEX = Pattern.compile("(?i)\\s*PROP_FILE\\s+(\\d+)\\s+(.*)");
+	private final static Pattern PROP_ESIZE_REGEX = Pattern.compile("(?i)\\s*PROP_ESIZE\\s+(\\d+)\\s+(\\d+).*");
+	private final static Pattern PROP_ETYPE_REGEX = Pattern.compile("(?i)\\s*PROP_ETYPE\\s+(\\d+)\\s+(\\w+).*");
+	private final static Pattern PROP_SIGNED_REGEX = Pattern.compile("(?i)\\s*PROP_SIGNED\\s+(\\d+)\\s+(\\d+).*");
+	private final static Pattern PROP_NO_DATA_VALUE_REGEX = Pattern.compile("(?i)\\s*PROP_NO_DATA_VALUE\\s+(\\d+)\\s+(\\S+).*");
+	private final static Pattern PROP_OFFSET_REGEX = Pattern.compile("(?i)\\s*PROP_OFFSET\\s+(\\d+)\\s+(\\d+).*");
+	private final static Pattern FLAGS_FILE_REGEX = Pattern.compile("(?i)\\s*FLAGS_FILE\\s+(.*)");
+	private final static Pattern FLAGS_ESIZE_REGEX = Pattern.compile("(?i)\\s*FLAGS_ESIZE\\s+(\\d+).*");
+	private final static Pattern FLAGS_OFFSET_REGEX = Pattern.compile("(?i)\\s*FLAGS_OFFSET\\s+(\\d+).*");
+
+	/**
+	 * A binary file of grid values, one element per grid node with the U
+	 * index varying fastest.
+	 */
+	public static class GridFile
+	{
+		/**
+		 * Property number, or 0 for the FLAGS_FILE
+		 */
+		public final int id;
+		public String propertyName;
+		public String fileName;
+		public int elementSize = 4;
+		public Boolean ieee = null;
+		public boolean signed = false;
+		public Double noDataValue = null;
+		public long offset = 0;
+		private int line = -1;
+		private int fileNameStart;
+		private int fileNameEnd;
+
+		public GridFile(int id)
+		{
+			this.id = id;
+		}
+
+		/**
+		 * @return True if this is the FLAGS_FILE, which holds bit flags that
+		 *         must not be interpolated
+		 */
+		public boolean isFlags()
+		{
+			return id == 0;
+		}
+
+		/**
+		 * @return True if the elements are IEEE floating point numbers; if
+		 *         PROP_ETYPE is missing, 4 and 8 byte elements are assumed to
+		 *         be floating point
+		 */
+		public boolean isIeee()
+		{
+			return ieee != null ? ieee : !isFlags() && elementSize >= 4;
+		}
+	}
+
+	private final List<String> lines;
+	private final boolean gsurf;
+	private final CoordinateScanner scanner = new CoordinateScanner();
+	private final double[][] axes = new double[4][];
+	private final double[] min = { 0, 0, 0 };
+	private final double[] max = { 1, 1, 1 };
+	private int[] n = null;
+	private String name = null;
+	private final Map<Integer, GridFile> properties = new HashMap<Integer, GridFile>();
+	private GridFile flags = null;
+
+	/**
+	 * @param lines
+	 *            Lines of the object, excluding the GOCAD header line and the
+	 *            END line
+	 * @param gsurf
+	 *            True if the object is a GSurf, whose W axis is not part of
+	 *            its grid
+	 */
+	public VoxetHeader(List<String> lines, boolean gsurf)
+	{
+		this.lines = lines;
+		this.gsurf = gsurf;
+		for (int i = 0; i < lines.size(); i++)
+		{
+			parseLine(lines.get(i), i);
+		}
+	}
+
+	private void parseLine(String line, int index)
+	{
+		int type = scanner.scanAxis(line);
+		if (type > CoordinateScanner.AXIS_OTHER)
+		{
+			try
+			{
+				double[] values =
+						new double[] { scanner.parseCoordinate(line, 0), scanner.parseCoordinate(line, 1),
+								scanner.parseCoordinate(line, 2) };
+				switch (type)
+				{
+				case CoordinateScanner.AXIS_O:
+					axes[0] = values;
+					break;
+				case CoordinateScanner.AXIS_U:
+					axes[1] = values;
+					break;
+				case CoordinateScanner.AXIS_V:
+					axes[2] = values;
+					break;
+				case CoordinateScanner.AXIS_W:
+					axes[3] = values;
+					break;
+				case CoordinateScanner.AXIS_MIN:
+					System.arraycopy(values, 0, min, 0, 3);
+					break;
+				case CoordinateScanner.AXIS_MAX:
+					System.arraycopy(values, 0, max, 0, 3);
+					break;
+				}
+			}
+			catch (NumberFormatException e)
+			{
+				//leave the axis undefined
+			}
+			return;
+		}
+
+		Matcher matcher;
+		if ((matcher = NAME_REGEX.matcher(line)).matches())
+		{
+			name = ByteLine.decodeName(matcher.group(1).trim());
+		}
+		else if ((matcher = AXIS_N_REGEX.matcher(line)).matches())
+		{
+			n =
+					new int[] { Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)),
+							matcher.group(3) != null ? Integer.parseInt(matcher.group(3)) : 1 };
+			if (gsurf)
+			{
+				n[2] = 1;
+			}
+		}
+		else if ((matcher = PROPERTY_REGEX.matcher(line)).matches())
+		{
+			getProperty(matcher.group(1)).propertyName = ByteLine.decodeName(matcher.group(2).trim());
+		}
+		else if ((matcher = PROP_FILE_REGEX.matcher(line)).matches())
+		{
+			GridFile property = getProperty(matcher.group(1));
+			setFileName(property, line, matcher, index);
+		}
+		else if ((matcher = PROP_ESIZE_REGEX.matcher(line)).matches())
+		{
+			getProperty(matcher.group(1)).elementSize = Integer.parseInt(matcher.group(2));
+		}
+		else if ((matcher = PROP_ETYPE_REGEX.matcher(line)).matches())
+		{
+			getProperty(matcher.group(1)).ieee = Boolean.valueOf("IEEE".equalsIgnoreCase(matcher.group(2)));
+		}
+		else if ((matcher = PROP_SIGNED_REGEX.matcher(line)).matches())
+		{
+			getProperty(matcher.group(1)).signed = !"0".equals(matcher.group(2));
+		}
+		else if ((matcher = PROP_NO_DATA_VALUE_REGEX.matcher(line)).matches())
+		{
+			try
+			{
+				getProperty(matcher.group(1)).noDataValue = Double.valueOf(matcher.group(2));
+			}
+			catch (NumberFormatException e)
+			{
+				//ignore an unparsable no data value
+			}
+		}
+		else if ((matcher = PROP_OFFSET_REGEX.matcher(line)).matches())
+		{
+			getProperty(matcher.group(1)).offset = Long.parseLong(matcher.group(2));
+		}
+		else if ((matcher = FLAGS_FILE_REGEX.matcher(line)).matches())
+		{
+			setFileName(getFlags(), line, matcher, index);
+		}
+		else if ((matcher = FLAGS_ESIZE_REGEX.matcher(line)).matches())
+		{
+			getFlags().elementSize = Integer.parseInt(matcher.group(1));
+		}
+		else if ((matcher = FLAGS_OFFSET_REGEX.matcher(line)).matches())
+		{
+			getFlags().offset = Long.parseLong(matcher.group(1));
+		}
+	}
+
+	private static void setFileName(GridFile file, String line, Matcher matcher, int index)
+	{
+		int group = matcher.groupCount();
+		String fileName = matcher.group(group);
+		int start = matcher.start(group);
+		int end = matcher.end(group);
+		//exclude surrounding whitespace from the replaced region
+		while (start < end && Character.isWhitespace(line.charAt(start)))
+		{
+			start++;
+		}
+		while (end > start && Character.isWhitespace(line.charAt(end - 1)))
+		{
+			end--;
+		}
+		file.fileName = ByteLine.decodeName(fileName.trim());
+		file.line = index;
+		file.fileNameStart = start;
+		file.fileNameEnd = end;
+	}
+
+	private GridFile getProperty(String id)
+	{
+		Integer key = Integer.valueOf(id);
+		GridFile property = properties.get(key);
+		if (property == null)
+		{
+			property = new GridFile(key);
+			properties.put(key, property);
+		}
+		return property;
+	}
+
+	private GridFile getFlags()
+	{
+		if (flags == null)
+		{
+			flags = new GridFile(0);
+			flags.elementSize = 1;
+		}
+		return flags;
+	}
+
+	/**
+	 * @return Name of the object, or null if it has none
+	 */
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * @return Reason the grid can't be resampled, or null if it can
+	 */
+	public String getUnsupportedReason()
+	{
+		if (axes[0] == null || axes[1] == null || axes[2] == null || (axes[3] == null && !gsurf))
+		{
+			return "the AXIS_O, AXIS_U, AXIS_V and AXIS_W lines are required";
+		}
+		if (n == null || n[0] < 1 || n[1] < 1 || n[2] < 1)
+		{
+			return "the AXIS_N line is required";
+		}
+		for (GridFile file : getFiles())
+		{
+			int size = file.elementSize;
+			if (size != 1 && size != 2 && size != 4 && size != 8)
+			{
+				return "unsupported element size " + size + " for " + file.fileName;
+			}
+			if (file.isIeee() && size != 4 && size != 8)
+			{
+				return "unsupported IEEE element size " + size + " for " + file.fileName;
+			}
+		}
+		try
+		{
+			getGrid();
+		}
+		catch (IllegalArgumentException e)
+		{
+			return "the grid axes are degenerate";
+		}
+		return null;
+	}
+
+	/**
+	 * @return Grid described by the axes
+	 */
+	public VoxetGrid getGrid()
+	{
+		double[] w = axes[3] != null ? axes[3] : new double[] { 0, 0, 1 };
+		return new VoxetGrid(axes[0], new double[][] { axes[1], axes[2], w }, min, max, n);
+	}
+
+	/**
+	 * @return The binary files attached to the grid that have a filename
+	 */
+	public List<GridFile> getFiles()
+	{
+		List<GridFile> files = new ArrayList<GridFile>();
+		if (flags != null && flags.fileName != null)
+		{
+			files.add(flags);
+		}
+		for (GridFile property : properties.values())
+		{
+			if (property.fileName != null)
+			{
+				files.add(property);
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * Write the lines of the object, replacing the axes with those of the
+	 * given grid, and the filenames of the attached files.
+	 * 
+	 * @param fileNames
+	 *            Replacement filename of each attached file
+	 */
+	public void write(LineWriter writer, VoxetGrid grid, Map<GridFile, String> fileNames) throws IOException
+	{
+		Map<Integer, GridFile> fileLines = new HashMap<Integer, GridFile>();
+		for (GridFile file : fileNames.keySet())
+		{
+			fileLines.put(file.line, file);
+		}
+
+		for (int i = 0; i < lines.size(); i++)
+		{
+			String line = lines.get(i);
+			GridFile file = fileLines.get(i);
+			if (file != null)
+			{
+				writer.writeLine(line.substring(0, file.fileNameStart) + ByteLine.encodeName(fileNames.get(file))
+						+ line.substring(file.fileNameEnd));
+				continue;
+			}
+
+			double[] values = null;
+			switch (scanner.scanAxis(line))
+			{
+			case CoordinateScanner.AXIS_O:
+				values = grid.origin;
+				break;
+			case CoordinateScanner.AXIS_U:
+				values = grid.axes[0];
+				break;
+			case CoordinateScanner.AXIS_V:
+				values = grid.axes[1];
+				break;
+			case CoordinateScanner.AXIS_W:
+				values = grid.axes[2];
+				break;
+			case CoordinateScanner.AXIS_MIN:
+				values = grid.min;
+				break;
+			case CoordinateScanner.AXIS_MAX:
+				values = grid.max;
+				break;
+			}
+			if (values != null)
+			{
+				writer.writeLine(line, scanner.getStarts(), scanner.getEnds(), values[0], values[1], values[2]);
+			}
+			else
+			{
+				writer.writeLine(line);
+			}
+		}
+	}
+}
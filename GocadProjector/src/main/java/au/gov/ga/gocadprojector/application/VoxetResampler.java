@@ -0,0 +1,665 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.application;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import au.gov.ga.gocadprojector.application.VoxetHeader.GridFile;
+import au.gov.ga.gocadprojector.transform.TransformationEngine;
+
+/**
+ * Resamples the binary property files of a Voxet or GSurf onto a grid that is
+ * axis aligned in the target spatial reference.
+ * <p/>
+ * The target grid is divided into tiles of consecutive nodes. For each tile,
+ * the target node positions are transformed back to the source spatial
+ * reference (the inverse mapping), located in the source grid, and sampled
+ * from every property file. Tiles are resampled on a pool of threads, and
+ * written to the output files in order, so the output is streamed and only a
+ * bounded number of tiles are held in memory. The source files are memory
+ * mapped in windows, so multi-GB grids are paged in by the operating system
+ * as they are sampled rather than read into the heap.
+ */
+public class VoxetResampler
+{
+	/**
+	 * Don't resample; only reproject the grid axes
+	 */
+	public final static String NONE = "none";
+	/**
+	 * Resample using the value of the nearest source node
+	 */
+	public final static String NEAREST = "nearest";
+	/**
+	 * Resample by interpolating between the 8 surrounding source nodes (4 for
+	 * two dimensional grids)
+	 */
+	public final static String TRILINEAR = "trilinear";
+
+	private final static int TILE_NODES = 16 * 1024;
+	private final static long WINDOW_SIZE = 1L << 28;
+	private final static int BOUNDS_SAMPLES = 17;
+
+	private final VoxetGrid source;
+	private final VoxetGrid target;
+	private final boolean trilinear;
+	private final BlockingQueue<TransformationEngine> inverseTransformations;
+	private final int threads;
+	private final ByteOrder byteOrder;
+
+	/**
+	 * @param source
+	 *            Grid of the source property files
+	 * @param target
+	 *            Grid to resample onto
+	 * @param method
+	 *            {@link #NEAREST} or {@link #TRILINEAR}
+	 * @param inverseTransformations
+	 *            Pool of transformations from the target to the source spatial
+	 *            reference; a transformation is taken from the pool while a
+	 *            tile is resampled
+	 * @param threads
+	 *            Number of tiles to resample at the same time
+	 * @param byteOrder
+	 *            Byte order of the property files
+	 */
+	public VoxetResampler(VoxetGrid source, VoxetGrid target, String method,
+			BlockingQueue<TransformationEngine> inverseTransformations, int threads, ByteOrder byteOrder)
+	{
+		this.source = source;
+		this.target = target;
+		this.trilinear = TRILINEAR.equalsIgnoreCase(method);
+		this.inverseTransformations = inverseTransformations;
+		this.threads = Math.max(1, threads);
+		this.byteOrder = byteOrder;
+	}
+
+	/**
+	 * Check that the given resampling method is known (null is treated as
+	 * {@link #NONE}).
+	 * 
+	 * @throws IllegalArgumentException
+	 *             If the method is unknown
+	 */
+	public static void checkResample(String method)
+	{
+		if (method != null && !NONE.equalsIgnoreCase(method) && !NEAREST.equalsIgnoreCase(method)
+				&& !TRILINEAR.equalsIgnoreCase(method))
+		{
+			throw new IllegalArgumentException("Unknown resampling method '" + method + "', expected '" + NONE
+					+ "', '" + NEAREST + "' or '" + TRILINEAR + "'");
+		}
+	}
+
+	/**
+	 * @return True if the given method resamples property files
+	 * @throws IllegalArgumentException
+	 *             If the method is unknown
+	 */
+	public static boolean isResampling(String method)
+	{
+		checkResample(method);
+		return method != null && !NONE.equalsIgnoreCase(method);
+	}
+
+	/**
+	 * Calculate the grid, axis aligned in the target spatial reference, that
+	 * encloses the given source grid once transformed. The bounds are found by
+	 * transforming a lattice of up to 17 nodes along each axis. The target
+	 * grid has the same number of nodes as the source grid. Two dimensional
+	 * grids keep their W axis and elevation.
+	 */
+	public static VoxetGrid computeTarget(VoxetGrid source, TransformationEngine transformation)
+	{
+		int[] samples = new int[3];
+		for (int a = 0; a < 3; a++)
+		{
+			samples[a] = Math.min(source.n[a], BOUNDS_SAMPLES);
+		}
+		int count = samples[0] * samples[1] * samples[2];
+		double[] coordinates = new double[(count + 1) * 3];
+		int index = 0;
+		for (int k = 0; k < samples[2]; k++)
+		{
+			for (int j = 0; j < samples[1]; j++)
+			{
+				for (int i = 0; i < samples[0]; i++)
+				{
+					source.getPosition(sample(i, samples[0], source.n[0]), sample(j, samples[1], source.n[1]),
+							sample(k, samples[2], source.n[2]), coordinates, index * 3);
+					index++;
+				}
+			}
+		}
+		System.arraycopy(source.origin, 0, coordinates, count * 3, 3);
+		transformation.transform(coordinates, count + 1);
+
+		double[] min = { Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE };
+		double[] max = { -Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE };
+		for (int p = 0; p < count; p++)
+		{
+			for (int c = 0; c < 3; c++)
+			{
+				min[c] = Math.min(min[c], coordinates[p * 3 + c]);
+				max[c] = Math.max(max[c], coordinates[p * 3 + c]);
+			}
+		}
+
+		boolean twoDimensional = source.isTwoDimensional();
+		double[] origin = { min[0], min[1], twoDimensional ? coordinates[count * 3 + 2] : min[2] };
+		double[][] axes =
+				new double[][] { { extent(min[0], max[0]), 0, 0 }, { 0, extent(min[1], max[1]), 0 },
+						twoDimensional ? source.axes[2].clone() : new double[] { 0, 0, extent(min[2], max[2]) } };
+		double[] axisMin = { 0, 0, twoDimensional ? source.min[2] : 0 };
+		double[] axisMax = { 1, 1, twoDimensional ? source.max[2] : 1 };
+		return new VoxetGrid(origin, axes, axisMin, axisMax, source.n.clone());
+	}
+
+	private static int sample(int index, int samples, int n)
+	{
+		return samples <= 1 ? 0 : (int) Math.round((double) index * (n - 1) / (samples - 1));
+	}
+
+	private static double extent(double min, double max)
+	{
+		return max > min ? max - min : 1;
+	}
+
+	/**
+	 * Resample the given property files.
+	 * 
+	 * @param files
+	 *            Property files to resample
+	 * @param inputs
+	 *            Source file of each property
+	 * @param outputs
+	 *            Stream to write each resampled property file to
+	 */
+	public void resample(List<GridFile> files, List<File> inputs, List<OutputStream> outputs) throws IOException
+	{
+		SourceFile[] sources = new SourceFile[files.size()];
+		ExecutorService executor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+		try
+		{
+			for (int f = 0; f < sources.length; f++)
+			{
+				sources[f] = new SourceFile(files.get(f), inputs.get(f), source.getNodeCount(), byteOrder);
+				sources[f].copyHeader(outputs.get(f));
+			}
+
+			long nodes = target.getNodeCount();
+			int maxTiles = threads * 2;
+			Queue<Future<Tile>> pending = new LinkedList<Future<Tile>>();
+			Queue<Tile> free = new LinkedList<Tile>();
+			for (long start = 0; start < nodes; start += TILE_NODES)
+			{
+				Projector.checkInterrupted();
+				if (pending.size() >= maxTiles)
+				{
+					free.add(writeTile(pending.remove(), outputs));
+				}
+				Tile tile = free.poll();
+				if (tile == null)
+				{
+					tile = new Tile(sources);
+				}
+				tile.setRange(start, (int) Math.min(TILE_NODES, nodes - start));
+				if (executor == null)
+				{
+					tile.call();
+					tile.writeTo(outputs);
+					free.add(tile);
+				}
+				else
+				{
+					pending.add(executor.submit(tile));
+				}
+			}
+			while (!pending.isEmpty())
+			{
+				writeTile(pending.remove(), outputs);
+			}
+		}
+		catch (InterruptedException e)
+		{
+			throw new InterruptedIOException("Interrupted while resampling property files");
+		}
+		finally
+		{
+			if (executor != null)
+			{
+				executor.shutdownNow();
+			}
+			for (SourceFile sourceFile : sources)
+			{
+				if (sourceFile != null)
+				{
+					sourceFile.close();
+				}
+			}
+		}
+	}
+
+	private static Tile writeTile(Future<Tile> future, List<OutputStream> outputs) throws IOException
+	{
+		try
+		{
+			Tile tile = future.get();
+			tile.writeTo(outputs);
+			return tile;
+		}
+		catch (InterruptedException e)
+		{
+			throw new InterruptedIOException("Interrupted while resampling property files");
+		}
+		catch (ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+			{
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException)
+			{
+				throw (RuntimeException) cause;
+			}
+			throw new IOException("Error resampling property files", cause);
+		}
+	}
+
+	/**
+	 * A range of consecutive target nodes, resampled from every source file.
+	 */
+	private class Tile implements Callable<Tile>
+	{
+		private final SourceFile[] sources;
+		private final byte[][] data;
+		private final double[] coordinates = new double[TILE_NODES * 3];
+		private long start;
+		private int count;
+
+		public Tile(SourceFile[] sources)
+		{
+			this.sources = sources;
+			this.data = new byte[sources.length][];
+			for (int f = 0; f < sources.length; f++)
+			{
+				data[f] = new byte[TILE_NODES * sources[f].elementSize];
+			}
+		}
+
+		public void setRange(long start, int count)
+		{
+			this.start = start;
+			this.count = count;
+		}
+
+		@Override
+		public Tile call() throws InterruptedException
+		{
+			int nu = target.n[0];
+			int nv = target.n[1];
+			for (int t = 0; t < count; t++)
+			{
+				long node = start + t;
+				int i = (int) (node % nu);
+				int j = (int) ((node / nu) % nv);
+				int k = (int) (node / ((long) nu * nv));
+				target.getPosition(i, j, k, coordinates, t * 3);
+			}
+
+			TransformationEngine transformation = inverseTransformations.take();
+			try
+			{
+				transformation.transform(coordinates, count);
+			}
+			finally
+			{
+				inverseTransformations.put(transformation);
+			}
+
+			for (int t = 0; t < count; t++)
+			{
+				int o = t * 3;
+				source.getIndices(coordinates[o], coordinates[o + 1], coordinates[o + 2], coordinates, o);
+			}
+
+			for (int f = 0; f < sources.length; f++)
+			{
+				SourceFile file = sources[f];
+				byte[] bytes = data[f];
+				for (int t = 0; t < count; t++)
+				{
+					int o = t * 3;
+					sample(file, coordinates[o], coordinates[o + 1], coordinates[o + 2], bytes, t * file.elementSize);
+				}
+			}
+			return this;
+		}
+
+		public void writeTo(List<OutputStream> outputs) throws IOException
+		{
+			for (int f = 0; f < sources.length; f++)
+			{
+				outputs.get(f).write(data[f], 0, count * sources[f].elementSize);
+			}
+		}
+	}
+
+	/**
+	 * Sample a source file at the given fractional node indices. Points more
+	 * than half a cell outside the source grid are written as no data.
+	 */
+	private void sample(SourceFile file, double fi, double fj, double fk, byte[] out, int offset)
+	{
+		int[] n = source.n;
+		if (!(fi >= -0.5 && fi < n[0] - 0.5 && fj >= -0.5 && fj < n[1] - 0.5 && fk >= -0.5 && fk < n[2] - 0.5))
+		{
+			file.writeNoData(out, offset);
+			return;
+		}
+
+		int ni = clamp((int) Math.round(fi), n[0]);
+		int nj = clamp((int) Math.round(fj), n[1]);
+		int nk = clamp((int) Math.round(fk), n[2]);
+		if (!trilinear || file.isFlags())
+		{
+			file.copy(element(ni, nj, nk), out, offset);
+			return;
+		}
+
+		int i0 = lower(fi, n[0]);
+		int j0 = lower(fj, n[1]);
+		int k0 = lower(fk, n[2]);
+		double tx = weight(fi, i0, n[0]);
+		double ty = weight(fj, j0, n[1]);
+		double tz = weight(fk, k0, n[2]);
+		double sum = 0;
+		for (int c = 0; c < 8; c++)
+		{
+			int dx = c & 1, dy = (c >> 1) & 1, dz = (c >> 2) & 1;
+			double w = (dx == 0 ? 1 - tx : tx) * (dy == 0 ? 1 - ty : ty) * (dz == 0 ? 1 - tz : tz);
+			if (w == 0)
+			{
+				continue;
+			}
+			double value = file.getValue(element(i0 + dx, j0 + dy, k0 + dz));
+			if (file.isNoData(value))
+			{
+				//don't interpolate no data; use the nearest node instead
+				file.copy(element(ni, nj, nk), out, offset);
+				return;
+			}
+			sum += w * value;
+		}
+		file.writeValue(sum, out, offset);
+	}
+
+	private long element(int i, int j, int k)
+	{
+		return i + (long) source.n[0] * (j + (long) source.n[1] * k);
+	}
+
+	private static int clamp(int index, int n)
+	{
+		return Math.max(0, Math.min(n - 1, index));
+	}
+
+	/**
+	 * @return Index of the lower of the two nodes to interpolate between
+	 */
+	private static int lower(double f, int n)
+	{
+		if (n <= 1)
+		{
+			return 0;
+		}
+		return Math.max(0, Math.min(n - 2, (int) Math.floor(f)));
+	}
+
+	/**
+	 * @return Interpolation weight of the upper node, clamped to the grid
+	 */
+	private static double weight(double f, int lower, int n)
+	{
+		if (n <= 1)
+		{
+			return 0;
+		}
+		return Math.max(0, Math.min(1, f - lower));
+	}
+
+	/**
+	 * Memory mapped source property file. Windows of the file are mapped as
+	 * they are first accessed; reads use absolute positions, so a file can be
+	 * sampled by many threads at once.
+	 */
+	private static class SourceFile
+	{
+		private final GridFile file;
+		private final RandomAccessFile input;
+		private final FileChannel channel;
+		private final AtomicReferenceArray<ByteBuffer> windows;
+		private final ByteOrder byteOrder;
+		private final long length;
+		private final int elementSize;
+		private final boolean ieee;
+		private final double noDataValue;
+		private final boolean hasNoDataValue;
+
+		public SourceFile(GridFile file, File inputFile, long elements, ByteOrder byteOrder) throws IOException
+		{
+			this.file = file;
+			this.input = new RandomAccessFile(inputFile, "r");
+			this.channel = input.getChannel();
+			this.byteOrder = byteOrder;
+			this.elementSize = file.elementSize;
+			this.ieee = file.isIeee();
+			this.length = Math.max(0, Math.min(channel.size() - file.offset, elements * elementSize));
+			this.windows = new AtomicReferenceArray<ByteBuffer>((int) ((length + WINDOW_SIZE - 1) / WINDOW_SIZE));
+			this.hasNoDataValue = file.noDataValue != null && !file.isFlags();
+			double noData = hasNoDataValue ? file.noDataValue.doubleValue() : Double.NaN;
+			//compare with the value as stored, eg. rounded to a float
+			this.noDataValue = ieee && elementSize == 4 ? (float) noData : noData;
+		}
+
+		public boolean isFlags()
+		{
+			return file.isFlags();
+		}
+
+		/**
+		 * Copy the bytes preceding the elements (PROP_OFFSET or FLAGS_OFFSET)
+		 * to the output; missing bytes are written as zeros.
+		 */
+		public void copyHeader(OutputStream output) throws IOException
+		{
+			if (file.offset <= 0)
+			{
+				return;
+			}
+			byte[] header = new byte[(int) file.offset];
+			input.seek(0);
+			int read = 0;
+			while (read < header.length)
+			{
+				int r = input.read(header, read, header.length - read);
+				if (r < 0)
+				{
+					break;
+				}
+				read += r;
+			}
+			output.write(header);
+		}
+
+		private ByteBuffer window(int index) throws IOException
+		{
+			ByteBuffer window = windows.get(index);
+			if (window == null)
+			{
+				synchronized (windows)
+				{
+					window = windows.get(index);
+					if (window == null)
+					{
+						long position = index * WINDOW_SIZE;
+						long size = Math.min(WINDOW_SIZE, length - position);
+						window = channel.map(MapMode.READ_ONLY, file.offset + position, size).order(byteOrder);
+						windows.set(index, window);
+					}
+				}
+			}
+			return window;
+		}
+
+		/**
+		 * @return The window containing the element at the given byte
+		 *         position, or null if the element is past the end of the file
+		 */
+		private ByteBuffer windowOf(long position)
+		{
+			if (position < 0 || position + elementSize > length)
+			{
+				return null;
+			}
+			try
+			{
+				return window((int) (position / WINDOW_SIZE));
+			}
+			catch (IOException e)
+			{
+				throw new IllegalStateException("Error mapping property file", e);
+			}
+		}
+
+		/**
+		 * @return Value of the given element, or NaN if it is past the end of
+		 *         the file
+		 */
+		public double getValue(long element)
+		{
+			long position = element * elementSize;
+			ByteBuffer window = windowOf(position);
+			if (window == null)
+			{
+				return Double.NaN;
+			}
+			int index = (int) (position % WINDOW_SIZE);
+			switch (elementSize)
+			{
+			case 1:
+				byte b = window.get(index);
+				return file.signed ? b : b & 0xff;
+			case 2:
+				short s = window.getShort(index);
+				return file.signed ? s : s & 0xffff;
+			case 4:
+				return ieee ? window.getFloat(index) : (file.signed ? window.getInt(index) : window.getInt(index)
+						& 0xffffffffL);
+			default:
+				return ieee ? window.getDouble(index) : window.getLong(index);
+			}
+		}
+
+		public boolean isNoData(double value)
+		{
+			return Double.isNaN(value) || (hasNoDataValue && value == noDataValue);
+		}
+
+		/**
+		 * Copy the bytes of the given element to the output unchanged.
+		 */
+		public void copy(long element, byte[] out, int offset)
+		{
+			long position = element * elementSize;
+			ByteBuffer window = windowOf(position);
+			if (window == null)
+			{
+				writeNoData(out, offset);
+				return;
+			}
+			int index = (int) (position % WINDOW_SIZE);
+			for (int i = 0; i < elementSize; i++)
+			{
+				out[offset + i] = window.get(index + i);
+			}
+		}
+
+		public void writeNoData(byte[] out, int offset)
+		{
+			if (hasNoDataValue || ieee)
+			{
+				writeValue(noDataValue, out, offset);
+			}
+			else
+			{
+				for (int i = 0; i < elementSize; i++)
+				{
+					out[offset + i] = 0;
+				}
+			}
+		}
+
+		/**
+		 * Write a value to the output; integer values are rounded and clamped
+		 * to the range of the element type.
+		 */
+		public void writeValue(double value, byte[] out, int offset)
+		{
+			long bits;
+			if (ieee)
+			{
+				bits = elementSize == 4 ? Float.floatToRawIntBits((float) value) : Double.doubleToRawLongBits(value);
+			}
+			else
+			{
+				int bitCount = elementSize * 8;
+				double minValue = file.signed ? -Math.pow(2, bitCount - 1) : 0;
+				double maxValue = file.signed ? Math.pow(2, bitCount - 1) - 1 : Math.pow(2, bitCount) - 1;
+				bits = (long) Math.max(minValue, Math.min(maxValue, Math.rint(value)));
+			}
+			for (int i = 0; i < elementSize; i++)
+			{
+				int shift = byteOrder == ByteOrder.BIG_ENDIAN ? (elementSize - 1 - i) * 8 : i * 8;
+				out[offset + i] = (byte) (bits >>> shift);
+			}
+		}
+
+		public void close() throws IOException
+		{
+			input.close();
+		}
+	}
+}
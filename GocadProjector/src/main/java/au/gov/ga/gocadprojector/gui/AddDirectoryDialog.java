@@ -16,11 +16,7 @@
 package au.gov.ga.gocadprojector.gui;
 
 import java.io.File;
-import java.io.FileFilter;
-import java.util.List;
 
-import org.apache.commons.io.IOCase;
-import org.apache.commons.io.filefilter.WildcardFileFilter;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.events.ModifyEvent;
 import org.eclipse.swt.events.ModifyListener;
@@ -40,6 +36,7 @@ import org.gdal.ogr.ogrConstants;
 import org.gdal.osr.SpatialReference;
 
 import au.gov.ga.gocadprojector.application.Parameters;
+import au.gov.ga.gocadprojector.util.DirectoryScanner;
 
 /**
  * Dialog used for adding a directory containing GOCAD objects for reprojection.
@@ -48,17 +45,24 @@ import au.gov.ga.gocadprojector.application.Parameters;
  */
 public class AddDirectoryDialog
 {
-	private static String filterString = "*.gp, *.ts, *.pl, *.vo, *.grs, *.sg";
-	private static String suffixString = "_projected";
+	private static String filterString = DirectoryScanner.DEFAULT_FILTER;
+	private static String suffixString = DirectoryScanner.DEFAULT_SUFFIX;
+	private static boolean recursiveSelection = false;
 
 	private final Shell shell;
 	private final Display display;
 	private final Button okButton;
 	private int result = SWT.CANCEL;
 	private boolean iValid = false, oValid = false, sValid = false, tValid = false;
-
-	public AddDirectoryDialog(Shell parent, String title, final List<Parameters> parameters, String sourceSRS,
-			String targetSRS)
+	private File inputDirectory;
+	private File outputDirectory;
+	private String filterText;
+	private String suffixText;
+	private String sourceText;
+	private String targetText;
+	private boolean recursive;
+
+	public AddDirectoryDialog(Shell parent, String title, String sourceSRS, String targetSRS)
 	{
 		this.display = parent.getDisplay();
 
@@ -154,6 +158,26 @@ public class AddDirectoryDialog
 		label.setLayoutData(new GridData(SWT.CENTER, SWT.CENTER, false, false));
 
 
+		label = new Label(shell, SWT.NONE);
+		label.setLayoutData(new GridData(SWT.CENTER, SWT.CENTER, false, false));
+
+		final Button recursiveButton = new Button(shell, SWT.CHECK);
+		recursiveButton.setText("Include subdirectories (recreating them in the output directory)");
+		recursiveButton.setSelection(recursiveSelection);
+		recursiveButton.setLayoutData(new GridData(SWT.FILL, SWT.CENTER, true, false));
+		recursiveButton.addSelectionListener(new SelectionAdapter()
+		{
+			@Override
+			public void widgetSelected(SelectionEvent e)
+			{
+				recursiveSelection = recursiveButton.getSelection();
+			}
+		});
+
+		label = new Label(shell, SWT.NONE);
+		label.setLayoutData(new GridData(SWT.CENTER, SWT.CENTER, false, false));
+
+
 		final Label sourceLabel = new Label(shell, SWT.NONE);
 		sourceLabel.setText("Source SRS:");
 		sourceLabel.setLayoutData(new GridData(SWT.RIGHT, SWT.CENTER, false, false));
@@ -317,31 +341,13 @@ public class AddDirectoryDialog
 			public void widgetSelected(SelectionEvent e)
 			{
 				result = SWT.OK;
-				String[] wildcards = filter.getText().split("[;,]");
-				for (int i = 0; i < wildcards.length; i++)
-				{
-					wildcards[i] = wildcards[i].trim();
-				}
-				File inputDirectory = new File(input.getText());
-				WildcardFileFilter fileFilter = new WildcardFileFilter(wildcards, IOCase.INSENSITIVE);
-				File[] files = inputDirectory.listFiles((FileFilter) fileFilter);
-				for (File file : files)
-				{
-					Parameters p = new Parameters();
-					p.inputFile = file.getAbsolutePath();
-					p.sourceSRS = source.getText();
-					p.targetSRS = target.getText();
-
-					String filename = file.getName();
-					int indexOfDot = filename.lastIndexOf('.');
-					filename =
-							indexOfDot >= 0 ? filename.substring(0, indexOfDot) + suffix.getText()
-									+ filename.substring(indexOfDot, filename.length()) : filename + suffix;
-					File outputFile = new File(output.getText(), filename);
-					p.outputFile = outputFile.getAbsolutePath();
-
-					parameters.add(p);
-				}
+				inputDirectory = new File(input.getText());
+				outputDirectory = new File(output.getText());
+				filterText = filter.getText();
+				suffixText = suffix.getText();
+				sourceText = source.getText();
+				targetText = target.getText();
+				recursive = recursiveButton.getSelection();
 				shell.dispose();
 			}
 		});
@@ -387,4 +393,51 @@ public class AddDirectoryDialog
 		}
 		return result;
 	}
+
+	/**
+	 * @return The directory to search for GOCAD objects
+	 */
+	public File getInputDirectory()
+	{
+		return inputDirectory;
+	}
+
+	/**
+	 * @return Comma or semicolon separated list of wildcards matching the
+	 *         GOCAD objects to reproject
+	 */
+	public String getFilter()
+	{
+		return filterText;
+	}
+
+	/**
+	 * @return True if the subdirectories of the input directory should also
+	 *         be searched
+	 */
+	public boolean isRecursive()
+	{
+		return recursive;
+	}
+
+	/**
+	 * Create the parameters for reprojecting a file found in the input
+	 * directory (or its subdirectories). The output has the same path
+	 * relative to the output directory.
+	 * 
+	 * @param file
+	 *            File found in the input directory
+	 * @return Parameters for reprojecting the file
+	 */
+	public Parameters createParameters(File file)
+	{
+		Parameters p = new Parameters();
+		p.inputFile = file.getAbsolutePath();
+		p.sourceSRS = sourceText;
+		p.targetSRS = targetText;
+
+		File outputFile = DirectoryScanner.getOutputFile(inputDirectory, file, outputDirectory, suffixText);
+		p.outputFile = outputFile.getAbsolutePath();
+		return p;
+	}
 }
@@ -15,11 +15,14 @@
  ******************************************************************************/
 package au.gov.ga.gocadprojector.gui;
 
+import java.io.File;
+
 import au.gov.ga.gocadprojector.application.Parameters;
+import au.gov.ga.gocadprojector.application.ProjectionStatistics;
 
 /**
- * Reprojection job, contains the job status and the reprojection
- * {@link Parameters}.
+ * Reprojection job, contains the job status, the reprojection
+ * {@link Parameters}, and the {@link ProjectionStatistics} of the last run.
  * 
  * @author Michael de Hoog (michael.dehoog@ga.gov.au)
  */
@@ -30,14 +33,38 @@ public class Job
 		Waiting,
 		Projecting,
 		Complete,
-		Error
+		Error,
+		Cancelled
 	}
 
 	public final Parameters parameters;
-	public Status status = Status.Waiting;
+	public volatile Status status = Status.Waiting;
+	public volatile ProjectionStatistics statistics = null;
+	/**
+	 * Index of this job in its {@link JobList}; only used on the UI thread
+	 */
+	public int index;
 
 	public Job(Parameters parameters)
 	{
 		this.parameters = parameters;
 	}
+
+	/**
+	 * Delete the output file and side files written by the last run of this
+	 * job. Called when the job is cancelled, so that the job can be started
+	 * again without the partial output getting in the way.
+	 */
+	public void deleteOutputFiles()
+	{
+		ProjectionStatistics statistics = this.statistics;
+		if (statistics == null)
+		{
+			return;
+		}
+		for (File file : statistics.getOutputFiles())
+		{
+			file.delete();
+		}
+	}
 }
@@ -0,0 +1,314 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.gui;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The list of jobs shown in the {@link MainWindow}'s table. The table is
+ * virtual, so the jobs are kept here rather than in table items, and rows
+ * are only created for the jobs that are displayed.
+ * <p/>
+ * The list itself is only modified on the UI thread. Worker threads report
+ * job changes with {@link #changed(Job)}; the changes are collected until the
+ * UI thread next refreshes the table, so that many changes cause a single
+ * refresh.
+ */
+public class JobList
+{
+	private final static int INSERTION_SORT_SIZE = 16;
+	private final static int CHAR_BITS = 17;
+
+	private final List<Job> jobs = new ArrayList<Job>();
+	private final Set<Job> changed = new LinkedHashSet<Job>();
+
+	/**
+	 * @return Number of jobs in the list
+	 */
+	public int size()
+	{
+		return jobs.size();
+	}
+
+	/**
+	 * @return The job at the given index
+	 */
+	public Job get(int index)
+	{
+		return jobs.get(index);
+	}
+
+	/**
+	 * Add a job to the end of the list.
+	 */
+	public void add(Job job)
+	{
+		job.index = jobs.size();
+		jobs.add(job);
+	}
+
+	/**
+	 * Remove the jobs at the given indices.
+	 */
+	public void remove(int[] indices)
+	{
+		if (indices.length == 0)
+		{
+			return;
+		}
+		int[] sorted = indices.clone();
+		Arrays.sort(sorted);
+		List<Job> kept = new ArrayList<Job>(jobs.size() - sorted.length);
+		for (int i = 0, r = 0; i < jobs.size(); i++)
+		{
+			if (r < sorted.length && sorted[r] == i)
+			{
+				r++;
+			}
+			else
+			{
+				kept.add(jobs.get(i));
+			}
+		}
+		jobs.clear();
+		jobs.addAll(kept);
+		renumber();
+	}
+
+	/**
+	 * Provides the text a job is sorted by.
+	 */
+	public interface TextValue
+	{
+		String get(Job job);
+	}
+
+	/**
+	 * Provides the number a job is sorted by.
+	 */
+	public interface NumberValue
+	{
+		double get(Job job);
+	}
+
+	/**
+	 * Sort the jobs by a text value (in {@link String#compareTo(String)}
+	 * order, with null sorted as the empty string). Rather than comparing the
+	 * strings, the first characters that differ between the values are packed
+	 * into longs and sorted as primitives, repeating for each group of values
+	 * that share those characters (an MSD radix sort). This keeps sorting a
+	 * million filenames fast enough for the UI thread.
+	 * 
+	 * @param value
+	 *            Provides the text of each job
+	 * @param descending
+	 *            Sort in descending rather than ascending order
+	 */
+	public void sortByText(TextValue value, boolean descending)
+	{
+		int size = jobs.size();
+		String[] keys = new String[size];
+		int[] order = new int[size];
+		for (int i = 0; i < size; i++)
+		{
+			String key = value.get(jobs.get(i));
+			keys[i] = key == null ? "" : key;
+			order[i] = i;
+		}
+		sortText(keys, order, 0, size, 0, new long[size], new int[size]);
+		reorder(order, descending);
+	}
+
+	/**
+	 * Sort the jobs by a numeric value. The values are replaced by their rank
+	 * among the distinct values, and the ranks sorted as primitives.
+	 * 
+	 * @param value
+	 *            Provides the number of each job
+	 * @param descending
+	 *            Sort in descending rather than ascending order
+	 */
+	public void sortByNumber(NumberValue value, boolean descending)
+	{
+		int size = jobs.size();
+		double[] values = new double[size];
+		for (int i = 0; i < size; i++)
+		{
+			values[i] = value.get(jobs.get(i));
+		}
+		double[] sorted = values.clone();
+		Arrays.sort(sorted);
+		int indexBits = indexBits(size);
+		long[] packed = new long[size];
+		for (int i = 0; i < size; i++)
+		{
+			long rank = Arrays.binarySearch(sorted, values[i]);
+			packed[i] = rank << indexBits | i;
+		}
+		Arrays.sort(packed);
+		int[] order = new int[size];
+		long mask = (1L << indexBits) - 1;
+		for (int i = 0; i < size; i++)
+		{
+			order[i] = (int) (packed[i] & mask);
+		}
+		reorder(order, descending);
+	}
+
+	/**
+	 * Sort the range of the order array by the keys, where the keys within the
+	 * range are known to share the characters before the given offset.
+	 */
+	private static void sortText(String[] keys, int[] order, int from, int to, int offset, long[] packed, int[] temp)
+	{
+		int count = to - from;
+		if (count < 2)
+		{
+			return;
+		}
+		if (count <= INSERTION_SORT_SIZE)
+		{
+			for (int i = from + 1; i < to; i++)
+			{
+				int o = order[i];
+				int j = i - 1;
+				for (; j >= from && keys[order[j]].compareTo(keys[o]) > 0; j--)
+				{
+					order[j + 1] = order[j];
+				}
+				order[j + 1] = o;
+			}
+			return;
+		}
+
+		//skip the characters shared by every key in the range
+		String first = keys[order[from]];
+		int common = first.length();
+		for (int i = from + 1; i < to && common > offset; i++)
+		{
+			String key = keys[order[i]];
+			int length = Math.min(common, key.length());
+			int c = offset;
+			while (c < length && key.charAt(c) == first.charAt(c))
+			{
+				c++;
+			}
+			common = c;
+		}
+
+		//pack the next characters (plus one, so that the end of a key sorts first) above the index in the range
+		int indexBits = indexBits(count);
+		int chars = (63 - indexBits) / CHAR_BITS;
+		for (int i = 0; i < count; i++)
+		{
+			String key = keys[order[from + i]];
+			long prefix = 0;
+			for (int c = common; c < common + chars; c++)
+			{
+				prefix = prefix << CHAR_BITS | (c < key.length() ? key.charAt(c) + 1 : 0);
+			}
+			packed[i] = prefix << indexBits | i;
+		}
+		Arrays.sort(packed, 0, count);
+		long mask = (1L << indexBits) - 1;
+		for (int i = 0; i < count; i++)
+		{
+			temp[i] = order[from + (int) (packed[i] & mask)];
+		}
+		long[] prefixes = new long[count];
+		for (int i = 0; i < count; i++)
+		{
+			prefixes[i] = packed[i] >>> indexBits;
+		}
+		System.arraycopy(temp, 0, order, from, count);
+
+		//keys with the same packed characters are sorted by the following characters, unless they have ended
+		int start = 0;
+		for (int i = 1; i <= count; i++)
+		{
+			if (i == count || prefixes[i] != prefixes[start])
+			{
+				boolean ended = (prefixes[start] & ((1L << CHAR_BITS) - 1)) == 0;
+				if (i - start > 1 && !ended)
+				{
+					sortText(keys, order, from + start, from + i, common + chars, packed, temp);
+				}
+				start = i;
+			}
+		}
+	}
+
+	private static int indexBits(int count)
+	{
+		return Math.max(1, 32 - Integer.numberOfLeadingZeros(count - 1));
+	}
+
+	private void reorder(int[] order, boolean descending)
+	{
+		List<Job> sorted = new ArrayList<Job>(order.length);
+		for (int i = 0; i < order.length; i++)
+		{
+			sorted.add(jobs.get(order[descending ? order.length - 1 - i : i]));
+		}
+		jobs.clear();
+		jobs.addAll(sorted);
+		renumber();
+	}
+
+	/**
+	 * Record that a job's status or statistics have changed. Can be called
+	 * from any thread.
+	 * 
+	 * @return True if this is the first change since the changes were last
+	 *         taken, ie. a refresh needs to be scheduled
+	 */
+	public boolean changed(Job job)
+	{
+		synchronized (changed)
+		{
+			boolean first = changed.isEmpty();
+			changed.add(job);
+			return first;
+		}
+	}
+
+	/**
+	 * Take the jobs that have changed since this was last called.
+	 * 
+	 * @return Changed jobs
+	 */
+	public List<Job> takeChanged()
+	{
+		synchronized (changed)
+		{
+			List<Job> result = new ArrayList<Job>(changed);
+			changed.clear();
+			return result;
+		}
+	}
+
+	private void renumber()
+	{
+		for (int i = 0; i < jobs.size(); i++)
+		{
+			jobs.get(i).index = i;
+		}
+	}
+}
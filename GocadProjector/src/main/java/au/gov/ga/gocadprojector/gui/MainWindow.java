@@ -15,8 +15,15 @@
  ******************************************************************************/
 package au.gov.ga.gocadprojector.gui;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.events.KeyAdapter;
@@ -33,16 +40,21 @@ import org.eclipse.swt.widgets.Button;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Control;
 import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Event;
 import org.eclipse.swt.widgets.Group;
 import org.eclipse.swt.widgets.Label;
+import org.eclipse.swt.widgets.Listener;
 import org.eclipse.swt.widgets.Shell;
+import org.eclipse.swt.widgets.Spinner;
 import org.eclipse.swt.widgets.Table;
 import org.eclipse.swt.widgets.TableColumn;
 import org.eclipse.swt.widgets.TableItem;
 
 import au.gov.ga.gocadprojector.application.Parameters;
+import au.gov.ga.gocadprojector.application.ProjectionStatistics;
 import au.gov.ga.gocadprojector.application.Projector;
 import au.gov.ga.gocadprojector.gui.Job.Status;
+import au.gov.ga.gocadprojector.util.DirectoryWalker;
 
 /**
  * Main window of the GUI version; contains a list of GOCAD objects for
@@ -52,8 +64,17 @@ import au.gov.ga.gocadprojector.gui.Job.Status;
  */
 public class MainWindow
 {
+	private final static int MAX_CONCURRENCY = 16;
+	private final static int PROGRESS_INTERVAL = 500;
+
 	private Parameters lastParameters;
-	private boolean cancelled = false;
+	private volatile boolean cancelled = false;
+	private boolean running = false;
+	private ExecutorService executor;
+	private Runnable jobsFinished;
+	private final AtomicInteger remaining = new AtomicInteger();
+	private DirectoryWalker walker;
+	private final JobList jobs = new JobList();
 
 	public MainWindow()
 	{
@@ -75,21 +96,68 @@ public class MainWindow
 		data = new GridData(SWT.FILL, SWT.FILL, true, true);
 		group.setLayoutData(data);
 
-		final Table table = new Table(group, SWT.MULTI | SWT.BORDER | SWT.FULL_SELECTION);
+		//the table is virtual, so rows are only created for the jobs that are displayed
+		final Table table = new Table(group, SWT.MULTI | SWT.BORDER | SWT.FULL_SELECTION | SWT.VIRTUAL);
 		data = new GridData(SWT.FILL, SWT.FILL, true, true);
-		data.widthHint = 800;
+		data.widthHint = 960;
 		data.heightHint = 400;
 		table.setLayoutData(data);
 		table.setLinesVisible(true);
 		table.setHeaderVisible(true);
-		String[] titles = new String[] { "Input file", "Source SRS", "Output", "Target SRS", "Status" };
-		int[] widths = new int[] { 275, 100, 275, 100, 60 };
+		String[] titles =
+				new String[] { "Input file", "Source SRS", "Output", "Target SRS", "Status", "Progress",
+						"Throughput" };
+		int[] widths = new int[] { 275, 100, 275, 100, 60, 60, 80 };
 		for (int i = 0; i < titles.length; i++)
 		{
+			final int index = i;
 			TableColumn column = new TableColumn(table, SWT.NONE);
 			column.setText(titles[i]);
 			column.setWidth(widths[i]);
+			column.addSelectionListener(new SelectionAdapter()
+			{
+				@Override
+				public void widgetSelected(SelectionEvent e)
+				{
+					sortJobs(table, (TableColumn) e.widget, index);
+				}
+			});
 		}
+		table.addListener(SWT.SetData, new Listener()
+		{
+			@Override
+			public void handleEvent(Event event)
+			{
+				updateItem((TableItem) event.item, jobs.get(event.index));
+			}
+		});
+
+		final Composite scanComposite = new Composite(group, SWT.NONE);
+		scanComposite.setLayout(new GridLayout(2, false));
+		data = new GridData(SWT.FILL, SWT.CENTER, true, false);
+		scanComposite.setLayoutData(data);
+
+		final Label scanLabel = new Label(scanComposite, SWT.NONE);
+		data = new GridData(SWT.FILL, SWT.CENTER, true, false);
+		scanLabel.setLayoutData(data);
+
+		final Button stopScanButton = new Button(scanComposite, SWT.PUSH);
+		stopScanButton.setText("Stop scan");
+		data = new GridData(SWT.CENTER, SWT.CENTER, false, false);
+		data.widthHint = addButtonWidth;
+		stopScanButton.setLayoutData(data);
+		stopScanButton.addSelectionListener(new SelectionAdapter()
+		{
+			@Override
+			public void widgetSelected(SelectionEvent e)
+			{
+				if (walker != null)
+				{
+					walker.cancel();
+				}
+			}
+		});
+		setVisible(scanComposite, false);
 
 		composite = new Composite(group, SWT.NONE);
 		composite.setLayout(new GridLayout(4, false));
@@ -132,17 +200,23 @@ public class MainWindow
 			@Override
 			public void widgetSelected(SelectionEvent e)
 			{
-				List<Parameters> parameters = new ArrayList<Parameters>();
 				String sourceSRS = lastParameters != null ? lastParameters.sourceSRS : null;
 				String targetSRS = lastParameters != null ? lastParameters.targetSRS : null;
 				AddDirectoryDialog dialog =
-						new AddDirectoryDialog(shell, ((Button) e.widget).getText(), parameters, sourceSRS, targetSRS);
+						new AddDirectoryDialog(shell, ((Button) e.widget).getText(), sourceSRS, targetSRS);
 				if (dialog.getResult() == SWT.OK)
 				{
-					for (Parameters p : parameters)
+					directoryButton.setEnabled(false);
+					setVisible(scanComposite, true);
+					scanDirectory(display, table, dialog, scanLabel, new Runnable()
 					{
-						addJob(table, p);
-					}
+						@Override
+						public void run()
+						{
+							setVisible(scanComposite, false);
+							directoryButton.setEnabled(!running);
+						}
+					});
 				}
 			}
 		});
@@ -158,10 +232,9 @@ public class MainWindow
 			@Override
 			public void widgetSelected(SelectionEvent e)
 			{
-				TableItem[] items = table.getSelection();
-				for (TableItem item : items)
+				for (int index : table.getSelectionIndices())
 				{
-					editItem(item, shell, ((Button) e.widget).getText());
+					editItem(table, index, shell, ((Button) e.widget).getText());
 				}
 			}
 		});
@@ -187,10 +260,25 @@ public class MainWindow
 		separator.setLayoutData(data);
 
 		composite = new Composite(shell, SWT.NONE);
-		composite.setLayout(new GridLayout(2, false));
+		composite.setLayout(new GridLayout(4, false));
 		data = new GridData(SWT.END, SWT.CENTER, true, false);
 		composite.setLayoutData(data);
 
+		Label concurrencyLabel = new Label(composite, SWT.NONE);
+		concurrencyLabel.setText("Concurrent jobs:");
+		data = new GridData(SWT.CENTER, SWT.CENTER, false, false);
+		concurrencyLabel.setLayoutData(data);
+
+		int processors = Runtime.getRuntime().availableProcessors();
+		final Spinner concurrencySpinner = new Spinner(composite, SWT.BORDER);
+		concurrencySpinner.setMinimum(1);
+		concurrencySpinner.setMaximum(Math.max(processors * 2, MAX_CONCURRENCY));
+		concurrencySpinner.setSelection(processors);
+		data = new GridData(SWT.CENTER, SWT.CENTER, false, false);
+		data.horizontalIndent = 5;
+		data.widthHint = startButtonWidth;
+		concurrencySpinner.setLayoutData(data);
+
 		final Button startButton = new Button(composite, SWT.PUSH);
 		startButton.setText("Start");
 		data = new GridData(SWT.CENTER, SWT.CENTER, false, false);
@@ -227,7 +315,7 @@ public class MainWindow
 				TableItem item = table.getItem(new Point(e.x, e.y));
 				if (item != null)
 				{
-					editItem(item, shell, editButton.getText());
+					editItem(table, table.indexOf(item), shell, editButton.getText());
 				}
 			}
 		});
@@ -249,8 +337,23 @@ public class MainWindow
 			@Override
 			public void widgetSelected(SelectionEvent e)
 			{
-				Control[] controls =
-						new Control[] { addButton, directoryButton, editButton, deleteButton, startButton };
+				List<Job> waiting = new ArrayList<Job>();
+				for (int i = 0; i < jobs.size(); i++)
+				{
+					Job job = jobs.get(i);
+					if (job.status == Status.Waiting || job.status == Status.Cancelled)
+					{
+						waiting.add(job);
+					}
+				}
+				if (waiting.isEmpty())
+				{
+					return;
+				}
+
+				final Control[] controls =
+						new Control[] { addButton, directoryButton, editButton, deleteButton, startButton,
+								concurrencySpinner };
 
 				cancelButton.setEnabled(true);
 				for (Control control : controls)
@@ -258,119 +361,454 @@ public class MainWindow
 					control.setEnabled(false);
 				}
 
-				for (final TableItem item : table.getItems())
+				startJobs(display, table, waiting, concurrencySpinner.getSelection(), new Runnable()
 				{
-					if (cancelled)
-						break;
+					@Override
+					public void run()
+					{
+						cancelButton.setEnabled(false);
+						for (Control control : controls)
+						{
+							control.setEnabled(true);
+						}
+						directoryButton.setEnabled(walker == null);
+					}
+				});
+			}
+		});
 
-					final Job job = (Job) item.getData();
-					if (job.status != Status.Waiting)
-						continue;
+		cancelButton.addSelectionListener(new SelectionAdapter()
+		{
+			@Override
+			public void widgetSelected(SelectionEvent e)
+			{
+				cancelButton.setEnabled(false);
+				cancelJobs();
+			}
+		});
 
-					job.status = Status.Projecting;
-					updateItem(item);
+		shell.pack();
+		shell.open();
+		while (!shell.isDisposed())
+		{
+			if (!display.readAndDispatch())
+			{
+				display.sleep();
+			}
+		}
+		if (executor != null)
+		{
+			executor.shutdownNow();
+		}
+		if (walker != null)
+		{
+			walker.cancel();
+		}
+		display.dispose();
+	}
 
-					final boolean[] complete = new boolean[] { false };
-					Thread thread = new Thread(new Runnable()
+	/**
+	 * Search the directory chosen in an {@link AddDirectoryDialog} for GOCAD
+	 * objects in the background, adding a job to the table for each batch of
+	 * objects as they are found. The search is stopped by the "Stop scan"
+	 * button, or when the window is closed.
+	 * 
+	 * @param display
+	 *            Display that owns the table
+	 * @param table
+	 *            Table to add the jobs to
+	 * @param dialog
+	 *            Dialog describing the directory to search and the jobs to
+	 *            create
+	 * @param status
+	 *            Label showing the progress of the search
+	 * @param finished
+	 *            Run on the UI thread after the search has completed or has
+	 *            been stopped
+	 */
+	protected void scanDirectory(final Display display, final Table table, final AddDirectoryDialog dialog,
+			final Label status, final Runnable finished)
+	{
+		final File directory = dialog.getInputDirectory();
+		final DirectoryWalker current = new DirectoryWalker(directory, dialog.getFilter(), dialog.isRecursive());
+		walker = current;
+		status.setText("Scanning " + directory + "...");
+		current.start(new DirectoryWalker.Listener()
+		{
+			@Override
+			public void filesFound(List<File> files)
+			{
+				//create the parameters on the walker thread, only add the jobs on the UI thread
+				final List<Parameters> parameters = new ArrayList<Parameters>(files.size());
+				for (File file : files)
+				{
+					parameters.add(dialog.createParameters(file));
+				}
+				asyncExec(display, new Runnable()
+				{
+					@Override
+					public void run()
 					{
-						@Override
-						public void run()
+						if (table.isDisposed() || current.isCancelled())
+						{
+							return;
+						}
+						addJobs(table, parameters);
+						status.setText("Scanning " + directory + ": found " + current.getFilesFound() + " files in "
+								+ current.getDirectoriesListed() + " directories...");
+					}
+				});
+			}
+
+			@Override
+			public void finished(boolean cancelled)
+			{
+				asyncExec(display, new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						walker = null;
+						if (!table.isDisposed())
+						{
+							finished.run();
+						}
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Reproject the given jobs on a pool of worker threads, which share a
+	 * single {@link Projector}. Job status changes are collected by the
+	 * {@link JobList} and refreshed in the table by a single
+	 * {@link Display#asyncExec(Runnable)}, and the progress of the visible
+	 * running jobs is refreshed from their {@link ProjectionStatistics} on a
+	 * timer.
+	 * 
+	 * @param display
+	 *            Display that owns the table
+	 * @param table
+	 *            Table showing the jobs
+	 * @param items
+	 *            Jobs to run
+	 * @param concurrency
+	 *            Number of jobs to run at the same time
+	 * @param finished
+	 *            Run on the UI thread after all jobs have finished or have
+	 *            been cancelled
+	 */
+	protected void startJobs(final Display display, final Table table, final List<Job> items, int concurrency,
+			Runnable finished)
+	{
+		running = true;
+		cancelled = false;
+		jobsFinished = finished;
+		remaining.set(items.size());
+
+		final Projector projector = new Projector();
+		executor = Executors.newFixedThreadPool(concurrency, new ThreadFactory()
+		{
+			private int count = 0;
+
+			@Override
+			public synchronized Thread newThread(Runnable r)
+			{
+				Thread thread = new Thread(r, "Projector worker " + (++count));
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		for (final Job job : items)
+		{
+			job.status = Status.Waiting;
+
+			executor.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						if (cancelled)
+						{
+							return;
+						}
+						ProjectionStatistics statistics = new ProjectionStatistics();
+						job.statistics = statistics;
+						job.status = Status.Projecting;
+						jobChanged(display, table, job);
+						try
 						{
-							Projector projector = new Projector();
-							try
+							projector.project(job.parameters, statistics);
+							job.status = Status.Complete;
+						}
+						catch (Exception e)
+						{
+							if (cancelled)
 							{
-								projector.project(job.parameters);
-								job.status = Status.Complete;
+								job.deleteOutputFiles();
+								job.status = Status.Cancelled;
 							}
-							catch (Exception e)
+							else
 							{
 								e.printStackTrace();
 								job.status = Status.Error;
 							}
-
-							complete[0] = true;
-							display.wake();
 						}
-					});
-					thread.setDaemon(true);
-					thread.start();
-
-					while (!complete[0])
+						jobChanged(display, table, job);
+					}
+					finally
 					{
-						if (!display.readAndDispatch())
-						{
-							display.sleep();
-						}
+						jobFinished(display);
 					}
-
-					updateItem(item);
 				}
+			});
+		}
+		executor.shutdown();
+		table.clearAll();
 
-				cancelButton.setEnabled(false);
-				for (Control control : controls)
+		display.timerExec(PROGRESS_INTERVAL, new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				if (!running)
+				{
+					return;
+				}
+				if (table.isDisposed())
 				{
-					control.setEnabled(true);
+					return;
 				}
-				cancelled = false;
+				//only the visible rows need refreshing; the rest are updated when they are displayed
+				int top = table.getTopIndex();
+				int bottom = Math.min(jobs.size(), top + table.getClientArea().height / table.getItemHeight() + 1);
+				for (int i = top; i < bottom; i++)
+				{
+					if (jobs.get(i).status == Status.Projecting)
+					{
+						table.clear(i);
+					}
+				}
+				display.timerExec(PROGRESS_INTERVAL, this);
 			}
 		});
+	}
 
-		cancelButton.addSelectionListener(new SelectionAdapter()
+	/**
+	 * Cancel the running jobs. Queued jobs are removed from the pool and
+	 * remain waiting; in-flight jobs are interrupted, their partial output
+	 * deleted, and marked as cancelled.
+	 */
+	protected void cancelJobs()
+	{
+		if (executor == null || !running)
 		{
-			@Override
-			public void widgetSelected(SelectionEvent e)
+			return;
+		}
+		cancelled = true;
+		List<Runnable> queued = executor.shutdownNow();
+		if (!queued.isEmpty() && remaining.addAndGet(-queued.size()) == 0)
+		{
+			finishJobs();
+		}
+	}
+
+	private void jobFinished(Display display)
+	{
+		if (remaining.decrementAndGet() == 0 && !display.isDisposed())
+		{
+			display.asyncExec(new Runnable()
 			{
-				cancelled = true;
-				cancelButton.setEnabled(false);
-			}
-		});
+				@Override
+				public void run()
+				{
+					finishJobs();
+				}
+			});
+		}
+	}
 
+	private void finishJobs()
+	{
+		running = false;
+		cancelled = false;
+		executor = null;
+		if (jobsFinished != null)
+		{
+			jobsFinished.run();
+			jobsFinished = null;
+		}
+	}
 
-		shell.pack();
-		shell.open();
-		while (!shell.isDisposed())
+	private void asyncExec(Display display, Runnable runnable)
+	{
+		if (!display.isDisposed())
 		{
-			if (!display.readAndDispatch())
+			display.asyncExec(runnable);
+		}
+	}
+
+	private static void setVisible(Control control, boolean visible)
+	{
+		((GridData) control.getLayoutData()).exclude = !visible;
+		control.setVisible(visible);
+		control.getParent().layout();
+	}
+
+	/**
+	 * Record that a job has changed, and schedule a refresh of the table if
+	 * one isn't already pending. Called from the worker threads.
+	 */
+	private void jobChanged(Display display, final Table table, Job job)
+	{
+		if (jobs.changed(job))
+		{
+			asyncExec(display, new Runnable()
 			{
-				display.sleep();
-			}
+				@Override
+				public void run()
+				{
+					if (table.isDisposed())
+					{
+						return;
+					}
+					for (Job changed : jobs.takeChanged())
+					{
+						//ignore jobs that have since been deleted
+						if (changed.index < jobs.size() && jobs.get(changed.index) == changed)
+						{
+							table.clear(changed.index);
+						}
+					}
+				}
+			});
 		}
-		display.dispose();
 	}
 
 	protected void addJob(Table table, Parameters parameters)
 	{
-		lastParameters = parameters;
-		Job job = new Job(parameters);
-		TableItem item = new TableItem(table, SWT.NONE);
-		item.setData(job);
-		updateItem(item);
+		addJobs(table, Collections.singletonList(parameters));
 	}
 
-	protected void updateItem(TableItem item)
+	protected void addJobs(Table table, List<Parameters> parameters)
+	{
+		for (Parameters p : parameters)
+		{
+			lastParameters = p;
+			jobs.add(new Job(p));
+		}
+		table.setItemCount(jobs.size());
+	}
+
+	protected void updateItem(TableItem item, Job job)
 	{
-		Job job = (Job) item.getData();
 		Parameters parameters = job.parameters;
 		item.setText(0, parameters.inputFile);
 		item.setText(1, parameters.sourceSRS);
 		item.setText(2, parameters.outputFile);
 		item.setText(3, parameters.targetSRS);
 		item.setText(4, job.status.toString());
+
+		ProjectionStatistics statistics = job.statistics;
+		if (statistics == null || job.status == Status.Waiting)
+		{
+			item.setText(5, "");
+			item.setText(6, "");
+		}
+		else
+		{
+			item.setText(5, String.format(Locale.US, "%.0f%%", getProgress(job) * 100));
+			item.setText(6, ProjectionStatistics.formatBytes((long) statistics.getThroughput()) + "/s");
+		}
 	}
 
-	protected void editItem(TableItem item, Shell shell, String title)
+	protected void editItem(Table table, int index, Shell shell, String title)
 	{
-		Job job = (Job) item.getData();
+		if (running)
+		{
+			return;
+		}
+		Job job = jobs.get(index);
 		EditDialog dialog = new EditDialog(shell, title, job.parameters);
 		if (dialog.getResult() == SWT.OK)
 		{
-			updateItem(item);
+			table.clear(index);
 		}
 	}
 
 	protected void deleteSelectedItems(Table table)
 	{
+		if (running)
+		{
+			return;
+		}
 		int[] items = table.getSelectionIndices();
+		jobs.remove(items);
 		table.remove(items);
 	}
+
+	/**
+	 * Sort the jobs by the values in a column. Sorting by the same column
+	 * again reverses the order.
+	 * 
+	 * @param table
+	 *            Table showing the jobs
+	 * @param column
+	 *            Column to sort by
+	 * @param index
+	 *            Index of the column
+	 */
+	protected void sortJobs(Table table, TableColumn column, final int index)
+	{
+		int direction = table.getSortColumn() == column && table.getSortDirection() == SWT.UP ? SWT.DOWN : SWT.UP;
+		boolean descending = direction == SWT.DOWN;
+		if (index <= 3)
+		{
+			jobs.sortByText(new JobList.TextValue()
+			{
+				@Override
+				public String get(Job job)
+				{
+					Parameters parameters = job.parameters;
+					return index == 0 ? parameters.inputFile : index == 1 ? parameters.sourceSRS
+							: index == 2 ? parameters.outputFile : parameters.targetSRS;
+				}
+			}, descending);
+		}
+		else
+		{
+			jobs.sortByNumber(new JobList.NumberValue()
+			{
+				@Override
+				public double get(Job job)
+				{
+					return index == 4 ? job.status.ordinal() : index == 5 ? getProgress(job) : getThroughput(job);
+				}
+			}, descending);
+		}
+		table.setSortColumn(column);
+		table.setSortDirection(direction);
+		table.deselectAll();
+		table.clearAll();
+	}
+
+	private static double getProgress(Job job)
+	{
+		ProjectionStatistics statistics = job.statistics;
+		if (statistics == null || job.status == Status.Waiting)
+		{
+			return 0;
+		}
+		return job.status == Status.Complete ? 1 : statistics.getProgress();
+	}
+
+	private static double getThroughput(Job job)
+	{
+		ProjectionStatistics statistics = job.statistics;
+		return statistics == null || job.status == Status.Waiting ? 0 : statistics.getThroughput();
+	}
 }
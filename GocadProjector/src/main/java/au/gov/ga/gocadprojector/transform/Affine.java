@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.transform;
+
+/**
+ * Affine transformation of 3D coordinates:
+ * 
+ * <pre>
+ * x' = xoff + s11 x + s12 y + s13 z
+ * y' = yoff + s21 x + s22 y + s23 z
+ * z' = zoff + s31 x + s32 y + s33 z
+ * </pre>
+ */
+public class Affine implements CoordinateOperation
+{
+	private final double xoff, yoff, zoff;
+	private final double s11, s12, s13, s21, s22, s23, s31, s32, s33;
+
+	/**
+	 * @param offset
+	 *            Translation (xoff, yoff, zoff)
+	 * @param matrix
+	 *            Row-major 3x3 matrix (s11, s12, s13, s21 ... s33)
+	 */
+	public Affine(double[] offset, double[] matrix)
+	{
+		if (offset.length != 3 || matrix.length != 9)
+		{
+			throw new IllegalArgumentException("Affine transformation requires 3 offsets and 9 matrix elements");
+		}
+		this.xoff = offset[0];
+		this.yoff = offset[1];
+		this.zoff = offset[2];
+		this.s11 = matrix[0];
+		this.s12 = matrix[1];
+		this.s13 = matrix[2];
+		this.s21 = matrix[3];
+		this.s22 = matrix[4];
+		this.s23 = matrix[5];
+		this.s31 = matrix[6];
+		this.s32 = matrix[7];
+		this.s33 = matrix[8];
+	}
+
+	@Override
+	public void transform(double[] coordinates, int count)
+	{
+		for (int i = 0, end = count * 3; i < end; i += 3)
+		{
+			double x = coordinates[i];
+			double y = coordinates[i + 1];
+			double z = coordinates[i + 2];
+			coordinates[i] = xoff + s11 * x + s12 * y + s13 * z;
+			coordinates[i + 1] = yoff + s21 * x + s22 * y + s23 * z;
+			coordinates[i + 2] = zoff + s31 * x + s32 * y + s33 * z;
+		}
+	}
+
+	@Override
+	public CoordinateOperation inverse()
+	{
+		double determinant =
+				s11 * (s22 * s33 - s23 * s32) - s12 * (s21 * s33 - s23 * s31) + s13 * (s21 * s32 - s22 * s31);
+		if (determinant == 0)
+		{
+			throw new IllegalArgumentException("Affine transformation is not invertible");
+		}
+		double[] m =
+				new double[] { (s22 * s33 - s23 * s32) / determinant, (s13 * s32 - s12 * s33) / determinant,
+						(s12 * s23 - s13 * s22) / determinant, (s23 * s31 - s21 * s33) / determinant,
+						(s11 * s33 - s13 * s31) / determinant, (s13 * s21 - s11 * s23) / determinant,
+						(s21 * s32 - s22 * s31) / determinant, (s12 * s31 - s11 * s32) / determinant,
+						(s11 * s22 - s12 * s21) / determinant };
+		double[] offset =
+				new double[] { -(m[0] * xoff + m[1] * yoff + m[2] * zoff), -(m[3] * xoff + m[4] * yoff + m[5] * zoff),
+						-(m[6] * xoff + m[7] * yoff + m[8] * zoff) };
+		return new Affine(offset, m);
+	}
+}
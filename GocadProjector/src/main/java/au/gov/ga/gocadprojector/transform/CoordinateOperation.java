@@ -0,0 +1,41 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.transform;
+
+/**
+ * A single step of a {@link JavaTransformationEngine}'s pipeline, such as a
+ * map projection or a datum shift. Geographic coordinates are longitude and
+ * latitude in degrees (as x and y) and ellipsoidal height in metres (as z).
+ * <p/>
+ * Operations are immutable, and therefore thread safe.
+ */
+public interface CoordinateOperation
+{
+	/**
+	 * Transform an array of interleaved coordinates in place.
+	 * 
+	 * @param coordinates
+	 *            Array containing x, y and z of each point in turn
+	 * @param count
+	 *            Number of points (from the start of the array) to transform
+	 */
+	void transform(double[] coordinates, int count);
+
+	/**
+	 * @return The operation that reverses this operation
+	 */
+	CoordinateOperation inverse();
+}
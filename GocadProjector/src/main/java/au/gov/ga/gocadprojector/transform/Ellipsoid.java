@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.transform;
+
+/**
+ * Reference ellipsoid, defined by its semi-major axis and flattening.
+ */
+public class Ellipsoid
+{
+	public final static Ellipsoid GRS80 = new Ellipsoid("GRS80", 6378137.0, 1 / 298.257222101);
+	public final static Ellipsoid WGS84 = new Ellipsoid("WGS84", 6378137.0, 1 / 298.257223563);
+
+	public final String name;
+	public final double a;
+	public final double f;
+	public final double e2;
+	public final double e;
+
+	public Ellipsoid(String name, double a, double f)
+	{
+		this.name = name;
+		this.a = a;
+		this.f = f;
+		this.e2 = f * (2 - f);
+		this.e = Math.sqrt(e2);
+	}
+
+	/**
+	 * @return The ellipsoid with the given name (GRS80 or WGS84), or null if
+	 *         the name is not known
+	 */
+	public static Ellipsoid forName(String name)
+	{
+		if (GRS80.name.equalsIgnoreCase(name))
+		{
+			return GRS80;
+		}
+		if (WGS84.name.equalsIgnoreCase(name))
+		{
+			return WGS84;
+		}
+		return null;
+	}
+
+	@Override
+	public boolean equals(Object obj)
+	{
+		if (!(obj instanceof Ellipsoid))
+		{
+			return false;
+		}
+		Ellipsoid other = (Ellipsoid) obj;
+		return a == other.a && f == other.f;
+	}
+
+	@Override
+	public int hashCode()
+	{
+		long bits = Double.doubleToLongBits(a) * 31 + Double.doubleToLongBits(f);
+		return (int) (bits ^ (bits >>> 32));
+	}
+
+	@Override
+	public String toString()
+	{
+		return name;
+	}
+}
@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.transform;
+
+import org.gdal.ogr.ogrConstants;
+import org.gdal.osr.CoordinateTransformation;
+import org.gdal.osr.SpatialReference;
+
+/**
+ * {@link TransformationEngine} that uses GDAL's OGR
+ * {@link CoordinateTransformation}. Supports any spatial reference supported
+ * by OGRSpatialReference.SetFromUserInput(), but requires the GDAL native
+ * libraries.
+ */
+public class GdalTransformationEngine implements TransformationEngine
+{
+	private final CoordinateTransformation transformation;
+	private double[][] block = new double[0][];
+
+	/**
+	 * Create an engine that transforms between the given spatial reference
+	 * sets.
+	 * 
+	 * @param sourceSRS
+	 *            Source SRS, in any form supported by
+	 *            OGRSpatialReference.SetFromUserInput()
+	 * @param targetSRS
+	 *            Target SRS, in any form supported by
+	 *            OGRSpatialReference.SetFromUserInput()
+	 */
+	public GdalTransformationEngine(String sourceSRS, String targetSRS)
+	{
+		this(createTransformation(sourceSRS, targetSRS));
+	}
+
+	/**
+	 * Create an engine that uses the given transformation.
+	 */
+	public GdalTransformationEngine(CoordinateTransformation transformation)
+	{
+		this.transformation = transformation;
+	}
+
+	private static CoordinateTransformation createTransformation(String sourceSRS, String targetSRS)
+	{
+		SpatialReference sSRS = new SpatialReference();
+		int ret = sSRS.SetFromUserInput(sourceSRS);
+		if (ret != ogrConstants.OGRERR_NONE)
+		{
+			throw new IllegalArgumentException("Unknown spatial reference: " + sourceSRS);
+		}
+
+		SpatialReference tSRS = new SpatialReference();
+		ret = tSRS.SetFromUserInput(targetSRS);
+		if (ret != ogrConstants.OGRERR_NONE)
+		{
+			throw new IllegalArgumentException("Unknown spatial reference: " + targetSRS);
+		}
+
+		return new CoordinateTransformation(sSRS, tSRS);
+	}
+
+	@Override
+	public void transform(double[] out, double x, double y, double z)
+	{
+		transformation.TransformPoint(out, x, y, z);
+	}
+
+	@Override
+	public void transform(double[][] points)
+	{
+		transformation.TransformPoints(points);
+	}
+
+	@Override
+	public void transform(double[] coordinates, int count)
+	{
+		if (count <= 0)
+		{
+			return;
+		}
+		if (block.length < count)
+		{
+			block = new double[count][3];
+		}
+		copyToBlock(coordinates, count);
+		transformation.TransformPoints(block);
+		copyFromBlock(coordinates, count);
+	}
+
+	/**
+	 * Copy the first count points into the block. The binding transforms every
+	 * row of the block, so the rows after count (left over from a larger
+	 * batch) are filled with the first point, rather than transforming output
+	 * coordinates again.
+	 */
+	private void copyToBlock(double[] coordinates, int count)
+	{
+		for (int i = 0, j = 0; i < count; i++)
+		{
+			double[] point = block[i];
+			point[0] = coordinates[j++];
+			point[1] = coordinates[j++];
+			point[2] = coordinates[j++];
+		}
+		for (int i = count; i < block.length; i++)
+		{
+			double[] point = block[i];
+			point[0] = coordinates[0];
+			point[1] = coordinates[1];
+			point[2] = coordinates[2];
+		}
+	}
+
+	private void copyFromBlock(double[] coordinates, int count)
+	{
+		for (int i = 0, j = 0; i < count; i++)
+		{
+			double[] point = block[i];
+			coordinates[j++] = point[0];
+			coordinates[j++] = point[1];
+			coordinates[j++] = point[2];
+		}
+	}
+
+	@Override
+	public void release()
+	{
+		transformation.delete();
+	}
+}
@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.transform;
+
+/**
+ * Conversion from geographic coordinates (longitude and latitude in degrees,
+ * ellipsoidal height in metres) to geocentric (earth-centred, earth-fixed)
+ * cartesian coordinates in metres.
+ */
+public class GeocentricConversion implements CoordinateOperation
+{
+	private final static int MAX_ITERATIONS = 10;
+	private final static double LATITUDE_TOLERANCE = 1e-14;
+
+	private final Ellipsoid ellipsoid;
+
+	public GeocentricConversion(Ellipsoid ellipsoid)
+	{
+		this.ellipsoid = ellipsoid;
+	}
+
+	@Override
+	public void transform(double[] coordinates, int count)
+	{
+		double a = ellipsoid.a;
+		double e2 = ellipsoid.e2;
+		for (int i = 0, end = count * 3; i < end; i += 3)
+		{
+			double lambda = Math.toRadians(coordinates[i]);
+			double phi = Math.toRadians(coordinates[i + 1]);
+			double h = coordinates[i + 2];
+			double sinPhi = Math.sin(phi);
+			double cosPhi = Math.cos(phi);
+			double nu = a / Math.sqrt(1 - e2 * sinPhi * sinPhi);
+			coordinates[i] = (nu + h) * cosPhi * Math.cos(lambda);
+			coordinates[i + 1] = (nu + h) * cosPhi * Math.sin(lambda);
+			coordinates[i + 2] = (nu * (1 - e2) + h) * sinPhi;
+		}
+	}
+
+	@Override
+	public CoordinateOperation inverse()
+	{
+		return new CoordinateOperation()
+		{
+			@Override
+			public void transform(double[] coordinates, int count)
+			{
+				double a = ellipsoid.a;
+				double e2 = ellipsoid.e2;
+				for (int i = 0, end = count * 3; i < end; i += 3)
+				{
+					double x = coordinates[i];
+					double y = coordinates[i + 1];
+					double z = coordinates[i + 2];
+					double p = Math.sqrt(x * x + y * y);
+					double phi = Math.atan2(z, p * (1 - e2));
+					for (int j = 0; j < MAX_ITERATIONS; j++)
+					{
+						double h = height(phi, p, z);
+						double sinPhi = Math.sin(phi);
+						double nu = a / Math.sqrt(1 - e2 * sinPhi * sinPhi);
+						double next = Math.atan2(z, p * (1 - e2 * nu / (nu + h)));
+						boolean converged = Math.abs(next - phi) < LATITUDE_TOLERANCE;
+						phi = next;
+						if (converged)
+						{
+							break;
+						}
+					}
+					double h = height(phi, p, z);
+					coordinates[i] = Math.toDegrees(Math.atan2(y, x));
+					coordinates[i + 1] = Math.toDegrees(phi);
+					coordinates[i + 2] = h;
+				}
+			}
+
+			@Override
+			public CoordinateOperation inverse()
+			{
+				return GeocentricConversion.this;
+			}
+		};
+	}
+
+	/**
+	 * @return Ellipsoidal height of the point at the given latitude (in
+	 *         radians) and distances from the polar axis (p) and equatorial
+	 *         plane (z); stable at all latitudes
+	 */
+	private double height(double phi, double p, double z)
+	{
+		double sinPhi = Math.sin(phi);
+		return p * Math.cos(phi) + z * sinPhi - ellipsoid.a * Math.sqrt(1 - ellipsoid.e2 * sinPhi * sinPhi);
+	}
+}
@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.transform;
+
+/**
+ * Factory for seven parameter (Helmert) similarity transformations between
+ * geocentric coordinates. The transformations are linearised for small
+ * rotations, as defined by EPSG methods 9606 (position vector) and 9607
+ * (coordinate frame rotation), and are returned as {@link Affine}
+ * transformations.
+ */
+public class Helmert
+{
+	private final static double ARC_SECONDS_TO_RADIANS = Math.PI / (180 * 3600);
+
+	/**
+	 * GDA94 to GDA2020 conformal transformation (EPSG:8048), in the
+	 * coordinate frame rotation convention.
+	 */
+	public final static CoordinateOperation GDA94_TO_GDA2020 = coordinateFrame(0.06155, -0.01087, -0.04019,
+			-0.0394924, -0.0327221, -0.0328979, -0.009994);
+
+	/**
+	 * Create a Helmert transformation using the position vector convention
+	 * (used by PROJ.4's +towgs84 parameter).
+	 * 
+	 * @param tx
+	 *            Translations in metres
+	 * @param rx
+	 *            Rotations in arc seconds
+	 * @param ds
+	 *            Scale difference in parts per million
+	 */
+	public static CoordinateOperation positionVector(double tx, double ty, double tz, double rx, double ry,
+			double rz, double ds)
+	{
+		return create(tx, ty, tz, rx * ARC_SECONDS_TO_RADIANS, ry * ARC_SECONDS_TO_RADIANS, rz
+				* ARC_SECONDS_TO_RADIANS, ds);
+	}
+
+	/**
+	 * Create a Helmert transformation using the coordinate frame rotation
+	 * convention (used by the Australian datum transformations).
+	 * 
+	 * @param tx
+	 *            Translations in metres
+	 * @param rx
+	 *            Rotations in arc seconds
+	 * @param ds
+	 *            Scale difference in parts per million
+	 */
+	public static CoordinateOperation coordinateFrame(double tx, double ty, double tz, double rx, double ry,
+			double rz, double ds)
+	{
+		return positionVector(tx, ty, tz, -rx, -ry, -rz, ds);
+	}
+
+	private static CoordinateOperation create(double tx, double ty, double tz, double rx, double ry, double rz,
+			double ds)
+	{
+		double m = 1 + ds * 1e-6;
+		double[] matrix = new double[] { m, -rz * m, ry * m, rz * m, m, -rx * m, -ry * m, rx * m, m };
+		return new Affine(new double[] { tx, ty, tz }, matrix);
+	}
+
+	private Helmert()
+	{
+	}
+}
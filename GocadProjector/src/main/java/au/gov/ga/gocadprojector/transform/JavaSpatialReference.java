@@ -0,0 +1,379 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.transform;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Spatial reference system supported by the {@link JavaTransformationEngine}:
+ * a geographic or Transverse Mercator projected system on the GDA94,
+ * GDA2020 or WGS84 datum (or an ellipsoid with PROJ.4 +towgs84 parameters).
+ * <p/>
+ * Can be parsed from the following EPSG codes:
+ * <ul>
+ * <li>EPSG:4283, 4326 and 7844 (GDA94, WGS84 and GDA2020 geographic)</li>
+ * <li>EPSG:28348-28358 (GDA94 / MGA zones 48-58)</li>
+ * <li>EPSG:7846-7859 (GDA2020 / MGA zones 46-59)</li>
+ * <li>EPSG:32601-32660 and 32701-32760 (WGS84 / UTM north and south)</li>
+ * </ul>
+ * or from PROJ.4 declarations using +proj=longlat, utm or tmerc with the
+ * GRS80 or WGS84 ellipsoid.
+ */
+public class JavaSpatialReference
+{
+	public final static String GDA94 = "GDA94";
+	public final static String GDA2020 = "GDA2020";
+	public final static String WGS84 = "WGS84";
+
+	private final static double[] NO_SHIFT = new double[7];
+	private final static List<String> SUPPORTED_PROJ4_KEYS = Arrays.asList("proj", "zone", "south", "lat_0",
+			"lon_0", "k", "k_0", "x_0", "y_0", "ellps", "datum", "towgs84", "units", "no_defs", "type", "wktext");
+
+	private final String definition;
+	private final String datum;
+	private final Ellipsoid ellipsoid;
+	private final double[] toWgs84;
+	private final TransverseMercator projection;
+
+	/**
+	 * @param definition
+	 *            The string the spatial reference was parsed from
+	 * @param datum
+	 *            Name of the datum, or null if it is only described by the
+	 *            ellipsoid and +towgs84 parameters
+	 * @param ellipsoid
+	 *            The datum's ellipsoid
+	 * @param toWgs84
+	 *            Position vector Helmert parameters to WGS84 (PROJ.4
+	 *            +towgs84), or null if unknown
+	 * @param projection
+	 *            The projection, or null for geographic coordinates
+	 */
+	public JavaSpatialReference(String definition, String datum, Ellipsoid ellipsoid, double[] toWgs84,
+			TransverseMercator projection)
+	{
+		this.definition = definition;
+		this.datum = datum;
+		this.ellipsoid = ellipsoid;
+		this.toWgs84 = toWgs84;
+		this.projection = projection;
+	}
+
+	/**
+	 * Parse a spatial reference from an EPSG code or PROJ.4 declaration.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             If the spatial reference is not supported
+	 */
+	public static JavaSpatialReference parse(String srs)
+	{
+		String trimmed = srs == null ? "" : srs.trim();
+		if (trimmed.regionMatches(true, 0, "EPSG:", 0, 5))
+		{
+			try
+			{
+				return fromEpsg(trimmed, Integer.parseInt(trimmed.substring(5).trim()));
+			}
+			catch (NumberFormatException e)
+			{
+				throw new IllegalArgumentException("Invalid EPSG code: " + srs);
+			}
+		}
+		if (trimmed.startsWith("+"))
+		{
+			return fromProj4(trimmed);
+		}
+		throw new IllegalArgumentException("Unsupported spatial reference: " + srs);
+	}
+
+	private static JavaSpatialReference fromEpsg(String definition, int code)
+	{
+		switch (code)
+		{
+		case 4283:
+			return new JavaSpatialReference(definition, GDA94, Ellipsoid.GRS80, NO_SHIFT, null);
+		case 7844:
+			return new JavaSpatialReference(definition, GDA2020, Ellipsoid.GRS80, NO_SHIFT, null);
+		case 4326:
+			return new JavaSpatialReference(definition, WGS84, Ellipsoid.WGS84, NO_SHIFT, null);
+		}
+		if (code >= 28348 && code <= 28358)
+		{
+			return new JavaSpatialReference(definition, GDA94, Ellipsoid.GRS80, NO_SHIFT, TransverseMercator.utm(
+					Ellipsoid.GRS80, code - 28300, true));
+		}
+		if (code >= 7846 && code <= 7859)
+		{
+			return new JavaSpatialReference(definition, GDA2020, Ellipsoid.GRS80, NO_SHIFT, TransverseMercator.utm(
+					Ellipsoid.GRS80, code - 7800, true));
+		}
+		if ((code >= 32601 && code <= 32660) || (code >= 32701 && code <= 32760))
+		{
+			return new JavaSpatialReference(definition, WGS84, Ellipsoid.WGS84, NO_SHIFT, TransverseMercator.utm(
+					Ellipsoid.WGS84, code % 100, code > 32700));
+		}
+		throw new IllegalArgumentException("Unsupported EPSG code: " + definition);
+	}
+
+	private static JavaSpatialReference fromProj4(String definition)
+	{
+		Proj4Parameters parameters = new Proj4Parameters(definition);
+		for (String key : parameters.keys())
+		{
+			if (!SUPPORTED_PROJ4_KEYS.contains(key))
+			{
+				throw new IllegalArgumentException("Unsupported PROJ.4 parameter +" + key + ": " + definition);
+			}
+		}
+		if (parameters.has("units") && !"m".equals(parameters.get("units")))
+		{
+			throw new IllegalArgumentException("Unsupported PROJ.4 units: " + definition);
+		}
+
+		String datum = null;
+		Ellipsoid ellipsoid;
+		double[] toWgs84 = null;
+		if (parameters.has("datum"))
+		{
+			if (!WGS84.equalsIgnoreCase(parameters.get("datum")))
+			{
+				throw new IllegalArgumentException("Unsupported PROJ.4 datum: " + definition);
+			}
+			datum = WGS84;
+			ellipsoid = Ellipsoid.WGS84;
+			toWgs84 = NO_SHIFT;
+		}
+		else
+		{
+			ellipsoid = Ellipsoid.forName(parameters.get("ellps"));
+			if (ellipsoid == null)
+			{
+				throw new IllegalArgumentException("Unsupported PROJ.4 ellipsoid: " + definition);
+			}
+		}
+		if (parameters.has("towgs84"))
+		{
+			double[] values = parameters.getDoubles("towgs84");
+			if (values.length != 3 && values.length != 7)
+			{
+				throw new IllegalArgumentException("PROJ.4 +towgs84 requires 3 or 7 values: " + definition);
+			}
+			toWgs84 = Arrays.copyOf(values, 7);
+		}
+
+		TransverseMercator projection = parameters.createProjection(ellipsoid, true);
+		return new JavaSpatialReference(definition, datum, ellipsoid, toWgs84, projection);
+	}
+
+	/**
+	 * @return The operations that convert coordinates in this spatial
+	 *         reference to coordinates in the target
+	 * @throws IllegalArgumentException
+	 *             If the datum transformation between the spatial references
+	 *             is not known
+	 */
+	public List<CoordinateOperation> operationsTo(JavaSpatialReference target)
+	{
+		List<CoordinateOperation> operations = new ArrayList<CoordinateOperation>();
+		if (projection != null)
+		{
+			operations.add(projection.inverse());
+		}
+
+		CoordinateOperation datumShift = datumShiftTo(target);
+		if (datumShift != null || !ellipsoid.equals(target.ellipsoid))
+		{
+			operations.add(new GeocentricConversion(ellipsoid));
+			if (datumShift != null)
+			{
+				operations.add(datumShift);
+			}
+			operations.add(new GeocentricConversion(target.ellipsoid).inverse());
+		}
+
+		if (target.projection != null)
+		{
+			operations.add(target.projection);
+		}
+		return operations;
+	}
+
+	/**
+	 * @return The geocentric datum shift to the target, or null if none is
+	 *         required
+	 */
+	private CoordinateOperation datumShiftTo(JavaSpatialReference target)
+	{
+		if (datum != null && datum.equals(target.datum))
+		{
+			return null;
+		}
+		if (GDA94.equals(datum) && GDA2020.equals(target.datum))
+		{
+			return Helmert.GDA94_TO_GDA2020;
+		}
+		if (GDA2020.equals(datum) && GDA94.equals(target.datum))
+		{
+			return Helmert.GDA94_TO_GDA2020.inverse();
+		}
+		if (isGda(datum) || isGda(target.datum))
+		{
+			//GDA94 and GDA2020 are only equal to WGS84 to within a couple of metres
+			throw new IllegalArgumentException("No datum transformation known from " + definition + " to "
+					+ target.definition);
+		}
+		if (toWgs84 == null || target.toWgs84 == null)
+		{
+			//as in PROJ.4, no datum shift is applied if either datum is unknown
+			return null;
+		}
+		if (Arrays.equals(toWgs84, target.toWgs84))
+		{
+			return null;
+		}
+		return new Pipeline(Arrays.asList(positionVector(toWgs84), positionVector(target.toWgs84).inverse()));
+	}
+
+	private static boolean isGda(String datum)
+	{
+		return GDA94.equals(datum) || GDA2020.equals(datum);
+	}
+
+	private static CoordinateOperation positionVector(double[] p)
+	{
+		return Helmert.positionVector(p[0], p[1], p[2], p[3], p[4], p[5], p[6]);
+	}
+
+	@Override
+	public String toString()
+	{
+		return definition;
+	}
+
+	/**
+	 * Parameters of a PROJ.4 declaration or pipeline step.
+	 */
+	static class Proj4Parameters
+	{
+		private final String definition;
+		private final List<String> keys = new ArrayList<String>();
+		private final List<String> values = new ArrayList<String>();
+
+		Proj4Parameters(String definition)
+		{
+			this(definition, definition.trim().split("\\s+"));
+		}
+
+		Proj4Parameters(String definition, String[] tokens)
+		{
+			this.definition = definition;
+			for (String token : tokens)
+			{
+				if (!token.startsWith("+") || token.length() < 2)
+				{
+					throw new IllegalArgumentException("Invalid PROJ.4 parameter '" + token + "': " + definition);
+				}
+				int equals = token.indexOf('=');
+				keys.add((equals < 0 ? token.substring(1) : token.substring(1, equals)).toLowerCase(Locale.ENGLISH));
+				values.add(equals < 0 ? null : token.substring(equals + 1));
+			}
+		}
+
+		List<String> keys()
+		{
+			return keys;
+		}
+
+		boolean has(String key)
+		{
+			return keys.contains(key);
+		}
+
+		String get(String key)
+		{
+			int index = keys.indexOf(key);
+			return index < 0 ? null : values.get(index);
+		}
+
+		double getDouble(String key, double defaultValue)
+		{
+			String value = get(key);
+			if (value == null)
+			{
+				return defaultValue;
+			}
+			try
+			{
+				return Double.parseDouble(value);
+			}
+			catch (NumberFormatException e)
+			{
+				throw new IllegalArgumentException("Invalid PROJ.4 +" + key + " value: " + definition);
+			}
+		}
+
+		double[] getDoubles(String key)
+		{
+			String[] split = get(key).split(",");
+			double[] doubles = new double[split.length];
+			for (int i = 0; i < split.length; i++)
+			{
+				try
+				{
+					doubles[i] = Double.parseDouble(split[i].trim());
+				}
+				catch (NumberFormatException e)
+				{
+					throw new IllegalArgumentException("Invalid PROJ.4 +" + key + " value: " + definition);
+				}
+			}
+			return doubles;
+		}
+
+		/**
+		 * @param allowGeographic
+		 *            Accept +proj=longlat (returning null)
+		 * @return The Transverse Mercator projection described by the
+		 *         +proj=utm or +proj=tmerc parameters
+		 */
+		TransverseMercator createProjection(Ellipsoid ellipsoid, boolean allowGeographic)
+		{
+			String proj = get("proj");
+			if (allowGeographic && ("longlat".equals(proj) || "latlong".equals(proj)))
+			{
+				return null;
+			}
+			if ("utm".equals(proj))
+			{
+				if (!has("zone"))
+				{
+					throw new IllegalArgumentException("PROJ.4 +proj=utm requires +zone: " + definition);
+				}
+				return TransverseMercator.utm(ellipsoid, (int) getDouble("zone", 0), has("south"));
+			}
+			if ("tmerc".equals(proj))
+			{
+				double k = getDouble("k_0", getDouble("k", 1));
+				return new TransverseMercator(ellipsoid, getDouble("lat_0", 0), getDouble("lon_0", 0), k, getDouble(
+						"x_0", 0), getDouble("y_0", 0));
+			}
+			throw new IllegalArgumentException("Unsupported PROJ.4 projection: " + definition);
+		}
+	}
+}
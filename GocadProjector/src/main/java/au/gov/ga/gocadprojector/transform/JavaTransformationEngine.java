@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.transform;
+
+/**
+ * Pure Java {@link TransformationEngine}, which requires no native libraries.
+ * Supports transformations between the spatial references parsed by
+ * {@link JavaSpatialReference} (MGA/UTM zone to zone, geographic and
+ * GDA94/GDA2020/WGS84 datum shifts), and PROJ pipelines of affine, Helmert
+ * and Transverse Mercator steps (see {@link Pipeline}).
+ */
+public class JavaTransformationEngine implements TransformationEngine
+{
+	private final CoordinateOperation operation;
+	private final double[] single = new double[3];
+	private double[] flat = new double[0];
+
+	public JavaTransformationEngine(CoordinateOperation operation)
+	{
+		this.operation = operation;
+	}
+
+	/**
+	 * Create an engine that transforms between the given spatial references.
+	 * If the target is a PROJ pipeline, the pipeline is applied directly to
+	 * the source coordinates.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             If either spatial reference, or the transformation between
+	 *             them, is not supported
+	 */
+	public static JavaTransformationEngine create(String sourceSRS, String targetSRS)
+	{
+		if (Pipeline.isPipeline(targetSRS))
+		{
+			return new JavaTransformationEngine(Pipeline.parse(targetSRS));
+		}
+		JavaSpatialReference source = JavaSpatialReference.parse(sourceSRS);
+		JavaSpatialReference target = JavaSpatialReference.parse(targetSRS);
+		return new JavaTransformationEngine(new Pipeline(source.operationsTo(target)));
+	}
+
+	@Override
+	public void transform(double[] out, double x, double y, double z)
+	{
+		single[0] = x;
+		single[1] = y;
+		single[2] = z;
+		operation.transform(single, 1);
+		out[0] = single[0];
+		out[1] = single[1];
+		out[2] = single[2];
+	}
+
+	@Override
+	public void transform(double[][] points)
+	{
+		int count = points.length;
+		if (flat.length < count * 3)
+		{
+			flat = new double[count * 3];
+		}
+		for (int i = 0, j = 0; i < count; i++)
+		{
+			double[] point = points[i];
+			flat[j++] = point[0];
+			flat[j++] = point[1];
+			flat[j++] = point[2];
+		}
+		operation.transform(flat, count);
+		for (int i = 0, j = 0; i < count; i++)
+		{
+			double[] point = points[i];
+			point[0] = flat[j++];
+			point[1] = flat[j++];
+			point[2] = flat[j++];
+		}
+	}
+
+	@Override
+	public void transform(double[] coordinates, int count)
+	{
+		operation.transform(coordinates, count);
+	}
+
+	@Override
+	public void release()
+	{
+	}
+}
@@ -0,0 +1,174 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.transform;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import au.gov.ga.gocadprojector.transform.JavaSpatialReference.Proj4Parameters;
+
+/**
+ * Sequence of {@link CoordinateOperation}s applied in turn.
+ * <p/>
+ * Pipelines can be parsed from a subset of the PROJ pipeline syntax, for
+ * example:
+ * 
+ * <pre>
+ * +proj=pipeline +step +proj=utm +zone=54 +south +ellps=GRS80 +inv
+ *                +step +proj=affine +xoff=0.5 +yoff=-1.2
+ * </pre>
+ * 
+ * Supported steps are <code>affine</code> (+xoff, +yoff, +zoff, +s11 ...
+ * +s33), <code>helmert</code> (+x, +y, +z, +rx, +ry, +rz in arc seconds, +s
+ * in ppm, +convention=position_vector|coordinate_frame), <code>cart</code>,
+ * <code>utm</code> and <code>tmerc</code>, each optionally inverted with
+ * +inv. Unlike PROJ, geographic coordinates passed between steps are in
+ * degrees.
+ */
+public class Pipeline implements CoordinateOperation
+{
+	private final static String[] AFFINE_MATRIX_KEYS = new String[] { "s11", "s12", "s13", "s21", "s22", "s23",
+			"s31", "s32", "s33" };
+	private final static double[] IDENTITY = new double[] { 1, 0, 0, 0, 1, 0, 0, 0, 1 };
+
+	private final CoordinateOperation[] operations;
+
+	public Pipeline(List<CoordinateOperation> operations)
+	{
+		this.operations = operations.toArray(new CoordinateOperation[operations.size()]);
+	}
+
+	@Override
+	public void transform(double[] coordinates, int count)
+	{
+		for (CoordinateOperation operation : operations)
+		{
+			operation.transform(coordinates, count);
+		}
+	}
+
+	@Override
+	public CoordinateOperation inverse()
+	{
+		List<CoordinateOperation> inverses = new ArrayList<CoordinateOperation>(operations.length);
+		for (CoordinateOperation operation : operations)
+		{
+			inverses.add(operation.inverse());
+		}
+		Collections.reverse(inverses);
+		return new Pipeline(inverses);
+	}
+
+	/**
+	 * @return Is the given string a PROJ pipeline declaration?
+	 */
+	public static boolean isPipeline(String definition)
+	{
+		return definition != null && definition.trim().startsWith("+proj=pipeline");
+	}
+
+	/**
+	 * Parse a PROJ pipeline declaration.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             If the pipeline contains unsupported steps or parameters
+	 */
+	public static Pipeline parse(String definition)
+	{
+		if (!isPipeline(definition))
+		{
+			throw new IllegalArgumentException("Not a PROJ pipeline: " + definition);
+		}
+		List<String> tokens = Arrays.asList(definition.trim().split("\\s+"));
+		List<CoordinateOperation> operations = new ArrayList<CoordinateOperation>();
+		int start = tokens.indexOf("+step");
+		if (start != 1)
+		{
+			throw new IllegalArgumentException("Global pipeline parameters are not supported: " + definition);
+		}
+		while (start < tokens.size())
+		{
+			int end = start + 1;
+			while (end < tokens.size() && !"+step".equals(tokens.get(end)))
+			{
+				end++;
+			}
+			List<String> step = tokens.subList(start + 1, end);
+			operations.add(parseStep(definition, new Proj4Parameters(definition, step.toArray(new String[step
+					.size()]))));
+			start = end;
+		}
+		return new Pipeline(operations);
+	}
+
+	private static CoordinateOperation parseStep(String definition, Proj4Parameters step)
+	{
+		String proj = step.get("proj");
+		CoordinateOperation operation;
+		if ("affine".equals(proj))
+		{
+			double[] offset = new double[] { step.getDouble("xoff", 0), step.getDouble("yoff", 0),
+					step.getDouble("zoff", 0) };
+			double[] matrix = new double[9];
+			for (int i = 0; i < matrix.length; i++)
+			{
+				matrix[i] = step.getDouble(AFFINE_MATRIX_KEYS[i], IDENTITY[i]);
+			}
+			operation = new Affine(offset, matrix);
+		}
+		else if ("helmert".equals(proj))
+		{
+			double x = step.getDouble("x", 0), y = step.getDouble("y", 0), z = step.getDouble("z", 0);
+			double rx = step.getDouble("rx", 0), ry = step.getDouble("ry", 0), rz = step.getDouble("rz", 0);
+			double s = step.getDouble("s", 0);
+			String convention = step.get("convention");
+			if (convention == null || "position_vector".equals(convention))
+			{
+				operation = Helmert.positionVector(x, y, z, rx, ry, rz, s);
+			}
+			else if ("coordinate_frame".equals(convention))
+			{
+				operation = Helmert.coordinateFrame(x, y, z, rx, ry, rz, s);
+			}
+			else
+			{
+				throw new IllegalArgumentException("Unsupported Helmert convention: " + definition);
+			}
+		}
+		else if ("cart".equals(proj))
+		{
+			operation = new GeocentricConversion(stepEllipsoid(definition, step));
+		}
+		else
+		{
+			operation = step.createProjection(stepEllipsoid(definition, step), false);
+		}
+		return step.has("inv") ? operation.inverse() : operation;
+	}
+
+	private static Ellipsoid stepEllipsoid(String definition, Proj4Parameters step)
+	{
+		String name = step.has("ellps") ? step.get("ellps") : "GRS80";
+		Ellipsoid ellipsoid = Ellipsoid.forName(name);
+		if (ellipsoid == null)
+		{
+			throw new IllegalArgumentException("Unsupported PROJ ellipsoid: " + definition);
+		}
+		return ellipsoid;
+	}
+}
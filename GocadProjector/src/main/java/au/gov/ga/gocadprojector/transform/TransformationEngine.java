@@ -0,0 +1,59 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.transform;
+
+/**
+ * Transforms coordinates from one spatial reference system to another. Bulk
+ * methods transform arrays of points with a single call, and should be
+ * preferred where many points are available at once.
+ * <p/>
+ * Engines are not required to be thread safe; each thread should use its own
+ * instance.
+ */
+public interface TransformationEngine
+{
+	/**
+	 * Transform a single point.
+	 * 
+	 * @param out
+	 *            Array of length 3 to store the transformed x, y and z in
+	 */
+	void transform(double[] out, double x, double y, double z);
+
+	/**
+	 * Transform an array of points in place.
+	 * 
+	 * @param points
+	 *            Points to transform, each an array of x, y and z
+	 */
+	void transform(double[][] points);
+
+	/**
+	 * Transform an array of interleaved coordinates in place.
+	 * 
+	 * @param coordinates
+	 *            Array containing x, y and z of each point in turn
+	 * @param count
+	 *            Number of points (from the start of the array) to transform
+	 */
+	void transform(double[] coordinates, int count);
+
+	/**
+	 * Release any native resources held by this engine. The engine must not
+	 * be used afterwards.
+	 */
+	void release();
+}
@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.transform;
+
+/**
+ * Factory for {@link TransformationEngine}s by engine name.
+ */
+public class TransformationEngines
+{
+	/**
+	 * Engine that uses GDAL (requires the GDAL native libraries).
+	 */
+	public final static String GDAL = "gdal";
+	/**
+	 * Pure Java engine.
+	 */
+	public final static String JAVA = "java";
+	/**
+	 * Use the Java engine if it supports the spatial references, otherwise
+	 * fall back to GDAL.
+	 */
+	public final static String AUTO = "auto";
+
+	/**
+	 * Create an engine that transforms between the given spatial references.
+	 * 
+	 * @param engine
+	 *            Name of the engine: {@link #GDAL}, {@link #JAVA} or
+	 *            {@link #AUTO}
+	 * @throws IllegalArgumentException
+	 *             If the engine name is unknown, or the engine does not
+	 *             support the spatial references
+	 * @throws IllegalStateException
+	 *             If the GDAL engine is required but the GDAL native
+	 *             libraries could not be loaded
+	 */
+	public static TransformationEngine create(String engine, String sourceSRS, String targetSRS)
+	{
+		if (GDAL.equalsIgnoreCase(engine))
+		{
+			return createGdal(sourceSRS, targetSRS);
+		}
+		if (JAVA.equalsIgnoreCase(engine))
+		{
+			return JavaTransformationEngine.create(sourceSRS, targetSRS);
+		}
+		if (AUTO.equalsIgnoreCase(engine))
+		{
+			try
+			{
+				return JavaTransformationEngine.create(sourceSRS, targetSRS);
+			}
+			catch (IllegalArgumentException e)
+			{
+				return createGdal(sourceSRS, targetSRS);
+			}
+		}
+		throw new IllegalArgumentException("Unknown transformation engine: " + engine);
+	}
+
+	private static TransformationEngine createGdal(String sourceSRS, String targetSRS)
+	{
+		try
+		{
+			return new GdalTransformationEngine(sourceSRS, targetSRS);
+		}
+		catch (LinkageError e)
+		{
+			throw new IllegalStateException("The GDAL native libraries are not available", e);
+		}
+	}
+
+	private TransformationEngines()
+	{
+	}
+}
@@ -0,0 +1,245 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.transform;
+
+/**
+ * Transverse Mercator projection from geographic coordinates (longitude and
+ * latitude in degrees) to eastings and northings in metres. Heights are
+ * unchanged.
+ * <p/>
+ * Uses the Kruger series to sixth order in the third flattening, as described
+ * by Karney (2011), "Transverse Mercator with an accuracy of a few
+ * nanometers". The errors are below a micrometre within 3900km of the central
+ * meridian, so unlike the Redfearn formulae it remains accurate when
+ * projecting into a neighbouring UTM zone.
+ */
+public class TransverseMercator implements CoordinateOperation
+{
+	private final static int ORDER = 6;
+	private final static int MAX_ITERATIONS = 10;
+	private final static double TAU_TOLERANCE = 1e-14;
+
+	private final double centralMeridian;
+	private final double falseEasting;
+	private final double falseNorthing;
+	private final double e;
+	private final double e2;
+	private final double k0A;
+	private final double[] alpha = new double[ORDER + 1];
+	private final double[] beta = new double[ORDER + 1];
+	private final double xi0;
+
+	/**
+	 * @param ellipsoid
+	 *            Ellipsoid of the geographic coordinates
+	 * @param latitudeOfOrigin
+	 *            Latitude of the origin in degrees
+	 * @param centralMeridian
+	 *            Longitude of the central meridian in degrees
+	 * @param scaleFactor
+	 *            Scale factor on the central meridian
+	 * @param falseEasting
+	 *            Easting of the central meridian in metres
+	 * @param falseNorthing
+	 *            Northing of the latitude of origin in metres
+	 */
+	public TransverseMercator(Ellipsoid ellipsoid, double latitudeOfOrigin, double centralMeridian,
+			double scaleFactor, double falseEasting, double falseNorthing)
+	{
+		this.centralMeridian = centralMeridian;
+		this.falseEasting = falseEasting;
+		this.falseNorthing = falseNorthing;
+		this.e = ellipsoid.e;
+		this.e2 = ellipsoid.e2;
+
+		double n = ellipsoid.f / (2 - ellipsoid.f);
+		double n2 = n * n, n3 = n2 * n, n4 = n3 * n, n5 = n4 * n, n6 = n5 * n;
+		double a = ellipsoid.a / (1 + n) * (1 + n2 / 4 + n4 / 64 + n6 / 256);
+		this.k0A = scaleFactor * a;
+
+		alpha[1] = n / 2 - 2 * n2 / 3 + 5 * n3 / 16 + 41 * n4 / 180 - 127 * n5 / 288 + 7891 * n6 / 37800;
+		alpha[2] = 13 * n2 / 48 - 3 * n3 / 5 + 557 * n4 / 1440 + 281 * n5 / 630 - 1983433 * n6 / 1935360;
+		alpha[3] = 61 * n3 / 240 - 103 * n4 / 140 + 15061 * n5 / 26880 + 167603 * n6 / 181440;
+		alpha[4] = 49561 * n4 / 161280 - 179 * n5 / 168 + 6601661 * n6 / 7257600;
+		alpha[5] = 34729 * n5 / 80640 - 3418889 * n6 / 1995840;
+		alpha[6] = 212378941 * n6 / 319334400;
+
+		beta[1] = n / 2 - 2 * n2 / 3 + 37 * n3 / 96 - n4 / 360 - 81 * n5 / 512 + 96199 * n6 / 604800;
+		beta[2] = n2 / 48 + n3 / 15 - 437 * n4 / 1440 + 46 * n5 / 105 - 1118711 * n6 / 3870720;
+		beta[3] = 17 * n3 / 480 - 37 * n4 / 840 - 209 * n5 / 4480 + 5569 * n6 / 90720;
+		beta[4] = 4397 * n4 / 161280 - 11 * n5 / 504 - 830251 * n6 / 7257600;
+		beta[5] = 4583 * n5 / 161280 - 108847 * n6 / 3991680;
+		beta[6] = 20648693 * n6 / 638668800;
+
+		//the northing of the latitude of origin on the central meridian
+		double xiPrime = Math.atan(conformalTau(Math.tan(Math.toRadians(latitudeOfOrigin))));
+		double xi = xiPrime;
+		for (int j = 1; j <= ORDER; j++)
+		{
+			xi += alpha[j] * Math.sin(2 * j * xiPrime);
+		}
+		this.xi0 = xi;
+	}
+
+	/**
+	 * Create a Universal Transverse Mercator projection for the given zone.
+	 * 
+	 * @param south
+	 *            Use the southern hemisphere false northing
+	 */
+	public static TransverseMercator utm(Ellipsoid ellipsoid, int zone, boolean south)
+	{
+		if (zone < 1 || zone > 60)
+		{
+			throw new IllegalArgumentException("Invalid UTM zone: " + zone);
+		}
+		return new TransverseMercator(ellipsoid, 0, zone * 6 - 183, 0.9996, 500000, south ? 10000000 : 0);
+	}
+
+	@Override
+	public void transform(double[] coordinates, int count)
+	{
+		for (int i = 0, end = count * 3; i < end; i += 3)
+		{
+			double lambda = Math.toRadians(normalizeLongitude(coordinates[i] - centralMeridian));
+			double tauPrime = conformalTau(Math.tan(Math.toRadians(coordinates[i + 1])));
+			double cosLambda = Math.cos(lambda);
+			double xiPrime = Math.atan2(tauPrime, cosLambda);
+			double etaPrime = asinh(Math.sin(lambda) / Math.sqrt(tauPrime * tauPrime + cosLambda * cosLambda));
+
+			double xi = xiPrime, eta = etaPrime;
+			double sin2 = Math.sin(2 * xiPrime), cos2 = Math.cos(2 * xiPrime);
+			double sinh2 = Math.sinh(2 * etaPrime), cosh2 = Math.cosh(2 * etaPrime);
+			double sin = sin2, cos = cos2, sinh = sinh2, cosh = cosh2;
+			for (int j = 1; j <= ORDER; j++)
+			{
+				xi += alpha[j] * sin * cosh;
+				eta += alpha[j] * cos * sinh;
+				//angle addition formulae give the terms for the next multiple
+				double nextSin = sin * cos2 + cos * sin2;
+				cos = cos * cos2 - sin * sin2;
+				sin = nextSin;
+				double nextSinh = sinh * cosh2 + cosh * sinh2;
+				cosh = cosh * cosh2 + sinh * sinh2;
+				sinh = nextSinh;
+			}
+
+			coordinates[i] = falseEasting + k0A * eta;
+			coordinates[i + 1] = falseNorthing + k0A * (xi - xi0);
+		}
+	}
+
+	@Override
+	public CoordinateOperation inverse()
+	{
+		return new CoordinateOperation()
+		{
+			@Override
+			public void transform(double[] coordinates, int count)
+			{
+				for (int i = 0, end = count * 3; i < end; i += 3)
+				{
+					double eta = (coordinates[i] - falseEasting) / k0A;
+					double xi = (coordinates[i + 1] - falseNorthing) / k0A + xi0;
+
+					double xiPrime = xi, etaPrime = eta;
+					double sin2 = Math.sin(2 * xi), cos2 = Math.cos(2 * xi);
+					double sinh2 = Math.sinh(2 * eta), cosh2 = Math.cosh(2 * eta);
+					double sin = sin2, cos = cos2, sinh = sinh2, cosh = cosh2;
+					for (int j = 1; j <= ORDER; j++)
+					{
+						xiPrime -= beta[j] * sin * cosh;
+						etaPrime -= beta[j] * cos * sinh;
+						double nextSin = sin * cos2 + cos * sin2;
+						cos = cos * cos2 - sin * sin2;
+						sin = nextSin;
+						double nextSinh = sinh * cosh2 + cosh * sinh2;
+						cosh = cosh * cosh2 + sinh * sinh2;
+						sinh = nextSinh;
+					}
+
+					double sinhEtaPrime = Math.sinh(etaPrime);
+					double cosXiPrime = Math.cos(xiPrime);
+					double tauPrime =
+							Math.sin(xiPrime) / Math.sqrt(sinhEtaPrime * sinhEtaPrime + cosXiPrime * cosXiPrime);
+					double lambda = Math.atan2(sinhEtaPrime, cosXiPrime);
+
+					coordinates[i] = normalizeLongitude(centralMeridian + Math.toDegrees(lambda));
+					coordinates[i + 1] = Math.toDegrees(Math.atan(geographicTau(tauPrime)));
+				}
+			}
+
+			@Override
+			public CoordinateOperation inverse()
+			{
+				return TransverseMercator.this;
+			}
+		};
+	}
+
+	/**
+	 * @return The tangent of the conformal latitude, given the tangent of the
+	 *         geographic latitude
+	 */
+	private double conformalTau(double tau)
+	{
+		double sigma = Math.sinh(e * atanh(e * tau / Math.sqrt(1 + tau * tau)));
+		return tau * Math.sqrt(1 + sigma * sigma) - sigma * Math.sqrt(1 + tau * tau);
+	}
+
+	/**
+	 * @return The tangent of the geographic latitude, given the tangent of the
+	 *         conformal latitude (solved using Newton's method)
+	 */
+	private double geographicTau(double tauPrime)
+	{
+		double tau = tauPrime;
+		for (int i = 0; i < MAX_ITERATIONS; i++)
+		{
+			double tauPrimeI = conformalTau(tau);
+			double delta =
+					(tauPrime - tauPrimeI) / Math.sqrt(1 + tauPrimeI * tauPrimeI) * (1 + (1 - e2) * tau * tau)
+							/ ((1 - e2) * Math.sqrt(1 + tau * tau));
+			tau += delta;
+			if (Math.abs(delta) < TAU_TOLERANCE * Math.max(1, Math.abs(tau)))
+			{
+				break;
+			}
+		}
+		return tau;
+	}
+
+	private static double normalizeLongitude(double longitude)
+	{
+		if (longitude > 180 || longitude < -180)
+		{
+			longitude -= 360 * Math.floor((longitude + 180) / 360);
+		}
+		return longitude;
+	}
+
+	private static double atanh(double x)
+	{
+		return 0.5 * Math.log1p(2 * x / (1 - x));
+	}
+
+	private static double asinh(double x)
+	{
+		double abs = Math.abs(x);
+		double result = Math.log1p(abs + abs * abs / (1 + Math.sqrt(1 + abs * abs)));
+		return x < 0 ? -result : result;
+	}
+}
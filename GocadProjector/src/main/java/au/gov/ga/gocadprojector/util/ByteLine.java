@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.util;
+
+import java.nio.charset.Charset;
+
+/**
+ * {@link CharSequence} view of a region of a byte array, which decodes each
+ * byte as an ISO-8859-1 (Latin-1) character. GOCAD files are ASCII apart from
+ * object names, so this allows lines to be scanned and written back without
+ * decoding them to UTF-16 and encoding them again; every byte is written back
+ * unchanged, whatever the platform's default charset.
+ * <p/>
+ * Views are mutable and are reused for many lines; use {@link #toString()}
+ * to keep a copy of a line.
+ * <p/>
+ * Names that are used outside the file, such as object names and side file
+ * names, are decoded as UTF-8 with {@link #decodeName(CharSequence)}, and
+ * encoded again with {@link #encodeName(String)} when they are written back
+ * to a line.
+ */
+public class ByteLine implements CharSequence
+{
+	public final static Charset LATIN_1 = Charset.forName("ISO-8859-1");
+	public final static Charset UTF_8 = Charset.forName("UTF-8");
+
+	private byte[] bytes;
+	private int start;
+	private int end;
+
+	public ByteLine()
+	{
+		this(new byte[0], 0, 0);
+	}
+
+	public ByteLine(byte[] bytes, int start, int end)
+	{
+		set(bytes, start, end);
+	}
+
+	/**
+	 * Point this view at a region of a byte array.
+	 * 
+	 * @param start
+	 *            Start index of the region
+	 * @param end
+	 *            End index (exclusive) of the region
+	 */
+	public void set(byte[] bytes, int start, int end)
+	{
+		this.bytes = bytes;
+		this.start = start;
+		this.end = end;
+	}
+
+	/**
+	 * @return The array viewed; characters are found from
+	 *         {@link #getOffset()}
+	 */
+	public byte[] getBytes()
+	{
+		return bytes;
+	}
+
+	/**
+	 * @return Index of the first character of this view in the array
+	 */
+	public int getOffset()
+	{
+		return start;
+	}
+
+	@Override
+	public int length()
+	{
+		return end - start;
+	}
+
+	@Override
+	public char charAt(int index)
+	{
+		return (char) (bytes[start + index] & 0xff);
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end)
+	{
+		return new ByteLine(bytes, this.start + start, this.start + end);
+	}
+
+	@Override
+	public String toString()
+	{
+		return new String(bytes, start, end - start, LATIN_1);
+	}
+
+	/**
+	 * Decode a name read from a line (whose characters are its bytes) as
+	 * UTF-8.
+	 */
+	public static String decodeName(CharSequence text)
+	{
+		return new String(text.toString().getBytes(LATIN_1), UTF_8);
+	}
+
+	/**
+	 * Encode a name as UTF-8, as characters that can be written to a line
+	 * (the inverse of {@link #decodeName(CharSequence)}).
+	 */
+	public static String encodeName(String name)
+	{
+		return new String(name.getBytes(UTF_8), LATIN_1);
+	}
+}
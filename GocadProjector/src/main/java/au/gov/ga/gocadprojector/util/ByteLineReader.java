@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads lines of bytes from an input stream, without decoding them to
+ * characters. Lines are terminated by \n, \r or \r\n, as for
+ * {@link java.io.BufferedReader#readLine()}, and are returned as a
+ * {@link ByteLine} view of the reader's buffer.
+ * <p/>
+ * Instances are not thread safe.
+ */
+public class ByteLineReader implements Closeable
+{
+	private final static int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	private final InputStream input;
+	private final ByteLine line = new ByteLine();
+	private byte[] buffer;
+	private int position = 0;
+	private int limit = 0;
+	private long offset = 0;
+	private boolean skipLineFeed = false;
+	private boolean endOfStream = false;
+
+	public ByteLineReader(InputStream input)
+	{
+		this(input, DEFAULT_BUFFER_SIZE);
+	}
+
+	public ByteLineReader(InputStream input, int bufferSize)
+	{
+		this.input = input;
+		this.buffer = new byte[bufferSize];
+	}
+
+	/**
+	 * Read the next line, excluding its terminator.
+	 * 
+	 * @return View of the line, which is only valid until the next call to
+	 *         this method; or null if the end of the stream has been reached
+	 */
+	public ByteLine readLine() throws IOException
+	{
+		int scanned = position;
+		while (true)
+		{
+			if (skipLineFeed)
+			{
+				if (position == limit && !fill())
+				{
+					return null;
+				}
+				skipLineFeed = false;
+				if (buffer[position] == '\n')
+				{
+					position++;
+				}
+				scanned = position;
+			}
+
+			for (int i = scanned; i < limit; i++)
+			{
+				byte b = buffer[i];
+				if (b == '\n' || b == '\r')
+				{
+					line.set(buffer, position, i);
+					position = i + 1;
+					skipLineFeed = b == '\r';
+					return line;
+				}
+			}
+
+			int scannedLength = limit - position;
+			if (!fill())
+			{
+				if (limit > position)
+				{
+					//last line, without a terminator
+					line.set(buffer, position, limit);
+					position = limit;
+					return line;
+				}
+				return null;
+			}
+			scanned = position + scannedLength;
+		}
+	}
+
+	/**
+	 * @return Number of bytes of the stream consumed by the lines read so
+	 *         far, including their terminators. If the last line ended with a
+	 *         carriage return, a line feed following it has not been consumed
+	 *         yet (see {@link #isSkippingLineFeed()}).
+	 */
+	public long getPosition()
+	{
+		return offset + position;
+	}
+
+	/**
+	 * @return True if the last line ended with a carriage return, so a line
+	 *         feed at the current position will be skipped
+	 */
+	public boolean isSkippingLineFeed()
+	{
+		return skipLineFeed;
+	}
+
+	/**
+	 * Skip a line feed at the current position of the stream. Used when
+	 * continuing to read lines from the middle of a stream, after a line that
+	 * ended with a carriage return.
+	 */
+	public void skipLineFeed()
+	{
+		skipLineFeed = true;
+	}
+
+	/**
+	 * Read more bytes into the buffer, moving the unread bytes to its start
+	 * (or growing it if it is full of them).
+	 * 
+	 * @return False if the end of the stream was reached
+	 */
+	private boolean fill() throws IOException
+	{
+		if (endOfStream)
+		{
+			return false;
+		}
+		int unread = limit - position;
+		if (position > 0)
+		{
+			offset += position;
+			System.arraycopy(buffer, position, buffer, 0, unread);
+		}
+		else if (unread == buffer.length)
+		{
+			byte[] grown = new byte[buffer.length * 2];
+			System.arraycopy(buffer, 0, grown, 0, unread);
+			buffer = grown;
+		}
+		position = 0;
+		limit = unread;
+
+		int read;
+		do
+		{
+			read = input.read(buffer, limit, buffer.length - limit);
+		}
+		while (read == 0);
+		if (read < 0)
+		{
+			endOfStream = true;
+			return false;
+		}
+		limit += read;
+		return true;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		input.close();
+	}
+}
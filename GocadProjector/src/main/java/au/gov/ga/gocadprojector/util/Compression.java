@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Transparent compression of GOCAD files and their side files. Compressed
+ * inputs are detected by their magic bytes, whatever their name; outputs are
+ * compressed (with a {@link ParallelGzipOutputStream}) when their name has the
+ * {@link #GZIP_EXTENSION}.
+ * <p/>
+ * Only gzip is supported. Zstandard inputs and outputs are recognised (by
+ * their magic bytes and the {@link #ZSTD_EXTENSION}) so that they fail with a
+ * clear error rather than being read as GOCAD text.
+ */
+public class Compression
+{
+	public final static String GZIP_EXTENSION = ".gz";
+	public final static String ZSTD_EXTENSION = ".zst";
+
+	private final static int BUFFER_SIZE = 64 * 1024;
+	private final static int MAGIC_LENGTH = 4;
+
+	private Compression()
+	{
+	}
+
+	/**
+	 * @return True if the given file starts with the gzip magic bytes (false
+	 *         if it doesn't exist)
+	 */
+	public static boolean isCompressed(File file) throws IOException
+	{
+		InputStream is;
+		try
+		{
+			is = new FileInputStream(file);
+		}
+		catch (FileNotFoundException e)
+		{
+			return false;
+		}
+		try
+		{
+			byte[] magic = new byte[MAGIC_LENGTH];
+			int length = readMagic(is, magic);
+			checkSupported(magic, length, file.getName());
+			return isGzip(magic, length);
+		}
+		finally
+		{
+			is.close();
+		}
+	}
+
+	/**
+	 * @return True if output written to the given file is compressed, ie. its
+	 *         name ends with {@link #GZIP_EXTENSION}
+	 */
+	public static boolean isCompressedName(File file) throws IOException
+	{
+		String name = file.getName().toLowerCase();
+		if (name.endsWith(ZSTD_EXTENSION))
+		{
+			throw new IOException("Zstandard compression is not supported, use gzip (" + GZIP_EXTENSION + "): "
+					+ file);
+		}
+		return name.endsWith(GZIP_EXTENSION);
+	}
+
+	/**
+	 * Wrap a stream read from the start of a file, decompressing it if it
+	 * starts with the gzip magic bytes.
+	 * 
+	 * @param is
+	 *            Stream to read
+	 * @param name
+	 *            Name of the file being read, for error messages
+	 * @return Stream of the decompressed bytes
+	 */
+	public static InputStream decompress(InputStream is, String name) throws IOException
+	{
+		PushbackInputStream pushback = new PushbackInputStream(is, MAGIC_LENGTH);
+		byte[] magic = new byte[MAGIC_LENGTH];
+		int length = readMagic(pushback, magic);
+		pushback.unread(magic, 0, length);
+		checkSupported(magic, length, name);
+		return isGzip(magic, length) ? new GZIPInputStream(pushback, BUFFER_SIZE) : pushback;
+	}
+
+	private static int readMagic(InputStream is, byte[] magic) throws IOException
+	{
+		int length = 0;
+		while (length < magic.length)
+		{
+			int read = is.read(magic, length, magic.length - length);
+			if (read < 0)
+			{
+				break;
+			}
+			length += read;
+		}
+		return length;
+	}
+
+	private static boolean isGzip(byte[] magic, int length)
+	{
+		return length >= 2 && magic[0] == (byte) 0x1f && magic[1] == (byte) 0x8b;
+	}
+
+	private static void checkSupported(byte[] magic, int length, String name) throws IOException
+	{
+		if (length >= 4 && magic[0] == (byte) 0x28 && magic[1] == (byte) 0xb5 && magic[2] == (byte) 0x2f
+				&& magic[3] == (byte) 0xfd)
+		{
+			throw new IOException("Zstandard compressed input is not supported, recompress it with gzip: " + name);
+		}
+	}
+}
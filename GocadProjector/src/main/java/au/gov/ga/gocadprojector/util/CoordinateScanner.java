@@ -0,0 +1,443 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.util;
+
+/**
+ * Scanner that finds the three coordinates in GOCAD vertex, well reference,
+ * axis and SGrid data file lines, without the use of regular expressions or
+ * intermediate Strings.
+ * <p/>
+ * Each scan method accepts exactly the same lines as the regular expression
+ * documented on it. After a successful scan, the coordinate spans can be
+ * retrieved using {@link #getStart(int)} and {@link #getEnd(int)}, and parsed
+ * using {@link #parseCoordinate(CharSequence, int)}.
+ * <p/>
+ * Instances are not thread safe.
+ */
+public class CoordinateScanner
+{
+	public final static int AXIS_OTHER = 0;
+	public final static int AXIS_O = 1;
+	public final static int AXIS_U = 2;
+	public final static int AXIS_V = 3;
+	public final static int AXIS_W = 4;
+	public final static int AXIS_MIN = 5;
+	public final static int AXIS_MAX = 6;
+
+	private final static double[] POWERS_OF_TEN = new double[] { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9,
+			1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+	private final static long MAX_EXACT_MANTISSA = 1L << 53;
+
+	private final int[] starts = new int[3];
+	private final int[] ends = new int[3];
+
+	/**
+	 * Scan a vertex line. Equivalent to matching the regular expression
+	 * <code>(?i)P?VRTX\s+\d+\s+([\d.\-e]+)\s+([\d.\-e]+)\s+([\d.\-e]+).*</code>
+	 * 
+	 * @return True if the line is a vertex line
+	 */
+	public boolean scanVertex(CharSequence line)
+	{
+		int length = line.length();
+		int index = 0;
+		if (index < length && toLowerCase(line.charAt(index)) == 'p')
+		{
+			index++;
+		}
+		index = skipKeyword(line, index, "vrtx");
+		index = skipWhitespace(line, index);
+		index = skipDigits(line, index);
+		index = skipWhitespace(line, index);
+		return scanCoordinates(line, index, true);
+	}
+
+	/**
+	 * Scan a well reference line. Equivalent to matching the regular
+	 * expression
+	 * <code>(?i)WREF\s+([\d.\-e]+)\s+([\d.\-e]+)\s+([\d.\-e]+).*</code>
+	 * 
+	 * @return True if the line is a well reference line
+	 */
+	public boolean scanWellReference(CharSequence line)
+	{
+		int index = skipKeyword(line, 0, "wref");
+		index = skipWhitespace(line, index);
+		return scanCoordinates(line, index, true);
+	}
+
+	/**
+	 * Scan an axis line. Equivalent to matching the regular expression
+	 * <code>(?i)(?:AXIS_(\w+)|(O)RIGIN)\s+([\d.\-e]+)\s+([\d.\-e]+)\s+([\d.\-e]+).*</code>
+	 * 
+	 * @return One of the AXIS_* constants describing the axis type if the
+	 *         line is an axis line, or -1 if it is not
+	 */
+	public int scanAxis(CharSequence line)
+	{
+		int type;
+		int index = skipKeyword(line, 0, "axis_");
+		if (index >= 0)
+		{
+			int typeStart = index;
+			int length = line.length();
+			while (index < length && isWordCharacter(line.charAt(index)))
+			{
+				index++;
+			}
+			if (index == typeStart)
+			{
+				return -1;
+			}
+			type = axisType(line, typeStart, index);
+		}
+		else
+		{
+			index = skipKeyword(line, 0, "origin");
+			type = AXIS_O;
+		}
+		index = skipWhitespace(line, index);
+		return scanCoordinates(line, index, true) ? type : -1;
+	}
+
+	/**
+	 * Scan a line from an SGrid ASCII_DATA_FILE. Equivalent to matching the
+	 * regular expression
+	 * <code>\s*([\d.\-e]+)\s+([\d.\-e]+)\s+([\d.\-e]+).*</code> (note this
+	 * expression is case sensitive).
+	 * 
+	 * @return True if the line starts with three coordinates
+	 */
+	public boolean scanDataFileLine(CharSequence line)
+	{
+		int length = line.length();
+		int index = 0;
+		while (index < length && isWhitespace(line.charAt(index)))
+		{
+			index++;
+		}
+		return scanCoordinates(line, index, false);
+	}
+
+	/**
+	 * @return Start index of the given coordinate (0, 1 or 2) found by the
+	 *         last successful scan
+	 */
+	public int getStart(int coordinate)
+	{
+		return starts[coordinate];
+	}
+
+	/**
+	 * @return End index (exclusive) of the given coordinate (0, 1 or 2) found
+	 *         by the last successful scan
+	 */
+	public int getEnd(int coordinate)
+	{
+		return ends[coordinate];
+	}
+
+	/**
+	 * @return Array containing the start indices of the coordinates found by
+	 *         the last successful scan; the array is reused between scans
+	 */
+	public int[] getStarts()
+	{
+		return starts;
+	}
+
+	/**
+	 * @return Array containing the end indices of the coordinates found by the
+	 *         last successful scan; the array is reused between scans
+	 */
+	public int[] getEnds()
+	{
+		return ends;
+	}
+
+	/**
+	 * Parse the given coordinate found by the last successful scan.
+	 * 
+	 * @see #parseDouble(CharSequence, int, int)
+	 */
+	public double parseCoordinate(CharSequence line, int coordinate)
+	{
+		return parseDouble(line, starts[coordinate], ends[coordinate]);
+	}
+
+	/**
+	 * Parse a double from a region of a character sequence. Returns exactly
+	 * the same result as {@link Double#parseDouble(String)} called with the
+	 * same region, and throws a {@link NumberFormatException} in the same
+	 * cases. Common decimal values are converted without allocation; other
+	 * values fall back to {@link Double#parseDouble(String)}.
+	 * 
+	 * @param s
+	 *            Character sequence to parse from
+	 * @param start
+	 *            Start index of the number
+	 * @param end
+	 *            End index (exclusive) of the number
+	 * @return Parsed value
+	 * @throws NumberFormatException
+	 *             If the region does not contain a parsable double
+	 */
+	public static double parseDouble(CharSequence s, int start, int end) throws NumberFormatException
+	{
+		int index = start;
+		boolean negative = false;
+		if (index < end && s.charAt(index) == '-')
+		{
+			negative = true;
+			index++;
+		}
+
+		long mantissa = 0;
+		int exponent = 0;
+		int digits = 0;
+		boolean exact = true;
+		char c = 0;
+		for (; index < end; index++)
+		{
+			c = s.charAt(index);
+			if (c < '0' || c > '9')
+			{
+				break;
+			}
+			digits++;
+			mantissa = mantissa * 10 + (c - '0');
+			exact &= mantissa <= MAX_EXACT_MANTISSA;
+		}
+		if (index < end && c == '.')
+		{
+			for (index++; index < end; index++)
+			{
+				c = s.charAt(index);
+				if (c < '0' || c > '9')
+				{
+					break;
+				}
+				digits++;
+				mantissa = mantissa * 10 + (c - '0');
+				exponent--;
+				exact &= mantissa <= MAX_EXACT_MANTISSA;
+			}
+		}
+		if (index < end && (c == 'e' || c == 'E') && digits > 0)
+		{
+			index++;
+			boolean negativeExponent = false;
+			if (index < end && s.charAt(index) == '-')
+			{
+				negativeExponent = true;
+				index++;
+			}
+			int exponentStart = index;
+			int explicitExponent = 0;
+			for (; index < end; index++)
+			{
+				c = s.charAt(index);
+				if (c < '0' || c > '9' || explicitExponent > POWERS_OF_TEN.length)
+				{
+					break;
+				}
+				explicitExponent = explicitExponent * 10 + (c - '0');
+			}
+			if (index == exponentStart)
+			{
+				exact = false;
+			}
+			exponent += negativeExponent ? -explicitExponent : explicitExponent;
+		}
+
+		if (exact && digits > 0 && index == end && exponent >= -22 && exponent <= 22)
+		{
+			double value = (double) mantissa;
+			if (exponent < 0)
+			{
+				value /= POWERS_OF_TEN[-exponent];
+			}
+			else
+			{
+				value *= POWERS_OF_TEN[exponent];
+			}
+			return negative ? -value : value;
+		}
+		return Double.parseDouble(s.subSequence(start, end).toString());
+	}
+
+	private boolean scanCoordinates(CharSequence line, int index, boolean ignoreCase)
+	{
+		if (index < 0)
+		{
+			return false;
+		}
+		int length = line.length();
+		for (int i = 0; i < 3; i++)
+		{
+			if (i > 0)
+			{
+				index = skipWhitespace(line, index);
+				if (index < 0)
+				{
+					return false;
+				}
+			}
+			starts[i] = index;
+			while (index < length && isNumberCharacter(line.charAt(index), ignoreCase))
+			{
+				index++;
+			}
+			if (index == starts[i])
+			{
+				return false;
+			}
+			ends[i] = index;
+		}
+		return isRestOfLine(line, index);
+	}
+
+	/**
+	 * @return Index after the keyword, or -1 if the keyword (compared
+	 *         case-insensitively, given in lower case) is not at the index
+	 */
+	private static int skipKeyword(CharSequence line, int index, String keyword)
+	{
+		if (index < 0 || line.length() - index < keyword.length())
+		{
+			return -1;
+		}
+		for (int i = 0; i < keyword.length(); i++)
+		{
+			if (toLowerCase(line.charAt(index + i)) != keyword.charAt(i))
+			{
+				return -1;
+			}
+		}
+		return index + keyword.length();
+	}
+
+	/**
+	 * @return Index after one or more whitespace characters, or -1 if there
+	 *         is no whitespace at the index
+	 */
+	private static int skipWhitespace(CharSequence line, int index)
+	{
+		if (index < 0)
+		{
+			return -1;
+		}
+		int start = index;
+		int length = line.length();
+		while (index < length && isWhitespace(line.charAt(index)))
+		{
+			index++;
+		}
+		return index > start ? index : -1;
+	}
+
+	/**
+	 * @return Index after one or more digits, or -1 if there are no digits at
+	 *         the index
+	 */
+	private static int skipDigits(CharSequence line, int index)
+	{
+		if (index < 0)
+		{
+			return -1;
+		}
+		int start = index;
+		int length = line.length();
+		while (index < length && isDigit(line.charAt(index)))
+		{
+			index++;
+		}
+		return index > start ? index : -1;
+	}
+
+	/**
+	 * @return True if the remainder of the line would be matched by the
+	 *         regular expression <code>.*</code>
+	 */
+	private static boolean isRestOfLine(CharSequence line, int index)
+	{
+		int length = line.length();
+		for (; index < length; index++)
+		{
+			char c = line.charAt(index);
+			if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029')
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int axisType(CharSequence line, int start, int end)
+	{
+		int length = end - start;
+		if (length == 1)
+		{
+			switch (toLowerCase(line.charAt(start)))
+			{
+			case 'o':
+				return AXIS_O;
+			case 'u':
+				return AXIS_U;
+			case 'v':
+				return AXIS_V;
+			case 'w':
+				return AXIS_W;
+			default:
+				return AXIS_OTHER;
+			}
+		}
+		if (skipKeyword(line, start, "min") == end)
+		{
+			return AXIS_MIN;
+		}
+		if (skipKeyword(line, start, "max") == end)
+		{
+			return AXIS_MAX;
+		}
+		return AXIS_OTHER;
+	}
+
+	private static char toLowerCase(char c)
+	{
+		return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+	}
+
+	private static boolean isWhitespace(char c)
+	{
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+
+	private static boolean isDigit(char c)
+	{
+		return c >= '0' && c <= '9';
+	}
+
+	private static boolean isWordCharacter(char c)
+	{
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+	}
+
+	private static boolean isNumberCharacter(char c, boolean ignoreCase)
+	{
+		return (c >= '0' && c <= '9') || c == '.' || c == '-' || c == 'e' || (ignoreCase && c == 'E');
+	}
+}
@@ -0,0 +1,170 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.util;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.io.IOCase;
+import org.apache.commons.io.filefilter.WildcardFileFilter;
+
+/**
+ * Helper class for finding the GOCAD objects to reproject in a directory, and
+ * for naming their reprojected outputs. Shared by the GUI's add directory
+ * dialog and the console's batch mode.
+ */
+public class DirectoryScanner
+{
+	public final static String DEFAULT_FILTER = "*.gp, *.ts, *.pl, *.vo, *.grs, *.sg";
+	public final static String DEFAULT_SUFFIX = "_projected";
+
+	/**
+	 * Split a filter string into its wildcards.
+	 * 
+	 * @param filter
+	 *            Comma or semicolon separated list of wildcards (eg. "*.ts,
+	 *            *.pl")
+	 * @return Array of trimmed wildcards
+	 */
+	public static String[] parseWildcards(String filter)
+	{
+		String[] wildcards = filter.split("[;,]");
+		for (int i = 0; i < wildcards.length; i++)
+		{
+			wildcards[i] = wildcards[i].trim();
+		}
+		return wildcards;
+	}
+
+	/**
+	 * Find the files in a directory whose names match (case-insensitively) any
+	 * of the wildcards in the filter.
+	 * 
+	 * @param directory
+	 *            Directory to search
+	 * @param filter
+	 *            Comma or semicolon separated list of wildcards
+	 * @param recursive
+	 *            Also search the subdirectories of the directory. Each
+	 *            directory is only searched once, so symbolic links to
+	 *            directories that have already been searched (including
+	 *            links to a parent directory) are skipped.
+	 * @return Matching files, sorted by path
+	 */
+	public static List<File> scan(File directory, String filter, boolean recursive)
+	{
+		List<File> files = new ArrayList<File>();
+		FileFilter fileFilter = new WildcardFileFilter(parseWildcards(filter), IOCase.INSENSITIVE);
+		Set<String> visited = new HashSet<String>();
+		visited.add(getCanonicalPath(directory));
+		scan(directory, fileFilter, recursive, files, visited);
+		return files;
+	}
+
+	/**
+	 * @return Canonical path of the file, which resolves symbolic links, or
+	 *         its absolute path if it can't be resolved
+	 */
+	public static String getCanonicalPath(File file)
+	{
+		try
+		{
+			return file.getCanonicalPath();
+		}
+		catch (IOException e)
+		{
+			return file.getAbsolutePath();
+		}
+	}
+
+	private static void scan(File directory, FileFilter filter, boolean recursive, List<File> files,
+			Set<String> visited)
+	{
+		File[] children = directory.listFiles();
+		if (children == null)
+		{
+			return;
+		}
+		Arrays.sort(children);
+		for (File child : children)
+		{
+			if (child.isDirectory())
+			{
+				if (recursive && visited.add(getCanonicalPath(child)))
+				{
+					scan(child, filter, recursive, files, visited);
+				}
+			}
+			else if (filter.accept(child))
+			{
+				files.add(child);
+			}
+		}
+	}
+
+	/**
+	 * Calculate the output file for an input file found in an input
+	 * directory. The output has the same path relative to the output directory
+	 * as the input has to the input directory, with the suffix inserted before
+	 * the filename's extension.
+	 * 
+	 * @param inputDirectory
+	 *            Directory that was scanned
+	 * @param inputFile
+	 *            File found within the input directory (or its
+	 *            subdirectories)
+	 * @param outputDirectory
+	 *            Directory to write outputs to
+	 * @param suffix
+	 *            Suffix to add to the output filename
+	 * @return Output file
+	 */
+	public static File getOutputFile(File inputDirectory, File inputFile, File outputDirectory, String suffix)
+	{
+		String filename = inputFile.getName();
+		int indexOfDot = filename.lastIndexOf('.');
+		filename =
+				indexOfDot >= 0 ? filename.substring(0, indexOfDot) + suffix
+						+ filename.substring(indexOfDot, filename.length()) : filename + suffix;
+
+		List<String> directories = new ArrayList<String>();
+		File root = inputDirectory.getAbsoluteFile();
+		File parent = inputFile.getAbsoluteFile().getParentFile();
+		while (parent != null && !parent.equals(root))
+		{
+			directories.add(0, parent.getName());
+			parent = parent.getParentFile();
+		}
+		if (parent == null)
+		{
+			//input isn't within the input directory; write it directly to the output directory
+			directories.clear();
+		}
+
+		File directory = outputDirectory;
+		for (String name : directories)
+		{
+			directory = new File(directory, name);
+		}
+		return new File(directory, filename);
+	}
+}
@@ -0,0 +1,290 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.util;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOCase;
+import org.apache.commons.io.filefilter.WildcardFileFilter;
+
+/**
+ * Finds the files matching a filter in a directory tree in the background.
+ * Each directory is listed by a separate task on a pool of threads, so deep
+ * trees on high latency (eg. network) file systems are walked concurrently.
+ * Matching files are passed to a {@link Listener} in batches as they are
+ * found, rather than once the whole tree has been walked.
+ * <p/>
+ * The files within each directory are sorted, but as directories are listed
+ * concurrently the batches are not in any particular order.
+ * <p/>
+ * Each directory is only listed once: the canonical paths of the directories
+ * listed are recorded, so symbolic links to directories that have already
+ * been found (including links to a parent directory) are skipped.
+ */
+public class DirectoryWalker
+{
+	public final static int DEFAULT_THREADS = 8;
+	public final static int DEFAULT_BATCH_SIZE = 500;
+
+	private final static long FLUSH_INTERVAL = 250;
+
+	/**
+	 * Receives the files found by a {@link DirectoryWalker}. Methods are
+	 * called on the walker's threads, one at a time.
+	 */
+	public interface Listener
+	{
+		/**
+		 * Called with each batch of matching files.
+		 */
+		void filesFound(List<File> files);
+
+		/**
+		 * Called once after the last batch, when the whole tree has been
+		 * walked or the walk has been cancelled.
+		 * 
+		 * @param cancelled
+		 *            True if the walk was cancelled before it completed
+		 */
+		void finished(boolean cancelled);
+	}
+
+	private final File directory;
+	private final FileFilter filter;
+	private final boolean recursive;
+	private final int threads;
+	private final int batchSize;
+	private final AtomicInteger pending = new AtomicInteger();
+	private final AtomicInteger found = new AtomicInteger();
+	private final AtomicInteger directories = new AtomicInteger();
+	private final List<File> batch = new ArrayList<File>();
+	private final Set<String> visited = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private long lastFlush;
+	private ExecutorService executor;
+	private Listener listener;
+	private volatile boolean cancelled = false;
+
+	/**
+	 * @param directory
+	 *            Directory to search
+	 * @param filter
+	 *            Comma or semicolon separated list of wildcards
+	 * @param recursive
+	 *            Also search the subdirectories of the directory
+	 */
+	public DirectoryWalker(File directory, String filter, boolean recursive)
+	{
+		this(directory, filter, recursive, DEFAULT_THREADS, DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * @param directory
+	 *            Directory to search
+	 * @param filter
+	 *            Comma or semicolon separated list of wildcards
+	 * @param recursive
+	 *            Also search the subdirectories of the directory
+	 * @param threads
+	 *            Number of directories to list at the same time
+	 * @param batchSize
+	 *            Maximum number of files passed to the listener at once
+	 */
+	public DirectoryWalker(File directory, String filter, boolean recursive, int threads, int batchSize)
+	{
+		this.directory = directory;
+		this.filter = new WildcardFileFilter(DirectoryScanner.parseWildcards(filter), IOCase.INSENSITIVE);
+		this.recursive = recursive;
+		this.threads = Math.max(1, threads);
+		this.batchSize = Math.max(1, batchSize);
+	}
+
+	/**
+	 * Start walking the directory tree in the background.
+	 * 
+	 * @param listener
+	 *            Listener to pass the matching files to
+	 */
+	public synchronized void start(Listener listener)
+	{
+		if (executor != null)
+		{
+			throw new IllegalStateException("Walk already started");
+		}
+		this.listener = listener;
+		lastFlush = System.currentTimeMillis();
+		executor = Executors.newFixedThreadPool(threads, new ThreadFactory()
+		{
+			private int count = 0;
+
+			@Override
+			public synchronized Thread newThread(Runnable r)
+			{
+				Thread thread = new Thread(r, "Directory walker " + (++count));
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		visited.add(DirectoryScanner.getCanonicalPath(directory));
+		submit(directory);
+	}
+
+	/**
+	 * Stop walking the tree. Directories that are being listed are finished,
+	 * but their files are not passed to the listener; the listener's
+	 * {@link Listener#finished(boolean)} is called once they have been.
+	 */
+	public void cancel()
+	{
+		cancelled = true;
+	}
+
+	/**
+	 * @return True if the walk has been cancelled
+	 */
+	public boolean isCancelled()
+	{
+		return cancelled;
+	}
+
+	/**
+	 * @return Number of matching files found so far
+	 */
+	public int getFilesFound()
+	{
+		return found.get();
+	}
+
+	/**
+	 * @return Number of directories listed so far
+	 */
+	public int getDirectoriesListed()
+	{
+		return directories.get();
+	}
+
+	private void submit(final File directory)
+	{
+		pending.incrementAndGet();
+		try
+		{
+			executor.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						if (!cancelled)
+						{
+							list(directory);
+						}
+					}
+					finally
+					{
+						directoryFinished();
+					}
+				}
+			});
+		}
+		catch (RejectedExecutionException e)
+		{
+			directoryFinished();
+		}
+	}
+
+	private void list(File directory)
+	{
+		File[] children = directory.listFiles();
+		directories.incrementAndGet();
+		if (children == null)
+		{
+			return;
+		}
+		Arrays.sort(children);
+		List<File> files = new ArrayList<File>();
+		for (File child : children)
+		{
+			if (cancelled)
+			{
+				return;
+			}
+			if (child.isDirectory())
+			{
+				if (recursive && visited.add(DirectoryScanner.getCanonicalPath(child)))
+				{
+					submit(child);
+				}
+			}
+			else if (filter.accept(child))
+			{
+				files.add(child);
+			}
+		}
+		add(files);
+	}
+
+	private synchronized void add(List<File> files)
+	{
+		for (File file : files)
+		{
+			batch.add(file);
+			if (batch.size() >= batchSize)
+			{
+				flush();
+			}
+		}
+		if (!batch.isEmpty() && System.currentTimeMillis() - lastFlush >= FLUSH_INTERVAL)
+		{
+			flush();
+		}
+	}
+
+	private void flush()
+	{
+		if (!cancelled && !batch.isEmpty())
+		{
+			found.addAndGet(batch.size());
+			listener.filesFound(new ArrayList<File>(batch));
+		}
+		batch.clear();
+		lastFlush = System.currentTimeMillis();
+	}
+
+	private void directoryFinished()
+	{
+		if (pending.decrementAndGet() == 0)
+		{
+			synchronized (this)
+			{
+				flush();
+				executor.shutdown();
+				listener.finished(cancelled);
+			}
+		}
+	}
+}
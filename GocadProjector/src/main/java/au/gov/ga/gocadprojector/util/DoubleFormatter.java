@@ -0,0 +1,406 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.util;
+
+/**
+ * Formats doubles directly into a character buffer.
+ * <p/>
+ * Whole numbers are written as integers (without a trailing <code>.0</code>).
+ * Other values are written with the shortest decimal that rounds to the
+ * value, in the format of {@link Double#toString(double)}. Values between
+ * 10<sup>-3</sup> and 10<sup>7</sup> (which covers most coordinates) are
+ * converted using exact integer arithmetic without allocation; any other
+ * value is delegated to {@link Double#toString(double)}.
+ * <p/>
+ * A fixed precision mode is also provided, which rounds values to a given
+ * number of decimal places and removes trailing zeros.
+ */
+public class DoubleFormatter
+{
+	/**
+	 * Maximum number of characters written by the format methods.
+	 */
+	public final static int MAX_LENGTH = 32;
+
+	private final static long[] POWERS_OF_TEN = new long[19];
+	private final static double[] DOUBLE_POWERS_OF_TEN = new double[19];
+	static
+	{
+		long p = 1;
+		for (int i = 0; i < POWERS_OF_TEN.length; i++)
+		{
+			POWERS_OF_TEN[i] = p;
+			DOUBLE_POWERS_OF_TEN[i] = p;
+			p *= 10;
+		}
+	}
+
+	private final static int MAX_DIGITS = 17;
+	private final static int SIGNIFICAND_BITS = 52;
+	private final static long SIGNIFICAND_MASK = (1L << SIGNIFICAND_BITS) - 1;
+	private final static int EXPONENT_BIAS = 1075;
+
+	private DoubleFormatter()
+	{
+	}
+
+	/**
+	 * Format the given value using the shortest decimal representation that
+	 * rounds to the value. Produces the same characters as
+	 * <code>(long) value == value ? Long.toString((long) value) : Double.toString(value)</code>
+	 * 
+	 * @param value
+	 *            Value to format
+	 * @param buffer
+	 *            Buffer to write into; must have at least {@link #MAX_LENGTH}
+	 *            characters available after the offset
+	 * @param offset
+	 *            Offset to start writing at
+	 * @return Offset after the last character written
+	 */
+	public static int format(double value, char[] buffer, int offset)
+	{
+		long l = (long) value;
+		if (l == value)
+		{
+			return formatLong(l, buffer, offset);
+		}
+
+		double abs = Math.abs(value);
+		if (abs >= 1e-3 && abs < 1e7)
+		{
+			long bits = Double.doubleToRawLongBits(abs);
+			long significand = (bits & SIGNIFICAND_MASK) | (1L << SIGNIFICAND_BITS);
+			int shift = EXPONENT_BIAS - (int) (bits >>> SIGNIFICAND_BITS);
+			boolean lowerBoundaryCloser = (bits & SIGNIFICAND_MASK) == 0;
+			boolean even = (significand & 1) == 0;
+
+			//the shortest round trip decimal has k fraction digits, where k is
+			//the smallest value for which the nearest k digit decimal rounds to
+			//the value; this property is monotonic in k, so binary search
+			int integerDigits = abs < 1 ? 0 : digitCount((long) abs);
+			int low = 1;
+			int high = MAX_DIGITS - integerDigits + (abs < 1 ? leadingFractionZeros(abs) : 0);
+			high = Math.min(high, POWERS_OF_TEN.length - 1);
+			if (high > 0)
+			{
+				long best = -1;
+				int bestDigits = 0;
+				while (low <= high)
+				{
+					int k = (low + high) >>> 1;
+					long q = roundTrip(significand, shift, k, lowerBoundaryCloser, even);
+					if (q >= 0)
+					{
+						best = q;
+						bestDigits = k;
+						high = k - 1;
+					}
+					else
+					{
+						low = k + 1;
+					}
+				}
+				if (best >= 0)
+				{
+					if (value < 0)
+					{
+						buffer[offset++] = '-';
+					}
+					return formatDecimal(best, bestDigits, buffer, offset);
+				}
+			}
+		}
+
+		String s = Double.toString(value);
+		s.getChars(0, s.length(), buffer, offset);
+		return offset + s.length();
+	}
+
+	/**
+	 * Format the given value rounded to the given number of decimal places
+	 * (using round half even), without trailing zeros. Whole numbers are
+	 * written as integers. Values too large to be represented with the given
+	 * precision are formatted using {@link #format(double, char[], int)}.
+	 * 
+	 * @param value
+	 *            Value to format
+	 * @param decimals
+	 *            Number of decimal places to round to
+	 * @param buffer
+	 *            Buffer to write into; must have at least {@link #MAX_LENGTH}
+	 *            characters available after the offset
+	 * @param offset
+	 *            Offset to start writing at
+	 * @return Offset after the last character written
+	 */
+	public static int formatFixed(double value, int decimals, char[] buffer, int offset)
+	{
+		double abs = Math.abs(value);
+		if (decimals < 0 || decimals >= POWERS_OF_TEN.length || !(abs * DOUBLE_POWERS_OF_TEN[decimals] < 1e18))
+		{
+			return format(value, buffer, offset);
+		}
+		if (abs == 0)
+		{
+			return formatLong(0, buffer, offset);
+		}
+
+		long bits = Double.doubleToRawLongBits(abs);
+		int exponent = (int) (bits >>> SIGNIFICAND_BITS);
+		long significand = bits & SIGNIFICAND_MASK;
+		if (exponent != 0)
+		{
+			significand |= 1L << SIGNIFICAND_BITS;
+		}
+		else
+		{
+			exponent = 1;
+		}
+		int shift = EXPONENT_BIAS - exponent;
+
+		long q;
+		if (shift <= 0)
+		{
+			//value is a whole number (and < 10^18)
+			q = (significand << -shift) * POWERS_OF_TEN[decimals];
+		}
+		else
+		{
+			long hi = multiplyHigh(significand, POWERS_OF_TEN[decimals]);
+			long lo = significand * POWERS_OF_TEN[decimals];
+			q = nearest(hi, lo, shift);
+			if (q < 0)
+			{
+				return format(value, buffer, offset);
+			}
+		}
+
+		int fractionDigits = decimals;
+		while (fractionDigits > 0 && q % 10 == 0)
+		{
+			q /= 10;
+			fractionDigits--;
+		}
+		if (q != 0 && value < 0)
+		{
+			buffer[offset++] = '-';
+		}
+		if (fractionDigits == 0)
+		{
+			return formatLong(q, buffer, offset);
+		}
+		return formatDecimal(q, fractionDigits, buffer, offset);
+	}
+
+	/**
+	 * Format the given value in the format of {@link Long#toString(long)}.
+	 * 
+	 * @return Offset after the last character written
+	 */
+	public static int formatLong(long value, char[] buffer, int offset)
+	{
+		if (value == Long.MIN_VALUE)
+		{
+			String s = Long.toString(value);
+			s.getChars(0, s.length(), buffer, offset);
+			return offset + s.length();
+		}
+		if (value < 0)
+		{
+			buffer[offset++] = '-';
+			value = -value;
+		}
+		int end = offset + digitCount(value);
+		int index = end;
+		do
+		{
+			buffer[--index] = (char) ('0' + (value % 10));
+			value /= 10;
+		}
+		while (value != 0);
+		return end;
+	}
+
+	/**
+	 * Calculate the k digit decimal nearest to the value significand *
+	 * 2^-shift, and test if it rounds back to the value.
+	 * 
+	 * @return The decimal multiplied by 10^k if it rounds back to the value,
+	 *         otherwise -1
+	 */
+	private static long roundTrip(long significand, int shift, int k, boolean lowerBoundaryCloser, boolean even)
+	{
+		long power = POWERS_OF_TEN[k];
+		long hi = multiplyHigh(significand, power);
+		long lo = significand * power;
+		if ((hi >>> shift) != 0)
+		{
+			return -1;
+		}
+		long q = (hi << (64 - shift)) | (lo >>> shift);
+		if (q < 0 || q == Long.MAX_VALUE)
+		{
+			return -1;
+		}
+
+		//distances (scaled by 2^shift * 10^k) from the value to the decimals
+		//either side of it; the value rounds to a decimal if the decimal lies
+		//within half an ulp (the gap below powers of two is half the size)
+		long distanceBelow = lo & ((1L << shift) - 1);
+		long distanceAbove = (1L << shift) - distanceBelow;
+		long limitBelow = lowerBoundaryCloser ? power / 2 : power;
+		boolean belowValid = withinLimit(distanceBelow, limitBelow, even);
+		boolean aboveValid = distanceBelow != 0 && withinLimit(distanceAbove, power, even);
+
+		if (belowValid && aboveValid)
+		{
+			//choose the nearest, or the even one if equally near
+			if (distanceBelow < distanceAbove || (distanceBelow == distanceAbove && (q & 1) == 0))
+			{
+				return q;
+			}
+			return q + 1;
+		}
+		if (belowValid)
+		{
+			return q;
+		}
+		if (aboveValid)
+		{
+			return q + 1;
+		}
+		return -1;
+	}
+
+	private static boolean withinLimit(long distance, long limit, boolean inclusive)
+	{
+		long doubleDistance = distance * 2;
+		return doubleDistance < limit || (inclusive && doubleDistance == limit);
+	}
+
+	/**
+	 * @return The unsigned 128 bit value (hi:lo) divided by 2^shift, rounded
+	 *         to the nearest integer (ties to even), or -1 if the result
+	 *         doesn't fit in a long
+	 */
+	private static long nearest(long hi, long lo, int shift)
+	{
+		long q;
+		int comparison;
+		if (shift >= 128)
+		{
+			return 0;
+		}
+		if (shift >= 64)
+		{
+			int s = shift - 64;
+			q = s == 0 ? hi : hi >>> s;
+			long remainderHi = s == 0 ? 0 : hi & ((1L << s) - 1);
+			long halfHi = s == 0 ? 0 : 1L << (s - 1);
+			if (s == 0)
+			{
+				//half is 2^63 in the low word
+				comparison = lo == Long.MIN_VALUE ? 0 : (lo < 0 ? 1 : -1);
+			}
+			else
+			{
+				comparison = remainderHi != halfHi ? (remainderHi > halfHi ? 1 : -1) : (lo != 0 ? 1 : 0);
+			}
+		}
+		else
+		{
+			if ((hi >>> shift) != 0)
+			{
+				return -1;
+			}
+			q = (hi << (64 - shift)) | (lo >>> shift);
+			long remainder = lo & ((1L << shift) - 1);
+			long half = 1L << (shift - 1);
+			comparison = remainder != half ? (remainder > half ? 1 : -1) : 0;
+		}
+		if (q < 0 || q == Long.MAX_VALUE)
+		{
+			return -1;
+		}
+		if (comparison > 0 || (comparison == 0 && (q & 1) == 1))
+		{
+			q++;
+		}
+		return q;
+	}
+
+	/**
+	 * @return The high 64 bits of the unsigned 128 bit product of a and b
+	 */
+	private static long multiplyHigh(long a, long b)
+	{
+		long a0 = a & 0xffffffffL;
+		long a1 = a >>> 32;
+		long b0 = b & 0xffffffffL;
+		long b1 = b >>> 32;
+		long p00 = a0 * b0;
+		long p01 = a0 * b1;
+		long p10 = a1 * b0;
+		long p11 = a1 * b1;
+		long middle = (p00 >>> 32) + (p01 & 0xffffffffL) + (p10 & 0xffffffffL);
+		return p11 + (p01 >>> 32) + (p10 >>> 32) + (middle >>> 32);
+	}
+
+	/**
+	 * Write q / 10^fractionDigits as a plain decimal with exactly the given
+	 * number of fraction digits.
+	 */
+	private static int formatDecimal(long q, int fractionDigits, char[] buffer, int offset)
+	{
+		long integer = q / POWERS_OF_TEN[fractionDigits];
+		long fraction = q - integer * POWERS_OF_TEN[fractionDigits];
+		offset = formatLong(integer, buffer, offset);
+		buffer[offset++] = '.';
+		int end = offset + fractionDigits;
+		for (int index = end; index > offset;)
+		{
+			buffer[--index] = (char) ('0' + (fraction % 10));
+			fraction /= 10;
+		}
+		return end;
+	}
+
+	private static int digitCount(long value)
+	{
+		int digits = 1;
+		while (digits < POWERS_OF_TEN.length && value >= POWERS_OF_TEN[digits])
+		{
+			digits++;
+		}
+		return digits;
+	}
+
+	/**
+	 * @return Number of zeros between the decimal point and the first
+	 *         significant digit of a value less than 1
+	 */
+	private static int leadingFractionZeros(double abs)
+	{
+		int zeros = 0;
+		while (abs < 0.1)
+		{
+			abs *= 10;
+			zeros++;
+		}
+		return zeros;
+	}
+}
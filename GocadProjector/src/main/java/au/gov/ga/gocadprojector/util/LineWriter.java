@@ -0,0 +1,216 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.util;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Buffered writer used for writing GOCAD lines. Regions of the input lines
+ * and reprojected coordinates are copied directly into a reusable byte
+ * buffer, so that writing a line does not allocate any objects.
+ * <p/>
+ * Characters are written as ISO-8859-1 (Latin-1) bytes, so that lines read
+ * as {@link ByteLine}s are written back unchanged; characters outside
+ * Latin-1 are written as '?'. Every line is terminated with CRLF.
+ */
+public class LineWriter implements Closeable, Flushable
+{
+	private final static int DEFAULT_BUFFER_SIZE = 64 * 1024;
+	private final static int MAX_NUMBER_LENGTH = DoubleFormatter.MAX_LENGTH;
+
+	private final OutputStream output;
+	private final byte[] buffer;
+	private final char[] number = new char[MAX_NUMBER_LENGTH];
+	private int position = 0;
+	private int precision = -1;
+
+	public LineWriter(OutputStream output)
+	{
+		this(output, DEFAULT_BUFFER_SIZE);
+	}
+
+	public LineWriter(OutputStream output, int bufferSize)
+	{
+		this.output = output;
+		this.buffer = new byte[Math.max(bufferSize, MAX_NUMBER_LENGTH)];
+	}
+
+	/**
+	 * @return Number of decimal places coordinates are rounded to, or -1 if
+	 *         they are written with the shortest round trip representation
+	 */
+	public int getPrecision()
+	{
+		return precision;
+	}
+
+	/**
+	 * Set the number of decimal places to round written coordinates to. A
+	 * negative value writes the shortest representation that round trips.
+	 */
+	public void setPrecision(int precision)
+	{
+		this.precision = precision;
+	}
+
+	/**
+	 * Write the given line, followed by a new line.
+	 */
+	public void writeLine(CharSequence line) throws IOException
+	{
+		write(line, 0, line.length());
+		newLine();
+	}
+
+	/**
+	 * Write the given line followed by a new line, replacing the three
+	 * coordinate regions in the line with the given values.
+	 * 
+	 * @param line
+	 *            Line to write
+	 * @param starts
+	 *            Start indices of the three coordinates within the line
+	 * @param ends
+	 *            End indices of the three coordinates within the line
+	 */
+	public void writeLine(CharSequence line, int[] starts, int[] ends, double x, double y, double z)
+			throws IOException
+	{
+		write(line, 0, starts[0]);
+		write(x);
+		write(line, ends[0], starts[1]);
+		write(y);
+		write(line, ends[1], starts[2]);
+		write(z);
+		write(line, ends[2], line.length());
+		newLine();
+	}
+
+	/**
+	 * Write a region of the given character sequence.
+	 */
+	public void write(CharSequence s, int start, int end) throws IOException
+	{
+		while (start < end)
+		{
+			if (position == buffer.length)
+			{
+				flushBuffer();
+			}
+			int count = Math.min(end - start, buffer.length - position);
+			if (s instanceof ByteLine)
+			{
+				ByteLine line = (ByteLine) s;
+				System.arraycopy(line.getBytes(), line.getOffset() + start, buffer, position, count);
+				position += count;
+				start += count;
+			}
+			else
+			{
+				for (int i = 0; i < count; i++)
+				{
+					char c = s.charAt(start++);
+					buffer[position++] = (byte) (c <= 0xff ? c : '?');
+				}
+			}
+		}
+	}
+
+	/**
+	 * Write the given value using the {@link DoubleFormatter}, rounded to
+	 * the precision if one is set.
+	 */
+	public void write(double value) throws IOException
+	{
+		int length;
+		if (precision < 0)
+		{
+			length = DoubleFormatter.format(value, number, 0);
+		}
+		else
+		{
+			length = DoubleFormatter.formatFixed(value, precision, number, 0);
+		}
+		writeNumber(length);
+	}
+
+	/**
+	 * Write the given value in the format of {@link Long#toString(long)}.
+	 */
+	public void write(long value) throws IOException
+	{
+		writeNumber(DoubleFormatter.formatLong(value, number, 0));
+	}
+
+	public void newLine() throws IOException
+	{
+		ensureCapacity(2);
+		buffer[position++] = '\r';
+		buffer[position++] = '\n';
+	}
+
+	@Override
+	public void flush() throws IOException
+	{
+		flushBuffer();
+		output.flush();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		try
+		{
+			flushBuffer();
+		}
+		finally
+		{
+			output.close();
+		}
+	}
+
+	/**
+	 * Copy the formatted number (which is always ASCII) into the buffer.
+	 */
+	private void writeNumber(int length) throws IOException
+	{
+		ensureCapacity(length);
+		for (int i = 0; i < length; i++)
+		{
+			buffer[position++] = (byte) number[i];
+		}
+	}
+
+	private void ensureCapacity(int count) throws IOException
+	{
+		if (buffer.length - position < count)
+		{
+			flushBuffer();
+		}
+	}
+
+	private void flushBuffer() throws IOException
+	{
+		if (position > 0)
+		{
+			output.write(buffer, 0, position);
+			position = 0;
+		}
+	}
+}
@@ -0,0 +1,262 @@
+/*******************************************************************************
+ * Copyright 2013 Geoscience Australia
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package au.gov.ga.gocadprojector.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * An {@link OutputStream} that writes gzip compressed data, compressing
+ * blocks of the data concurrently on a pool of threads (in the same way as
+ * pigz).
+ * <p/>
+ * The data is split into blocks of {@link #BLOCK_SIZE} bytes. Each block is
+ * deflated independently, using the last 32KB of the previous block as the
+ * preset dictionary so that the compression ratio is close to compressing
+ * the whole stream at once, and is ended with a sync flush so that the
+ * compressed blocks can simply be concatenated. The result is a single
+ * standard gzip member, readable by any gzip implementation. The CRC of the
+ * data is calculated as it is written, and the number of blocks being
+ * compressed is bounded, so memory use doesn't depend on the size of the
+ * data.
+ */
+public class ParallelGzipOutputStream extends OutputStream
+{
+	public final static int BLOCK_SIZE = 128 * 1024;
+
+	private final static int DICTIONARY_SIZE = 32 * 1024;
+	private final static byte[] HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+
+	private final OutputStream out;
+	private final int maxBlocks;
+	private final ExecutorService executor;
+	private final Queue<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+	private final CRC32 crc = new CRC32();
+	private long size = 0;
+	private byte[] block = new byte[BLOCK_SIZE];
+	private int blockLength = 0;
+	private byte[] dictionary = null;
+	private boolean closed = false;
+
+	/**
+	 * @param out
+	 *            Stream to write the compressed data to
+	 * @param threads
+	 *            Number of threads to compress with
+	 */
+	public ParallelGzipOutputStream(OutputStream out, int threads) throws IOException
+	{
+		this.out = out;
+		threads = Math.max(1, threads);
+		this.maxBlocks = threads * 2;
+		this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory()
+		{
+			private int count = 0;
+
+			@Override
+			public synchronized Thread newThread(Runnable r)
+			{
+				Thread thread = new Thread(r, "Gzip compressor " + (++count));
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		out.write(HEADER);
+	}
+
+	@Override
+	public void write(int b) throws IOException
+	{
+		if (blockLength == BLOCK_SIZE)
+		{
+			submitBlock(false);
+		}
+		block[blockLength++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException
+	{
+		while (len > 0)
+		{
+			if (blockLength == BLOCK_SIZE)
+			{
+				submitBlock(false);
+			}
+			int count = Math.min(len, BLOCK_SIZE - blockLength);
+			System.arraycopy(b, off, block, blockLength, count);
+			blockLength += count;
+			off += count;
+			len -= count;
+		}
+	}
+
+	/**
+	 * Write the blocks that have been compressed so far, and flush the
+	 * underlying stream. Data in the current (incomplete) block is not
+	 * compressed until the block is full or the stream is closed.
+	 */
+	@Override
+	public void flush() throws IOException
+	{
+		while (!pending.isEmpty() && pending.peek().isDone())
+		{
+			writeBlock();
+		}
+		out.flush();
+	}
+
+	/**
+	 * Compress the remaining data, write the gzip trailer, and close the
+	 * underlying stream.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		if (closed)
+		{
+			return;
+		}
+		closed = true;
+		try
+		{
+			submitBlock(true);
+			while (!pending.isEmpty())
+			{
+				writeBlock();
+			}
+			writeInt((int) crc.getValue());
+			writeInt((int) size);
+		}
+		finally
+		{
+			executor.shutdownNow();
+			out.close();
+		}
+	}
+
+	private void submitBlock(boolean last) throws IOException
+	{
+		if (closed && !last)
+		{
+			throw new IOException("Stream closed");
+		}
+		while (pending.size() >= maxBlocks)
+		{
+			writeBlock();
+		}
+		final byte[] data = block;
+		final int length = blockLength;
+		final byte[] preset = dictionary;
+		final boolean finish = last;
+		crc.update(data, 0, length);
+		size += length;
+		pending.add(executor.submit(new Callable<byte[]>()
+		{
+			@Override
+			public byte[] call() throws Exception
+			{
+				return deflate(data, length, preset, finish);
+			}
+		}));
+
+		if (length >= DICTIONARY_SIZE)
+		{
+			dictionary = new byte[DICTIONARY_SIZE];
+			System.arraycopy(data, length - DICTIONARY_SIZE, dictionary, 0, DICTIONARY_SIZE);
+		}
+		block = new byte[BLOCK_SIZE];
+		blockLength = 0;
+	}
+
+	private static byte[] deflate(byte[] data, int length, byte[] dictionary, boolean finish)
+	{
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		try
+		{
+			if (dictionary != null)
+			{
+				deflater.setDictionary(dictionary);
+			}
+			deflater.setInput(data, 0, length);
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 2 + 64);
+			byte[] buffer = new byte[64 * 1024];
+			if (finish)
+			{
+				deflater.finish();
+				while (!deflater.finished())
+				{
+					int count = deflater.deflate(buffer);
+					compressed.write(buffer, 0, count);
+				}
+			}
+			else
+			{
+				//a sync flush ends the block on a byte boundary, so the next block can follow it
+				int count;
+				do
+				{
+					count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+					compressed.write(buffer, 0, count);
+				}
+				while (count == buffer.length);
+			}
+			return compressed.toByteArray();
+		}
+		finally
+		{
+			deflater.end();
+		}
+	}
+
+	private void writeBlock() throws IOException
+	{
+		byte[] compressed;
+		try
+		{
+			compressed = pending.remove().get();
+		}
+		catch (InterruptedException e)
+		{
+			throw new InterruptedIOException("Interrupted while compressing");
+		}
+		catch (ExecutionException e)
+		{
+			throw new IOException("Error compressing", e.getCause());
+		}
+		out.write(compressed);
+	}
+
+	private void writeInt(int value) throws IOException
+	{
+		out.write(value & 0xff);
+		out.write((value >>> 8) & 0xff);
+		out.write((value >>> 16) & 0xff);
+		out.write((value >>> 24) & 0xff);
+	}
+}